@@ -4,7 +4,9 @@ import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.joran.JoranConfigurator;
 import ch.qos.logback.core.joran.spi.JoranException;
 import com.beust.jcommander.JCommander;
+import com.elastic.support.diagnostics.CollectionServer;
 import com.elastic.support.diagnostics.CollectionService;
+import com.elastic.support.diagnostics.CollectorAgent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,10 +52,15 @@ public class CollectorApp {
             }
         }
 
-        CollectionService collectionService = new CollectionService();
-
         try {
-            collectionService.run(inputs);
+            if (inputs.isAgent()) {
+                new CollectorAgent().run(inputs);
+            } else if (inputs.isServe()) {
+                // The server's threads keep the process running
+                new CollectionServer(inputs).start();
+            } else {
+                new CollectionService().run(inputs);
+            }
         }
         catch (RuntimeException re){
             System.out.println("An error occurred while retrieving statistics. " + re.getMessage());
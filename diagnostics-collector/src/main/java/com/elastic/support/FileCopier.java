@@ -0,0 +1,208 @@
+package com.elastic.support;
+
+import com.elastic.support.concurrent.BoundedExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Copies files with FileChannel transfers, looping until every byte has been moved
+ * since a single transfer is allowed to come up short.  Files above the parallel
+ * threshold can be split into ranges that are copied concurrently with positional
+ * reads and writes.  The copy is always checked for size and can optionally be
+ * checked byte for byte with a CRC.
+ */
+public class FileCopier {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileCopier.class);
+
+    public static final long DEFAULT_PARALLEL_THRESHOLD = 256L * 1024 * 1024;
+    public static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
+    static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final int threads;
+    private final long parallelThreshold;
+    private final long chunkSize;
+    private final boolean verify;
+    private final BoundedExecutor.Mode mode;
+    private ExecutorService pool;
+
+    public FileCopier() {
+        this(1, DEFAULT_PARALLEL_THRESHOLD, false);
+    }
+
+    public FileCopier(int threads, long parallelThreshold, boolean verify) {
+        this(threads, parallelThreshold, verify, BoundedExecutor.Mode.AUTO);
+    }
+
+    public FileCopier(int threads, long parallelThreshold, boolean verify, BoundedExecutor.Mode mode) {
+        this(threads, parallelThreshold, DEFAULT_CHUNK_SIZE, verify, mode);
+    }
+
+    /**
+     * @param chunkSize the length of the ranges a file above the parallel threshold is split into
+     */
+    public FileCopier(int threads, long parallelThreshold, long chunkSize, boolean verify, BoundedExecutor.Mode mode) {
+        this.threads = Math.max(1, threads);
+        this.parallelThreshold = parallelThreshold;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.verify = verify;
+        this.mode = mode;
+    }
+
+    /**
+     * Copy the source from the given offset to its current end.  Content appended
+     * while the copy runs is left for the next one.
+     *
+     * @return the source offset the copy ended at, or -1 if it failed
+     */
+    public long copy(String src, String dest, long position) {
+
+        logger.debug("source:" + src + " dest:" + dest);
+        long start = System.nanoTime();
+
+        try (FileChannel source = new FileInputStream(src).getChannel();
+             RandomAccessFile destFile = new RandomAccessFile(dest, "rw")) {
+
+            FileChannel destination = destFile.getChannel();
+            destFile.setLength(0);
+
+            long end = source.size();
+            long count = Math.max(0, end - position);
+
+            if (threads > 1 && count > parallelThreshold) {
+                copyRanges(source, destination, position, count);
+            } else {
+                transfer(source, destination, position, count);
+            }
+
+            if (destination.size() != count) {
+                throw new IOException("Copy of " + src + " is incomplete: expected " + count + " bytes but wrote " + destination.size());
+            }
+
+            if (verify) {
+                long expected = checksum(source, position, count);
+                long actual = checksum(destination, 0, count);
+                if (expected != actual) {
+                    throw new IOException("Copy of " + src + " does not match the source checksum.");
+                }
+            }
+
+            logThroughput(src, count, System.nanoTime() - start);
+            return end;
+
+        } catch (IOException | InterruptedException | ExecutionException | RuntimeException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            logger.error("Problem copying file: " + src + " to " + dest, e);
+            return -1;
+        }
+    }
+
+    static void transfer(FileChannel source, FileChannel destination, long position, long count) throws IOException {
+
+        long done = 0;
+        while (done < count) {
+            long moved = source.transferTo(position + done, count - done, destination);
+            if (moved <= 0) {
+                // Some channels stop transferring early - finish with plain positional I/O
+                copyRange(source, destination, position + done, done, count - done);
+                return;
+            }
+            done += moved;
+        }
+    }
+
+    private void copyRanges(final FileChannel source, final FileChannel destination, final long position, long count)
+            throws InterruptedException, ExecutionException {
+
+        List<Future<Void>> results = new ArrayList<>();
+        for (long offset = 0; offset < count; offset += chunkSize) {
+            final long rangeStart = offset;
+            final long rangeLength = Math.min(chunkSize, count - offset);
+            results.add(getPool().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    copyRange(source, destination, position + rangeStart, rangeStart, rangeLength);
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            for (Future<Void> result : results) {
+                result.cancel(true);
+            }
+        }
+    }
+
+    static void copyRange(FileChannel source, FileChannel destination, long srcPos, long destPos, long length) throws IOException {
+
+        ByteBuffer buf = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, length));
+        long done = 0;
+        while (done < length) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), length - done));
+            int read = source.read(buf, srcPos + done);
+            if (read < 0) {
+                throw new EOFException("Source ended " + (length - done) + " bytes short of the range being copied.");
+            }
+            buf.flip();
+            long writePos = destPos + done;
+            while (buf.hasRemaining()) {
+                writePos += destination.write(buf, writePos);
+            }
+            done += read;
+        }
+    }
+
+    static long checksum(FileChannel channel, long position, long count) throws IOException {
+
+        CRC32 crc = new CRC32();
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        long done = 0;
+        while (done < count) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), count - done));
+            int read = channel.read(buf, position + done);
+            if (read < 0) {
+                break;
+            }
+            crc.update(buf.array(), 0, read);
+            done += read;
+        }
+        return crc.getValue();
+    }
+
+    private synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = BoundedExecutor.create("file-copier", threads, mode);
+        }
+        return pool;
+    }
+
+    public synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    private void logThroughput(String src, long bytes, long nanos) {
+        double millis = Math.max(1, nanos / 1000000.0);
+        double mbPerSec = (bytes / (1024.0 * 1024.0)) / (millis / 1000.0);
+        logger.info(String.format("Copied %d bytes from %s in %.0f ms (%.1f MB/s)", bytes, src, millis, mbPerSec));
+    }
+}
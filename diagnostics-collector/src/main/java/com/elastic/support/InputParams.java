@@ -22,6 +22,72 @@ public class InputParams {
     @Parameter(names = { "-c", "--configFile"}, description = "Alternative statements file for diagnostics such as top and netstat. Be sure to enter with a fully qualified path name.")
     String configFile;
 
+    @Parameter(names = { "--sampleDuration"}, description = "Seconds to sample per-thread CPU for the local nodes before archiving. Linux only. Default of 0 disables sampling.")
+    private int sampleDuration = 0;
+
+    @Parameter(names = { "--sampleInterval"}, description = "Seconds between OS samples when --sampleDuration is set.")
+    private int sampleInterval = 1;
+
+    @Parameter(names = { "--threads"}, description = "Maximum number of nodes on this host to collect concurrently.")
+    private int threads = 4;
+
+    @Parameter(names = { "--ioLimit"}, description = "Maximum number of concurrent file copies per disk.")
+    private int ioLimit = 2;
+
+    @Parameter(names = { "--incremental"}, description = "Only collect log content appended since the last incremental run from this output directory. No value required, only the option.")
+    private boolean incremental = false;
+
+    @Parameter(names = { "--copyThreads"}, description = "Threads used to copy a single log larger than 256MB in parallel ranges. Default of 1 copies sequentially.")
+    private int copyThreads = 1;
+
+    @Parameter(names = { "--verifyCopies"}, description = "Re-read each copied file and compare its checksum with the source. No value required, only the option.")
+    private boolean verifyCopies = false;
+
+    @Parameter(names = { "--agent"}, description = "Stay running, keep recent OS samples and log tails in memory and write a snapshot archive when triggered. No value required, only the option.")
+    private boolean agent = false;
+
+    @Parameter(names = { "--agentMemory"}, description = "Megabytes of memory the agent may use for OS samples and log tails.")
+    private int agentMemory = 32;
+
+    @Parameter(names = { "--agentHistory"}, description = "Seconds of OS samples the agent keeps for each node.")
+    private int agentHistory = 3600;
+
+    @Parameter(names = { "--triggerFile"}, description = "File the agent watches for - creating it writes a snapshot. Defaults to diagnostics-agent.trigger in the output directory.")
+    private String triggerFile;
+
+    @Parameter(names = { "--triggerPort"}, description = "Localhost port the agent listens on for a dump command. Default of 0 disables it.")
+    private int triggerPort = 0;
+
+    @Parameter(names = { "--serve"}, description = "Stay running and stream the collection for this host as a zip to each GET of /archive. No value required, only the option.")
+    private boolean serve = false;
+
+    @Parameter(names = { "--servePort"}, description = "Port the --serve endpoint listens on.")
+    private int servePort = 9280;
+
+    @Parameter(names = { "--bindHost"}, description = "Address the --serve endpoint binds to. Use 0.0.0.0 to allow pulls from other hosts, which requires --serveToken.")
+    private String bindHost = "localhost";
+
+    @Parameter(names = { "--serveToken"}, description = "Token each pull from the --serve endpoint must send, as an Authorization: Bearer header or a token query parameter. Required unless --bindHost is a loopback address.")
+    private String serveToken;
+
+    @Parameter(names = { "--executor"}, description = "Threads for node collection, file copies and OS commands: auto uses virtual threads on Java 21 and later, virtual or platform forces one.")
+    private String executor = "auto";
+
+    @Parameter(names = { "--volumeSize"}, description = "Split the archive into volumes of at most this many megabytes, with an index file listing the volume each entry is in. Default of 0 writes a single archive.")
+    private int volumeSize = 0;
+
+    @Parameter(names = { "--format"}, description = "Archive format: zip, tar.gz, tar.zst or tar.lz4.  The tar formats compress across files and are much smaller for many similar statistics; tar.zst is several times faster than tar.gz for a similar size and tar.lz4 faster still but larger.")
+    private String format = "zip";
+
+    @Parameter(names = { "--level"}, description = "Compression level for the archive format, 0 to 9 for zip and tar.gz or 1 to 19 for tar.zst.  Default of -1 uses the default for the format.")
+    private int level = -1;
+
+    @Parameter(names = { "--redact"}, description = "Replace IP addresses, host names and credentials in the logs, config and command output with tokens, the same token for the same value throughout. No value required, only the option.")
+    private boolean redact = false;
+
+    @Parameter(names = { "--redactionTable"}, description = "File the table of original values and their tokens is kept in, outside the archive.  Reused by later runs so values keep their tokens.  Defaults to redaction-table.json in the output directory.")
+    private String redactionTable;
+
     public String getHost() {
         return host;
     }
@@ -70,6 +136,182 @@ public class InputParams {
         this.configFile = configFile;
     }
 
+    public int getSampleDuration() {
+        return sampleDuration;
+    }
+
+    public void setSampleDuration(int sampleDuration) {
+        this.sampleDuration = sampleDuration;
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    public void setSampleInterval(int sampleInterval) {
+        this.sampleInterval = sampleInterval;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getIoLimit() {
+        return ioLimit;
+    }
+
+    public void setIoLimit(int ioLimit) {
+        this.ioLimit = ioLimit;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public int getCopyThreads() {
+        return copyThreads;
+    }
+
+    public void setCopyThreads(int copyThreads) {
+        this.copyThreads = copyThreads;
+    }
+
+    public boolean isVerifyCopies() {
+        return verifyCopies;
+    }
+
+    public void setVerifyCopies(boolean verifyCopies) {
+        this.verifyCopies = verifyCopies;
+    }
+
+    public boolean isAgent() {
+        return agent;
+    }
+
+    public void setAgent(boolean agent) {
+        this.agent = agent;
+    }
+
+    public int getAgentMemory() {
+        return agentMemory;
+    }
+
+    public void setAgentMemory(int agentMemory) {
+        this.agentMemory = agentMemory;
+    }
+
+    public int getAgentHistory() {
+        return agentHistory;
+    }
+
+    public void setAgentHistory(int agentHistory) {
+        this.agentHistory = agentHistory;
+    }
+
+    public String getTriggerFile() {
+        return triggerFile;
+    }
+
+    public void setTriggerFile(String triggerFile) {
+        this.triggerFile = triggerFile;
+    }
+
+    public int getTriggerPort() {
+        return triggerPort;
+    }
+
+    public void setTriggerPort(int triggerPort) {
+        this.triggerPort = triggerPort;
+    }
+
+    public boolean isServe() {
+        return serve;
+    }
+
+    public void setServe(boolean serve) {
+        this.serve = serve;
+    }
+
+    public int getServePort() {
+        return servePort;
+    }
+
+    public void setServePort(int servePort) {
+        this.servePort = servePort;
+    }
+
+    public String getBindHost() {
+        return bindHost;
+    }
+
+    public void setBindHost(String bindHost) {
+        this.bindHost = bindHost;
+    }
+
+    public String getServeToken() {
+        return serveToken;
+    }
+
+    public void setServeToken(String serveToken) {
+        this.serveToken = serveToken;
+    }
+
+    public String getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(String executor) {
+        this.executor = executor;
+    }
+
+    public int getVolumeSize() {
+        return volumeSize;
+    }
+
+    public void setVolumeSize(int volumeSize) {
+        this.volumeSize = volumeSize;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public boolean isRedact() {
+        return redact;
+    }
+
+    public void setRedact(boolean redact) {
+        this.redact = redact;
+    }
+
+    public String getRedactionTable() {
+        return redactionTable;
+    }
+
+    public void setRedactionTable(String redactionTable) {
+        this.redactionTable = redactionTable;
+    }
+
     @Override
     public String toString() {
         return "InputParams{" +
@@ -79,6 +321,28 @@ public class InputParams {
                 ", logConfig='" + logConfig + '\'' +
                 ", manifestFile='" + manifestFile + '\'' +
                 ", configFile='" + configFile + '\'' +
+                ", sampleDuration=" + sampleDuration +
+                ", sampleInterval=" + sampleInterval +
+                ", threads=" + threads +
+                ", ioLimit=" + ioLimit +
+                ", incremental=" + incremental +
+                ", copyThreads=" + copyThreads +
+                ", verifyCopies=" + verifyCopies +
+                ", agent=" + agent +
+                ", agentMemory=" + agentMemory +
+                ", agentHistory=" + agentHistory +
+                ", triggerFile='" + triggerFile + '\'' +
+                ", triggerPort=" + triggerPort +
+                ", serve=" + serve +
+                ", servePort=" + servePort +
+                ", bindHost='" + bindHost + '\'' +
+                ", serveToken=" + (serveToken == null ? "null" : "'****'") +
+                ", executor='" + executor + '\'' +
+                ", volumeSize=" + volumeSize +
+                ", format='" + format + '\'' +
+                ", level=" + level +
+                ", redact=" + redact +
+                ", redactionTable='" + redactionTable + '\'' +
                 '}';
     }
 }
@@ -1,54 +1,80 @@
 package com.elastic.support;
 
+import com.elastic.support.analysis.LineSplitter;
+import com.elastic.support.analysis.LogAnalyzer;
+import com.elastic.support.archive.ArchiveWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.nio.channels.FileChannel;
+import java.io.*;
 import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.*;
 
 
 public class SystemUtils {
 
     public static final String UTC_DATE_FORMAT = "MM/dd/yyyy KK:mm:ss a Z";
     public static final Logger logger = LoggerFactory.getLogger(SystemUtils.class);
+    private static final FileCopier defaultCopier = new FileCopier();
 
-    public static void zipDir(String relPath, File file, ZipOutputStream out) {
+    public static void zipDir(String relPath, File file, ArchiveWriter out) {
+        zipDir(relPath, file, out, Collections.<LogAnalyzer>emptyList());
+    }
+
+    /**
+     * Archive the directory, passing the lines of each file to the analyzers that accept it
+     * as it is compressed.  Each analyzer's summary is added to the archive right after the file.
+     */
+    public static void zipDir(String relPath, File file, ArchiveWriter out, List<LogAnalyzer> analyzers) {
         try {
             File[] files = file.listFiles();
             assert files != null;
-            byte[] buf = new byte[1024];
+            byte[] buf = new byte[64 * 1024];
 
             for (File fl : files) {
                 if (fl.isDirectory()) {
-                    out.putNextEntry(new ZipEntry(fl.getName() + SystemProperties.fileSeparator));
-                    zipDir(fl.getName() + SystemProperties.fileSeparator, fl, out);
+                    out.putDirectory(relPath + fl.getName() + SystemProperties.fileSeparator);
+                    zipDir(relPath + fl.getName() + SystemProperties.fileSeparator, fl, out, analyzers);
                     fl.delete();
                     continue;
 
                 }
+
+                List<LogAnalyzer> active = new ArrayList<>();
+                for (LogAnalyzer analyzer : analyzers) {
+                    if (analyzer.accepts(file.getName(), fl.getName())) {
+                        analyzer.begin(fl.getName());
+                        active.add(analyzer);
+                    }
+                }
+                LineSplitter splitter = active.isEmpty() ? null : new LineSplitter(active);
+
                 FileInputStream in = new FileInputStream(fl);
                 // Add ZIP entry to output stream.
-                out.putNextEntry(new ZipEntry(relPath + fl.getName()));
+                out.putNextEntry(relPath + fl.getName(), fl.length());
                 // Transfer bytes from the file to the ZIP file
                 int len;
                 while ((len = in.read(buf)) > 0) {
                     out.write(buf, 0, len);
+                    if (splitter != null) {
+                        splitter.feed(buf, 0, len);
+                    }
                 }
                 // Complete the entry
                 out.closeEntry();
                 in.close();
                 fl.delete();
+
+                if (splitter != null) {
+                    splitter.finish();
+                    for (LogAnalyzer analyzer : active) {
+                        out.putNextEntry(relPath + analyzer.getSummaryName(fl.getName()));
+                        analyzer.writeSummary(out.getEntryStream());
+                        out.closeEntry();
+                    }
+                }
             }
         } catch (Exception e) {
             logger.error("Couldn't create archive.\n", e);
@@ -82,36 +108,19 @@ public class SystemUtils {
 
     }
 
-    public static void copyFile(String src, String dest) {
-
-        logger.error("source:" + src + " dest:" + dest);
-        try {
-            File sourceFile = new File(src);
-
-            File destFile = new File(dest);
-            if (!destFile.exists()) {
-                destFile.createNewFile();
-            }
+    public static boolean copyFile(String src, String dest) {
+        return copyFile(src, dest, 0) >= 0;
+    }
 
-            FileChannel source = null;
-            FileChannel destination = null;
-            try {
-                source = new FileInputStream(sourceFile).getChannel();
-                destination = new FileOutputStream(destFile).getChannel();
-                destination.transferFrom(source, 0, source.size());
-            } finally {
-                if (source != null) {
-                    source.close();
-                }
-                if (destination != null) {
-                    destination.close();
-                }
-            }
-        } catch (Exception e) {
-            String msg = "Problem copying file: " + src;
-            logger.error(msg, e);
-        }
+    /**
+     * Copy the source file from the given offset to its current end.
+     *
+     * @return the source offset the copy ended at, or -1 if it failed
+     */
+    public static long copyFile(String src, String dest, long position) {
+        return defaultCopier.copy(src, dest, position);
     }
+
     public static Map readUYaml(InputStream inputStream, boolean isBlock){
         Map doc = new LinkedHashMap();
 
@@ -132,4 +141,24 @@ public class SystemUtils {
         return doc;
     }
 
+
+    /**
+     * Lets Jackson and friends write into a zip entry without closing the whole archive.
+     */
+    public static class NonClosingOutputStream extends FilterOutputStream {
+
+        public NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
 }
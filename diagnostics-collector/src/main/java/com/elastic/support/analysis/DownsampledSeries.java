@@ -0,0 +1,64 @@
+package com.elastic.support.analysis;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A time series that never grows past a fixed number of points.  When it fills up,
+ * neighbouring points are averaged pairwise and each new point from then on covers
+ * twice as many raw values, so a log of any length ends up evenly summarised.
+ */
+public class DownsampledSeries {
+
+    private final double[] times;
+    private final double[] values;
+    private int size;
+    private int stride = 1;
+
+    // Raw values accumulated towards the next point
+    private double pendingTime;
+    private double pendingValue;
+    private int pending;
+
+    public DownsampledSeries(int capacity) {
+        this.times = new double[capacity];
+        this.values = new double[capacity];
+    }
+
+    public void add(double time, double value) {
+        pendingTime += time;
+        pendingValue += value;
+        if (++pending < stride) {
+            return;
+        }
+
+        if (size == times.length) {
+            compact();
+        }
+        times[size] = pendingTime / pending;
+        values[size] = pendingValue / pending;
+        size++;
+        pendingTime = 0;
+        pendingValue = 0;
+        pending = 0;
+    }
+
+    private void compact() {
+        int half = size / 2;
+        for (int i = 0; i < half; i++) {
+            times[i] = (times[2 * i] + times[2 * i + 1]) / 2;
+            values[i] = (values[2 * i] + values[2 * i + 1]) / 2;
+        }
+        size = half;
+        stride *= 2;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("valuesPerPoint", stride);
+        result.put("uptimeSeconds", Arrays.copyOf(times, size));
+        result.put("values", Arrays.copyOf(values, size));
+        return result;
+    }
+}
@@ -0,0 +1,243 @@
+package com.elastic.support.analysis;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts pause times, heap occupancy after collection and allocation rate from
+ * JVM GC logs, both the -XX:+PrintGCDetails format and Java 9+ unified logging with
+ * either the uptime or the time/utctime decorator.
+ * Pauses go into fixed bucket histograms and the series are downsampled, so
+ * memory use is constant however long the log is.
+ */
+public class GcLogAnalyzer extends LogAnalyzer {
+
+    static final int SERIES_POINTS = 1024;
+
+    // 12.345: [GC (Allocation Failure) ... 272640K->40021K(986432K), 0.0527520 secs]
+    private static final Pattern UPTIME = Pattern.compile("(?:^|: )(\\d+\\.\\d+): \\[");
+    private static final Pattern PAUSE_SECS = Pattern.compile(", (\\d+\\.\\d+) secs\\]");
+    private static final Pattern HEAP = Pattern.compile("(\\d+(?:\\.\\d+)?)([KMGB])B?(?:\\(\\d+(?:\\.\\d+)?[KMGB]B?\\))?->(\\d+(?:\\.\\d+)?)([KMGB])B?\\((\\d+(?:\\.\\d+)?)([KMGB])B?\\)");
+    private static final Pattern STOPPED = Pattern.compile("Total time for which application threads were stopped: (\\d+\\.\\d+) seconds");
+
+    // [2020-01-01T00:00:00.000+0000][12.345s][info][gc] GC(12) Pause Young (Normal) (G1 Evacuation Pause) 24M->8M(256M) 12.345ms
+    private static final Pattern UNIFIED_UPTIME = Pattern.compile("\\[(\\d+\\.\\d+)s\\]");
+    // Without the uptime decorator (Elasticsearch's default is utctime,pid,tags) the time or utctime one is used:
+    // [2020-01-01T00:00:00.000+0000][4242][gc             ] GC(12) Pause Young (Normal) (G1 Evacuation Pause) 24M->8M(256M) 12.345ms
+    private static final Pattern UNIFIED_TIME = Pattern.compile("^\\[(\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{3}[+-]\\d{4})\\]");
+    private static final Pattern UNIFIED_PAUSE = Pattern.compile(" Pause .* (\\d+\\.\\d+)ms$");
+
+    private PauseHistogram youngPauses;
+    private PauseHistogram fullPauses;
+    private PauseHistogram stopped;
+    private DownsampledSeries heapAfter;
+    private DownsampledSeries allocationRate;
+    private double lastUptime;
+    private double lastHeapAfter;
+    private double pendingUptime;
+    private long firstTime;
+    private String firstTimestamp;
+    private boolean timeBased;
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+    private long lines;
+    private long events;
+    private long bytesAllocated;
+
+    @Override
+    public boolean accepts(String dir, String fileName) {
+        return GC_LOG_DIR.equals(dir) && !fileName.endsWith(".gz");
+    }
+
+    @Override
+    public void begin(String fileName) {
+        youngPauses = new PauseHistogram();
+        fullPauses = new PauseHistogram();
+        stopped = new PauseHistogram();
+        heapAfter = new DownsampledSeries(SERIES_POINTS);
+        allocationRate = new DownsampledSeries(SERIES_POINTS);
+        lastUptime = -1;
+        lastHeapAfter = -1;
+        pendingUptime = -1;
+        firstTime = -1;
+        firstTimestamp = null;
+        timeBased = false;
+        lines = 0;
+        events = 0;
+        bytesAllocated = 0;
+    }
+
+    @Override
+    public void processLine(String line) {
+
+        lines++;
+        if (firstTime < 0 && line.startsWith("[")) {
+            secondsSinceFirstEntry(line);
+        }
+
+        if (line.contains("Total time for which")) {
+            Matcher m = STOPPED.matcher(line);
+            if (m.find()) {
+                stopped.record(toMicros(Double.parseDouble(m.group(1)) * 1000));
+            }
+            return;
+        }
+
+        // Older G1 logs give the heap sizes on a line of their own after the pause
+        if (pendingUptime >= 0 && line.contains(" Heap: ")) {
+            recordHeap(pendingUptime, line);
+            pendingUptime = -1;
+            return;
+        }
+
+        boolean unified = line.startsWith("[") && line.contains("][gc");
+        boolean pause = unified ? line.contains(" Pause ") : (line.contains("[GC") || line.contains("[Full GC"));
+        if (!pause || line.contains("concurrent")) {
+            return;
+        }
+
+        double uptime = -1;
+        double pauseMillis = -1;
+        Matcher m;
+        if (unified) {
+            m = UNIFIED_UPTIME.matcher(line);
+            if (m.find()) {
+                uptime = Double.parseDouble(m.group(1));
+            } else {
+                uptime = secondsSinceFirstEntry(line);
+                timeBased |= uptime >= 0;
+            }
+            m = UNIFIED_PAUSE.matcher(line);
+            if (m.find()) {
+                pauseMillis = Double.parseDouble(m.group(1));
+            }
+        } else {
+            m = UPTIME.matcher(line);
+            if (m.find()) {
+                uptime = Double.parseDouble(m.group(1));
+            }
+            // The last ", x secs]" is the whole collection, earlier ones are per generation
+            m = PAUSE_SECS.matcher(line);
+            while (m.find()) {
+                pauseMillis = Double.parseDouble(m.group(1)) * 1000;
+            }
+        }
+
+        if (pauseMillis < 0) {
+            return;
+        }
+        events++;
+
+        boolean full = line.contains("Full") || line.contains("Pause Full");
+        (full ? fullPauses : youngPauses).record(toMicros(pauseMillis));
+
+        if (!recordHeap(uptime, line)) {
+            pendingUptime = uptime;
+        }
+    }
+
+    /**
+     * For unified logs without uptimes, the seconds between the line's time decorator and that
+     * of the first line that had one, so the series still have an x axis.
+     */
+    private double secondsSinceFirstEntry(String line) {
+
+        Matcher m = UNIFIED_TIME.matcher(line);
+        if (!m.find()) {
+            return -1;
+        }
+        try {
+            long time = timeFormat.parse(m.group(1)).getTime();
+            if (firstTime < 0) {
+                firstTime = time;
+                firstTimestamp = m.group(1);
+            }
+            return (time - firstTime) / 1000.0;
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The last before->after(total) on the line is the whole heap rather than a single generation,
+     * as long as the metaspace or permgen figures that full collections append are left out.
+     */
+    private boolean recordHeap(double uptime, String line) {
+
+        int nonHeap = line.indexOf("[Metaspace");
+        if (nonHeap < 0) {
+            nonHeap = line.indexOf("Perm");
+        }
+        double before = -1;
+        double after = -1;
+        Matcher m = HEAP.matcher(nonHeap < 0 ? line : line.substring(0, nonHeap));
+        while (m.find()) {
+            before = toBytes(m.group(1), m.group(2));
+            after = toBytes(m.group(3), m.group(4));
+        }
+
+        if (after < 0 || uptime < 0) {
+            return false;
+        }
+
+        heapAfter.add(uptime, after);
+        if (lastHeapAfter >= 0 && uptime > lastUptime) {
+            double allocated = Math.max(0, before - lastHeapAfter);
+            bytesAllocated += (long) allocated;
+            allocationRate.add(uptime, allocated / (uptime - lastUptime));
+        }
+        lastHeapAfter = after;
+        lastUptime = uptime;
+        return true;
+    }
+
+    @Override
+    public String getSummaryName(String fileName) {
+        return fileName + "-summary.json";
+    }
+
+    @Override
+    public void writeSummary(OutputStream out) throws IOException {
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("lines", lines);
+        summary.put("collections", events);
+        summary.put("youngPauses", youngPauses.toMap());
+        summary.put("fullPauses", fullPauses.toMap());
+        if (stopped.getCount() > 0) {
+            summary.put("applicationStopped", stopped.toMap());
+        }
+        // Series are in seconds of JVM uptime unless the log only had timestamps
+        summary.put("secondsSince", timeBased ? firstTimestamp : "jvmStart");
+        summary.put("bytesAllocated", bytesAllocated);
+        summary.put("heapAfterGcBytes", heapAfter.toMap());
+        summary.put("allocationBytesPerSecond", allocationRate.toMap());
+
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(out, summary);
+    }
+
+    private static long toMicros(double millis) {
+        return Math.round(millis * 1000);
+    }
+
+    static double toBytes(String value, String unit) {
+        double v = Double.parseDouble(value);
+        switch (unit.charAt(0)) {
+            case 'K':
+                return v * 1024;
+            case 'M':
+                return v * 1024 * 1024;
+            case 'G':
+                return v * 1024 * 1024 * 1024;
+            default:
+                return v;
+        }
+    }
+}
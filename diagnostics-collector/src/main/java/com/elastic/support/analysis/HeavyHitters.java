@@ -0,0 +1,153 @@
+package com.elastic.support.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving counter: tracks the most frequent keys of an unbounded stream in a
+ * fixed number of slots.  When all slots are taken, a new key replaces the one with
+ * the lowest count and inherits that count as its possible overestimate.  The slots
+ * are kept in a min-heap so both hits and replacements cost O(log capacity).
+ *
+ * Callers can keep their own per-key data in arrays indexed by the slot that
+ * offer returns, resetting it whenever wasReplaced is true.
+ */
+public class HeavyHitters {
+
+    private final int capacity;
+    private final String[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final int[] heap;
+    private final int[] heapPos;
+    private final Map<String, Integer> index;
+    private int size;
+    private boolean replaced;
+
+    public HeavyHitters(int capacity) {
+        this.capacity = capacity;
+        this.keys = new String[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.heap = new int[capacity];
+        this.heapPos = new int[capacity];
+        this.index = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Count one occurrence of the key.
+     *
+     * @return the slot now holding the key
+     */
+    public int offer(String key) {
+
+        Integer existing = index.get(key);
+        if (existing != null) {
+            int slot = existing;
+            counts[slot]++;
+            siftDown(heapPos[slot]);
+            replaced = false;
+            return slot;
+        }
+
+        int slot;
+        if (size < capacity) {
+            slot = size++;
+            keys[slot] = key;
+            counts[slot] = 1;
+            errors[slot] = 0;
+            heap[slot] = slot;
+            heapPos[slot] = slot;
+            siftUp(slot);
+        } else {
+            slot = heap[0];
+            index.remove(keys[slot]);
+            keys[slot] = key;
+            errors[slot] = counts[slot];
+            counts[slot]++;
+            siftDown(0);
+        }
+        index.put(key, slot);
+        replaced = true;
+        return slot;
+    }
+
+    /**
+     * @return whether the last offer started a new key in its slot
+     */
+    public boolean wasReplaced() {
+        return replaced;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getKey(int slot) {
+        return keys[slot];
+    }
+
+    public long getCount(int slot) {
+        return counts[slot];
+    }
+
+    public long getError(int slot) {
+        return errors[slot];
+    }
+
+    /**
+     * @return up to n slots ordered by descending count
+     */
+    public List<Integer> top(int n) {
+        Integer[] slots = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = i;
+        }
+        Arrays.sort(slots, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(counts[b], counts[a]);
+            }
+        });
+        return new ArrayList<>(Arrays.asList(slots).subList(0, Math.min(n, size)));
+    }
+
+    private void siftUp(int pos) {
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[heap[pos]]) {
+                break;
+            }
+            swap(pos, parent);
+            pos = parent;
+        }
+    }
+
+    private void siftDown(int pos) {
+        while (true) {
+            int left = 2 * pos + 1;
+            if (left >= size) {
+                break;
+            }
+            int right = left + 1;
+            int smallest = (right < size && counts[heap[right]] < counts[heap[left]]) ? right : left;
+            if (counts[heap[pos]] <= counts[heap[smallest]]) {
+                break;
+            }
+            swap(pos, smallest);
+            pos = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int tmp = heap[a];
+        heap[a] = heap[b];
+        heap[b] = tmp;
+        heapPos[heap[a]] = a;
+        heapPos[heap[b]] = b;
+    }
+}
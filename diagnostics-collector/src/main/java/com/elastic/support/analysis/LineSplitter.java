@@ -0,0 +1,82 @@
+package com.elastic.support.analysis;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns the raw byte blocks read for archiving into lines for the analyzers.
+ * Only the partial line at the end of a block is carried over, and lines longer
+ * than the limit are cut short, so memory stays fixed whatever the file size.
+ */
+public class LineSplitter {
+
+    static final int MAX_LINE = 256 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final List<LogAnalyzer> analyzers;
+    private byte[] carry = new byte[8192];
+    private int carryLen;
+    private boolean truncating;
+
+    public LineSplitter(List<LogAnalyzer> analyzers) {
+        this.analyzers = analyzers;
+    }
+
+    public void feed(byte[] buf, int off, int len) {
+
+        int end = off + len;
+        int lineStart = off;
+        for (int i = off; i < end; i++) {
+            if (buf[i] == '\n') {
+                if (carryLen > 0 || truncating) {
+                    append(buf, lineStart, i - lineStart);
+                    emit(carry, 0, carryLen);
+                    carryLen = 0;
+                    truncating = false;
+                } else {
+                    emit(buf, lineStart, i - lineStart);
+                }
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < end) {
+            append(buf, lineStart, end - lineStart);
+        }
+    }
+
+    /**
+     * Emit whatever is left over when the file doesn't end with a newline.
+     */
+    public void finish() {
+        if (carryLen > 0) {
+            emit(carry, 0, carryLen);
+        }
+        carryLen = 0;
+        truncating = false;
+    }
+
+    private void append(byte[] buf, int off, int len) {
+
+        int room = MAX_LINE - carryLen;
+        if (len > room) {
+            len = room;
+            truncating = true;
+        }
+        if (carryLen + len > carry.length) {
+            carry = Arrays.copyOf(carry, Math.min(MAX_LINE, Math.max(carry.length * 2, carryLen + len)));
+        }
+        System.arraycopy(buf, off, carry, carryLen, len);
+        carryLen += len;
+    }
+
+    private void emit(byte[] buf, int off, int len) {
+        if (len > 0 && buf[off + len - 1] == '\r') {
+            len--;
+        }
+        String line = new String(buf, off, len, UTF8);
+        for (LogAnalyzer analyzer : analyzers) {
+            analyzer.processLine(line);
+        }
+    }
+}
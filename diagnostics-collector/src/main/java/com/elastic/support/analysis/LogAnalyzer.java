@@ -0,0 +1,42 @@
+package com.elastic.support.analysis;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Receives the lines of a log file while it is being archived, so summaries can be
+ * built in the same pass that compresses the file.  One instance handles one file
+ * at a time: begin, then every line, then writeSummary.
+ */
+public abstract class LogAnalyzer {
+
+    // GC logs are collected into this directory under each node, so they can't be confused
+    // with the other logs whatever the cluster is called
+    public static final String GC_LOG_DIR = "gc-logs";
+
+    /**
+     * @param dir the name of the directory the file is archived in, without its parents
+     * @param fileName the name of the file about to be archived, without its directory
+     * @return whether this analyzer should see its lines
+     */
+    public abstract boolean accepts(String dir, String fileName);
+
+    /**
+     * Called before the first line of a file, discarding anything from the previous one.
+     */
+    public abstract void begin(String fileName);
+
+    public abstract void processLine(String line);
+
+    /**
+     * @return the archive entry name the summary is written under, relative to the log's directory
+     */
+    public abstract String getSummaryName(String fileName);
+
+    public abstract void writeSummary(OutputStream out) throws IOException;
+
+    static String baseName(String fileName) {
+        int idx = fileName.lastIndexOf('.');
+        return idx > 0 ? fileName.substring(0, idx) : fileName;
+    }
+}
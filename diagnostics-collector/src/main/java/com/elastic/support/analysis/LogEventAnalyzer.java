@@ -0,0 +1,292 @@
+package com.elastic.support.analysis;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * Deduplicates the events in the main cluster log.  Multi-line events (a message
+ * followed by its stack trace) are grouped, reduced to a template by masking
+ * node names, ids, numbers and quoted values, and fingerprinted together with
+ * the level, logger and exception classes.  Counts and first/last timestamps
+ * live in an open addressing table of primitive arrays keyed by the fingerprint,
+ * so thousands of identical rejections cost one slot.
+ */
+public class LogEventAnalyzer extends LogAnalyzer {
+
+    static final int CAPACITY = 8192;
+    static final int MAX_LOAD = CAPACITY * 3 / 4;
+    static final int MAX_TEMPLATE = 512;
+    static final int MAX_SAMPLE = 4096;
+    static final int STACK_FRAMES = 5;
+    static final int TOP = 100;
+
+    private long[] fingerprints;
+    private long[] counts;
+    private long[] first;
+    private long[] last;
+    private String[] templates;
+    private String[] samples;
+    private int used;
+    private long events;
+    private long overflow;
+    private Map<String, Long> levels;
+
+    // The event currently being assembled
+    private String level;
+    private String loggerName;
+    private String message;
+    private long timestamp;
+    private final StringBuilder stack = new StringBuilder();
+    private final StringBuilder sample = new StringBuilder();
+    private int frames;
+    private boolean inEvent;
+
+    @Override
+    public boolean accepts(String dir, String fileName) {
+        return !GC_LOG_DIR.equals(dir) && fileName.endsWith(".log") && !fileName.endsWith("_slowlog.log");
+    }
+
+    @Override
+    public void begin(String fileName) {
+        fingerprints = new long[CAPACITY];
+        counts = new long[CAPACITY];
+        first = new long[CAPACITY];
+        last = new long[CAPACITY];
+        templates = new String[CAPACITY];
+        samples = new String[CAPACITY];
+        used = 0;
+        events = 0;
+        overflow = 0;
+        levels = new TreeMap<>();
+        inEvent = false;
+    }
+
+    @Override
+    public void processLine(String line) {
+
+        long ts = parseTimestamp(line);
+        if (ts > 0) {
+            endEvent();
+            startEvent(line, ts);
+        } else if (inEvent) {
+            addContinuation(line);
+        }
+    }
+
+    @Override
+    public String getSummaryName(String fileName) {
+        return baseName(fileName) + "-events.json";
+    }
+
+    @Override
+    public void writeSummary(OutputStream out) throws IOException {
+
+        endEvent();
+
+        Integer[] slots = new Integer[used];
+        int n = 0;
+        for (int i = 0; i < CAPACITY; i++) {
+            if (counts[i] > 0) {
+                slots[n++] = i;
+            }
+        }
+        Arrays.sort(slots, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(counts[b], counts[a]);
+            }
+        });
+
+        List<Map<String, Object>> top = new ArrayList<>();
+        for (int i = 0; i < Math.min(TOP, slots.length); i++) {
+            int slot = slots[i];
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("count", counts[slot]);
+            entry.put("firstSeen", formatTimestamp(first[slot]));
+            entry.put("lastSeen", formatTimestamp(last[slot]));
+            entry.put("template", templates[slot]);
+            entry.put("sample", samples[slot]);
+            top.add(entry);
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("events", events);
+        summary.put("distinct", used);
+        summary.put("untrackedEvents", overflow);
+        summary.put("levels", levels);
+        summary.put("top", top);
+
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(out, summary);
+    }
+
+    private void startEvent(String line, long ts) {
+
+        // [timestamp][LEVEL][logger] message
+        int levelEnd = line.startsWith("[", 25) ? line.indexOf(']', 26) : -1;
+        int loggerStart = levelEnd < 0 ? -1 : line.indexOf('[', levelEnd);
+        int loggerEnd = loggerStart < 0 ? -1 : line.indexOf(']', loggerStart);
+        if (loggerEnd < 0) {
+            level = "";
+            loggerName = "";
+            message = line.substring(25);
+        } else {
+            level = line.substring(26, levelEnd).trim();
+            loggerName = line.substring(loggerStart + 1, loggerEnd).trim();
+            message = line.substring(loggerEnd + 1);
+        }
+
+        timestamp = ts;
+        stack.setLength(0);
+        sample.setLength(0);
+        appendSample(line);
+        frames = 0;
+        inEvent = true;
+    }
+
+    private void addContinuation(String line) {
+
+        appendSample(line);
+
+        String trimmed = line.trim();
+        if (trimmed.startsWith("at ")) {
+            if (frames++ < STACK_FRAMES) {
+                // Drop the source line number so different builds still match
+                int paren = trimmed.indexOf('(');
+                stack.append('|').append(paren > 0 ? trimmed.substring(3, paren) : trimmed.substring(3));
+            }
+        } else if (trimmed.startsWith("Caused by: ")) {
+            stack.append("|caused:").append(exceptionClass(trimmed.substring(11)));
+            frames = 0;
+        } else if (stack.length() == 0 && frames == 0 && !trimmed.isEmpty()) {
+            stack.append("|").append(exceptionClass(trimmed));
+        }
+    }
+
+    private void endEvent() {
+
+        if (!inEvent) {
+            return;
+        }
+        inEvent = false;
+        events++;
+
+        Long levelCount = levels.get(level);
+        levels.put(level, levelCount == null ? 1 : levelCount + 1);
+
+        String template = "[" + level + "][" + loggerName + "]" + mask(message) + stack;
+        long fingerprint = fingerprint(template);
+
+        int slot = (int) (fingerprint & (CAPACITY - 1));
+        while (counts[slot] > 0 && fingerprints[slot] != fingerprint) {
+            slot = (slot + 1) & (CAPACITY - 1);
+        }
+
+        if (counts[slot] == 0) {
+            if (used >= MAX_LOAD) {
+                overflow++;
+                return;
+            }
+            used++;
+            fingerprints[slot] = fingerprint;
+            templates[slot] = template;
+            samples[slot] = sample.toString();
+            first[slot] = timestamp;
+        }
+        counts[slot]++;
+        last[slot] = timestamp;
+    }
+
+    private void appendSample(String line) {
+        if (sample.length() < MAX_SAMPLE) {
+            if (sample.length() > 0) {
+                sample.append('\n');
+            }
+            sample.append(line, 0, Math.min(line.length(), MAX_SAMPLE - sample.length()));
+        }
+    }
+
+    /**
+     * Replace the parts of a message that differ between occurrences of the same
+     * event: bracketed node/index names, numbers and quoted values.
+     */
+    static String mask(String message) {
+
+        StringBuilder out = new StringBuilder(Math.min(message.length(), MAX_TEMPLATE));
+        int len = message.length();
+        for (int i = 0; i < len && out.length() < MAX_TEMPLATE; i++) {
+            char c = message.charAt(i);
+            if (c == '[') {
+                int close = message.indexOf(']', i + 1);
+                if (close > 0) {
+                    out.append("[*]");
+                    i = close;
+                    continue;
+                }
+            } else if (c == '"' || c == '\'') {
+                int close = message.indexOf(c, i + 1);
+                if (close > 0) {
+                    out.append('?');
+                    i = close;
+                    continue;
+                }
+            } else if (c >= '0' && c <= '9') {
+                while (i + 1 < len && isIdChar(message.charAt(i + 1))) {
+                    i++;
+                }
+                out.append('#');
+                continue;
+            }
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    private static boolean isIdChar(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == '.' || c == '-' || c == ':';
+    }
+
+    private static String exceptionClass(String line) {
+        int colon = line.indexOf(':');
+        return colon > 0 ? line.substring(0, colon) : line;
+    }
+
+    static long fingerprint(CharSequence s) {
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Parse the leading [yyyy-MM-dd HH:mm:ss,SSS] of an event into a sortable
+     * yyyyMMddHHmmssSSS long, or return -1 if the line doesn't start with one.
+     */
+    static long parseTimestamp(String line) {
+
+        if (line.length() < 25 || line.charAt(0) != '[' || line.charAt(24) != ']') {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 1; i < 24; i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else if (i != 5 && i != 8 && i != 11 && i != 14 && i != 17 && i != 20) {
+                return -1;
+            }
+        }
+        return value;
+    }
+
+    static String formatTimestamp(long ts) {
+        String digits = String.format("%017d", ts);
+        return digits.substring(0, 4) + "-" + digits.substring(4, 6) + "-" + digits.substring(6, 8) + " "
+                + digits.substring(8, 10) + ":" + digits.substring(10, 12) + ":" + digits.substring(12, 14) + "," + digits.substring(14);
+    }
+}
@@ -0,0 +1,93 @@
+package com.elastic.support.analysis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fixed bucket histogram in the style of HdrHistogram: each power of two is split
+ * into linear sub-buckets, giving about 3% precision from microseconds up to
+ * hours in a couple of thousand longs regardless of how many values are recorded.
+ */
+public class PauseHistogram {
+
+    static final int SUB_BUCKET_BITS = 6;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int HALF = SUB_BUCKETS / 2;
+
+    private final long[] counts = new long[SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF];
+    private long count;
+    private long total;
+    private long max;
+
+    public void record(long micros) {
+        if (micros < 0) {
+            return;
+        }
+        counts[bucket(micros)]++;
+        count++;
+        total += micros;
+        max = Math.max(max, micros);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the given percentile
+     */
+    public long percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", count);
+        result.put("totalMillis", total / 1000.0);
+        result.put("p50Millis", percentile(50) / 1000.0);
+        result.put("p90Millis", percentile(90) / 1000.0);
+        result.put("p99Millis", percentile(99) / 1000.0);
+        result.put("p999Millis", percentile(99.9) / 1000.0);
+        result.put("maxMillis", max / 1000.0);
+        return result;
+    }
+
+    static int bucket(long value) {
+        int highBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highBit - SUB_BUCKET_BITS + 1;
+        if (shift <= 0) {
+            return (int) value;
+        }
+        int sub = (int) (value >>> shift) - HALF;
+        return SUB_BUCKETS + (shift - 1) * HALF + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int k = bucket - SUB_BUCKETS;
+        int shift = k / HALF + 1;
+        long sub = k % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,88 @@
+package com.elastic.support.analysis;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Reduces a query or document source to its shape: field names and structure are
+ * kept, every literal value becomes ?, and runs of identical array elements are
+ * collapsed.  Queries that only differ in their search terms end up equal.
+ */
+public class QueryShape {
+
+    static final int MAX_SHAPE = 2048;
+
+    private static final Pattern QUOTED = Pattern.compile("\"(?:[^\"\\\\]|\\\\.)*\"");
+    private static final Pattern NUMBER = Pattern.compile("-?\\b\\d+(\\.\\d+)?\\b");
+
+    private final JsonFactory factory = new JsonFactory();
+
+    public String normalize(String source) {
+
+        if (source == null || source.isEmpty()) {
+            return "";
+        }
+
+        try (JsonParser parser = factory.createParser(source)) {
+            StringBuilder shape = new StringBuilder(Math.min(source.length(), MAX_SHAPE));
+            if (parser.nextToken() == null) {
+                return "";
+            }
+            appendValue(parser, shape);
+            return cap(shape);
+        } catch (IOException e) {
+            // Not JSON (or cut off in the log) - mask the literals we can recognise
+            String masked = NUMBER.matcher(QUOTED.matcher(source).replaceAll("?")).replaceAll("?");
+            return cap(new StringBuilder(masked));
+        }
+    }
+
+    private void appendValue(JsonParser parser, StringBuilder shape) throws IOException {
+
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            shape.append('{');
+            boolean first = true;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                if (!first) {
+                    shape.append(',');
+                }
+                first = false;
+                shape.append(parser.getCurrentName()).append(':');
+                parser.nextToken();
+                appendValue(parser, shape);
+            }
+            shape.append('}');
+        } else if (token == JsonToken.START_ARRAY) {
+            shape.append('[');
+            String previous = null;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                StringBuilder element = new StringBuilder();
+                appendValue(parser, element);
+                String current = element.toString();
+                if (!current.equals(previous)) {
+                    if (previous != null) {
+                        shape.append(',');
+                    }
+                    shape.append(current);
+                    previous = current;
+                }
+            }
+            shape.append(']');
+        } else {
+            shape.append('?');
+        }
+    }
+
+    private static String cap(StringBuilder shape) {
+        if (shape.length() > MAX_SHAPE) {
+            shape.setLength(MAX_SHAPE);
+            shape.append("...");
+        }
+        return shape.toString();
+    }
+}
@@ -0,0 +1,215 @@
+package com.elastic.support.analysis;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * Summarises search and indexing slowlogs by query shape.  Shapes are counted in a
+ * bounded HeavyHitters structure, with took time, shard and index totals kept
+ * per slot, so a multi-GB slowlog needs the same memory as a small one.
+ */
+public class SlowlogAnalyzer extends LogAnalyzer {
+
+    static final int CAPACITY = 1000;
+    static final int TOP = 50;
+    static final int MAX_INDICES = 10;
+
+    private final QueryShape queryShape = new QueryShape();
+
+    private HeavyHitters shapes;
+    private long[] totalTook;
+    private long[] maxTook;
+    private long[] totalShards;
+    private List<Set<String>> indices;
+    private long lines;
+    private long parsed;
+
+    @Override
+    public boolean accepts(String dir, String fileName) {
+        return !GC_LOG_DIR.equals(dir) && fileName.endsWith("_slowlog.log");
+    }
+
+    @Override
+    public void begin(String fileName) {
+        shapes = new HeavyHitters(CAPACITY);
+        totalTook = new long[CAPACITY];
+        maxTook = new long[CAPACITY];
+        totalShards = new long[CAPACITY];
+        indices = new ArrayList<>(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            indices.add(null);
+        }
+        lines = 0;
+        parsed = 0;
+    }
+
+    @Override
+    public void processLine(String line) {
+
+        lines++;
+
+        // [timestamp][LEVEL][logger] [node] [index][shard] took[..], took_millis[..], ...
+        int[] bounds = new int[2];
+        int pos = 0;
+        String[] brackets = new String[5];
+        for (int i = 0; i < brackets.length; i++) {
+            if (!nextBracket(line, pos, bounds)) {
+                return;
+            }
+            brackets[i] = line.substring(bounds[0] + 1, bounds[1]).trim();
+            pos = bounds[1] + 1;
+        }
+
+        String loggerName = brackets[2];
+        if (!loggerName.contains("slowlog")) {
+            return;
+        }
+        String type = loggerName.substring(loggerName.lastIndexOf('.') + 1);
+        String index = brackets[4];
+
+        long took = longField(line, "took_millis[");
+        long shards = longField(line, "total_shards[");
+        String source = source(line);
+
+        String key = type + " " + queryShape.normalize(source);
+        int slot = shapes.offer(key);
+        if (shapes.wasReplaced()) {
+            totalTook[slot] = 0;
+            maxTook[slot] = 0;
+            totalShards[slot] = 0;
+            indices.set(slot, new TreeSet<String>());
+        }
+
+        if (took > 0) {
+            totalTook[slot] += took;
+            maxTook[slot] = Math.max(maxTook[slot], took);
+        }
+        if (shards > 0) {
+            totalShards[slot] += shards;
+        }
+        Set<String> slotIndices = indices.get(slot);
+        if (slotIndices.size() < MAX_INDICES) {
+            slotIndices.add(index);
+        }
+        parsed++;
+    }
+
+    @Override
+    public String getSummaryName(String fileName) {
+        return baseName(fileName) + "-summary.json";
+    }
+
+    @Override
+    public void writeSummary(OutputStream out) throws IOException {
+
+        List<Map<String, Object>> byCount = new ArrayList<>();
+        for (int slot : shapes.top(TOP)) {
+            byCount.add(describe(slot));
+        }
+
+        List<Map<String, Object>> byTook = new ArrayList<>();
+        for (int slot : topByTook(TOP)) {
+            byTook.add(describe(slot));
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("lines", lines);
+        summary.put("parsed", parsed);
+        summary.put("unparsed", lines - parsed);
+        summary.put("shapesTracked", shapes.size());
+        summary.put("topByCount", byCount);
+        summary.put("topByTotalTook", byTook);
+
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(out, summary);
+    }
+
+    private Map<String, Object> describe(int slot) {
+
+        String key = shapes.getKey(slot);
+        int split = key.indexOf(' ');
+        long count = shapes.getCount(slot);
+        long error = shapes.getError(slot);
+
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("type", key.substring(0, split));
+        entry.put("shape", key.substring(split + 1));
+        entry.put("count", count);
+        // Space-Saving may overcount a shape by the count it inherited from the one it replaced
+        entry.put("countError", error);
+        entry.put("totalTookMillis", totalTook[slot]);
+        entry.put("maxTookMillis", maxTook[slot]);
+        entry.put("avgTookMillis", count - error > 0 ? totalTook[slot] / (count - error) : 0);
+        entry.put("totalShards", totalShards[slot]);
+        entry.put("indices", indices.get(slot));
+        return entry;
+    }
+
+    private List<Integer> topByTook(int n) {
+        Integer[] slots = new Integer[shapes.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = i;
+        }
+        Arrays.sort(slots, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(totalTook[b], totalTook[a]);
+            }
+        });
+        return Arrays.asList(slots).subList(0, Math.min(n, slots.length));
+    }
+
+    private static boolean nextBracket(String line, int from, int[] bounds) {
+        int open = line.indexOf('[', from);
+        if (open < 0) {
+            return false;
+        }
+        int close = line.indexOf(']', open + 1);
+        if (close < 0) {
+            return false;
+        }
+        bounds[0] = open;
+        bounds[1] = close;
+        return true;
+    }
+
+    private static long longField(String line, String name) {
+        int start = line.indexOf(name);
+        if (start < 0) {
+            return -1;
+        }
+        start += name.length();
+        long value = 0;
+        boolean digits = false;
+        for (int i = start; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            digits = true;
+        }
+        return digits ? value : -1;
+    }
+
+    private static String source(String line) {
+
+        int start = line.indexOf(" source[");
+        if (start < 0) {
+            return "";
+        }
+        start += " source[".length();
+
+        // Search slowlogs follow the source with extra_source, indexing ones end with it
+        int end = line.lastIndexOf("], extra_source[");
+        if (end < start) {
+            end = line.lastIndexOf(']');
+        }
+        if (end < start) {
+            end = line.length();
+        }
+        return line.substring(start, end);
+    }
+}
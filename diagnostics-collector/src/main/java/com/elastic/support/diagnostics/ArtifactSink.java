@@ -0,0 +1,24 @@
+package com.elastic.support.diagnostics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Where collected artifacts go.  Names are relative to the root of the collection and
+ * use / as the separator, e.g. node-1/elasticsearch.yml.
+ */
+public interface ArtifactSink {
+
+    /**
+     * Add the source file from the given offset to its current end.
+     *
+     * @return the source offset reached, or -1 if the file could not be added
+     */
+    long addFile(String name, String src, long position);
+
+    /**
+     * Open an artifact that is produced rather than copied.  The caller closes the
+     * stream when the artifact is complete.
+     */
+    OutputStream newEntry(String name) throws IOException;
+}
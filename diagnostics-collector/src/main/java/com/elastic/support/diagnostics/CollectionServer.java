@@ -0,0 +1,205 @@
+package com.elastic.support.diagnostics;
+
+import com.elastic.support.InputParams;
+import com.elastic.support.analysis.GcLogAnalyzer;
+import com.elastic.support.analysis.LogAnalyzer;
+import com.elastic.support.analysis.LogEventAnalyzer;
+import com.elastic.support.analysis.SlowlogAnalyzer;
+import com.elastic.support.archive.IntegrityZipOutputStream;
+import com.elastic.support.redact.Redactor;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Serves the collection for this host over HTTP so a central process can pull it
+ * instead of someone copying zips around.  Each GET of /archive runs the node and OS
+ * command collection and streams the zip as it is built with chunked transfer
+ * encoding - nothing is written to local disk.  Binding anywhere but loopback needs a
+ * shared token, which every pull must then send.
+ */
+public class CollectionServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(CollectionServer.class);
+
+    static final int MAX_CONCURRENT_PULLS = 2;
+
+    private final CollectionService service = new CollectionService();
+    private final InputParams inputs;
+    private HttpServer server;
+    private ExecutorService pool;
+    private String redactionTable;
+
+    public CollectionServer(InputParams inputs) {
+        this.inputs = inputs;
+    }
+
+    /**
+     * Start listening and return the port, which is the one chosen by the system
+     * when --servePort is 0.
+     */
+    public int start() {
+
+        logger.debug(inputs.toString());
+
+        final byte[] token = checkToken();
+        final Map configMap = service.retrieveConfiguration(inputs.getConfigFile());
+        // Read once so a bad manifest fails at startup rather than on the first pull
+        service.getManifestInput(inputs.getManifestFile());
+        redactionTable = service.startRedaction(configMap, inputs, service.setOutputDir(inputs));
+
+        try {
+            server = HttpServer.create(new InetSocketAddress(inputs.getBindHost(), inputs.getServePort()), 0);
+        } catch (IOException e) {
+            logger.error("Could not listen on " + inputs.getBindHost() + ":" + inputs.getServePort(), e);
+            throw new RuntimeException("Could not start the collection server - is the port already in use?");
+        }
+
+        server.createContext("/archive", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if (!"GET".equals(exchange.getRequestMethod())) {
+                        exchange.sendResponseHeaders(405, -1);
+                        return;
+                    }
+                    if (token != null && !isAuthorized(exchange, token)) {
+                        logger.warn("Refused a pull from " + exchange.getRemoteAddress() + " without the serve token");
+                        exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                        exchange.sendResponseHeaders(401, -1);
+                        return;
+                    }
+                    streamArchive(exchange, configMap);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+
+        pool = Executors.newFixedThreadPool(MAX_CONCURRENT_PULLS);
+        server.setExecutor(pool);
+        server.start();
+
+        int port = server.getAddress().getPort();
+        System.out.println("Serving collections at http://" + inputs.getBindHost() + ":" + port + "/archive");
+        return port;
+    }
+
+    /**
+     * The archive holds config and logs, so it is only served without a token on loopback.
+     *
+     * @return the token pulls must send, or null if none was set
+     */
+    private byte[] checkToken() {
+
+        String token = inputs.getServeToken();
+        if (token != null && !token.isEmpty()) {
+            return token.getBytes(StandardCharsets.UTF_8);
+        }
+
+        boolean loopback;
+        try {
+            loopback = InetAddress.getByName(inputs.getBindHost()).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            logger.error("Could not resolve " + inputs.getBindHost(), e);
+            throw new RuntimeException("Could not resolve the --bindHost address " + inputs.getBindHost());
+        }
+        if (!loopback) {
+            logger.error("Refusing to serve on " + inputs.getBindHost() + " without a token");
+            throw new RuntimeException("--serveToken is required when --bindHost is not a loopback address.");
+        }
+        return null;
+    }
+
+    private static boolean isAuthorized(HttpExchange exchange, byte[] token) {
+
+        String sent = null;
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header != null && header.startsWith("Bearer ")) {
+            sent = header.substring(7).trim();
+        } else {
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query != null) {
+                for (String param : query.split("&")) {
+                    if (param.startsWith("token=")) {
+                        try {
+                            sent = URLDecoder.decode(param.substring(6), "UTF-8");
+                        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        // Constant time, so the token can't be guessed a byte at a time
+        return sent != null && MessageDigest.isEqual(token, sent.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            pool.shutdownNow();
+        }
+    }
+
+    private void streamArchive(HttpExchange exchange, Map configMap) throws IOException {
+
+        // Pick up a regenerated manifest without restarting
+        JsonNode rootNode = service.getManifestInput(inputs.getManifestFile());
+        String clusterName = rootNode.path("clusterName").textValue();
+        List<JsonNode> localNodes = service.getLocalNodes(rootNode);
+        String hostName = localNodes.isEmpty() ? "unknown" : localNodes.get(0).path("host").asText();
+        Redactor redactor = service.getRedactor();
+        if (redactor != null) {
+            hostName = redactor.redactHost(hostName);
+        }
+
+        String fileName = "diagnostics-artifacts-" + clusterName + "-" + hostName + ".zip";
+        exchange.getResponseHeaders().set("Content-Type", "application/zip");
+        exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        // A length of 0 means chunked - the size isn't known until the zip is finished
+        exchange.sendResponseHeaders(200, 0);
+
+        logger.info("Streaming " + fileName + " to " + exchange.getRemoteAddress());
+        long start = System.currentTimeMillis();
+
+        List<LogAnalyzer> analyzers = new ArrayList<>();
+        analyzers.add(new SlowlogAnalyzer());
+        analyzers.add(new LogEventAnalyzer());
+        analyzers.add(new GcLogAnalyzer());
+
+        try (ZipOutputStream out = new IntegrityZipOutputStream(new BufferedOutputStream(exchange.getResponseBody(), 64 * 1024))) {
+            ZipStreamSink sink = new ZipStreamSink(out, analyzers, redactor);
+            service.processNodes(rootNode, sink, configMap, inputs, null);
+            service.processOsCmds(configMap, sink, inputs);
+            if (redactor != null) {
+                service.saveRedaction(redactionTable);
+            }
+        } catch (IOException | RuntimeException e) {
+            // The status has already gone out, so the client sees a truncated stream
+            logger.error("Streaming " + fileName + " to " + exchange.getRemoteAddress() + " failed", e);
+            return;
+        }
+
+        logger.info("Streamed " + fileName + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
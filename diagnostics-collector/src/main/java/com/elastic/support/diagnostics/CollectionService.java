@@ -1,8 +1,17 @@
 package com.elastic.support.diagnostics;
 
+import com.elastic.support.FileCopier;
 import com.elastic.support.InputParams;
 import com.elastic.support.SystemProperties;
 import com.elastic.support.SystemUtils;
+import com.elastic.support.analysis.GcLogAnalyzer;
+import com.elastic.support.analysis.LogAnalyzer;
+import com.elastic.support.analysis.LogEventAnalyzer;
+import com.elastic.support.analysis.SlowlogAnalyzer;
+import com.elastic.support.archive.ArchiveFormat;
+import com.elastic.support.archive.ArchiveWriter;
+import com.elastic.support.concurrent.BoundedExecutor;
+import com.elastic.support.redact.Redactor;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
@@ -10,9 +19,15 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.ZipOutputStream;
 
 //@Service
@@ -21,10 +36,15 @@ public class CollectionService {
 
     private static final Logger logger = LoggerFactory.getLogger(CollectionService.class);
 
+    private Redactor redactor;
+
     public void run(InputParams inputs) {
 
         logger.debug(inputs.toString());
 
+        // Check the archive format can be written before spending time collecting
+        ArchiveFormat format = ArchiveFormat.parse(inputs.getFormat());
+
         // Get the configFile
         Map configMap = retrieveConfiguration(inputs.getConfigFile());
 
@@ -34,6 +54,7 @@ public class CollectionService {
         // Set up the output directory
         String outputDir = setOutputDir(inputs);
         System.out.println("Results will be written to: " + outputDir);
+        String redactionTable = startRedaction(configMap, inputs, outputDir);
 
         String targetDir = outputDir + SystemProperties.fileSeparator + "diagnostics-artifacts-" + clusterName;
 
@@ -45,11 +66,42 @@ public class CollectionService {
             throw new RuntimeException("Could not create output directory - see logs for details.");
         }
 
-        String hostName = processNodes(rootNode, targetDir);
+        LogCheckpoints checkpoints = null;
+        if (inputs.isIncremental()) {
+            checkpoints = LogCheckpoints.load(outputDir + SystemProperties.fileSeparator + "diagnostics-artifacts-" + clusterName + "-checkpoints.json");
+        }
+
+        FileCopier copier = new FileCopier(inputs.getCopyThreads(), FileCopier.DEFAULT_PARALLEL_THRESHOLD, inputs.isVerifyCopies(),
+                BoundedExecutor.parseMode(inputs.getExecutor()));
+        DirectorySink sink = new DirectorySink(targetDir, copier, redactor);
+        String hostName;
+        try {
+            hostName = processNodes(rootNode, sink, configMap, inputs, checkpoints);
+        } finally {
+            copier.shutdown();
+        }
+
+        if (checkpoints != null) {
+            checkpoints.writeRanges(targetDir);
+        }
+
+        if (inputs.getSampleDuration() > 0) {
+            sampleNodes(rootNode, targetDir, inputs);
+        }
+
+        processOsCmds(configMap, sink, inputs);
 
-        processOsCmds(configMap, targetDir, inputs);
+        if (redactor != null) {
+            saveRedaction(redactionTable);
+            hostName = redactor.redactHost(hostName);
+        }
+
+        zipResults(targetDir, hostName, inputs.getVolumeSize() * 1024L * 1024, format, inputs.getLevel());
 
-        zipResults(targetDir, hostName);
+        // Only move the checkpoints forward once the archive holding the data exists
+        if (checkpoints != null) {
+            checkpoints.save();
+        }
 
     }
 
@@ -99,66 +151,185 @@ public class CollectionService {
         return root;
     }
 
-    public String processNodes(JsonNode root, String target) {
+    public String processNodes(JsonNode root, ArtifactSink sink, Map configMap, InputParams inputs, LogCheckpoints checkpoints) {
 
         String hostName = null;
+        String clusterName = root.path("clusterName").textValue();
+        IoThrottle throttle = new IoThrottle(inputs.getIoLimit());
 
-        try {
-            Set ipAndHosts = this.getIpAndHostData();
+        List<NodeCollector> collectors = new ArrayList<>();
+        for (JsonNode n : getLocalNodes(root)) {
+            String host = n.path("host").asText();
 
-            JsonNode nodes = root.path("nodes");
-            String clusterName = root.path("clusterName").textValue();
+            //If we're going to process one, use the first hostname encountered for the file name.
+            if (hostName == null){
+                hostName = host;
+            }
 
-            Iterator<JsonNode> it = nodes.iterator();
+            String name = n.path("name").asText();
+            String config = n.path("config").asText();
+            String conf = n.path("conf").asText();
+            String logs = n.path("logs").asText();
+            String home = n.path("home").asText();
+            String gcLog = n.path("gcLog").asText();
 
-            while (it.hasNext()) {
-                JsonNode n = it.next();
-                String host = n.path("host").asText();
-                String ip = n.path("ip").asText();
+            String configFileLoc = determineConfigLocation(conf, config, home);
 
-                // if the host we're on doesn't match up with the node entry
-                // then bypass it and move to the next node
-                if (! (ipAndHosts.contains(ip) || ipAndHosts.contains(host) ) ) {
-                    continue;
-                }
+            if ("".equals(logs)) {
+                logs = home + SystemProperties.fileSeparator + "logs";
+            }
+
+            @SuppressWarnings("unchecked")
+            List<String> patterns = (List<String>) configMap.get("gcLogs");
+            List<String> gcLogs = findGcLogs(gcLog, home, logs, patterns);
 
-                //If we're going to process one, use the first hostname encountered for the file name.
-                if (hostName == null){
-                    hostName = host;
+            collectors.add(new NodeCollector(name, clusterName, configFileLoc, logs, gcLogs, sink, throttle, checkpoints));
+        }
+
+        if (collectors.isEmpty()) {
+            return hostName;
+        }
+
+        int threads = Math.max(1, Math.min(collectors.size(), inputs.getThreads()));
+        ExecutorService pool = BoundedExecutor.create("node-collector", threads, BoundedExecutor.parseMode(inputs.getExecutor()));
+        Map<String, List<String>> nodeErrors = new LinkedHashMap<>();
+
+        try {
+            Map<String, Future<List<String>>> results = new LinkedHashMap<>();
+            for (NodeCollector collector : collectors) {
+                results.put(collector.getName(), pool.submit(collector));
+            }
+
+            for (Map.Entry<String, Future<List<String>>> result : results.entrySet()) {
+                String name = result.getKey();
+                try {
+                    List<String> errors = result.getValue().get();
+                    if (!errors.isEmpty()) {
+                        nodeErrors.put(name, errors);
+                    }
+                } catch (ExecutionException e) {
+                    logger.error("Error processing node " + name, e.getCause());
+                    nodeErrors.put(name, Collections.singletonList("Node could not be processed: " + e.getCause()));
                 }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while processing nodes");
+        } finally {
+            pool.shutdownNow();
+        }
 
-                String name = n.path("name").asText();
-                String config = n.path("config").asText();
-                String conf = n.path("conf").asText();
-                String logs = n.path("logs").asText();
-                String home = n.path("home").asText();
+        if (!nodeErrors.isEmpty()) {
+            writeNodeErrors(nodeErrors, sink);
+        }
 
-                // Create a directory for this node
-                String nodeDir = target + SystemProperties.fileSeparator + name;
-                Files.createDirectories(Paths.get(nodeDir));
+        return hostName;
+    }
 
-                String configFileLoc = determineConfigLocation(conf, config, home);
+    private void writeNodeErrors(Map<String, List<String>> nodeErrors, ArtifactSink sink) {
 
-                // Copy the config file
-                SystemUtils.copyFile(configFileLoc, nodeDir + SystemProperties.fileSeparator + "elasticsearch.yml");
+        for (Map.Entry<String, List<String>> entry : nodeErrors.entrySet()) {
+            System.out.println("Node " + entry.getKey() + " completed with " + entry.getValue().size() + " error(s) - see collection_errors.json.");
+        }
 
-                if ("".equals(logs)) {
-                    logs = home + SystemProperties.fileSeparator + "logs";
+        try (OutputStream out = sink.newEntry("collection_errors.json")) {
+            new ObjectMapper().writeValue(new SystemUtils.NonClosingOutputStream(out), nodeErrors);
+        } catch (IOException e) {
+            logger.error("Could not write node errors", e);
+        }
+    }
+
+    /**
+     * Find the GC logs for a node.  If the manifest has the -Xloggc location use it along with
+     * its rotated siblings, otherwise look in the log directory for the configured patterns.
+     */
+    public List<String> findGcLogs(String gcLog, String home, String logs, List<String> patterns) {
+
+        List<String> found = new ArrayList<>();
+
+        try {
+            if (!"".equals(gcLog)) {
+                Path gcPath = Paths.get(gcLog);
+                if (!gcPath.isAbsolute()) {
+                    gcPath = Paths.get(home).resolve(gcPath);
+                }
+                Path dir = gcPath.getParent();
+                if (dir != null && Files.isDirectory(dir)) {
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, gcPath.getFileName() + "*")) {
+                        for (Path file : files) {
+                            found.add(file.toString());
+                        }
+                    }
                 }
+            } else if (patterns != null && Files.isDirectory(Paths.get(logs))) {
+                for (String pattern : patterns) {
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(logs), pattern)) {
+                        for (Path file : files) {
+                            if (!found.contains(file.toString())) {
+                                found.add(file.toString());
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error looking for GC logs", e);
+        }
 
-                // Copy the main and slow logs
-                SystemUtils.copyFile(logs + SystemProperties.fileSeparator + clusterName + ".log", nodeDir + SystemProperties.fileSeparator + clusterName + ".log");
-                SystemUtils.copyFile(logs + SystemProperties.fileSeparator + clusterName + "_index_indexing_slowlog.log", nodeDir + SystemProperties.fileSeparator + clusterName + "_index_indexing_slowlog.log");
-                SystemUtils.copyFile(logs + SystemProperties.fileSeparator + clusterName + "_index_search_slowlog.log", nodeDir + SystemProperties.fileSeparator + clusterName + "_index_search_slowlog.log");
+        logger.debug("GC logs found: " + found);
+        return found;
+    }
 
-                logger.debug("processed node:\n" + name);
+    /**
+     * The manifest covers the whole cluster, so only return the node entries whose
+     * host name or ip matches one of the interfaces on this machine.
+     */
+    public List<JsonNode> getLocalNodes(JsonNode root) {
+
+        Set ipAndHosts = this.getIpAndHostData();
+        List<JsonNode> localNodes = new ArrayList<>();
+
+        Iterator<JsonNode> it = root.path("nodes").iterator();
+        while (it.hasNext()) {
+            JsonNode n = it.next();
+            String host = n.path("host").asText();
+            String ip = n.path("ip").asText();
+
+            // if the host we're on doesn't match up with the node entry
+            // then bypass it and move to the next node
+            if (ipAndHosts.contains(ip) || ipAndHosts.contains(host)) {
+                localNodes.add(n);
             }
-        } catch (Exception e) {
-            logger.error("Error processing the nodes manifest:\n", e);
-            throw new RuntimeException("Error processing node");
         }
 
-        return hostName;
+        return localNodes;
+    }
+
+    public void sampleNodes(JsonNode root, String targetDir, InputParams inputs) {
+
+        if (!OsSampler.isSupported()) {
+            logger.warn("OS sampling requires /proc and is not available on " + SystemProperties.osName);
+            System.out.println("OS sampling is only supported on Linux - skipping.");
+            return;
+        }
+
+        Map<String, Long> nodePids = new LinkedHashMap<>();
+        for (JsonNode n : getLocalNodes(root)) {
+            String name = n.path("name").asText();
+            long pid = n.path("pid").asLong(-1);
+            if (pid <= 0) {
+                logger.warn("No process id in the manifest for node " + name + " - regenerate the manifest to sample it.");
+                continue;
+            }
+            nodePids.put(name, pid);
+        }
+
+        if (nodePids.isEmpty()) {
+            return;
+        }
+
+        OsSampler sampler = new OsSampler(Math.max(1, inputs.getSampleInterval()) * 1000L, inputs.getSampleDuration() * 1000L);
+        sampler.sample(nodePids, targetDir);
     }
 
     public String determineConfigLocation(String conf, String config, String home){
@@ -193,35 +364,95 @@ public class CollectionService {
     }
 
     public void processOsCmds(Map configMap, String targetDir, InputParams inputs) {
-        String os = checkOS();
-        Map<String, String> osCmds = (Map<String, String>) configMap.get(os);
+        processOsCmds(configMap, new DirectorySink(targetDir, null, redactor), inputs);
+    }
 
-        ProcessBuilder pb = new ProcessBuilder();
-        pb.redirectErrorStream(true);
+    /**
+     * Set up redaction when --redact is given, loading the tokens handed out by earlier
+     * runs so values keep them.
+     *
+     * @return where the table of tokens is kept, or null when not redacting
+     */
+    public String startRedaction(Map configMap, InputParams inputs, String outputDir) {
+
+        if (!inputs.isRedact()) {
+            return null;
+        }
+        redactor = new Redactor((Map) configMap.get("redaction"));
+        // The table of original values goes next to the archive, never in it
+        String table = inputs.getRedactionTable() != null ? inputs.getRedactionTable() : outputDir + SystemProperties.fileSeparator + "redaction-table.json";
+        redactor.loadMapping(table);
+        return table;
+    }
 
-        Iterator<Map.Entry<String, String>> iter = osCmds.entrySet().iterator();
-        List cmds = new ArrayList();
+    public void saveRedaction(String table) {
+        redactor.saveMapping(table);
+        System.out.println(redactor.getMappedCount() + " addresses and host names were redacted - " + table + " maps them back and is not part of the archive.");
+    }
+
+    public Redactor getRedactor() {
+        return redactor;
+    }
+
+    /**
+     * Run each OS command for this platform and write what it prints to <label>.txt.
+     * The commands mostly wait on the OS, so they run side by side, and one failing
+     * doesn't stop the rest.
+     */
+    public void processOsCmds(Map configMap, final ArtifactSink sink, InputParams inputs) {
+        String os = checkOS();
+        Map<String, String> osCmds = (Map<String, String>) configMap.get(os);
 
+        ExecutorService pool = BoundedExecutor.create("os-command", inputs.getThreads(), BoundedExecutor.parseMode(inputs.getExecutor()));
+        Map<String, Future<Void>> results = new LinkedHashMap<>();
         try {
-            while (iter.hasNext()) {
-                Map.Entry<String, String> entry = (Map.Entry<String, String>) iter.next();
-                String cmdLabel = entry.getKey();
-                String cmdText = entry.getValue();
-                StringTokenizer st = new StringTokenizer(cmdText, " ");
-                while (st.hasMoreTokens()) {
-                    cmds.add(st.nextToken());
+            for (Map.Entry<String, String> entry : osCmds.entrySet()) {
+                final String cmdLabel = entry.getKey();
+                final String cmdText = entry.getValue();
+                results.put(cmdLabel, pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        runOsCmd(cmdLabel, cmdText, sink);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Map.Entry<String, Future<Void>> result : results.entrySet()) {
+                try {
+                    result.getValue().get();
+                } catch (ExecutionException e) {
+                    logger.error("Error processing system command " + result.getKey(), e.getCause());
                 }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while processing system commands");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-                pb.redirectOutput(new File(targetDir + SystemProperties.fileSeparator + cmdLabel + ".txt"));
-                pb.command(cmds);
-                Process pr = pb.start();
-                pr.waitFor();
-                cmds.clear();
+    private void runOsCmd(String cmdLabel, String cmdText, ArtifactSink sink) throws IOException, InterruptedException {
 
+        List<String> cmds = new ArrayList<>();
+        StringTokenizer st = new StringTokenizer(cmdText, " ");
+        while (st.hasMoreTokens()) {
+            cmds.add(st.nextToken());
+        }
+
+        ProcessBuilder pb = new ProcessBuilder(cmds);
+        pb.redirectErrorStream(true);
+        Process pr = pb.start();
+        byte[] buf = new byte[8192];
+        try (InputStream in = pr.getInputStream();
+             OutputStream out = sink.newEntry(cmdLabel + ".txt")) {
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
             }
-        } catch (Exception e) {
-            logger.error("Error processing system commands", e);
         }
+        pr.waitFor();
     }
 
     public String setOutputDir(InputParams inputs) {
@@ -252,18 +483,38 @@ public class CollectionService {
     }
 
     public void zipResults(String dir, String hostName) {
+        zipResults(dir, hostName, 0);
+    }
+
+    public void zipResults(String dir, String hostName, long volumeBytes) {
+        zipResults(dir, hostName, volumeBytes, ArchiveFormat.ZIP, -1);
+    }
+
+    /**
+     * @param volumeBytes largest size of each archive volume, or 0 for one archive
+     * @param level       compression level, or -1 for the format's default
+     */
+    public void zipResults(String dir, String hostName, long volumeBytes, ArchiveFormat format, int level) {
 
         try {
             File file = new File(dir);
-            String zipFileName = dir + "-" + hostName + ".zip";
-            ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFileName));
-            out.setLevel(ZipOutputStream.DEFLATED);
-            SystemUtils.zipDir("", file, out);
+            String zipFileName = dir + "-" + hostName;
+            ArchiveWriter out = new ArchiveWriter(zipFileName, Math.max(0, volumeBytes), format);
+            out.setLevel(level >= 0 ? level : format == ArchiveFormat.ZIP ? ZipOutputStream.DEFLATED : -1);
+            List<LogAnalyzer> analyzers = new ArrayList<>();
+            analyzers.add(new SlowlogAnalyzer());
+            analyzers.add(new LogEventAnalyzer());
+            analyzers.add(new GcLogAnalyzer());
+            SystemUtils.zipDir("", file, out, analyzers);
             logger.debug("Archive " + zipFileName);
             file.delete();
             logger.debug("Temp directory " + dir + " was deleted.");
             out.close();
 
+            if (out.getVolumes().size() > 1) {
+                System.out.println("Archive split into " + out.getVolumes().size() + " volumes - " + out.getIndexPath() + " lists the entries in each.");
+            }
+
         } catch (Exception ioe) {
             logger.error("Couldn't create archive.\n", ioe);
             throw new RuntimeException(("Error creating compressed archive from statistics files." ));
@@ -0,0 +1,394 @@
+package com.elastic.support.diagnostics;
+
+import com.elastic.support.InputParams;
+import com.elastic.support.SystemProperties;
+import com.elastic.support.archive.ArchiveFormat;
+import com.elastic.support.redact.Redactor;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stays resident on the host and keeps the recent history of the local nodes in memory:
+ * process samples in a SampleRing and the tail of the cluster and GC logs in a LogTail
+ * per file.  Both are sized once at startup from the memory budget.  When a USR2 signal,
+ * a "dump" on the localhost trigger port or the trigger file arrives, the buffers are
+ * copied out and archived the same way a normal collection is, while sampling carries on.
+ */
+public class CollectorAgent {
+
+    private static final Logger logger = LoggerFactory.getLogger(CollectorAgent.class);
+
+    static final int MIN_TAIL_BYTES = 64 * 1024;
+    // How long a trigger connection may take to send its command before it is dropped
+    static final int TRIGGER_READ_TIMEOUT_MILLIS = 5000;
+
+    private final CollectionService service = new CollectionService();
+    private final AtomicBoolean dumpRequested = new AtomicBoolean();
+    private final Object wakeup = new Object();
+    private volatile boolean running = true;
+
+    private final List<AgentNode> nodes = new ArrayList<>();
+    private ExecutorService writer;
+    private ServerSocket triggerSocket;
+    private String redactionTable;
+    private boolean usr2;
+    private ArchiveFormat format;
+
+    public void run(InputParams inputs) {
+
+        logger.debug(inputs.toString());
+
+        // Check the archive format before any history is kept, as the collection does
+        format = ArchiveFormat.parse(inputs.getFormat());
+
+        Map configMap = service.retrieveConfiguration(inputs.getConfigFile());
+        JsonNode rootNode = service.getManifestInput(inputs.getManifestFile());
+        String clusterName = rootNode.path("clusterName").textValue();
+        String outputDir = service.setOutputDir(inputs);
+        redactionTable = service.startRedaction(configMap, inputs, outputDir);
+
+        long intervalMillis = Math.max(1, inputs.getSampleInterval()) * 1000L;
+        int samples = (int) Math.max(1, inputs.getAgentHistory() * 1000L / intervalMillis);
+        boolean sampling = OsSampler.isSupported();
+        if (!sampling) {
+            logger.warn("OS sampling requires /proc and is not available on " + SystemProperties.osName);
+            System.out.println("OS sampling is only supported on Linux - the agent will only keep log tails.");
+        }
+
+        String hostName = null;
+        List<JsonNode> localNodes = service.getLocalNodes(rootNode);
+        List<String[]> tailFiles = new ArrayList<>();
+        for (JsonNode n : localNodes) {
+            if (hostName == null) {
+                hostName = n.path("host").asText();
+            }
+            String home = n.path("home").asText();
+            String logs = n.path("logs").asText();
+            if ("".equals(logs)) {
+                logs = home + SystemProperties.fileSeparator + "logs";
+            }
+
+            List<String> files = new ArrayList<>();
+            files.add(logs + SystemProperties.fileSeparator + clusterName + ".log");
+            @SuppressWarnings("unchecked")
+            List<String> patterns = (List<String>) configMap.get("gcLogs");
+            String gcLog = currentGcLog(n.path("gcLog").asText(), home, logs, patterns);
+            if (gcLog != null) {
+                files.add(gcLog);
+            }
+            tailFiles.add(files.toArray(new String[files.size()]));
+        }
+
+        if (localNodes.isEmpty()) {
+            logger.error("No nodes in the manifest matched the interfaces on this host.");
+            throw new RuntimeException("None of the nodes in the manifest are running on this host.");
+        }
+
+        // Sample rings are small and fixed, the log tails share what is left of the budget
+        long budget = inputs.getAgentMemory() * 1024L * 1024L;
+        long sampleBytes = sampling ? (long) localNodes.size() * samples * SampleRing.SAMPLE_BYTES : 0;
+        int tailCount = 0;
+        for (String[] files : tailFiles) {
+            tailCount += files.length;
+        }
+        long tailBytes = (budget - sampleBytes) / tailCount;
+        if (tailBytes < MIN_TAIL_BYTES) {
+            logger.error("Agent memory of " + budget + " bytes leaves " + tailBytes + " bytes per log tail after " + sampleBytes + " bytes of samples.");
+            throw new RuntimeException("--agentMemory is too small for the sample history and log tails - increase it or reduce --agentHistory.");
+        }
+        tailBytes = Math.min(tailBytes, Integer.MAX_VALUE - 8);
+
+        OsSampler sampler = sampling ? new OsSampler(intervalMillis, intervalMillis) : null;
+        for (int i = 0; i < localNodes.size(); i++) {
+            JsonNode n = localNodes.get(i);
+            AgentNode node = new AgentNode(n.path("name").asText(), n.path("pid").asLong(-1));
+            if (sampling) {
+                node.openSamples(samples);
+            }
+            for (String file : tailFiles.get(i)) {
+                node.tails.add(new LogTail(file, (int) tailBytes));
+            }
+            nodes.add(node);
+        }
+
+        writer = Executors.newSingleThreadExecutor();
+        startTriggers(inputs);
+        // A Runnable rather than a Thread subclass, where stop() would be Thread.stop()
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CollectorAgent.this.stop();
+            }
+        }, "agent-shutdown"));
+
+        if (service.getRedactor() != null && hostName != null) {
+            hostName = service.getRedactor().redactHost(hostName);
+        }
+
+        File triggerFile = new File(getTriggerFile(inputs, outputDir));
+        System.out.println("Agent running for " + nodes.size() + " node(s) using up to " + inputs.getAgentMemory() + "MB.");
+        System.out.println("Create " + triggerFile + (usr2 ? ", send USR2" : "") + (inputs.getTriggerPort() > 0 ? " or send dump to localhost:" + inputs.getTriggerPort() : "") + " to write a snapshot.");
+
+        long next = System.currentTimeMillis();
+        while (running) {
+            long now = System.currentTimeMillis();
+            for (AgentNode node : nodes) {
+                node.sample(sampler, now);
+            }
+
+            if (triggerFile.exists()) {
+                triggerFile.delete();
+                dumpRequested.set(true);
+            }
+            if (dumpRequested.compareAndSet(true, false)) {
+                dump(configMap, inputs, outputDir, clusterName, hostName, intervalMillis, sampler);
+            }
+
+            next += intervalMillis;
+            long wait = next - System.currentTimeMillis();
+            if (wait < 0) {
+                next = System.currentTimeMillis();
+                continue;
+            }
+            synchronized (wakeup) {
+                try {
+                    if (!dumpRequested.get() && running) {
+                        wakeup.wait(wait);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running = false;
+                }
+            }
+        }
+
+        writer.shutdown();
+    }
+
+    public void requestDump(String source) {
+        logger.info("Snapshot requested by " + source);
+        dumpRequested.set(true);
+        synchronized (wakeup) {
+            wakeup.notifyAll();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        synchronized (wakeup) {
+            wakeup.notifyAll();
+        }
+        if (triggerSocket != null) {
+            try {
+                triggerSocket.close();
+            } catch (IOException e) {
+                logger.debug("Could not close trigger socket", e);
+            }
+        }
+    }
+
+    /**
+     * Copy the buffers on the sampling thread, then hand the writing and archiving to
+     * the writer thread so the history keeps being recorded while it runs.
+     */
+    private void dump(final Map configMap, final InputParams inputs, String outputDir, String clusterName,
+                      final String hostName, long intervalMillis, OsSampler sampler) {
+
+        final String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        final String targetDir = outputDir + SystemProperties.fileSeparator + "diagnostics-agent-" + clusterName + "-" + stamp;
+
+        final Map<String, Map<String, Object>> samples = new LinkedHashMap<>();
+        final Map<String, Map<String, byte[]>> tails = new LinkedHashMap<>();
+        for (AgentNode node : nodes) {
+            if (node.ring != null) {
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("pid", node.pid);
+                result.put("intervalMillis", intervalMillis);
+                result.put("ticksPerSecond", sampler.getTicksPerSecond());
+                result.put("process", node.ring.snapshot());
+                samples.put(node.name, result);
+            }
+            Map<String, byte[]> nodeTails = new LinkedHashMap<>();
+            for (LogTail tail : node.tails) {
+                nodeTails.put(tail.getName(), tail.snapshot());
+            }
+            tails.put(node.name, nodeTails);
+        }
+
+        writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(targetDir, samples, tails);
+                    service.processOsCmds(configMap, targetDir, inputs);
+                    if (service.getRedactor() != null) {
+                        service.saveRedaction(redactionTable);
+                    }
+                    service.zipResults(targetDir, hostName, inputs.getVolumeSize() * 1024L * 1024, format, inputs.getLevel());
+                    System.out.println("Snapshot written to " + targetDir + "-" + hostName + "." + format.getExtension());
+                } catch (RuntimeException e) {
+                    logger.error("Could not write agent snapshot " + targetDir, e);
+                }
+            }
+        });
+    }
+
+    private void writeSnapshot(String targetDir, Map<String, Map<String, Object>> samples, Map<String, Map<String, byte[]>> tails) {
+
+        ObjectMapper mapper = new ObjectMapper();
+        try {
+            for (Map.Entry<String, Map<String, byte[]>> node : tails.entrySet()) {
+                String nodeDir = targetDir + SystemProperties.fileSeparator + node.getKey();
+                Files.createDirectories(Paths.get(nodeDir));
+                if (samples.containsKey(node.getKey())) {
+                    mapper.writeValue(new File(nodeDir + SystemProperties.fileSeparator + "os_samples.json"), samples.get(node.getKey()));
+                }
+                Redactor redactor = service.getRedactor();
+                for (Map.Entry<String, byte[]> tail : node.getValue().entrySet()) {
+                    if (redactor == null || Redactor.isCompressed(tail.getKey())) {
+                        Files.write(Paths.get(nodeDir, tail.getKey()), tail.getValue());
+                    } else {
+                        try (OutputStream out = redactor.lines(new FileOutputStream(new File(nodeDir, tail.getKey())))) {
+                            out.write(tail.getValue());
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not write snapshot files", e);
+            throw new RuntimeException("Could not write agent snapshot - see logs for details.");
+        }
+    }
+
+    private void startTriggers(InputParams inputs) {
+
+        usr2 = SignalTrigger.install("USR2", new Runnable() {
+            @Override
+            public void run() {
+                requestDump("signal USR2");
+            }
+        });
+        if (!usr2) {
+            // Not every platform or JVM lets applications handle USR2
+            logger.warn("USR2 cannot be used to trigger snapshots here - use the trigger file or port.");
+        }
+
+        if (inputs.getTriggerPort() <= 0) {
+            return;
+        }
+
+        try {
+            triggerSocket = new ServerSocket(inputs.getTriggerPort(), 5, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            logger.error("Could not listen on localhost:" + inputs.getTriggerPort(), e);
+            throw new RuntimeException("Could not open the agent trigger port - is it already in use?");
+        }
+
+        Thread listener = new Thread("agent-trigger") {
+            @Override
+            public void run() {
+                while (running) {
+                    try (Socket client = triggerSocket.accept();
+                         BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+                         Writer out = new OutputStreamWriter(client.getOutputStream(), "UTF-8")) {
+                        // An idle connection mustn't hold up the triggers queued behind it
+                        client.setSoTimeout(TRIGGER_READ_TIMEOUT_MILLIS);
+                        String command = in.readLine();
+                        if (command != null && "dump".equalsIgnoreCase(command.trim())) {
+                            requestDump("trigger port");
+                            out.write("Snapshot requested.\n");
+                        } else {
+                            out.write("Unknown command - send dump to write a snapshot.\n");
+                        }
+                    } catch (IOException e) {
+                        if (running) {
+                            logger.debug("Trigger connection failed", e);
+                        }
+                    }
+                }
+            }
+        };
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    private String getTriggerFile(InputParams inputs, String outputDir) {
+        if (inputs.getTriggerFile() != null) {
+            return inputs.getTriggerFile();
+        }
+        return outputDir + SystemProperties.fileSeparator + "diagnostics-agent.trigger";
+    }
+
+    /**
+     * The log the JVM is writing GC events to right now, rather than the rotated ones.
+     */
+    private String currentGcLog(String gcLog, String home, String logs, List<String> patterns) {
+
+        List<String> found = service.findGcLogs(gcLog, home, logs, patterns);
+        String current = null;
+        for (String file : found) {
+            if (file.endsWith(".current")) {
+                return file;
+            }
+            if (!"".equals(gcLog) && file.endsWith(Paths.get(gcLog).getFileName().toString())) {
+                current = file;
+            }
+        }
+        if (current == null && "".equals(gcLog) && !found.isEmpty()) {
+            current = found.get(0);
+        }
+        return current;
+    }
+
+    static class AgentNode {
+
+        final String name;
+        final long pid;
+        final List<LogTail> tails = new ArrayList<>();
+        SampleRing ring;
+        RandomAccessFile stat;
+        boolean gone;
+
+        AgentNode(String name, long pid) {
+            this.name = name;
+            this.pid = pid;
+        }
+
+        void openSamples(int samples) {
+            if (pid <= 0) {
+                logger.warn("No process id in the manifest for node " + name + " - regenerate the manifest to sample it.");
+                return;
+            }
+            try {
+                stat = new RandomAccessFile("/proc/" + pid + "/stat", "r");
+                ring = new SampleRing(samples);
+            } catch (IOException e) {
+                logger.warn("Process " + pid + " for node " + name + " is not running - it will not be sampled.");
+            }
+        }
+
+        void sample(OsSampler sampler, long now) {
+            if (stat != null && !gone && !sampler.recordProcess(stat, ring, now)) {
+                logger.warn("Process " + pid + " is no longer running - sampling stopped for it.");
+                gone = true;
+            }
+            for (LogTail tail : tails) {
+                tail.poll();
+            }
+        }
+    }
+}
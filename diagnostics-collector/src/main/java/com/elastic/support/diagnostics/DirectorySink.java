@@ -0,0 +1,109 @@
+package com.elastic.support.diagnostics;
+
+import com.elastic.support.FileCopier;
+import com.elastic.support.redact.Redactor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Writes artifacts into a working directory that is archived once collection completes.
+ * With a redactor, text is redacted as it is written, so files are read through rather
+ * than copied by channel transfers.
+ */
+public class DirectorySink implements ArtifactSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectorySink.class);
+
+    private final String targetDir;
+    private final FileCopier copier;
+    private final Redactor redactor;
+
+    public DirectorySink(String targetDir, FileCopier copier) {
+        this(targetDir, copier, null);
+    }
+
+    public DirectorySink(String targetDir, FileCopier copier, Redactor redactor) {
+        this.targetDir = targetDir;
+        this.copier = copier;
+        this.redactor = redactor;
+    }
+
+    @Override
+    public long addFile(String name, String src, long position) {
+        try {
+            if (redactor != null && !Redactor.isCompressed(name)) {
+                return redactedCopy(src, createParent(name), position);
+            }
+            return copier.copy(src, createParent(name).toString(), position);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public OutputStream newEntry(String name) throws IOException {
+        OutputStream out = new FileOutputStream(createParent(name).toFile());
+        return redactor == null ? out : redactor.lines(new BufferedOutputStream(out, 64 * 1024));
+    }
+
+    private long redactedCopy(String src, Path dest, long position) {
+
+        try (FileChannel source = new FileInputStream(src).getChannel();
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(dest.toFile()), 64 * 1024)) {
+            long end = source.size();
+            source.position(Math.min(position, end));
+            // Stop at the size seen now - what is appended meanwhile is left for the next copy
+            InputStream in = new BoundedInput(Channels.newInputStream(source), end - source.position());
+            redactor.copyText(in, out);
+            return end;
+        } catch (IOException e) {
+            logger.error("Problem redacting file: " + src + " to " + dest, e);
+            return -1;
+        }
+    }
+
+    private Path createParent(String name) throws IOException {
+        Path path = Paths.get(targetDir, name.split("/"));
+        Files.createDirectories(path.getParent());
+        return path;
+    }
+
+    private static class BoundedInput extends FilterInputStream {
+
+        private long remaining;
+
+        BoundedInput(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
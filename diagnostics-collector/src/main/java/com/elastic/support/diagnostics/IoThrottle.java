@@ -0,0 +1,58 @@
+package com.elastic.support.diagnostics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the number of concurrent file copies per file system, so nodes whose logs
+ * live on different disks proceed in parallel while nodes sharing a spindle
+ * don't fight over it.
+ */
+public class IoThrottle {
+
+    private static final Logger logger = LoggerFactory.getLogger(IoThrottle.class);
+
+    private final int permitsPerStore;
+    private final ConcurrentMap<Object, Semaphore> stores = new ConcurrentHashMap<>();
+    private final Semaphore unknownStore;
+
+    public IoThrottle(int permitsPerStore) {
+        this.permitsPerStore = Math.max(1, permitsPerStore);
+        this.unknownStore = new Semaphore(this.permitsPerStore, true);
+    }
+
+    public Semaphore forPath(String file) {
+
+        Object key;
+        try {
+            Path path = Paths.get(file);
+            if (!Files.exists(path)) {
+                path = path.getParent();
+            }
+            FileStore store = Files.getFileStore(path);
+            key = store;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Could not determine the file system for " + file, e);
+            return unknownStore;
+        }
+
+        Semaphore permits = stores.get(key);
+        if (permits == null) {
+            Semaphore created = new Semaphore(permitsPerStore, true);
+            permits = stores.putIfAbsent(key, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        return permits;
+    }
+}
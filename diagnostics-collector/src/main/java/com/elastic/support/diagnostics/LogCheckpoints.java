@@ -0,0 +1,230 @@
+package com.elastic.support.diagnostics;
+
+import com.elastic.support.SystemProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers how far into each log a previous collection got, so an incremental
+ * run only archives what was appended since.  A log is copied from the start
+ * again if it was rotated (different file key, or the first bytes changed) or
+ * truncated (smaller than the saved offset).  After a rotation the old file can
+ * usually still be found next to the new one by its file key, so what was written
+ * to it between the last run and the rotation is not lost.
+ */
+public class LogCheckpoints {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogCheckpoints.class);
+
+    // How much of the start of the file is hashed to recognise it after a rotation.
+    static final int HEAD_BYTES = 4096;
+
+    private final File file;
+    private final ConcurrentMap<String, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Map<String, Object>> ranges = new ConcurrentHashMap<>();
+
+    public LogCheckpoints(File file) {
+        this.file = file;
+    }
+
+    public static LogCheckpoints load(String path) {
+
+        LogCheckpoints result = new LogCheckpoints(new File(path));
+        if (!result.file.exists()) {
+            logger.debug("No checkpoint file at " + path + " - logs will be collected in full.");
+            return result;
+        }
+
+        try {
+            Map<String, Checkpoint> saved = new ObjectMapper().readValue(result.file, new TypeReference<Map<String, Checkpoint>>() {});
+            result.checkpoints.putAll(saved);
+        } catch (IOException e) {
+            logger.error("Could not read checkpoint file " + path + " - logs will be collected in full.", e);
+        }
+        return result;
+    }
+
+    /**
+     * Work out where collection of the log should start this time.
+     */
+    public long getStartOffset(String path) {
+
+        Checkpoint previous = checkpoints.get(path);
+        if (previous == null) {
+            return 0;
+        }
+
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            String reason = null;
+
+            if (!String.valueOf(attrs.fileKey()).equals(previous.fileKey)) {
+                reason = "rotated";
+            } else if (attrs.size() < previous.offset) {
+                reason = "truncated";
+            } else if (headHash(path, previous.headLength) != previous.headHash) {
+                reason = "rewritten";
+            }
+
+            if (reason != null) {
+                logger.debug(path + " was " + reason + " since the last collection - copying from the start.");
+                record(path, "reset", reason);
+                return 0;
+            }
+            return previous.offset;
+
+        } catch (IOException e) {
+            logger.debug("Could not check " + path + " against its checkpoint.", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Find the file a log was rotated to since the last collection: the sibling that
+     * still has the saved file key.  Must be called before the log's checkpoint is
+     * updated.
+     *
+     * @return the rotated file, or null if the log wasn't rotated or the old file is
+     * gone (deleted, or compressed into a new file)
+     */
+    public String findRotated(String path) {
+
+        Checkpoint previous = checkpoints.get(path);
+        Path log = Paths.get(path);
+        Path dir = log.toAbsolutePath().getParent();
+        if (previous == null || dir == null) {
+            return null;
+        }
+
+        try (DirectoryStream<Path> siblings = Files.newDirectoryStream(dir)) {
+            if (Files.exists(log) && String.valueOf(Files.readAttributes(log, BasicFileAttributes.class).fileKey()).equals(previous.fileKey)) {
+                return null;
+            }
+            for (Path sibling : siblings) {
+                if (sibling.getFileName().equals(log.getFileName()) || !Files.isRegularFile(sibling)) {
+                    continue;
+                }
+                Object key = Files.readAttributes(sibling, BasicFileAttributes.class).fileKey();
+                if (key != null && String.valueOf(key).equals(previous.fileKey)) {
+                    record(path, "rotatedTo", sibling.toString());
+                    return sibling.toString();
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Could not look for the rotated copy of " + path, e);
+        }
+
+        logger.debug("The rotated copy of " + path + " was not found - anything written to it after the last collection is not included.");
+        return null;
+    }
+
+    /**
+     * Work out where to start copying a file the log was rotated to: the saved offset,
+     * or the start if the rotated file has since been truncated.
+     */
+    public long getRotatedOffset(String path, String rotated) {
+
+        Checkpoint previous = checkpoints.get(path);
+        if (previous == null) {
+            return 0;
+        }
+        long offset = new File(rotated).length() < previous.offset ? 0 : previous.offset;
+        record(path, "rotatedFrom", offset);
+        return offset;
+    }
+
+    /**
+     * Record that the log has now been collected up to the given offset.
+     */
+    public void update(String path, long start, long end) {
+
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.path = path;
+            checkpoint.fileKey = String.valueOf(attrs.fileKey());
+            checkpoint.size = attrs.size();
+            checkpoint.offset = end;
+            checkpoint.headLength = (int) Math.min(HEAD_BYTES, end);
+            checkpoint.headHash = headHash(path, checkpoint.headLength);
+            checkpoints.put(path, checkpoint);
+
+            record(path, "from", start);
+            record(path, "to", end);
+        } catch (IOException e) {
+            logger.error("Could not update the checkpoint for " + path, e);
+        }
+    }
+
+    /**
+     * Write the byte ranges collected by this run into the archive so it's clear
+     * which logs are partial.
+     */
+    public void writeRanges(String target) {
+
+        try {
+            new ObjectMapper().writeValue(new File(target + SystemProperties.fileSeparator + "incremental.json"), new TreeMap<>(ranges));
+        } catch (IOException e) {
+            logger.error("Could not write incremental collection ranges", e);
+        }
+    }
+
+    public void save() {
+
+        try {
+            new ObjectMapper().writeValue(file, new TreeMap<>(checkpoints));
+            logger.debug("Saved " + checkpoints.size() + " log checkpoints to " + file);
+        } catch (IOException e) {
+            logger.error("Could not save checkpoint file " + file, e);
+        }
+    }
+
+    private void record(String path, String key, Object value) {
+
+        Map<String, Object> range = ranges.get(path);
+        if (range == null) {
+            ranges.putIfAbsent(path, new ConcurrentHashMap<String, Object>());
+            range = ranges.get(path);
+        }
+        range.put(key, value);
+    }
+
+    static long headHash(String path, int length) throws IOException {
+
+        byte[] head = new byte[length];
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r")) {
+            if (raf.length() < length) {
+                return -1;
+            }
+            raf.readFully(head);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(head);
+        return crc.getValue();
+    }
+
+    public static class Checkpoint {
+        public String path;
+        public String fileKey;
+        public long size;
+        public long offset;
+        public int headLength;
+        public long headHash;
+    }
+}
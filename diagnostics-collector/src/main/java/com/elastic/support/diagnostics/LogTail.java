@@ -0,0 +1,159 @@
+package com.elastic.support.diagnostics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Follows a log file and keeps its most recent bytes in a fixed ring.  The ring and
+ * the read buffer are allocated up front; polling only allocates to check the file is
+ * still the one open, and when it has to be reopened after it was rotated or truncated.
+ */
+public class LogTail {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogTail.class);
+
+    static final int READ_SIZE = 64 * 1024;
+
+    private final File file;
+    private final byte[] ring;
+    private final ByteBuffer readBuf;
+    private long written;
+    private FileChannel channel;
+    private Object fileKey;
+    private long position;
+
+    public LogTail(String path, int capacity) {
+        this.file = new File(path);
+        this.ring = new byte[capacity];
+        this.readBuf = ByteBuffer.allocate(Math.min(READ_SIZE, capacity));
+    }
+
+    public String getName() {
+        return file.getName();
+    }
+
+    /**
+     * Append whatever has been written to the file since the last poll.
+     */
+    public void poll() {
+
+        try {
+            long length = file.length();
+            if (channel != null && (length < position || isReplaced())) {
+                // Rotated or truncated - start again on the new file
+                close();
+                if (!file.exists()) {
+                    return;
+                }
+                open(0);
+            } else if (channel == null) {
+                if (!file.exists()) {
+                    return;
+                }
+                // Only the last capacity bytes of what is already there can be kept
+                open(Math.max(0, length - ring.length));
+            }
+
+            int read;
+            while ((read = readChunk()) > 0) {
+                append(readBuf.array(), read);
+            }
+        } catch (IOException e) {
+            logger.debug("Could not read " + file, e);
+            close();
+        }
+    }
+
+    private void open(long start) throws IOException {
+        channel = new FileInputStream(file).getChannel();
+        fileKey = readFileKey();
+        position = start;
+    }
+
+    /**
+     * A rotation that happens between polls can leave a new file as long as the old one,
+     * so the file key is compared as well as the length.
+     */
+    private boolean isReplaced() {
+        try {
+            Object current = readFileKey();
+            return current == null ? fileKey != null : !current.equals(fileKey);
+        } catch (IOException e) {
+            // Gone between the rotation and the new file being created
+            return true;
+        }
+    }
+
+    private Object readFileKey() throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    private int readChunk() throws IOException {
+        readBuf.clear();
+        int read = channel.read(readBuf, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    void append(byte[] data, int len) {
+
+        int offset = 0;
+        if (len > ring.length) {
+            offset = len - ring.length;
+            len = ring.length;
+        }
+        int slot = (int) (written % ring.length);
+        int first = Math.min(len, ring.length - slot);
+        System.arraycopy(data, offset, ring, slot, first);
+        System.arraycopy(data, offset + first, ring, 0, len - first);
+        written += len;
+    }
+
+    /**
+     * Copy the retained bytes out oldest first.  Once the ring has wrapped, the partial
+     * line at the start is dropped so the snapshot begins on a line boundary.
+     */
+    public byte[] snapshot() {
+
+        if (written <= ring.length) {
+            byte[] copy = new byte[(int) written];
+            System.arraycopy(ring, 0, copy, 0, copy.length);
+            return copy;
+        }
+
+        int start = (int) (written % ring.length);
+        int skip = 0;
+        while (skip < ring.length && ring[(start + skip) % ring.length] != '\n') {
+            skip++;
+        }
+        skip = Math.min(skip + 1, ring.length);
+
+        byte[] copy = new byte[ring.length - skip];
+        int from = (start + skip) % ring.length;
+        int first = Math.min(copy.length, ring.length - from);
+        System.arraycopy(ring, from, copy, 0, first);
+        System.arraycopy(ring, 0, copy, first, copy.length - first);
+        return copy;
+    }
+
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Could not close " + file, e);
+            }
+            channel = null;
+        }
+    }
+}
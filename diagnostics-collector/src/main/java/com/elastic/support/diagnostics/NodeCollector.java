@@ -0,0 +1,109 @@
+package com.elastic.support.diagnostics;
+
+import com.elastic.support.SystemProperties;
+import com.elastic.support.analysis.LogAnalyzer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Adds the config and log files for a single node to the sink under its own directory.
+ * Runs on the collection pool alongside the other nodes on this host, and returns
+ * the files it could not copy rather than failing the whole run.
+ */
+public class NodeCollector implements Callable<List<String>> {
+
+    private static final Logger logger = LoggerFactory.getLogger(NodeCollector.class);
+
+    private final String name;
+    private final String clusterName;
+    private final String configFileLoc;
+    private final String logs;
+    private final List<String> gcLogs;
+    private final ArtifactSink sink;
+    private final IoThrottle throttle;
+    private final LogCheckpoints checkpoints;
+
+    public NodeCollector(String name, String clusterName, String configFileLoc, String logs, List<String> gcLogs,
+                         ArtifactSink sink, IoThrottle throttle, LogCheckpoints checkpoints) {
+        this.name = name;
+        this.clusterName = clusterName;
+        this.configFileLoc = configFileLoc;
+        this.logs = logs;
+        this.gcLogs = gcLogs;
+        this.sink = sink;
+        this.throttle = throttle;
+        this.checkpoints = checkpoints;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public List<String> call() throws Exception {
+
+        List<String> errors = new ArrayList<>();
+
+        // Copy the config file
+        copy(configFileLoc, "elasticsearch.yml", false, errors);
+
+        // Copy the main and slow logs
+        copyLog(clusterName + ".log", errors);
+        copyLog(clusterName + "_index_indexing_slowlog.log", errors);
+        copyLog(clusterName + "_index_search_slowlog.log", errors);
+
+        // GC logs keep their own names in a directory of their own, which is what the archiver's GC analysis looks for
+        for (String gcLog : gcLogs) {
+            copy(gcLog, LogAnalyzer.GC_LOG_DIR + "/" + Paths.get(gcLog).getFileName(), true, errors);
+        }
+
+        logger.debug("processed node:\n" + name);
+        return errors;
+    }
+
+    private void copyLog(String fileName, List<String> errors) {
+        copy(logs + SystemProperties.fileSeparator + fileName, fileName, true, errors);
+    }
+
+    private void copy(String src, String fileName, boolean incremental, List<String> errors) {
+
+        Semaphore permits = throttle.forPath(src);
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add("Interrupted before copying " + src);
+            return;
+        }
+
+        try {
+            // The tail of a log rotated since the last run is in the old file, so take that first
+            if (incremental && checkpoints != null) {
+                String rotated = checkpoints.findRotated(src);
+                if (rotated != null) {
+                    String rotatedName = fileName.substring(0, fileName.lastIndexOf('/') + 1) + Paths.get(rotated).getFileName();
+                    if (sink.addFile(name + "/" + rotatedName, rotated, checkpoints.getRotatedOffset(src, rotated)) < 0) {
+                        errors.add("Could not copy " + rotated);
+                    }
+                }
+            }
+
+            // Logs only need what was appended since the last run when checkpointing
+            long start = (incremental && checkpoints != null) ? checkpoints.getStartOffset(src) : 0;
+            long end = sink.addFile(name + "/" + fileName, src, start);
+            if (end < 0) {
+                errors.add("Could not copy " + src);
+            } else if (incremental && checkpoints != null) {
+                checkpoints.update(src, start, end);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.elastic.support.diagnostics;
+
+import com.elastic.support.SystemProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Samples per-thread CPU for the Elasticsearch processes on this host by reading
+ * /proc directly, the equivalent of running top -H at a fixed interval.  Values are
+ * kept in primitive arrays indexed by sample number and written out once at the end.
+ */
+public class OsSampler {
+
+    private static final Logger logger = LoggerFactory.getLogger(OsSampler.class);
+
+    private static final String PROC = "/proc";
+
+    // Field positions in /proc/[pid]/stat, counted from the first field after the command name.
+    static final int MAJFLT = 9;
+    static final int UTIME = 11;
+    static final int STIME = 12;
+    static final int NUM_THREADS = 17;
+    static final int RSS = 21;
+
+    private final long intervalMillis;
+    private final int sampleCount;
+    private final long ticksPerSecond;
+    private final long pageSize;
+
+    // Reused for every stat file read so a sample doesn't churn buffers.
+    private final byte[] buf = new byte[4096];
+    private final long[] fields = new long[RSS + 1];
+    private String lastName;
+
+    public OsSampler(long intervalMillis, long durationMillis) {
+        this.intervalMillis = intervalMillis;
+        this.sampleCount = (int) Math.max(1, durationMillis / intervalMillis);
+        this.ticksPerSecond = getconf("CLK_TCK", 100);
+        this.pageSize = getconf("PAGESIZE", 4096);
+    }
+
+    public static boolean isSupported() {
+        return new File(PROC + "/self/task").isDirectory();
+    }
+
+    /**
+     * Sample every pid in the map for the configured duration and write one
+     * thread_cpu.json file per node into its directory under the target.
+     *
+     * @param nodePids node name to process id
+     * @param target   the collection directory
+     */
+    public void sample(Map<String, Long> nodePids, String target) {
+
+        long[] timestamps = new long[sampleCount];
+        Map<String, ProcessSeries> series = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : nodePids.entrySet()) {
+            series.put(entry.getKey(), new ProcessSeries(entry.getValue(), sampleCount));
+        }
+
+        System.out.println("Sampling " + series.size() + " node process(es) for " + (sampleCount * intervalMillis / 1000) + " seconds.");
+
+        long next = System.currentTimeMillis();
+        for (int i = 0; i < sampleCount; i++) {
+            timestamps[i] = System.currentTimeMillis();
+            for (ProcessSeries ps : series.values()) {
+                sampleProcess(ps, i);
+            }
+
+            next += intervalMillis;
+            long wait = next - System.currentTimeMillis();
+            if (wait > 0 && i < sampleCount - 1) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.warn("OS sampling interrupted after " + (i + 1) + " samples.");
+                    break;
+                }
+            }
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        for (Map.Entry<String, ProcessSeries> entry : series.entrySet()) {
+            String nodeDir = target + SystemProperties.fileSeparator + entry.getKey();
+            try {
+                new File(nodeDir).mkdirs();
+                mapper.writeValue(new File(nodeDir + SystemProperties.fileSeparator + "thread_cpu.json"),
+                        entry.getValue().toMap(timestamps, intervalMillis, ticksPerSecond));
+            } catch (IOException e) {
+                logger.error("Could not write OS samples for node " + entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Record one sample of a process' totals into the ring.  The stat file is kept open
+     * by the caller and re-read from the start, so the agent's sampling loop doesn't
+     * allocate.
+     *
+     * @return false if the process could not be read
+     */
+    public boolean recordProcess(RandomAccessFile stat, SampleRing ring, long timestamp) {
+
+        int len = 0;
+        try {
+            stat.seek(0);
+            int read;
+            while (len < buf.length && (read = stat.read(buf, len, buf.length - len)) > 0) {
+                len += read;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        if (!parseStat(buf, len, false)) {
+            return false;
+        }
+        ring.record(timestamp, fields[UTIME] + fields[STIME], fields[RSS] * pageSize, fields[NUM_THREADS], fields[MAJFLT]);
+        return true;
+    }
+
+    public long getTicksPerSecond() {
+        return ticksPerSecond;
+    }
+
+    void sampleProcess(ProcessSeries ps, int sample) {
+
+        String procDir = PROC + "/" + ps.pid;
+        if (!readStat(procDir + "/stat", false)) {
+            if (!ps.gone) {
+                logger.warn("Process " + ps.pid + " is no longer running - sampling stopped for it.");
+                ps.gone = true;
+            }
+            return;
+        }
+
+        ps.record(sample, fields[UTIME] + fields[STIME], fields[RSS] * pageSize);
+
+        String[] tids = new File(procDir + "/task").list();
+        if (tids == null) {
+            return;
+        }
+
+        int threads = 0;
+        for (String tid : tids) {
+            if (!readStat(procDir + "/task/" + tid + "/stat", !ps.threads.containsKey(tid))) {
+                continue;
+            }
+            threads++;
+            ThreadSeries ts = ps.threads.get(tid);
+            if (ts == null) {
+                ts = new ThreadSeries(Long.parseLong(tid), lastName, sample, sampleCount);
+                ps.threads.put(tid, ts);
+            }
+            ts.record(sample, fields[UTIME] + fields[STIME]);
+        }
+        ps.threadCount[sample] = threads;
+    }
+
+    /**
+     * Read a stat file into the shared fields array, parsing numbers straight from
+     * the bytes.  The command name is only turned into a String when asked for,
+     * which is the first time a thread is seen.
+     */
+    boolean readStat(String path, boolean wantName) {
+
+        int len = 0;
+        try (FileInputStream in = new FileInputStream(path)) {
+            int read;
+            while (len < buf.length && (read = in.read(buf, len, buf.length - len)) > 0) {
+                len += read;
+            }
+        } catch (IOException e) {
+            // Threads come and go between listing the directory and reading the file.
+            return false;
+        }
+
+        return parseStat(buf, len, wantName);
+    }
+
+    boolean parseStat(byte[] data, int len, boolean wantName) {
+
+        int open = -1;
+        int close = -1;
+        for (int i = 0; i < len; i++) {
+            if (data[i] == '(' && open < 0) {
+                open = i;
+            } else if (data[i] == ')') {
+                close = i;
+            }
+        }
+        if (open < 0 || close < 0) {
+            return false;
+        }
+        if (wantName) {
+            lastName = new String(data, open + 1, close - open - 1);
+        }
+
+        // Fields after the name: state, ppid, pgrp, ... utime, stime, ... rss
+        int field = -1;
+        int pos = close + 1;
+        while (pos < len && field < RSS) {
+            while (pos < len && data[pos] == ' ') {
+                pos++;
+            }
+            if (pos >= len) {
+                break;
+            }
+            field++;
+            long value = 0;
+            boolean negative = false;
+            if (data[pos] == '-') {
+                negative = true;
+                pos++;
+            }
+            while (pos < len && data[pos] != ' ') {
+                byte b = data[pos++];
+                if (b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                }
+            }
+            fields[field] = negative ? -value : value;
+        }
+
+        return field >= RSS;
+    }
+
+    /**
+     * A field of the last stat parsed, counted as in parseStat.
+     */
+    long getField(int index) {
+        return fields[index];
+    }
+
+    String getLastName() {
+        return lastName;
+    }
+
+    private static long getconf(String var, long defaultValue) {
+        try {
+            Process pr = new ProcessBuilder("getconf", var).redirectErrorStream(true).start();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(pr.getInputStream()));
+            String line = reader.readLine();
+            pr.waitFor();
+            reader.close();
+            if (line != null) {
+                return Long.parseLong(line.trim());
+            }
+        } catch (Exception e) {
+            logger.debug("getconf " + var + " unavailable, using " + defaultValue, e);
+        }
+        return defaultValue;
+    }
+
+    static class ProcessSeries {
+
+        final long pid;
+        final int[] cpuTicks;
+        final long[] rssBytes;
+        final int[] threadCount;
+        final Map<String, ThreadSeries> threads = new HashMap<>();
+        long lastTicks = -1;
+        boolean gone;
+
+        ProcessSeries(long pid, int samples) {
+            this.pid = pid;
+            this.cpuTicks = new int[samples];
+            this.rssBytes = new long[samples];
+            this.threadCount = new int[samples];
+        }
+
+        void record(int sample, long ticks, long rss) {
+            cpuTicks[sample] = lastTicks < 0 ? 0 : (int) (ticks - lastTicks);
+            rssBytes[sample] = rss;
+            lastTicks = ticks;
+        }
+
+        Map<String, Object> toMap(long[] timestamps, long intervalMillis, long ticksPerSecond) {
+
+            List<ThreadSeries> sorted = new ArrayList<>(threads.values());
+            Collections.sort(sorted, new Comparator<ThreadSeries>() {
+                @Override
+                public int compare(ThreadSeries a, ThreadSeries b) {
+                    return Long.compare(b.total, a.total);
+                }
+            });
+
+            List<Map<String, Object>> threadList = new ArrayList<>();
+            for (ThreadSeries ts : sorted) {
+                Map<String, Object> t = new LinkedHashMap<>();
+                t.put("tid", ts.tid);
+                t.put("name", ts.name);
+                t.put("firstSample", ts.firstSample);
+                t.put("totalTicks", ts.total);
+                t.put("cpuTicks", ts.cpuTicks);
+                threadList.add(t);
+            }
+
+            Map<String, Object> process = new LinkedHashMap<>();
+            process.put("cpuTicks", cpuTicks);
+            process.put("rssBytes", rssBytes);
+            process.put("threadCount", threadCount);
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("pid", pid);
+            result.put("intervalMillis", intervalMillis);
+            result.put("ticksPerSecond", ticksPerSecond);
+            result.put("timestamps", timestamps);
+            result.put("process", process);
+            result.put("threads", threadList);
+            return result;
+        }
+    }
+
+    static class ThreadSeries {
+
+        final long tid;
+        final String name;
+        final int firstSample;
+        final int[] cpuTicks;
+        long lastTicks = -1;
+        long total;
+
+        ThreadSeries(long tid, String name, int firstSample, int samples) {
+            this.tid = tid;
+            this.name = name;
+            this.firstSample = firstSample;
+            this.cpuTicks = new int[samples];
+        }
+
+        void record(int sample, long ticks) {
+            if (lastTicks >= 0) {
+                int delta = (int) (ticks - lastTicks);
+                cpuTicks[sample] = delta;
+                total += delta;
+            }
+            lastTicks = ticks;
+        }
+    }
+}
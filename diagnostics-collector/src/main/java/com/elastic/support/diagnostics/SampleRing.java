@@ -0,0 +1,87 @@
+package com.elastic.support.diagnostics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A fixed number of recent process samples held in preallocated primitive arrays.
+ * Recording overwrites the oldest sample and never allocates, so it can run every
+ * second for as long as the agent is up.
+ */
+public class SampleRing {
+
+    // Bytes per sample: timestamp, cpu ticks, rss, thread count and major faults
+    public static final int SAMPLE_BYTES = 8 + 4 + 8 + 4 + 4;
+
+    private final long[] timestamps;
+    private final int[] cpuTicks;
+    private final long[] rssBytes;
+    private final int[] threadCount;
+    private final int[] majorFaults;
+    private int next;
+    private int size;
+
+    private long lastTicks = -1;
+    private long lastFaults = -1;
+
+    public SampleRing(int capacity) {
+        timestamps = new long[capacity];
+        cpuTicks = new int[capacity];
+        rssBytes = new long[capacity];
+        threadCount = new int[capacity];
+        majorFaults = new int[capacity];
+    }
+
+    /**
+     * Record running totals for the process.  CPU ticks and major faults are stored
+     * as the change since the previous sample.
+     */
+    public void record(long timestamp, long ticks, long rss, long threads, long faults) {
+
+        timestamps[next] = timestamp;
+        cpuTicks[next] = lastTicks < 0 ? 0 : (int) (ticks - lastTicks);
+        rssBytes[next] = rss;
+        threadCount[next] = (int) threads;
+        majorFaults[next] = lastFaults < 0 ? 0 : (int) (faults - lastFaults);
+        lastTicks = ticks;
+        lastFaults = faults;
+
+        next = (next + 1) % timestamps.length;
+        if (size < timestamps.length) {
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copy the samples out oldest first.  Called from the thread that records.
+     */
+    public Map<String, Object> snapshot() {
+
+        int start = size < timestamps.length ? 0 : next;
+        long[] ts = new long[size];
+        int[] cpu = new int[size];
+        long[] rss = new long[size];
+        int[] threads = new int[size];
+        int[] faults = new int[size];
+        for (int i = 0; i < size; i++) {
+            int slot = (start + i) % timestamps.length;
+            ts[i] = timestamps[slot];
+            cpu[i] = cpuTicks[slot];
+            rss[i] = rssBytes[slot];
+            threads[i] = threadCount[slot];
+            faults[i] = majorFaults[slot];
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("timestamps", ts);
+        result.put("cpuTicks", cpu);
+        result.put("rssBytes", rss);
+        result.put("threadCount", threads);
+        result.put("majorFaults", faults);
+        return result;
+    }
+}
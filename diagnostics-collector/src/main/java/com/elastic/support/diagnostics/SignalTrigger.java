@@ -0,0 +1,51 @@
+package com.elastic.support.diagnostics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Runs an action when the process receives a signal.  The JDK's sun.misc.Signal is found
+ * by reflection, so nothing is compiled against the internal API and a JVM or platform
+ * without it, or one that won't hand the signal over, just leaves the other triggers.
+ */
+class SignalTrigger {
+
+    private static final Logger logger = LoggerFactory.getLogger(SignalTrigger.class);
+
+    /**
+     * @param name   the signal name without the SIG prefix, e.g. USR2
+     * @return whether the handler was installed
+     */
+    static boolean install(String name, final Runnable action) {
+
+        try {
+            Class<?> signalClass = Class.forName("sun.misc.Signal");
+            Class<?> handlerClass = Class.forName("sun.misc.SignalHandler");
+            Object handler = Proxy.newProxyInstance(SignalTrigger.class.getClassLoader(), new Class<?>[]{handlerClass},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if ("handle".equals(method.getName())) {
+                                action.run();
+                                return null;
+                            }
+                            // equals, hashCode and toString on the proxy itself
+                            if ("equals".equals(method.getName())) {
+                                return proxy == args[0];
+                            }
+                            return "hashCode".equals(method.getName()) ? System.identityHashCode(proxy) : "SignalTrigger";
+                        }
+                    });
+            Object signal = signalClass.getConstructor(String.class).newInstance(name);
+            signalClass.getMethod("handle", signalClass, handlerClass).invoke(null, signal, handler);
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            logger.debug(name + " cannot be handled on this JVM", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.elastic.support.diagnostics;
+
+import com.elastic.support.SystemUtils;
+import com.elastic.support.analysis.LineSplitter;
+import com.elastic.support.analysis.LogAnalyzer;
+import com.elastic.support.redact.Redactor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes artifacts straight into a zip stream, reading each source file as it is
+ * compressed so nothing is staged on disk.  Node collectors share the sink, so
+ * entries are written one at a time under a lock.  The same analyzers as the directory archive
+ * see each file on its way through and add their summaries after it.  With a redactor
+ * text is redacted before it is compressed, and the analyzers see the redacted text.
+ */
+public class ZipStreamSink implements ArtifactSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZipStreamSink.class);
+
+    private final ZipOutputStream out;
+    private final List<LogAnalyzer> analyzers;
+    private final Redactor redactor;
+    private final byte[] buf = new byte[64 * 1024];
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public ZipStreamSink(ZipOutputStream out, List<LogAnalyzer> analyzers) {
+        this(out, analyzers, null);
+    }
+
+    public ZipStreamSink(ZipOutputStream out, List<LogAnalyzer> analyzers, Redactor redactor) {
+        this.out = out;
+        this.analyzers = analyzers;
+        this.redactor = redactor;
+    }
+
+    @Override
+    public long addFile(String name, String src, long position) {
+
+        lock.lock();
+        try (FileChannel source = new FileInputStream(src).getChannel()) {
+
+            long end = source.size();
+            List<LogAnalyzer> active = new ArrayList<>();
+            String fileName = name.substring(name.lastIndexOf('/') + 1);
+            String parent = name.substring(0, Math.max(0, name.lastIndexOf('/')));
+            String dirName = parent.substring(parent.lastIndexOf('/') + 1);
+            for (LogAnalyzer analyzer : analyzers) {
+                if (analyzer.accepts(dirName, fileName)) {
+                    analyzer.begin(fileName);
+                    active.add(analyzer);
+                }
+            }
+            final LineSplitter splitter = active.isEmpty() ? null : new LineSplitter(active);
+            OutputStream entry = new SystemUtils.NonClosingOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    if (splitter != null) {
+                        splitter.feed(b, off, len);
+                    }
+                }
+            };
+            if (redactor != null && !Redactor.isCompressed(name)) {
+                entry = redactor.lines(entry);
+            }
+
+            out.putNextEntry(new ZipEntry(name));
+            ByteBuffer wrapped = ByteBuffer.wrap(buf);
+            long pos = position;
+            while (pos < end) {
+                wrapped.clear();
+                wrapped.limit((int) Math.min(buf.length, end - pos));
+                int read = source.read(wrapped, pos);
+                if (read < 0) {
+                    break;
+                }
+                entry.write(buf, 0, read);
+                pos += read;
+            }
+            entry.close();
+            out.closeEntry();
+
+            if (splitter != null) {
+                splitter.finish();
+                String dir = name.substring(0, name.length() - fileName.length());
+                for (LogAnalyzer analyzer : active) {
+                    out.putNextEntry(new ZipEntry(dir + analyzer.getSummaryName(fileName)));
+                    analyzer.writeSummary(new SystemUtils.NonClosingOutputStream(out));
+                    out.closeEntry();
+                }
+            }
+            return pos;
+
+        } catch (IOException e) {
+            logger.error("Problem streaming file: " + src, e);
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The returned stream holds the sink until it is closed, so it must be written and
+     * closed by the thread that opened it.
+     */
+    @Override
+    public OutputStream newEntry(String name) throws IOException {
+
+        lock.lock();
+        try {
+            out.putNextEntry(new ZipEntry(name));
+        } catch (IOException e) {
+            lock.unlock();
+            throw e;
+        }
+        OutputStream entry = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    ZipStreamSink.this.out.closeEntry();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        };
+        return redactor == null ? entry : redactor.lines(entry);
+    }
+}
@@ -0,0 +1,78 @@
+package com.elastic.support.diagnostics;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * In the sampler's package as the stat parser is package-private.
+ */
+public class OsSamplerTest {
+
+    private static final String REST = " S 1 1234 1234 0 -1 4194368 500 0 7 0 1500 250 0 0 20 0 85 0 12345 4000000000 262144"
+            + " 18446744073709551615 1 1 0 0 0 0 0 16781312 0 0 0 17 3 0 0 0 0 0\n";
+
+    @Test
+    public void parsesTheFieldsAfterTheName() {
+
+        OsSampler sampler = new OsSampler(1000, 1000);
+        assertTrue(parse(sampler, "1240 (elasticsearch[node-1][search][T#3])" + REST, true));
+        assertEquals("elasticsearch[node-1][search][T#3]", sampler.getLastName());
+        assertEquals(7, sampler.getField(OsSampler.MAJFLT));
+        assertEquals(1500, sampler.getField(OsSampler.UTIME));
+        assertEquals(250, sampler.getField(OsSampler.STIME));
+        assertEquals(85, sampler.getField(OsSampler.NUM_THREADS));
+        assertEquals(262144, sampler.getField(OsSampler.RSS));
+    }
+
+    @Test
+    public void namesMayHoldSpacesAndParentheses() {
+
+        OsSampler sampler = new OsSampler(1000, 1000);
+        assertTrue(parse(sampler, "1241 (C2 Compiler) (x) 1)" + REST, true));
+        assertEquals("C2 Compiler) (x) 1", sampler.getLastName());
+        assertEquals(1500, sampler.getField(OsSampler.UTIME));
+        assertEquals(262144, sampler.getField(OsSampler.RSS));
+
+        // The name is only built when asked for
+        assertTrue(parse(sampler, "1242 (other)" + REST, false));
+        assertEquals("C2 Compiler) (x) 1", sampler.getLastName());
+    }
+
+    @Test
+    public void truncatedStatsAreRejected() {
+
+        OsSampler sampler = new OsSampler(1000, 1000);
+        String line = "1240 (elasticsearch[node-1][search][T#3])" + REST;
+        assertFalse(parse(sampler, line.substring(0, line.indexOf(" 262144")), false));
+        assertFalse(parse(sampler, line.substring(0, 20), false));
+        assertFalse(parse(sampler, "1240 (java", false));
+        assertFalse(parse(sampler, "", false));
+    }
+
+    @Test
+    public void readsTheThreadsOfThisProcess() {
+
+        Assume.assumeTrue(OsSampler.isSupported());
+        OsSampler sampler = new OsSampler(1000, 1000);
+        String[] tids = new File("/proc/self/task").list();
+        int read = 0;
+        for (String tid : tids) {
+            if (sampler.readStat("/proc/self/task/" + tid + "/stat", true)) {
+                assertNotNull(sampler.getLastName());
+                assertTrue(sampler.getField(OsSampler.NUM_THREADS) > 0);
+                read++;
+            }
+        }
+        assertTrue(read > 0);
+    }
+
+    private static boolean parse(OsSampler sampler, String stat, boolean wantName) {
+        byte[] bytes = stat.getBytes(StandardCharsets.US_ASCII);
+        return sampler.parseStat(bytes, bytes.length, wantName);
+    }
+}
@@ -0,0 +1,83 @@
+package com.elastic.support.test;
+
+import com.elastic.support.SystemUtils;
+import com.elastic.support.diagnostics.LogTail;
+import com.elastic.support.diagnostics.SampleRing;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class AgentBufferTest {
+
+    @Test
+    public void sampleRingKeepsMostRecentInOrder() {
+        SampleRing ring = new SampleRing(4);
+        for (int i = 1; i <= 6; i++) {
+            ring.record(i, i * 10, i * 100, i, 0);
+        }
+        assertEquals(4, ring.size());
+
+        Map<String, Object> snapshot = ring.snapshot();
+        assertArrayEquals(new long[]{3, 4, 5, 6}, (long[]) snapshot.get("timestamps"));
+        assertArrayEquals(new long[]{300, 400, 500, 600}, (long[]) snapshot.get("rssBytes"));
+        assertArrayEquals(new int[]{10, 10, 10, 10}, (int[]) snapshot.get("cpuTicks"));
+    }
+
+    @Test
+    public void logTailKeepsWholeRecentLines() throws Exception {
+        File log = Files.createTempFile("agent", ".log").toFile();
+        try {
+            LogTail tail = new LogTail(log.getPath(), 64 * 1024);
+            StringBuilder expected = new StringBuilder();
+            try (FileOutputStream out = new FileOutputStream(log)) {
+                for (int i = 0; i < 5000; i++) {
+                    String line = "line " + i + "\n";
+                    out.write(line.getBytes("UTF-8"));
+                    if (i % 500 == 0) {
+                        tail.poll();
+                    }
+                    expected.append(line);
+                }
+            }
+            tail.poll();
+
+            String snapshot = new String(tail.snapshot(), "UTF-8");
+            assertTrue(snapshot.length() <= 64 * 1024);
+            assertTrue(snapshot.startsWith("line "));
+            assertTrue(expected.toString().endsWith(snapshot));
+
+            // A rotated log is followed from its start
+            Files.write(log.toPath(), "after rotation\n".getBytes("UTF-8"));
+            tail.poll();
+            assertTrue(new String(tail.snapshot(), "UTF-8").endsWith("line 4999\nafter rotation\n"));
+            tail.close();
+        } finally {
+            log.delete();
+        }
+    }
+
+    @Test
+    public void logTailFollowsARotationToALongerFile() throws Exception {
+        File dir = Files.createTempDirectory("agent").toFile();
+        File log = new File(dir, "test.log");
+        try {
+            Files.write(log.toPath(), "before\n".getBytes("UTF-8"));
+            LogTail tail = new LogTail(log.getPath(), 64 * 1024);
+            tail.poll();
+
+            // The new file is already longer than the old one by the next poll
+            assertTrue(log.renameTo(new File(dir, "test-1.log")));
+            Files.write(log.toPath(), "after the rotation\n".getBytes("UTF-8"));
+            tail.poll();
+            assertEquals("before\nafter the rotation\n", new String(tail.snapshot(), "UTF-8"));
+            tail.close();
+        } finally {
+            SystemUtils.deleteDir(dir.getPath(), true);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.elastic.support.test;
+
+import com.elastic.support.InputParams;
+import com.elastic.support.SystemUtils;
+import com.elastic.support.diagnostics.CollectionServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class CollectionServerTest {
+
+    private File dir;
+    private InputParams inputs;
+    private CollectionServer server;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("serve").toFile();
+        File logs = new File(dir, "logs");
+        logs.mkdirs();
+        new File(dir, "config").mkdirs();
+        Files.write(new File(dir, "config/elasticsearch.yml").toPath(), "cluster.name: test\n".getBytes("UTF-8"));
+        Files.write(new File(logs, "test.log").toPath(),
+                "[2015-06-22 13:57:37,123][INFO ][node] [node1] started\n".getBytes("UTF-8"));
+
+        String manifest = "{\"clusterName\":\"test\",\"nodes\":[{\"name\":\"node1\",\"host\":\"localhost\",\"ip\":\"127.0.0.1\","
+                + "\"home\":\"" + dir.getPath() + "\",\"logs\":\"" + logs.getPath() + "\",\"config\":\"\",\"conf\":\"\"}]}";
+        File manifestFile = new File(dir, "manifest.json");
+        Files.write(manifestFile.toPath(), manifest.getBytes("UTF-8"));
+
+        inputs = new InputParams();
+        inputs.setManifestFile(manifestFile.getPath());
+        inputs.setServePort(0);
+        server = new CollectionServer(inputs);
+    }
+
+    @After
+    public void cleanup() {
+        server.stop();
+        SystemUtils.deleteDir(dir.getPath(), true);
+    }
+
+    @Test
+    public void streamsArchiveOverHttp() throws Exception {
+        int port = server.start();
+
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:" + port + "/archive").openConnection();
+        assertEquals(200, conn.getResponseCode());
+        assertEquals("chunked", conn.getHeaderField("Transfer-Encoding"));
+        assertTrue(conn.getHeaderField("Content-Disposition").contains("diagnostics-artifacts-test-localhost.zip"));
+
+        Map<String, String> entries = new HashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(conn.getInputStream())) {
+            ZipEntry entry;
+            byte[] buf = new byte[8192];
+            while ((entry = zip.getNextEntry()) != null) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                int len;
+                while ((len = zip.read(buf)) > 0) {
+                    content.write(buf, 0, len);
+                }
+                entries.put(entry.getName(), content.toString("UTF-8"));
+            }
+        }
+
+        assertEquals("cluster.name: test\n", entries.get("node1/elasticsearch.yml"));
+        assertTrue(entries.get("node1/test.log").contains("started"));
+        assertTrue(entries.containsKey("node1/test-events.json"));
+        // The slow logs don't exist, so they are reported rather than failing the pull
+        assertTrue(entries.get("collection_errors.json").contains("slowlog"));
+    }
+
+    @Test
+    public void refusesOtherAddressesWithoutAToken() {
+        inputs.setBindHost("0.0.0.0");
+        try {
+            server.start();
+            fail("Serving on every address without a token should be refused");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("--serveToken"));
+        }
+    }
+
+    @Test
+    public void pullsMustSendTheToken() throws Exception {
+        inputs.setServeToken("s3cret/token");
+        int port = server.start();
+        String url = "http://localhost:" + port + "/archive";
+
+        assertEquals(401, ((HttpURLConnection) new URL(url).openConnection()).getResponseCode());
+        assertEquals(401, ((HttpURLConnection) new URL(url + "?token=wrong").openConnection()).getResponseCode());
+
+        HttpURLConnection wrongHeader = (HttpURLConnection) new URL(url).openConnection();
+        wrongHeader.setRequestProperty("Authorization", "Bearer s3cret");
+        assertEquals(401, wrongHeader.getResponseCode());
+
+        HttpURLConnection header = (HttpURLConnection) new URL(url).openConnection();
+        header.setRequestProperty("Authorization", "Bearer s3cret/token");
+        assertEquals(200, header.getResponseCode());
+        drain(header);
+
+        HttpURLConnection query = (HttpURLConnection) new URL(url + "?token=s3cret%2Ftoken").openConnection();
+        assertEquals(200, query.getResponseCode());
+        drain(query);
+    }
+
+    private static void drain(HttpURLConnection conn) throws Exception {
+        try (ZipInputStream zip = new ZipInputStream(conn.getInputStream())) {
+            while (zip.getNextEntry() != null) {
+                // read through so the server finishes the stream
+            }
+        }
+    }
+}
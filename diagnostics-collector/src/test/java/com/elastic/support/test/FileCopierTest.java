@@ -0,0 +1,86 @@
+package com.elastic.support.test;
+
+import com.elastic.support.FileCopier;
+import com.elastic.support.concurrent.BoundedExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FileCopierTest {
+
+    private File dir;
+    private File src;
+    private byte[] content;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("copier").toFile();
+        src = new File(dir, "src.log");
+        content = new byte[3 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(content);
+        Files.write(src.toPath(), content);
+    }
+
+    @After
+    public void cleanup() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void copiesWholeFile() throws Exception {
+        File dest = new File(dir, "dest.log");
+        long end = new FileCopier().copy(src.getPath(), dest.getPath(), 0);
+
+        assertEquals(content.length, end);
+        assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+    }
+
+    @Test
+    public void copiesFromOffset() throws Exception {
+        File dest = new File(dir, "dest.log");
+        long end = new FileCopier().copy(src.getPath(), dest.getPath(), 1000);
+
+        assertEquals(content.length, end);
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, content.length), Files.readAllBytes(dest.toPath()));
+    }
+
+    @Test
+    public void copiesRangesInParallelAndVerifies() throws Exception {
+        File dest = new File(dir, "dest.log");
+        FileCopier copier = new FileCopier(4, 1024, true);
+        try {
+            assertEquals(content.length, copier.copy(src.getPath(), dest.getPath(), 0));
+        } finally {
+            copier.shutdown();
+        }
+        assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+    }
+
+    @Test
+    public void copiesManyRangesFromOffset() throws Exception {
+        // 3MB in ranges of a little under 256KB, so the last range is a short one
+        File dest = new File(dir, "dest.log");
+        FileCopier copier = new FileCopier(4, 1024, 256 * 1024 - 3, true, BoundedExecutor.Mode.AUTO);
+        try {
+            assertEquals(content.length, copier.copy(src.getPath(), dest.getPath(), 4099));
+        } finally {
+            copier.shutdown();
+        }
+        assertArrayEquals(Arrays.copyOfRange(content, 4099, content.length), Files.readAllBytes(dest.toPath()));
+    }
+
+    @Test
+    public void reportsMissingSource() {
+        assertEquals(-1, new FileCopier().copy(new File(dir, "missing.log").getPath(), new File(dir, "dest.log").getPath(), 0));
+    }
+}
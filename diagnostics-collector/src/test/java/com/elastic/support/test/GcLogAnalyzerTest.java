@@ -0,0 +1,127 @@
+package com.elastic.support.test;
+
+import com.elastic.support.SystemUtils;
+import com.elastic.support.analysis.*;
+import com.elastic.support.diagnostics.IoThrottle;
+import com.elastic.support.diagnostics.NodeCollector;
+import com.elastic.support.diagnostics.ZipStreamSink;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class GcLogAnalyzerTest {
+
+    @Test
+    public void histogramPercentilesStayWithinPrecision() {
+        PauseHistogram histogram = new PauseHistogram();
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(50000, histogram.percentile(50), 50000 * 0.04);
+        assertEquals(99000, histogram.percentile(99), 99000 * 0.04);
+        assertEquals(100000, histogram.percentile(100));
+    }
+
+    @Test
+    public void parsesPrintGcDetailsAndUnifiedLogs() throws Exception {
+        GcLogAnalyzer analyzer = new GcLogAnalyzer();
+        assertTrue(analyzer.accepts("gc-logs", "gc.log.0.current"));
+
+        analyzer.begin("gc.log");
+        analyzer.processLine("2015-06-22T13:57:37.123-0400: 10.000: [GC (Allocation Failure) 2015-06-22T13:57:37.123-0400: 10.000: [ParNew: 272640K->34048K(306688K), 0.0526630 secs] 300000K->100000K(986432K), 0.0527520 secs] [Times: user=0.10 sys=0.02, real=0.05 secs]");
+        analyzer.processLine("2015-06-22T13:57:39.123-0400: 12.000: [Full GC (Allocation Failure) [CMS: 700000K->300000K(700000K), 1.5 secs] 500000K->200000K(986432K), [Metaspace: 1K->1K(2K)], 1.5000000 secs]");
+        analyzer.processLine("[2020-01-01T00:00:00.000+0000][14.000s][info][gc] GC(12) Pause Young (Normal) (G1 Evacuation Pause) 400M->8M(1024M) 12.500ms");
+        analyzer.processLine("2015-06-22T13:57:39.123-0400: 12.500: [CMS-concurrent-mark: 0.100/0.200 secs]");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        analyzer.writeSummary(out);
+        JsonNode summary = new ObjectMapper().readTree(out.toByteArray());
+
+        assertEquals(3, summary.path("collections").asInt());
+        assertEquals(2, summary.path("youngPauses").path("count").asInt());
+        assertEquals(1, summary.path("fullPauses").path("count").asInt());
+        assertEquals(1500.0, summary.path("fullPauses").path("maxMillis").asDouble(), 1.0);
+        assertEquals(3, summary.path("heapAfterGcBytes").path("values").size());
+        assertEquals(200000 * 1024.0, summary.path("heapAfterGcBytes").path("values").get(1).asDouble(), 1.0);
+        // 400K allocated in the 2 seconds between the first two collections
+        assertEquals(200000 * 1024.0, summary.path("allocationBytesPerSecond").path("values").get(0).asDouble(), 1.0);
+        assertEquals("jvmStart", summary.path("secondsSince").asText());
+    }
+
+    @Test
+    public void usesTimestampsWhenThereIsNoUptime() throws Exception {
+        // Elasticsearch's default -Xlog decorators are utctime,pid,tags
+        GcLogAnalyzer analyzer = new GcLogAnalyzer();
+        analyzer.begin("gc.log");
+        analyzer.processLine("[2026-10-18T09:00:00.000+0000][4242][gc,init] Version: 17.0.2+8 (release)");
+        analyzer.processLine("[2026-10-18T09:00:10.000+0000][4242][gc,start    ] GC(0) Pause Young (Normal) (G1 Evacuation Pause)");
+        analyzer.processLine("[2026-10-18T09:00:10.012+0000][4242][gc          ] GC(0) Pause Young (Normal) (G1 Evacuation Pause) 300M->100M(1024M) 12.000ms");
+        analyzer.processLine("[2026-10-18T11:00:12.000+0200][4242][gc          ] GC(1) Pause Young (Normal) (G1 Evacuation Pause) 500M->120M(1024M) 8.000ms");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        analyzer.writeSummary(out);
+        JsonNode summary = new ObjectMapper().readTree(out.toByteArray());
+
+        assertEquals(2, summary.path("collections").asInt());
+        assertEquals("2026-10-18T09:00:00.000+0000", summary.path("secondsSince").asText());
+        JsonNode heap = summary.path("heapAfterGcBytes");
+        assertEquals(2, heap.path("values").size());
+        assertEquals(120 * 1024 * 1024.0, heap.path("values").get(1).asDouble(), 1.0);
+        // 400M allocated in the 2 seconds between the collections, across the change of offset
+        assertEquals(1, summary.path("allocationBytesPerSecond").path("values").size());
+        assertEquals(400 * 1024 * 1024 / 1.988, summary.path("allocationBytesPerSecond").path("values").get(0).asDouble(), 1024.0);
+    }
+
+    @Test
+    public void gcLogsAreToldApartByTheirDirectory() throws Exception {
+        assertFalse(new GcLogAnalyzer().accepts("node1", "gcp-prod.log"));
+        assertTrue(new LogEventAnalyzer().accepts("node1", "gcp-prod.log"));
+        assertFalse(new LogEventAnalyzer().accepts(LogAnalyzer.GC_LOG_DIR, "gc.log"));
+
+        // Collect a node of cluster gcp-prod and check which summaries come out of the stream
+        File dir = Files.createTempDirectory("gcp").toFile();
+        try {
+            File logs = new File(dir, "logs");
+            logs.mkdirs();
+            Files.write(new File(logs, "gcp-prod.log").toPath(),
+                    "[2026-10-18 09:00:00,000][INFO ][node] [node1] started\n".getBytes("UTF-8"));
+            File gcLog = new File(logs, "gc.log");
+            Files.write(gcLog.toPath(),
+                    "[2026-10-18T09:00:10.012+0000][4242][gc] GC(0) Pause Young (Normal) 300M->100M(1024M) 12.000ms\n".getBytes("UTF-8"));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+                List<LogAnalyzer> analyzers = Arrays.asList(new SlowlogAnalyzer(), new LogEventAnalyzer(), new GcLogAnalyzer());
+                new NodeCollector("node1", "gcp-prod", new File(dir, "elasticsearch.yml").getPath(), logs.getPath(),
+                        Collections.singletonList(gcLog.getPath()), new ZipStreamSink(zip, analyzers), new IoThrottle(1), null).call();
+            }
+
+            Set<String> names = new HashSet<>();
+            try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                    names.add(entry.getName());
+                }
+            }
+            assertTrue(names.contains("node1/gcp-prod.log"));
+            assertTrue(names.contains("node1/gcp-prod-events.json"));
+            assertFalse(names.contains("node1/gcp-prod.log-summary.json"));
+            assertTrue(names.contains("node1/gc-logs/gc.log"));
+            assertTrue(names.contains("node1/gc-logs/gc.log-summary.json"));
+            assertFalse(names.contains("node1/gc-logs/gc-events.json"));
+        } finally {
+            SystemUtils.deleteDir(dir.getPath(), true);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.elastic.support.test;
+
+import com.elastic.support.FileCopier;
+import com.elastic.support.SystemUtils;
+import com.elastic.support.diagnostics.DirectorySink;
+import com.elastic.support.diagnostics.IoThrottle;
+import com.elastic.support.diagnostics.LogCheckpoints;
+import com.elastic.support.diagnostics.NodeCollector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogCheckpointsTest {
+
+    private File dir;
+    private File log;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("checkpoints").toFile();
+        log = new File(dir, "test.log");
+        write(log, "first line\n");
+    }
+
+    @After
+    public void cleanup() {
+        SystemUtils.deleteDir(dir.getPath(), true);
+    }
+
+    @Test
+    public void resumesWhereTheLastRunStopped() throws Exception {
+
+        LogCheckpoints checkpoints = new LogCheckpoints(new File(dir, "checkpoints.json"));
+        assertEquals(0, checkpoints.getStartOffset(log.getPath()));
+        checkpoints.update(log.getPath(), 0, log.length());
+        checkpoints.save();
+
+        append(log, "second line\n");
+        LogCheckpoints reloaded = LogCheckpoints.load(new File(dir, "checkpoints.json").getPath());
+        assertEquals("first line\n".length(), reloaded.getStartOffset(log.getPath()));
+        assertNull(reloaded.findRotated(log.getPath()));
+    }
+
+    @Test
+    public void truncatedLogsStartAgain() throws Exception {
+
+        LogCheckpoints checkpoints = new LogCheckpoints(new File(dir, "checkpoints.json"));
+        checkpoints.update(log.getPath(), 0, log.length());
+
+        write(log, "new\n");
+        assertEquals(0, checkpoints.getStartOffset(log.getPath()));
+        assertNull(checkpoints.findRotated(log.getPath()));
+    }
+
+    @Test
+    public void rotatedLogsAreFoundByTheirFileKey() throws Exception {
+
+        LogCheckpoints checkpoints = new LogCheckpoints(new File(dir, "checkpoints.json"));
+        checkpoints.update(log.getPath(), 0, log.length());
+
+        append(log, "written before the rotation\n");
+        File rotated = new File(dir, "test-2026-10-18-1.log");
+        assertTrue(log.renameTo(rotated));
+        write(log, "written after the rotation\n");
+
+        assertEquals(0, checkpoints.getStartOffset(log.getPath()));
+        assertEquals(rotated.getPath(), checkpoints.findRotated(log.getPath()));
+        assertEquals("first line\n".length(), checkpoints.getRotatedOffset(log.getPath(), rotated.getPath()));
+    }
+
+    @Test
+    public void rotatedTailIsCollectedWithTheNewLog() throws Exception {
+
+        File target = new File(dir, "archive");
+        LogCheckpoints checkpoints = new LogCheckpoints(new File(dir, "checkpoints.json"));
+        checkpoints.update(log.getPath(), 0, log.length());
+
+        append(log, "written before the rotation\n");
+        assertTrue(log.renameTo(new File(dir, "test-2026-10-18-1.log")));
+        write(log, "written after the rotation\n");
+
+        List<String> errors = new NodeCollector("node1", "test", new File(dir, "elasticsearch.yml").getPath(), dir.getPath(),
+                Collections.<String>emptyList(), new DirectorySink(target.getPath(), new FileCopier()), new IoThrottle(1), checkpoints).call();
+
+        assertEquals("written before the rotation\n", read(new File(target, "node1/test-2026-10-18-1.log")));
+        assertEquals("written after the rotation\n", read(new File(target, "node1/test.log")));
+        for (String error : errors) {
+            assertFalse(error, error.contains("test.log") || error.contains("test-2026"));
+        }
+    }
+
+    private static void write(File file, String text) throws Exception {
+        Files.write(file.toPath(), text.getBytes("UTF-8"));
+    }
+
+    private static void append(File file, String text) throws Exception {
+        Files.write(file.toPath(), text.getBytes("UTF-8"), StandardOpenOption.APPEND);
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+}
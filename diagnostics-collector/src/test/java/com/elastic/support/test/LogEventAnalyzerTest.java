@@ -0,0 +1,117 @@
+package com.elastic.support.test;
+
+import com.elastic.support.analysis.LogEventAnalyzer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class LogEventAnalyzerTest {
+
+    @Test
+    public void acceptsOnlyTheMainLogs() {
+        LogEventAnalyzer analyzer = new LogEventAnalyzer();
+        assertTrue(analyzer.accepts("node1", "prod.log"));
+        assertTrue(analyzer.accepts("node1", "prod-2026-10-18-1.log"));
+        assertTrue(analyzer.accepts("node1", "gcp-prod.log"));
+        assertFalse(analyzer.accepts("node1", "prod_index_search_slowlog.log"));
+        assertFalse(analyzer.accepts("node1", "prod_index_indexing_slowlog.log"));
+        assertFalse(analyzer.accepts("gc-logs", "gc.log"));
+        assertFalse(analyzer.accepts("node1", "prod.log.gz"));
+        assertFalse(analyzer.accepts("node1", "elasticsearch.yml"));
+    }
+
+    @Test
+    public void variablePartsOfAnEventShareOneFingerprint() throws Exception {
+        LogEventAnalyzer analyzer = new LogEventAnalyzer();
+        analyzer.begin("prod.log");
+        analyzer.processLine("[2026-10-18 09:00:00,001][WARN ][index.engine] [node-1] [logs][2] failed engine, took 120ms, reason 'disk'");
+        analyzer.processLine("java.io.IOException: No space left on device");
+        analyzer.processLine("\tat org.elasticsearch.index.engine.InternalEngine.flush(InternalEngine.java:812)");
+        analyzer.processLine("[2026-10-18 09:05:00,002][WARN ][index.engine] [node-7] [metrics][0] failed engine, took 9ms, reason \"quota\"");
+        analyzer.processLine("java.io.IOException: No space left on device");
+        analyzer.processLine("\tat org.elasticsearch.index.engine.InternalEngine.flush(InternalEngine.java:815)");
+        // Same message with a different cause is a different event
+        analyzer.processLine("[2026-10-18 09:06:00,003][WARN ][index.engine] [node-1] [logs][2] failed engine, took 5ms, reason 'disk'");
+        analyzer.processLine("java.nio.file.AccessDeniedException: /data/nodes/0");
+
+        JsonNode summary = summarise(analyzer);
+        assertEquals(3, summary.path("events").asInt());
+        assertEquals(2, summary.path("distinct").asInt());
+        assertEquals(3, summary.path("levels").path("WARN").asInt());
+
+        JsonNode top = summary.path("top").get(0);
+        assertEquals(2, top.path("count").asInt());
+        assertEquals("2026-10-18 09:00:00,001", top.path("firstSeen").asText());
+        assertEquals("2026-10-18 09:05:00,002", top.path("lastSeen").asText());
+        assertEquals("[WARN][index.engine] [*] [*][*] failed engine, took #ms, reason ?"
+                + "|java.io.IOException|org.elasticsearch.index.engine.InternalEngine.flush", top.path("template").asText());
+        assertTrue(top.path("sample").asText().contains("[node-1]"));
+        assertEquals(1, summary.path("top").get(1).path("count").asInt());
+    }
+
+    @Test
+    public void repeatedEventsAreCountedOnce() throws Exception {
+        LogEventAnalyzer analyzer = new LogEventAnalyzer();
+        analyzer.begin("prod.log");
+        for (int i = 0; i < 5000; i++) {
+            analyzer.processLine("[2026-10-18 10:00:00,000][DEBUG][action.bulk] [node-1] rejected execution of " + i + " on [write]");
+            if (i % 10 == 0) {
+                analyzer.processLine("[2026-10-18 10:00:01,000][INFO ][cluster.service] [node-1] added node " + i);
+            }
+        }
+
+        JsonNode summary = summarise(analyzer);
+        assertEquals(5500, summary.path("events").asInt());
+        assertEquals(2, summary.path("distinct").asInt());
+        assertEquals(0, summary.path("untrackedEvents").asInt());
+        assertEquals(5000, summary.path("top").get(0).path("count").asInt());
+        assertEquals(500, summary.path("top").get(1).path("count").asInt());
+        assertEquals(500, summary.path("levels").path("INFO").asInt());
+    }
+
+    @Test
+    public void eventsBeyondTheTableAreCountedAsUntracked() throws Exception {
+        LogEventAnalyzer analyzer = new LogEventAnalyzer();
+        analyzer.begin("prod.log");
+        int distinct = 7000;
+        for (int i = 0; i < distinct; i++) {
+            // Letters survive masking, so each logger name makes a distinct event
+            analyzer.processLine("[2026-10-18 11:00:00,000][ERROR][plugin." + letters(i) + "] failed");
+        }
+        analyzer.processLine("[2026-10-18 11:00:01,000][ERROR][plugin." + letters(0) + "] failed");
+
+        JsonNode summary = summarise(analyzer);
+        int tracked = summary.path("distinct").asInt();
+        assertTrue(tracked < distinct);
+        assertEquals(distinct + 1, summary.path("events").asInt());
+        assertEquals(distinct - tracked, summary.path("untrackedEvents").asInt());
+        assertEquals(100, summary.path("top").size());
+        assertEquals(2, summary.path("top").get(0).path("count").asInt());
+
+        // A new file starts with an empty table
+        analyzer.begin("prod-1.log");
+        analyzer.processLine("[2026-10-18 12:00:00,000][ERROR][plugin.a] failed");
+        summary = summarise(analyzer);
+        assertEquals(1, summary.path("distinct").asInt());
+        assertEquals(0, summary.path("untrackedEvents").asInt());
+    }
+
+    private static String letters(int n) {
+        StringBuilder s = new StringBuilder();
+        do {
+            s.append((char) ('g' + n % 20));
+            n /= 20;
+        } while (n > 0);
+        return s.toString();
+    }
+
+    private static JsonNode summarise(LogEventAnalyzer analyzer) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        analyzer.writeSummary(out);
+        return new ObjectMapper().readTree(out.toByteArray());
+    }
+}
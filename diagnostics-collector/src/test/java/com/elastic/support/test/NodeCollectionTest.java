@@ -0,0 +1,175 @@
+package com.elastic.support.test;
+
+import com.elastic.support.InputParams;
+import com.elastic.support.SystemUtils;
+import com.elastic.support.diagnostics.ArtifactSink;
+import com.elastic.support.diagnostics.CollectionService;
+import com.elastic.support.diagnostics.IoThrottle;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class NodeCollectionTest {
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("nodes").toFile();
+    }
+
+    @After
+    public void cleanup() {
+        SystemUtils.deleteDir(dir.getPath(), true);
+    }
+
+    @Test
+    public void nodesAreCollectedConcurrentlyAndTheirErrorsCombined() throws Exception {
+
+        JsonNode manifest = manifest(node("node1", true), node("node2", true), node("node3", false), node("node4", true));
+        RecordingSink sink = new RecordingSink("node4/");
+
+        InputParams inputs = new InputParams();
+        inputs.setThreads(4);
+        inputs.setIoLimit(8);
+        new CollectionService().processNodes(manifest, sink, new HashMap(), inputs, null);
+
+        assertTrue("nodes should be copied at the same time", sink.maxConcurrent.get() > 1);
+        assertEquals("started node1\n", sink.files.get("node1/test.log"));
+        assertEquals("cluster.name: test\n", sink.files.get("node2/elasticsearch.yml"));
+        assertTrue(sink.files.containsKey("node2/test_index_search_slowlog.log"));
+
+        // node3 has no files at all and node4's collector fails outright; node1 and node2 are clean
+        JsonNode errors = new ObjectMapper().readTree(sink.entries.get("collection_errors.json").toByteArray());
+        assertEquals(Arrays.asList("node3", "node4"), fieldNames(errors));
+        assertEquals(4, errors.path("node3").size());
+        for (JsonNode error : errors.path("node3")) {
+            assertTrue(error.asText(), error.asText().startsWith("Could not copy "));
+        }
+        assertEquals(1, errors.path("node4").size());
+        assertTrue(errors.path("node4").get(0).asText().startsWith("Node could not be processed"));
+    }
+
+    @Test
+    public void copiesOnOneFileSystemAreLimitedByTheIoLimit() throws Exception {
+
+        JsonNode manifest = manifest(node("node1", true), node("node2", true), node("node3", true));
+        RecordingSink sink = new RecordingSink(null);
+
+        InputParams inputs = new InputParams();
+        inputs.setThreads(3);
+        inputs.setIoLimit(1);
+        new CollectionService().processNodes(manifest, sink, new HashMap(), inputs, null);
+
+        assertEquals(1, sink.maxConcurrent.get());
+        assertEquals(12, sink.files.size());
+        assertFalse(sink.entries.containsKey("collection_errors.json"));
+    }
+
+    @Test
+    public void throttleSharesPermitsWithinAFileSystem() throws Exception {
+
+        File log = new File(dir, "a.log");
+        Files.write(log.toPath(), new byte[1]);
+        IoThrottle throttle = new IoThrottle(2);
+
+        assertSame(throttle.forPath(log.getPath()), throttle.forPath(new File(dir, "not-yet-written.log").getPath()));
+        assertEquals(2, throttle.forPath(log.getPath()).availablePermits());
+        assertEquals(1, new IoThrottle(0).forPath(log.getPath()).availablePermits());
+    }
+
+    private String node(String name, boolean withFiles) throws IOException {
+
+        File home = new File(dir, name);
+        File logs = new File(home, "logs");
+        if (withFiles) {
+            logs.mkdirs();
+            new File(home, "config").mkdirs();
+            Files.write(new File(home, "config/elasticsearch.yml").toPath(), "cluster.name: test\n".getBytes("UTF-8"));
+            Files.write(new File(logs, "test.log").toPath(), ("started " + name + "\n").getBytes("UTF-8"));
+            Files.write(new File(logs, "test_index_indexing_slowlog.log").toPath(), new byte[0]);
+            Files.write(new File(logs, "test_index_search_slowlog.log").toPath(), new byte[0]);
+        }
+        return "{\"name\":\"" + name + "\",\"host\":\"localhost\",\"ip\":\"127.0.0.1\",\"home\":\"" + home.getPath()
+                + "\",\"logs\":\"" + logs.getPath() + "\",\"config\":\"\",\"conf\":\"\"}";
+    }
+
+    private static JsonNode manifest(String... nodes) throws IOException {
+        StringBuilder json = new StringBuilder("{\"clusterName\":\"test\",\"nodes\":[");
+        for (int i = 0; i < nodes.length; i++) {
+            json.append(i > 0 ? "," : "").append(nodes[i]);
+        }
+        return new ObjectMapper().readTree(json.append("]}").toString());
+    }
+
+    private static List<String> fieldNames(JsonNode node) {
+        List<String> names = new ArrayList<>();
+        Iterator<String> it = node.fieldNames();
+        while (it.hasNext()) {
+            names.add(it.next());
+        }
+        return names;
+    }
+
+    /**
+     * Keeps what is added in memory, holding each copy open long enough for copies on
+     * other threads to overlap it.  Copies under the failing prefix throw.
+     */
+    private static class RecordingSink implements ArtifactSink {
+
+        final Map<String, String> files = new ConcurrentHashMap<>();
+        final Map<String, ByteArrayOutputStream> entries = new ConcurrentHashMap<>();
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final String failing;
+
+        RecordingSink(String failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public long addFile(String name, String src, long position) {
+            if (failing != null && name.startsWith(failing)) {
+                throw new IllegalStateException("Disk unreadable");
+            }
+            int now = active.incrementAndGet();
+            try {
+                int max;
+                while (now > (max = maxConcurrent.get()) && !maxConcurrent.compareAndSet(max, now)) {
+                    // retry
+                }
+                Thread.sleep(50);
+                File file = new File(src);
+                if (!file.isFile()) {
+                    return -1;
+                }
+                files.put(name, new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+                return file.length();
+            } catch (InterruptedException | IOException e) {
+                return -1;
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public OutputStream newEntry(String name) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entries.put(name, out);
+            return out;
+        }
+    }
+}
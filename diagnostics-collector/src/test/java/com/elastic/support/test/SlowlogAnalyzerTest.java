@@ -0,0 +1,65 @@
+package com.elastic.support.test;
+
+import com.elastic.support.analysis.HeavyHitters;
+import com.elastic.support.analysis.QueryShape;
+import com.elastic.support.analysis.SlowlogAnalyzer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class SlowlogAnalyzerTest {
+
+    @Test
+    public void shapesIgnoreLiteralValues() {
+        QueryShape shape = new QueryShape();
+        String a = shape.normalize("{\"query\":{\"terms\":{\"user\":[\"a\",\"b\",\"c\"]}},\"size\":10}");
+        String b = shape.normalize("{\"query\":{\"terms\":{\"user\":[\"x\"]}},\"size\":500}");
+
+        assertEquals("{query:{terms:{user:[?]}},size:?}", a);
+        assertEquals(a, b);
+    }
+
+    @Test
+    public void heavyHittersKeepFrequentKeys() {
+        HeavyHitters hitters = new HeavyHitters(3);
+        for (int i = 0; i < 1000; i++) {
+            hitters.offer("frequent");
+            hitters.offer("rare-" + i);
+        }
+
+        int top = hitters.top(1).get(0);
+        assertEquals("frequent", hitters.getKey(top));
+        assertEquals(1000, hitters.getCount(top));
+        assertEquals(3, hitters.size());
+    }
+
+    @Test
+    public void summarisesSlowlogLines() throws Exception {
+        SlowlogAnalyzer analyzer = new SlowlogAnalyzer();
+        assertTrue(analyzer.accepts("node1", "test_index_search_slowlog.log"));
+
+        analyzer.begin("test_index_search_slowlog.log");
+        for (int i = 0; i < 10; i++) {
+            analyzer.processLine("[2015-06-22 13:57:37,123][WARN ][index.search.slowlog.query] [node1] [logs][" + i % 5 + "] took[1s], took_millis["
+                    + (100 + i) + "], types[], stats[], search_type[QUERY_THEN_FETCH], total_shards[5], source[{\"query\":{\"match\":{\"msg\":\"v" + i + "\"}}}], extra_source[], ");
+        }
+        analyzer.processLine("not a slowlog line");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        analyzer.writeSummary(out);
+        JsonNode summary = new ObjectMapper().readTree(out.toByteArray());
+
+        assertEquals(11, summary.path("lines").asInt());
+        assertEquals(10, summary.path("parsed").asInt());
+        JsonNode top = summary.path("topByCount").get(0);
+        assertEquals("{query:{match:{msg:?}}}", top.path("shape").asText());
+        assertEquals(10, top.path("count").asInt());
+        assertEquals(109, top.path("maxTookMillis").asInt());
+        assertEquals(50, top.path("totalShards").asInt());
+        assertEquals("logs", top.path("indices").get(0).asText());
+    }
+}
@@ -0,0 +1,76 @@
+package com.elastic.support.archive;
+
+/**
+ * An entry as described by the archive's central directory.  Only the metadata is
+ * held; the data is read when the entry is opened.
+ */
+public class ArchiveEntry {
+
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    final String name;
+    final byte[] rawName;
+    final int method;
+    final long compressedSize;
+    final long size;
+    final int crc;
+    final long localHeaderOffset;
+
+    // Kept as found so entries can be copied to another archive unchanged
+    short versionMade;
+    short versionNeeded;
+    int flags;
+    short time;
+    short date;
+    short internalAttrs;
+    int externalAttrs;
+    byte[] comment;
+
+    // Found from the local header the first time the entry's data is needed
+    volatile long dataOffset = -1;
+
+    ArchiveEntry(String name, byte[] rawName, int method, long compressedSize, long size, int crc, long localHeaderOffset) {
+        this.name = name;
+        this.rawName = rawName;
+        this.method = method;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.crc = crc;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getCrc() {
+        return crc & 0xFFFFFFFFL;
+    }
+
+    public boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveEntry{" +
+                "name='" + name + '\'' +
+                ", method=" + method +
+                ", compressedSize=" + compressedSize +
+                ", size=" + size +
+                '}';
+    }
+}
@@ -0,0 +1,165 @@
+package com.elastic.support.archive;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The container and compression an archive is written with.  Zip is the default as
+ * every tool opens it and the analyze, diff, merge and view commands read it.  The tar
+ * formats compress the archive as one stream, which does much better on many similar
+ * JSON files than zip compressing each entry on its own.  zstd and lz4 come from
+ * zstd-jni and lz4-java, which are bundled into the application jars.
+ */
+public enum ArchiveFormat {
+
+    ZIP("zip"),
+    TAR_GZ("tar.gz"),
+    TAR_ZSTD("tar.zst"),
+    TAR_LZ4("tar.lz4");
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveFormat.class);
+
+    static final int ZSTD_DEFAULT_LEVEL = 3;
+
+    private final String extension;
+
+    ArchiveFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * The format of an archive from its file name, or null if the extension is not one
+     * of ours.
+     */
+    public static ArchiveFormat forPath(String path) {
+        for (ArchiveFormat format : values()) {
+            if (path.endsWith("." + format.extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse a format option, accepting the extension or the short codec name.
+     */
+    public static ArchiveFormat parse(String format) {
+        String f = format == null ? "" : format.trim().toLowerCase();
+        switch (f) {
+            case "zip":
+                return ZIP;
+            case "tar.gz":
+            case "tgz":
+            case "gzip":
+                return TAR_GZ;
+            case "tar.zst":
+            case "zstd":
+                return TAR_ZSTD;
+            case "tar.lz4":
+            case "lz4":
+                return TAR_LZ4;
+            default:
+                logger.error("Unknown archive format " + format);
+                throw new RuntimeException("The archive format must be one of zip, tar.gz, tar.zst or tar.lz4.");
+        }
+    }
+
+    /**
+     * Wrap the output in this format's compressor.  Flushing the stream must push out
+     * everything written so far.  Zip compresses each entry itself, so it is returned
+     * unchanged.
+     *
+     * @param level compression level, or -1 for the codec's default.  lz4 has one level.
+     */
+    OutputStream compress(OutputStream out, final int level) throws IOException {
+        switch (this) {
+            case TAR_GZ:
+                return new GZIPOutputStream(out, 64 * 1024, true) {
+                    {
+                        if (level >= 0) {
+                            def.setLevel(level);
+                        }
+                    }
+                };
+            case TAR_ZSTD:
+                try {
+                    return new ZstdOutputStream(out, level >= 0 ? level : ZSTD_DEFAULT_LEVEL);
+                } catch (LinkageError e) {
+                    // zstd-jni carries native code for the common platforms only
+                    throw new IOException("zstd is not supported on this platform - use tar.gz or tar.lz4", e);
+                }
+            case TAR_LZ4:
+                return new LZ4FrameOutputStream(out);
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * Wrap the input in this format's decompressor, the reverse of compress.
+     */
+    InputStream decompress(InputStream in) throws IOException {
+        switch (this) {
+            case TAR_GZ:
+                return new GZIPInputStream(in, 64 * 1024);
+            case TAR_ZSTD:
+                try {
+                    return new ZstdInputStream(in);
+                } catch (LinkageError e) {
+                    throw new IOException("zstd is not supported on this platform", e);
+                }
+            case TAR_LZ4:
+                return new LZ4FrameInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * Most compressed bytes the codec can produce for n bytes of input, including its
+     * framing.  Used to keep volumes within their limit without buffering.
+     */
+    long bound(long n) {
+        switch (this) {
+            case TAR_GZ:
+                return ArchiveWriter.deflateBound(n) + 18;
+            case TAR_ZSTD:
+            case TAR_LZ4:
+                // Both store a block raw that won't compress; the constant covers the frame
+                // header, block headers from flushes and the trailing checksum
+                return n + (n >> 7) + 4096;
+            default:
+                return n;
+        }
+    }
+
+    /**
+     * A conservative inverse of bound - the input that is sure to fit in the room.
+     */
+    long maxRaw(long room) {
+        switch (this) {
+            case TAR_GZ:
+                return ArchiveWriter.maxRawBytes(room - 18);
+            case TAR_ZSTD:
+            case TAR_LZ4:
+                room -= 4096;
+                return room <= 0 ? 0 : room - (room >> 6);
+            default:
+                return room;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.elastic.support.archive;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Random access to a diagnostic archive without extracting it.  Opening only maps and
+ * decodes the central directory; an entry's data is read when it is asked for.  Entries
+ * that were gzipped before being added are decompressed transparently and can be looked
+ * up with or without the .gz suffix.  Parsed JSON documents are cached in an LRU bounded
+ * by the uncompressed size of the entries they came from.
+ *
+ * Readers are safe to share between threads.
+ */
+public class ArchiveReader implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveReader.class);
+
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final String GZIP_SUFFIX = ".gz";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final String path;
+    private final FileChannel channel;
+    private final Map<String, ArchiveEntry> entries = new LinkedHashMap<>();
+    private final DocumentCache cache;
+
+    public ArchiveReader(String path) throws IOException {
+        this(path, DEFAULT_CACHE_BYTES);
+    }
+
+    public ArchiveReader(String path, long cacheBytes) throws IOException {
+        this.path = path;
+        this.channel = new FileInputStream(path).getChannel();
+        this.cache = new DocumentCache(cacheBytes);
+        try {
+            for (ArchiveEntry entry : ZipFormat.readEntries(channel, path)) {
+                entries.put(entry.name, entry);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        logger.debug("Opened " + path + " with " + entries.size() + " entries");
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Collection<ArchiveEntry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Find an entry by name, falling back to the gzipped version of it.
+     *
+     * @return the entry or null if there is neither
+     */
+    public ArchiveEntry getEntry(String name) {
+        ArchiveEntry entry = entries.get(name);
+        if (entry == null && !name.endsWith(GZIP_SUFFIX)) {
+            entry = entries.get(name + GZIP_SUFFIX);
+        }
+        return entry;
+    }
+
+    public boolean contains(String name) {
+        return getEntry(name) != null;
+    }
+
+    /**
+     * Stream the entry's uncompressed content.  The caller closes the stream.
+     */
+    public InputStream openStream(String name) throws IOException {
+        return openStream(requireEntry(name));
+    }
+
+    public InputStream openStream(ArchiveEntry entry) throws IOException {
+
+        InputStream in = openRawStream(entry);
+        if (entry.name.endsWith(GZIP_SUFFIX)) {
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    /**
+     * Stream the entry as it was added, leaving a gzipped entry gzipped.
+     */
+    public InputStream openRawStream(ArchiveEntry entry) throws IOException {
+
+        InputStream in = new EntryStream(channel, ZipFormat.dataOffset(channel, entry), entry.compressedSize);
+        if (entry.method == ArchiveEntry.DEFLATED) {
+            in = new RawInflaterStream(in);
+        } else if (entry.method != ArchiveEntry.STORED) {
+            throw new IOException("Entry " + entry.name + " in " + path + " uses unsupported compression method " + entry.method);
+        } else {
+            in = new BufferedInputStream(in, BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    /**
+     * A streaming parser over a JSON entry, for documents too large to hold as a tree.
+     * Closing the parser closes the underlying stream.
+     */
+    public JsonParser openParser(String name) throws IOException {
+        return mapper.getFactory().createParser(openStream(name));
+    }
+
+    /**
+     * Parse a JSON entry, returning the cached tree if it was read recently.  Trees are
+     * shared, so callers must not modify them.
+     */
+    public JsonNode readTree(String name) throws IOException {
+
+        ArchiveEntry entry = requireEntry(name);
+        JsonNode node = cache.get(entry.name);
+        if (node == null) {
+            try (InputStream in = openStream(entry)) {
+                node = mapper.readTree(in);
+            }
+            cache.put(entry.name, node, Math.max(entry.size, entry.compressedSize));
+        }
+        return node;
+    }
+
+    /**
+     * The channel and data position of an entry's compressed bytes, for copying them
+     * elsewhere as they are.
+     */
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    long getDataOffset(ArchiveEntry entry) throws IOException {
+        return ZipFormat.dataOffset(channel, entry);
+    }
+
+    public long getCachedBytes() {
+        return cache.getBytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        cache.clear();
+        channel.close();
+    }
+
+    private ArchiveEntry requireEntry(String name) throws FileNotFoundException {
+        ArchiveEntry entry = getEntry(name);
+        if (entry == null) {
+            throw new FileNotFoundException("No entry " + name + " in " + path);
+        }
+        return entry;
+    }
+
+    /**
+     * Reads a range of the archive with positional reads so several streams can be
+     * open on the same channel at once.
+     */
+    static class EntryStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        EntryStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            ByteBuffer buf = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+            int read = channel.read(buf, position);
+            if (read < 0) {
+                throw new EOFException("Archive ended inside an entry's data");
+            }
+            position += read;
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, remaining);
+        }
+    }
+
+    /**
+     * Inflates raw deflate data.  Without the zlib wrapper the inflater can need one byte
+     * beyond the end of the data to finish, so a padding byte is supplied at the end
+     * the way ZipFile does.
+     */
+    static class RawInflaterStream extends InflaterInputStream {
+
+        private boolean padded;
+
+        RawInflaterStream(InputStream in) {
+            super(in, new Inflater(true), BUFFER_SIZE);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            len = in.read(buf, 0, buf.length);
+            if (len < 0) {
+                if (padded) {
+                    throw new EOFException("Unexpected end of compressed entry");
+                }
+                padded = true;
+                buf[0] = 0;
+                len = 1;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+    /**
+     * LRU of parsed documents weighed by the size of the entry they were parsed from,
+     * which tracks the memory a tree takes closely enough to bound it.
+     */
+    static class DocumentCache {
+
+        private final long maxBytes;
+        private long bytes;
+        private final LinkedHashMap<String, JsonNode> nodes = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<String, Long> weights = new HashMap<>();
+
+        DocumentCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized JsonNode get(String name) {
+            return nodes.get(name);
+        }
+
+        synchronized void put(String name, JsonNode node, long weight) {
+            if (weight > maxBytes || nodes.containsKey(name)) {
+                return;
+            }
+            nodes.put(name, node);
+            weights.put(name, weight);
+            bytes += weight;
+
+            Iterator<Map.Entry<String, JsonNode>> eldest = nodes.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                String evicted = eldest.next().getKey();
+                eldest.remove();
+                bytes -= weights.remove(evicted);
+            }
+        }
+
+        synchronized long getBytes() {
+            return bytes;
+        }
+
+        synchronized void clear() {
+            nodes.clear();
+            weights.clear();
+            bytes = 0;
+        }
+    }
+}
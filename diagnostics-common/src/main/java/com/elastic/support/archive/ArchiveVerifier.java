@@ -0,0 +1,399 @@
+package com.elastic.support.archive;
+
+import com.elastic.support.concurrent.BoundedExecutor;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Checksum;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Checks an archive against the sizes and CRC-32C checksums recorded as it was written.
+ * A zip's entries are read at random, so they are checked in parallel, as many at once
+ * as there are threads.  A tar volume is one compressed stream and is read through
+ * once, with the volumes of a set checked in parallel.  The checksums come from the
+ * integrity.json in the archive - several for a merged archive, one per source - or,
+ * given a volume set's index.json, from the index, which survives losing a volume.
+ *
+ * A zip whose central directory is gone, as when a transfer was cut short, is read
+ * from the front instead, which shows which entry it breaks in and that the ones
+ * before it are sound.
+ */
+public class ArchiveVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveVerifier.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int threads;
+
+    private final List<String> problems = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong unchecked = new AtomicLong();
+
+    public ArchiveVerifier(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Check an archive, or the volume set an index.json describes.  Problems found in
+     * the archive are collected rather than thrown; an exception means the archive or
+     * index could not be looked at at all.
+     */
+    public void verify(String path) throws IOException {
+
+        BoundedExecutor pool = BoundedExecutor.create("verify", threads, BoundedExecutor.Mode.PLATFORM);
+        List<Future<?>> tasks = new ArrayList<>();
+        List<Closeable> readers = new ArrayList<>();
+        try {
+            if (path.endsWith(".index.json")) {
+                verifyIndex(path, pool, tasks, readers);
+            } else {
+                ArchiveFormat format = ArchiveFormat.forPath(path);
+                if (format == null) {
+                    throw new IOException(path + " is not a zip, tar.gz, tar.zst or tar.lz4 archive or an index.json");
+                }
+                verifyVolume(path, format, null, pool, tasks, readers);
+            }
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    logger.error("Verification task failed", e.getCause());
+                    problems.add("A check failed unexpectedly: " + e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted verifying " + path);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            for (Closeable reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    public List<String> getProblems() {
+        synchronized (problems) {
+            List<String> sorted = new ArrayList<>(problems);
+            Collections.sort(sorted);
+            return sorted;
+        }
+    }
+
+    public long getChecked() {
+        return checked.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Entries no manifest covers, as in an archive merged from ones written before
+     * checksums were recorded.
+     */
+    public long getUnchecked() {
+        return unchecked.get();
+    }
+
+    private void verifyIndex(String path, ExecutorService pool, List<Future<?>> tasks, List<Closeable> readers) throws IOException {
+
+        JsonNode index = new ObjectMapper().readTree(new File(path));
+        ArchiveFormat format = ArchiveFormat.parse(index.path("format").asText());
+        File dir = new File(path).getAbsoluteFile().getParentFile();
+
+        List<IntegrityManifest> manifests = new ArrayList<>();
+        for (JsonNode ignored : index.path("volumes")) {
+            manifests.add(new IntegrityManifest());
+        }
+        boolean recorded = true;
+        for (JsonNode entry : index.path("entries")) {
+            for (JsonNode part : entry.path("parts")) {
+                int volume = part.path("volume").asInt();
+                if (!part.has(IntegrityManifest.ALGORITHM) || volume < 1 || volume > manifests.size()) {
+                    recorded = false;
+                    continue;
+                }
+                manifests.get(volume - 1).add(part.path("entry").asText(), volume, part.path("size").asLong(),
+                        Long.parseLong(part.path(IntegrityManifest.ALGORITHM).asText(), 16));
+            }
+        }
+        if (!recorded) {
+            problems.add(path + " has no checksums - it was written before they were recorded");
+            return;
+        }
+
+        int volume = 0;
+        for (JsonNode row : index.path("volumes")) {
+            File file = new File(dir, row.path("file").asText());
+            IntegrityManifest expected = manifests.get(volume++);
+            if (!file.isFile()) {
+                problems.add("Volume " + file.getName() + " is missing, with " + expected.getRecords().size() + " entries");
+                continue;
+            }
+            if (file.length() != row.path("bytes").asLong()) {
+                problems.add("Volume " + file.getName() + " is " + file.length() + " bytes but was written as " + row.path("bytes").asLong());
+            }
+            verifyVolume(file.getPath(), format, expected, pool, tasks, readers);
+        }
+    }
+
+    /**
+     * @param expected what the volume should hold, or null to use the manifests in it
+     */
+    private void verifyVolume(final String path, final ArchiveFormat format, IntegrityManifest expected,
+                              ExecutorService pool, List<Future<?>> tasks, List<Closeable> readers) throws IOException {
+
+        final ArchiveReader reader;
+        if (format == ArchiveFormat.ZIP) {
+            try {
+                reader = new ArchiveReader(path, 0);
+            } catch (IOException e) {
+                logger.debug("Could not open " + path + " - reading it from the start", e);
+                tasks.add(scanTask(path, format, expected, pool));
+                return;
+            }
+        } else {
+            tasks.add(scanTask(path, format, expected, pool));
+            return;
+        }
+        readers.add(reader);
+
+        final Map<String, ArchiveEntry> entries = new HashMap<>();
+        for (ArchiveEntry entry : reader.getEntries()) {
+            entries.put(entry.getName(), entry);
+        }
+        if (expected == null) {
+            expected = new IntegrityManifest();
+            for (ArchiveEntry entry : entries.values()) {
+                if (IntegrityManifest.isManifest(entry.getName())) {
+                    String prefix = entry.getName().substring(0, entry.getName().length() - IntegrityManifest.NAME.length());
+                    try (InputStream in = reader.openRawStream(entry)) {
+                        expected.getRecords().putAll(IntegrityManifest.read(in, prefix).getRecords());
+                    } catch (IOException e) {
+                        problems.add(entry.getName() + " in " + path + " could not be read: " + e.getMessage());
+                    }
+                }
+            }
+            if (expected.isEmpty()) {
+                problems.add(path + " has no " + IntegrityManifest.NAME + " - it was written before checksums were recorded");
+                return;
+            }
+            if (spansVolumes(expected)) {
+                problems.add(path + " is one volume of a set - verify the set's index.json instead");
+                return;
+            }
+        }
+
+        for (final IntegrityManifest.Record record : expected.getRecords().values()) {
+            final ArchiveEntry entry = entries.get(record.name);
+            if (entry == null) {
+                problems.add(record.name + " is missing from " + path);
+                continue;
+            }
+            tasks.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try (InputStream in = reader.openRawStream(entry)) {
+                        check(record, in, path);
+                    } catch (IOException e) {
+                        problems.add(record.name + " in " + path + " could not be read: " + e.getMessage());
+                    }
+                }
+            }));
+        }
+        for (String name : entries.keySet()) {
+            if (!expected.getRecords().containsKey(name) && !IntegrityManifest.isManifest(name)) {
+                unchecked.incrementAndGet();
+            }
+        }
+    }
+
+    private Future<?> scanTask(final String path, final ArchiveFormat format, final IntegrityManifest expected, ExecutorService pool) {
+        return pool.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scan(path, format, expected);
+                } catch (IOException e) {
+                    problems.add(path + " could not be read: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Read a volume from the front, checksumming each entry as it goes by, and check
+     * them against the manifest once it has been reached.
+     */
+    private void scan(String path, ArchiveFormat format, IntegrityManifest expected) throws IOException {
+
+        Map<String, long[]> seen = new LinkedHashMap<>();
+        IntegrityManifest found = new IntegrityManifest();
+        String broken = null;
+        byte[] buf = new byte[BUFFER_SIZE];
+        Checksum checksum = Crc32c.create();
+
+        try (InputStream file = new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE)) {
+            EntrySource source = format == ArchiveFormat.ZIP ? new ZipSource(file) : new TarSource(format.decompress(file));
+            String name = null;
+            try {
+                while ((name = source.next()) != null) {
+                    boolean manifest = expected == null && IntegrityManifest.isManifest(name);
+                    ByteArrayOutputStream copy = manifest ? new ByteArrayOutputStream() : null;
+                    checksum.reset();
+                    long size = 0;
+                    int n;
+                    while ((n = source.read(buf)) > 0) {
+                        checksum.update(buf, 0, n);
+                        size += n;
+                        if (copy != null) {
+                            copy.write(buf, 0, n);
+                        }
+                    }
+                    seen.put(name, new long[]{size, checksum.getValue()});
+                    if (copy != null) {
+                        String prefix = name.substring(0, name.length() - IntegrityManifest.NAME.length());
+                        found.getRecords().putAll(IntegrityManifest.read(new ByteArrayInputStream(copy.toByteArray()), prefix).getRecords());
+                    }
+                    name = null;
+                }
+            } catch (IOException e) {
+                broken = name;
+                problems.add(path + " is damaged or cut off " + (name == null ? "between entries" : "in " + name)
+                        + " (" + e.getMessage() + ") - the " + seen.size() + " entries before it read cleanly");
+            }
+        }
+
+        if (expected == null) {
+            if (found.isEmpty()) {
+                if (broken == null && seen.size() > 0) {
+                    problems.add(path + " has no " + IntegrityManifest.NAME + " - it was written before checksums were recorded");
+                }
+                return;
+            }
+            if (spansVolumes(found)) {
+                problems.add(path + " is one volume of a set - verify the set's index.json instead");
+                return;
+            }
+            expected = found;
+        }
+
+        int lost = 0;
+        for (IntegrityManifest.Record record : expected.getRecords().values()) {
+            long[] actual = seen.get(record.name);
+            if (actual == null) {
+                if (broken != null) {
+                    lost++;
+                } else {
+                    problems.add(record.name + " is missing from " + path);
+                }
+                continue;
+            }
+            compare(record, actual[0], actual[1], path);
+        }
+        if (lost > 0) {
+            problems.add(lost + " entries of " + path + " come after the damage and could not be checked");
+        }
+        for (String name : seen.keySet()) {
+            if (!expected.getRecords().containsKey(name) && !IntegrityManifest.isManifest(name)) {
+                unchecked.incrementAndGet();
+            }
+        }
+    }
+
+    private void check(IntegrityManifest.Record record, InputStream in, String path) throws IOException {
+
+        Checksum checksum = Crc32c.create();
+        byte[] buf = new byte[BUFFER_SIZE];
+        long size = 0;
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            checksum.update(buf, 0, n);
+            size += n;
+        }
+        compare(record, size, checksum.getValue(), path);
+    }
+
+    private void compare(IntegrityManifest.Record record, long size, long crc, String path) {
+        if (size != record.size) {
+            problems.add(record.name + " in " + path + " is " + size + " bytes but was written as " + record.size);
+        } else if (crc != record.crc) {
+            problems.add(record.name + " in " + path + " does not match its checksum - " + Crc32c.format(crc)
+                    + " instead of " + Crc32c.format(record.crc));
+        } else {
+            checked.incrementAndGet();
+            bytes.addAndGet(size);
+        }
+    }
+
+    private static boolean spansVolumes(IntegrityManifest manifest) {
+        Set<Integer> volumes = new HashSet<>();
+        for (IntegrityManifest.Record record : manifest.getRecords().values()) {
+            volumes.add(record.volume);
+        }
+        return volumes.size() > 1;
+    }
+
+    private interface EntrySource {
+
+        /**
+         * @return the next entry's name, or null at the end
+         */
+        String next() throws IOException;
+
+        int read(byte[] buf) throws IOException;
+    }
+
+    /**
+     * ZipInputStream checks each entry's own CRC-32 as it is read.
+     */
+    private static class ZipSource implements EntrySource {
+
+        private final ZipInputStream in;
+
+        ZipSource(InputStream in) {
+            this.in = new ZipInputStream(in);
+        }
+
+        @Override
+        public String next() throws IOException {
+            ZipEntry entry = in.getNextEntry();
+            return entry == null ? null : entry.getName();
+        }
+
+        @Override
+        public int read(byte[] buf) throws IOException {
+            return in.read(buf, 0, buf.length);
+        }
+    }
+
+    private static class TarSource implements EntrySource {
+
+        private final TarReader in;
+
+        TarSource(InputStream in) {
+            this.in = new TarReader(in);
+        }
+
+        @Override
+        public String next() throws IOException {
+            return in.next() ? in.getName() : null;
+        }
+
+        @Override
+        public int read(byte[] buf) throws IOException {
+            return in.read(buf, 0, buf.length);
+        }
+    }
+}
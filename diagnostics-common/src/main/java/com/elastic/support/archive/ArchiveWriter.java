@@ -0,0 +1,441 @@
+package com.elastic.support.archive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.Checksum;
+
+/**
+ * Writes a diagnostic archive, in zip or one of the tar formats, as a series of volumes
+ * no larger than a set size, so each can be uploaded on its own and in parallel.  Every
+ * volume is a complete archive that opens with any tool.  Data is streamed - a volume is
+ * closed as soon as the next chunk might not fit, judged from the codec's worst case
+ * output, and the entry carries on in the next volume as <name>.part2, <name>.part3 and
+ * so on.  Entries whose size is known up front start a fresh volume rather than being
+ * split when that avoids the split.  Tar headers need the size, so for the tar formats
+ * an entry started without one is spooled to a temporary file first.
+ *
+ * With more than one volume they are named <base>.001.zip, <base>.002.zip... with the
+ * format's extension, and <base>.index.json lists the volumes and, for each entry, the
+ * volume holding each of its parts.  Output that fits one volume is written to
+ * <base>.zip, <base>.tar.gz and so on.
+ *
+ * Each part's size and CRC-32C are worked out as its bytes go in, and written as the
+ * archive's last entry, integrity.json, so a damaged or cut off archive can be checked
+ * entry by entry without anything to compare it with.  The index repeats them for
+ * every part, the manifest's own included, in case the last volume is the one lost.
+ */
+public class ArchiveWriter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveWriter.class);
+
+    public static final long MIN_VOLUME_BYTES = 1024 * 1024;
+    static final String PART_SUFFIX = ".part";
+
+    // Smallest part worth starting at the end of a volume rather than in the next one
+    static final long MIN_PART_BYTES = 64 * 1024;
+
+    private final String base;
+    private final long volumeBytes;
+    private final ArchiveFormat format;
+    private int level = -1;
+
+    private final List<Volume> volumes = new ArrayList<>();
+    private final Map<String, List<Part>> parts = new LinkedHashMap<>();
+    private Volume volume;
+    private FormatWriter out;
+
+    private String entryName;
+    private long entrySize;
+    private long entryWritten;
+    private int entryPart;
+    private long partSize;
+    private long partBytes;
+    private final Checksum checksum = Crc32c.create();
+    private File spool;
+    private OutputStream spoolOut;
+    private boolean closed;
+
+    /**
+     * @param base        path of the archive without the extension
+     * @param volumeBytes largest size of a volume, or 0 for a single archive of any size
+     */
+    public ArchiveWriter(String base, long volumeBytes) throws IOException {
+        this(base, volumeBytes, ArchiveFormat.ZIP);
+    }
+
+    public ArchiveWriter(String base, long volumeBytes, ArchiveFormat format) throws IOException {
+        if (volumeBytes != 0 && volumeBytes < MIN_VOLUME_BYTES) {
+            throw new IllegalArgumentException("Archive volumes must be at least " + MIN_VOLUME_BYTES + " bytes");
+        }
+        this.base = base;
+        this.volumeBytes = volumeBytes;
+        this.format = format;
+    }
+
+    /**
+     * Compression level for the codec, or -1 for its default.  Takes effect from the
+     * next volume, so set it before the first entry.
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public ArchiveFormat getFormat() {
+        return format;
+    }
+
+    public void putDirectory(String name) throws IOException {
+        putNextEntry(name, 0);
+        closeEntry();
+    }
+
+    public void putNextEntry(String name) throws IOException {
+        putNextEntry(name, -1);
+    }
+
+    /**
+     * Start an entry.  When the expected size is known and the entry won't fit in what is
+     * left of the current volume but would fit in an empty one, a new volume is started.
+     * For the tar formats the size, if given, must be exact.
+     *
+     * @param expectedSize uncompressed size if known, otherwise -1
+     */
+    public void putNextEntry(String name, long expectedSize) throws IOException {
+        if (entryName != null) {
+            closeEntry();
+        }
+        if (volume == null) {
+            openVolume();
+        }
+        entryName = name;
+        if (expectedSize < 0 && out.needsSize()) {
+            spool = File.createTempFile("archive-entry", ".tmp");
+            spoolOut = new BufferedOutputStream(new FileOutputStream(spool), 64 * 1024);
+            return;
+        }
+        beginEntry(expectedSize);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (entryName == null) {
+            throw new IOException("No entry has been started");
+        }
+        if (spoolOut != null) {
+            spoolOut.write(b, off, len);
+            return;
+        }
+        while (len > 0) {
+            int n = len;
+            if (volumeBytes > 0) {
+                long room = out.room(volumeBytes, partBytes);
+                if (room <= 0) {
+                    splitEntry();
+                    continue;
+                }
+                n = (int) Math.min(n, room);
+            }
+            out.write(b, off, n);
+            checksum.update(b, off, n);
+            partBytes += n;
+            entryWritten += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void closeEntry() throws IOException {
+        if (entryName == null) {
+            return;
+        }
+        if (spoolOut != null) {
+            writeSpooled();
+            return;
+        }
+        if (out.needsSize() && entryWritten != entrySize) {
+            throw new IOException("Entry " + entryName + " was started with " + entrySize + " bytes but " + entryWritten + " were written");
+        }
+        out.closeEntry();
+        endPart();
+        entryName = null;
+    }
+
+    /**
+     * A stream that writes to the current entry and can be handed to code that closes
+     * what it is given.  Closing it closes the entry, not the archive.
+     */
+    public OutputStream getEntryStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                ArchiveWriter.this.write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ArchiveWriter.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                closeEntry();
+            }
+        };
+    }
+
+    /**
+     * Copy a whole file in as one entry.
+     */
+    public void putFile(String name, File file) throws IOException {
+        putNextEntry(name, file.length());
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                write(buf, 0, len);
+            }
+        }
+        closeEntry();
+    }
+
+    /**
+     * The files written, in order.
+     */
+    public List<String> getVolumes() {
+        List<String> names = new ArrayList<>();
+        for (Volume v : volumes) {
+            names.add(v.path);
+        }
+        return names;
+    }
+
+    public String getIndexPath() {
+        return base + ".index.json";
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (volume == null) {
+            openVolume();
+        }
+        try {
+            closeEntry();
+            writeManifest();
+        } finally {
+            out.close();
+            if (spool != null) {
+                Files.deleteIfExists(spool.toPath());
+            }
+        }
+
+        if (volumes.size() == 1) {
+            Volume only = volumes.get(0);
+            String single = base + "." + format.getExtension();
+            if (!only.path.equals(single)) {
+                File target = new File(single);
+                target.delete();
+                if (!new File(only.path).renameTo(target)) {
+                    throw new IOException("Could not rename " + only.path + " to " + single);
+                }
+                only.path = single;
+            }
+            return;
+        }
+        writeIndex();
+        logger.debug("Archive " + base + " written as " + volumes.size() + " volumes");
+    }
+
+    private void writeIndex() throws IOException {
+
+        List<Map<String, Object>> vols = new ArrayList<>();
+        for (Volume v : volumes) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("file", new File(v.path).getName());
+            row.put("bytes", new File(v.path).length());
+            row.put("entries", v.entries);
+            vols.add(row);
+        }
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (Map.Entry<String, List<Part>> entry : parts.entrySet()) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("name", entry.getKey());
+            List<Map<String, Object>> locations = new ArrayList<>();
+            List<Part> list = entry.getValue();
+            for (int i = 0; i < list.size(); i++) {
+                Map<String, Object> location = new LinkedHashMap<>();
+                location.put("volume", list.get(i).volume);
+                location.put("entry", partName(entry.getKey(), i + 1));
+                location.put("size", list.get(i).size);
+                location.put(IntegrityManifest.ALGORITHM, Crc32c.format(list.get(i).crc));
+                locations.add(location);
+            }
+            row.put("parts", locations);
+            entries.add(row);
+        }
+        Map<String, Object> index = new LinkedHashMap<>();
+        index.put("format", format.getExtension());
+        index.put("volumeBytes", volumeBytes);
+        index.put("volumes", vols);
+        index.put("entries", entries);
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(getIndexPath()), index);
+    }
+
+    /**
+     * Write every part recorded so far, except the manifest itself, as the last entry.
+     */
+    private void writeManifest() throws IOException {
+
+        IntegrityManifest manifest = new IntegrityManifest();
+        for (Map.Entry<String, List<Part>> entry : parts.entrySet()) {
+            List<Part> list = entry.getValue();
+            for (int i = 0; i < list.size(); i++) {
+                Part part = list.get(i);
+                manifest.add(partName(entry.getKey(), i + 1), volumeBytes > 0 ? part.volume : 0, part.size, part.crc);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        manifest.write(bytes);
+        putNextEntry(IntegrityManifest.NAME, bytes.size());
+        write(bytes.toByteArray(), 0, bytes.size());
+        closeEntry();
+    }
+
+    static String partName(String name, int part) {
+        return part == 1 ? name : name + PART_SUFFIX + part;
+    }
+
+    private void writeSpooled() throws IOException {
+        spoolOut.close();
+        spoolOut = null;
+        try {
+            beginEntry(spool.length());
+            byte[] buf = new byte[64 * 1024];
+            try (InputStream in = new FileInputStream(spool)) {
+                int len;
+                while ((len = in.read(buf)) > 0) {
+                    write(buf, 0, len);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(spool.toPath());
+            spool = null;
+        }
+        closeEntry();
+    }
+
+    private void beginEntry(long size) throws IOException {
+        if (volumeBytes > 0 && size >= 0 && volume.entries > 0 && out.roomForNewEntry(volumeBytes, entryName) < size) {
+            out.sync();
+            if (out.roomForNewEntry(volumeBytes, entryName) < size && out.roomInEmptyVolume(volumeBytes, entryName) >= size) {
+                nextVolume();
+            }
+        }
+        entrySize = size;
+        entryWritten = 0;
+        entryPart = 1;
+        parts.put(entryName, new ArrayList<Part>());
+        startPart();
+    }
+
+    /**
+     * Carry the entry on in a new part.  A zip entry grows until the volume is full, so
+     * its next part goes in the next volume.  A tar part is only as big as the room
+     * estimated when it started, so the next may still fit in this volume.
+     */
+    private void splitEntry() throws IOException {
+        out.closeEntry();
+        endPart();
+        if (!out.needsSize()) {
+            nextVolume();
+        }
+        entryPart++;
+        startPart();
+    }
+
+    private void startPart() throws IOException {
+        String name = partName(entryName, entryPart);
+        partBytes = 0;
+        partSize = -1;
+        if (out.needsSize()) {
+            partSize = entrySize - entryWritten;
+            if (volumeBytes > 0) {
+                long room = out.roomForNewEntry(volumeBytes, name);
+                if (room < partSize) {
+                    out.sync();
+                    room = out.roomForNewEntry(volumeBytes, name);
+                }
+                if (room < Math.min(partSize, MIN_PART_BYTES) && volume.entries > 0) {
+                    nextVolume();
+                    room = out.roomForNewEntry(volumeBytes, name);
+                }
+                partSize = Math.min(partSize, Math.max(0, room));
+            }
+        }
+        volume.entries++;
+        checksum.reset();
+        out.startEntry(name, partSize);
+    }
+
+    private void endPart() {
+        parts.get(entryName).add(new Part(volumes.size(), partBytes, checksum.getValue()));
+    }
+
+    private void nextVolume() throws IOException {
+        out.close();
+        openVolume();
+    }
+
+    private void openVolume() throws IOException {
+        String path = volumeBytes > 0 ? String.format("%s.%03d.%s", base, volumes.size() + 1, format.getExtension())
+                : base + "." + format.getExtension();
+        out = FormatWriter.open(format, new FileOutputStream(path), level);
+        volume = new Volume(path);
+        volumes.add(volume);
+    }
+
+    /**
+     * Most compressed bytes deflate can produce for n input bytes, as zlib's deflateBound.
+     */
+    static long deflateBound(long n) {
+        return n + (n >> 12) + (n >> 14) + (n >> 25) + 13;
+    }
+
+    /**
+     * A conservative inverse of deflateBound - the input that is sure to fit in the room.
+     */
+    static long maxRawBytes(long room) {
+        room -= 13;
+        return room <= 0 ? 0 : room - (room >> 11) - 1;
+    }
+
+    private static class Part {
+
+        final int volume;
+        final long size;
+        final long crc;
+
+        Part(int volume, long size, long crc) {
+            this.volume = volume;
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+
+    private static class Volume {
+
+        String path;
+        int entries;
+
+        Volume(String path) {
+            this.path = path;
+        }
+    }
+}
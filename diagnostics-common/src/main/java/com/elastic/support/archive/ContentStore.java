@@ -0,0 +1,423 @@
+package com.elastic.support.archive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A local repository for repeated diagnostic runs that stores each distinct piece of
+ * content once.  Entries are cut into chunks at content-defined boundaries as they are
+ * written, so an edit in the middle of a mapping or a log that has grown only changes
+ * the chunks around the edit or at the end.  Each chunk is named by its SHA-256 and
+ * stored compressed under chunks/; one that is already there isn't written again.  A
+ * run is just runs/<name>.json listing the chunks of each of its entries, and can be
+ * exported back to an ordinary zip at any time.
+ *
+ * Chunk and manifest files are written under a temporary name and moved into place, so
+ * runs being stored at the same time, or a run that fails part way, never leave a
+ * partial chunk behind a valid name.
+ */
+public class ContentStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentStore.class);
+
+    static final int MIN_CHUNK = 16 * 1024;
+    static final int MAX_CHUNK = 1024 * 1024;
+    // 17 bits past the minimum puts the average chunk at around 144KB
+    static final long BOUNDARY_MASK = 0xFFFF800000000000L;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed - boundaries have to fall in the same place in every run
+        Random random = new Random(0x6c6f67736c6f6773L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final File root;
+    private final File chunks;
+    private final File runs;
+
+    public ContentStore(String root) throws IOException {
+        this.root = new File(root);
+        this.chunks = new File(this.root, "chunks");
+        this.runs = new File(this.root, "runs");
+        Files.createDirectories(chunks.toPath());
+        Files.createDirectories(runs.toPath());
+    }
+
+    public String getRoot() {
+        return root.getPath();
+    }
+
+    /**
+     * Start storing a run.  Nothing refers to its chunks until the writer is closed.
+     */
+    public RunWriter newRun(String name) throws IOException {
+        if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid run name " + name);
+        }
+        if (runFile(name).exists()) {
+            throw new FileAlreadyExistsException(runFile(name).getPath());
+        }
+        return new RunWriter(name);
+    }
+
+    public List<String> listRuns() {
+        List<String> names = new ArrayList<>();
+        File[] files = runs.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String fileName = file.getName();
+                if (fileName.endsWith(".json") && !fileName.startsWith(".")) {
+                    names.add(fileName.substring(0, fileName.length() - ".json".length()));
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * The manifest of a stored run.
+     */
+    public JsonNode readRun(String name) throws IOException {
+        File file = runFile(name);
+        if (!file.exists()) {
+            throw new FileNotFoundException("No run " + name + " in " + root);
+        }
+        return mapper.readTree(file);
+    }
+
+    /**
+     * Stream an entry of a run as it was written.
+     */
+    public InputStream openEntry(final JsonNode entry) {
+        final Iterator<JsonNode> hashes = entry.path("chunks").iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return hashes.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String hash = hashes.next().asText();
+                try {
+                    return new InflaterInputStream(new BufferedInputStream(new FileInputStream(chunkFile(hash)), 64 * 1024));
+                } catch (FileNotFoundException e) {
+                    throw new UncheckedChunkException(new FileNotFoundException("Chunk " + hash + " is missing from " + root));
+                }
+            }
+        });
+    }
+
+    /**
+     * Write a run out as an ordinary archive, checking each entry's hash on the way.
+     */
+    public void export(String name, ArchiveWriter out) throws IOException {
+
+        byte[] buf = new byte[64 * 1024];
+        for (JsonNode entry : readRun(name).path("entries")) {
+            String entryName = entry.path("name").asText();
+            if (entryName.endsWith("/")) {
+                out.putDirectory(entryName);
+                continue;
+            }
+            out.putNextEntry(entryName, entry.path("size").asLong());
+            MessageDigest digest = sha256();
+            try (InputStream in = openEntry(entry)) {
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    digest.update(buf, 0, n);
+                    out.write(buf, 0, n);
+                }
+            } catch (UncheckedChunkException e) {
+                throw (IOException) e.getCause();
+            }
+            out.closeEntry();
+            if (!hex(digest.digest()).equals(entry.path("sha256").asText())) {
+                throw new IOException("Entry " + entryName + " of run " + name + " doesn't match its hash - the repository is damaged");
+            }
+        }
+    }
+
+    File chunkFile(String hash) {
+        return new File(new File(chunks, hash.substring(0, 2)), hash);
+    }
+
+    private File runFile(String name) {
+        return new File(runs, name + ".json");
+    }
+
+    /**
+     * Move a finished temporary file into place.  If another writer stored the same
+     * chunk meanwhile the content is identical, so it doesn't matter whose lands.
+     */
+    private static void publish(File temp, File target) throws IOException {
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = digits[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = digits[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Stores the entries of one run.  Entries are written one at a time, either by
+     * streaming to {@link #newEntry} or from files.
+     */
+    public class RunWriter implements Closeable {
+
+        private final String name;
+        private final ArrayNode entries = mapper.createArrayNode();
+        private long bytes;
+        private long chunkCount;
+        private long newChunks;
+        private long storedBytes;
+        private EntryStream current;
+        private boolean closed;
+
+        RunWriter(String name) {
+            this.name = name;
+        }
+
+        /**
+         * A stream for the next entry.  The entry is complete when the stream is closed.
+         */
+        public OutputStream newEntry(String entryName) throws IOException {
+            if (current != null) {
+                current.close();
+            }
+            current = new EntryStream(entryName);
+            return current;
+        }
+
+        public void addDirectory(String entryName) throws IOException {
+            newEntry(entryName).close();
+        }
+
+        public void addFile(String entryName, File file) throws IOException {
+            byte[] buf = new byte[64 * 1024];
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = newEntry(entryName)) {
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                }
+            }
+        }
+
+        /**
+         * Add everything under a directory, named relative to it.
+         */
+        public void addTree(String relPath, File dir) throws IOException {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    addDirectory(relPath + file.getName() + "/");
+                    addTree(relPath + file.getName() + "/", file);
+                } else {
+                    addFile(relPath + file.getName(), file);
+                }
+            }
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getChunks() {
+            return chunkCount;
+        }
+
+        public long getNewChunks() {
+            return newChunks;
+        }
+
+        /**
+         * Compressed bytes of the chunks this run added to the repository.
+         */
+        public long getStoredBytes() {
+            return storedBytes;
+        }
+
+        /**
+         * Write the run's manifest.  Until then the run doesn't exist.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (current != null) {
+                current.close();
+            }
+            closed = true;
+
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            ObjectNode manifest = mapper.createObjectNode();
+            manifest.put("name", name);
+            manifest.put("created", format.format(new Date()));
+            ObjectNode stats = manifest.putObject("stats");
+            stats.put("bytes", bytes);
+            stats.put("chunks", chunkCount);
+            stats.put("newChunks", newChunks);
+            stats.put("storedBytes", storedBytes);
+            manifest.set("entries", entries);
+
+            File temp = new File(runs, "." + name + ".tmp");
+            mapper.writerWithDefaultPrettyPrinter().writeValue(temp, manifest);
+            publish(temp, runFile(name));
+            logger.debug("Stored run " + name + ": " + bytes + " bytes in " + chunkCount + " chunks, " + newChunks + " of them new");
+        }
+
+        private void storeChunk(byte[] data, int len, ArrayNode hashes) throws IOException {
+
+            MessageDigest digest = sha256();
+            digest.update(data, 0, len);
+            String hash = hex(digest.digest());
+            hashes.add(hash);
+            chunkCount++;
+
+            File target = chunkFile(hash);
+            if (target.exists()) {
+                return;
+            }
+            File dir = target.getParentFile();
+            Files.createDirectories(dir.toPath());
+            File temp = File.createTempFile(".chunk", ".tmp", dir);
+            try {
+                Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+                try (OutputStream out = new DeflaterOutputStream(new FileOutputStream(temp), deflater, 64 * 1024)) {
+                    out.write(data, 0, len);
+                } finally {
+                    deflater.end();
+                }
+                storedBytes += temp.length();
+                newChunks++;
+                publish(temp, target);
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+
+        /**
+         * Cuts the entry into chunks with a gear rolling hash, so boundaries depend on
+         * the bytes just before them rather than on the offset.
+         */
+        private class EntryStream extends OutputStream {
+
+            private final String entryName;
+            private final MessageDigest digest = sha256();
+            private final ArrayNode hashes = mapper.createArrayNode();
+            private final byte[] chunk = new byte[MAX_CHUNK];
+            private int length;
+            private long fingerprint;
+            private long size;
+            private boolean done;
+
+            EntryStream(String entryName) {
+                this.entryName = entryName;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (done) {
+                    throw new IOException("Entry " + entryName + " is already closed");
+                }
+                digest.update(b, off, len);
+                size += len;
+                for (int i = off; i < off + len; i++) {
+                    chunk[length++] = b[i];
+                    fingerprint = (fingerprint << 1) + GEAR[b[i] & 0xFF];
+                    if (length >= MAX_CHUNK || (length >= MIN_CHUNK && (fingerprint & BOUNDARY_MASK) == 0)) {
+                        cut();
+                    }
+                }
+            }
+
+            private void cut() throws IOException {
+                storeChunk(chunk, length, hashes);
+                length = 0;
+                fingerprint = 0;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (done) {
+                    return;
+                }
+                done = true;
+                if (length > 0) {
+                    cut();
+                }
+                ObjectNode entry = entries.addObject();
+                entry.put("name", entryName);
+                entry.put("size", size);
+                entry.put("sha256", hex(digest.digest()));
+                entry.set("chunks", hashes);
+                bytes += size;
+                if (current == this) {
+                    current = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Carries a missing chunk out of the stream enumeration, which can't throw IOException.
+     */
+    static class UncheckedChunkException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        UncheckedChunkException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.elastic.support.archive;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli), the checksum recorded for archive entries.  On Java 9 and later
+ * the JDK's java.util.zip.CRC32C is used, which the JIT replaces with the processor's
+ * CRC32 instructions.  Older runtimes get this table driven version, which takes eight
+ * bytes a step and keeps up with deflate comfortably.
+ */
+public final class Crc32c implements Checksum {
+
+    private static final int POLY = 0x82F63B78;
+    private static final int[][] TABLE = new int[8][256];
+
+    private static final Class<?> JDK_CLASS;
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int crc = n;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+            }
+            TABLE[0][n] = crc;
+        }
+        for (int n = 0; n < 256; n++) {
+            for (int t = 1; t < 8; t++) {
+                TABLE[t][n] = (TABLE[t - 1][n] >>> 8) ^ TABLE[0][TABLE[t - 1][n] & 0xFF];
+            }
+        }
+        Class<?> type;
+        try {
+            type = Class.forName("java.util.zip.CRC32C");
+        } catch (ClassNotFoundException | LinkageError e) {
+            type = null;
+        }
+        JDK_CLASS = type;
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    /**
+     * A new checksum, the JDK's where there is one.
+     */
+    public static Checksum create() {
+        if (JDK_CLASS != null) {
+            try {
+                return (Checksum) JDK_CLASS.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                // Fall through to the table
+            }
+        }
+        return new Crc32c();
+    }
+
+    public static boolean isIntrinsic() {
+        return JDK_CLASS != null;
+    }
+
+    /**
+     * The checksum as it is written to manifests.
+     */
+    public static String format(long value) {
+        return String.format("%08x", value);
+    }
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLE[0][(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        int end = off + len;
+        while (end - off >= 8) {
+            c ^= (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+            c = TABLE[7][c & 0xFF] ^ TABLE[6][(c >>> 8) & 0xFF] ^ TABLE[5][(c >>> 16) & 0xFF] ^ TABLE[4][c >>> 24]
+                    ^ TABLE[3][b[off + 4] & 0xFF] ^ TABLE[2][b[off + 5] & 0xFF] ^ TABLE[1][b[off + 6] & 0xFF] ^ TABLE[0][b[off + 7] & 0xFF];
+            off += 8;
+        }
+        while (off < end) {
+            c = (c >>> 8) ^ TABLE[0][(c ^ b[off++]) & 0xFF];
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -0,0 +1,89 @@
+package com.elastic.support.archive;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the entries of one volume in a particular container format, and answers how
+ * much more will fit in it so ArchiveWriter can roll over to the next volume in time.
+ * Sizes are raw, uncompressed bytes; the answers allow for the worst case compression.
+ */
+abstract class FormatWriter implements Closeable {
+
+    final CountingStream counter;
+
+    FormatWriter(OutputStream out) {
+        counter = new CountingStream(out);
+    }
+
+    static FormatWriter open(ArchiveFormat format, OutputStream out, int level) throws IOException {
+        return format == ArchiveFormat.ZIP ? new ZipFormatWriter(out, level) : new TarFormatWriter(out, format, level);
+    }
+
+    /**
+     * Whether entries must be started with their exact size.
+     */
+    abstract boolean needsSize();
+
+    /**
+     * @param size the exact size when {@link #needsSize()}, otherwise the size or -1
+     */
+    abstract void startEntry(String name, long size) throws IOException;
+
+    abstract void write(byte[] b, int off, int len) throws IOException;
+
+    abstract void closeEntry() throws IOException;
+
+    /**
+     * Most bytes the current entry can grow by, having already been given entryBytes,
+     * with the volume still within the limit once closed.
+     */
+    abstract long room(long limit, long entryBytes);
+
+    /**
+     * Most bytes an entry started now could hold.
+     */
+    abstract long roomForNewEntry(long limit, String name);
+
+    /**
+     * Most bytes the entry could hold as the first in a new volume.
+     */
+    abstract long roomInEmptyVolume(long limit, String name);
+
+    /**
+     * Settle what has been written so the room answers are as large as they can be, for
+     * formats that otherwise have to allow for data held back by the compressor.
+     */
+    void sync() throws IOException {
+    }
+
+    /**
+     * Bytes written to the volume file so far.
+     */
+    long getBytes() {
+        return counter.count;
+    }
+
+    static class CountingStream extends FilterOutputStream {
+
+        long count;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.elastic.support.archive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * The size and CRC-32C of every entry in an archive, worked out as the entry was
+ * written and stored in the archive itself as integrity.json, its last entry.  Sizes
+ * and checksums are of the bytes as they were handed to the archive - an entry that
+ * was gzipped before it was added is checked as the gzip it is stored as.  An entry
+ * split across volumes is listed part by part, each with the volume it is in.
+ */
+public class IntegrityManifest {
+
+    public static final String NAME = "integrity.json";
+    static final String ALGORITHM = "crc32c";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<String, Record> records = new LinkedHashMap<>();
+
+    public void add(String name, int volume, long size, long crc) {
+        records.put(name, new Record(name, volume, size, crc));
+    }
+
+    public Map<String, Record> getRecords() {
+        return records;
+    }
+
+    public boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    /**
+     * Whether the entry name is a manifest, at the root of the archive or under the
+     * directory a merge put one of its sources in.
+     */
+    public static boolean isManifest(String name) {
+        return name.equals(NAME) || name.endsWith("/" + NAME);
+    }
+
+    public void write(OutputStream out) throws IOException {
+
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (Record record : records.values()) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("name", record.name);
+            if (record.volume > 0) {
+                row.put("volume", record.volume);
+            }
+            row.put("size", record.size);
+            row.put(ALGORITHM, Crc32c.format(record.crc));
+            entries.add(row);
+        }
+        Map<String, Object> manifest = new LinkedHashMap<>();
+        manifest.put("algorithm", ALGORITHM);
+        manifest.put("entries", entries);
+        mapper.writerWithDefaultPrettyPrinter().writeValue(out, manifest);
+    }
+
+    /**
+     * Read a manifest, adding the prefix to each name so one found under a merged
+     * archive's subdirectory describes the entries beside it.
+     */
+    public static IntegrityManifest read(InputStream in, String prefix) throws IOException {
+
+        JsonNode root = mapper.readTree(in);
+        if (!ALGORITHM.equals(root.path("algorithm").asText())) {
+            throw new IOException("Unknown checksum algorithm " + root.path("algorithm").asText());
+        }
+        IntegrityManifest manifest = new IntegrityManifest();
+        for (JsonNode entry : root.path("entries")) {
+            manifest.add(prefix + entry.path("name").asText(), entry.path("volume").asInt(0),
+                    entry.path("size").asLong(), Long.parseLong(entry.path(ALGORITHM).asText(), 16));
+        }
+        return manifest;
+    }
+
+    public static class Record {
+
+        public final String name;
+        public final int volume;
+        public final long size;
+        public final long crc;
+
+        Record(String name, int volume, long size, long crc) {
+            this.name = name;
+            this.volume = volume;
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.elastic.support.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Checksum;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A zip stream that works out each entry's size and CRC-32C as it is written and adds
+ * the integrity manifest as the last entry when it is finished, for zips streamed
+ * somewhere other than an ArchiveWriter's volumes.
+ */
+public class IntegrityZipOutputStream extends ZipOutputStream {
+
+    private final IntegrityManifest manifest = new IntegrityManifest();
+    private final Checksum checksum = Crc32c.create();
+    private String entryName;
+    private long entryBytes;
+    private boolean finished;
+
+    public IntegrityZipOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void putNextEntry(ZipEntry entry) throws IOException {
+        closeEntry();
+        super.putNextEntry(entry);
+        entryName = entry.getName();
+        entryBytes = 0;
+        checksum.reset();
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        super.write(b, off, len);
+        checksum.update(b, off, len);
+        entryBytes += len;
+    }
+
+    @Override
+    public void closeEntry() throws IOException {
+        if (entryName == null) {
+            return;
+        }
+        super.closeEntry();
+        manifest.add(entryName, 0, entryBytes, checksum.getValue());
+        entryName = null;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        closeEntry();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        manifest.write(bytes);
+        super.putNextEntry(new ZipEntry(IntegrityManifest.NAME));
+        super.write(bytes.toByteArray(), 0, bytes.size());
+        super.closeEntry();
+        super.finish();
+    }
+}
@@ -0,0 +1,199 @@
+package com.elastic.support.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A POSIX tar volume run through the format's compressor.  Names over 100 bytes or
+ * outside ASCII, and sizes past the 8GB a ustar header holds, go in a pax extended
+ * header as GNU tar and libarchive expect.  Tar headers carry the entry size, so
+ * entries must be started with their exact size.  The compressed stream spans the
+ * volume, so the room left is the compressed bytes already out plus the worst case for
+ * the raw bytes still inside the compressor.  When that estimate runs short the
+ * compressor is flushed, leaving only real output to count, so volumes fill close to
+ * the limit however well the content compresses.
+ */
+class TarFormatWriter extends FormatWriter {
+
+    static final int BLOCK = 512;
+    private static final long MAX_USTAR_SIZE = 077777777777L;
+
+    private final ArchiveFormat format;
+    private final OutputStream tar;
+    private final byte[] header = new byte[BLOCK];
+    private final long mtime = System.currentTimeMillis() / 1000;
+
+    private long pending;
+    private long declared;
+    private long written;
+    private String entryName;
+
+    TarFormatWriter(OutputStream file, ArchiveFormat format, int level) throws IOException {
+        super(new BufferedOutputStream(file, 64 * 1024));
+        this.format = format;
+        this.tar = new BufferedOutputStream(format.compress(counter, level), 64 * 1024);
+    }
+
+    @Override
+    boolean needsSize() {
+        return true;
+    }
+
+    @Override
+    void startEntry(String name, long size) throws IOException {
+        if (size < 0) {
+            throw new IOException("Tar entry " + name + " must be started with its size");
+        }
+        boolean directory = name.endsWith("/");
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        boolean ascii = nameBytes.length == name.length();
+        if (nameBytes.length > 100 || !ascii || size > MAX_USTAR_SIZE) {
+            StringBuilder records = new StringBuilder();
+            if (nameBytes.length > 100 || !ascii) {
+                records.append(paxRecord("path", name));
+            }
+            if (size > MAX_USTAR_SIZE) {
+                records.append(paxRecord("size", Long.toString(size)));
+            }
+            byte[] pax = records.toString().getBytes(StandardCharsets.UTF_8);
+            writeHeader(asciiName("PaxHeaders/" + name), pax.length, 'x');
+            tar.write(pax);
+            pending += pax.length;
+            pad(pax.length);
+        }
+        writeHeader(asciiName(name), size > MAX_USTAR_SIZE ? 0 : size, directory ? '5' : '0');
+        entryName = name;
+        declared = size;
+        written = 0;
+    }
+
+    @Override
+    void write(byte[] b, int off, int len) throws IOException {
+        if (written + len > declared) {
+            throw new IOException("Tar entry " + entryName + " was started with " + declared + " bytes but more were written");
+        }
+        tar.write(b, off, len);
+        written += len;
+        pending += len;
+    }
+
+    @Override
+    void closeEntry() throws IOException {
+        if (written != declared) {
+            throw new IOException("Tar entry " + entryName + " was started with " + declared + " bytes but only " + written + " were written");
+        }
+        pad(written);
+        entryName = null;
+    }
+
+    @Override
+    long room(long limit, long entryBytes) {
+        // Parts are started with a size that fits
+        return declared - entryBytes;
+    }
+
+    @Override
+    long roomForNewEntry(long limit, String name) {
+        return format.maxRaw(limit - counter.count) - pending - reserve(name);
+    }
+
+    @Override
+    long roomInEmptyVolume(long limit, String name) {
+        return format.maxRaw(limit) - reserve(name);
+    }
+
+    @Override
+    void sync() throws IOException {
+        if (pending > 0) {
+            tar.flush();
+            pending = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        tar.write(new byte[2 * BLOCK]);
+        tar.close();
+    }
+
+    /**
+     * Headers, padding and the end of archive blocks an entry could need.
+     */
+    private static long reserve(String name) {
+        int nameBytes = name.getBytes(StandardCharsets.UTF_8).length;
+        return 3 * BLOCK + (nameBytes + 64 + BLOCK - 1) / BLOCK * BLOCK + (BLOCK - 1) + 2 * BLOCK;
+    }
+
+    private void writeHeader(String name, long size, char type) throws IOException {
+
+        Arrays.fill(header, (byte) 0);
+        byte[] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(100, nameBytes.length));
+        octal(type == '5' ? 0755 : 0644, 100, 8);
+        octal(0, 108, 8);
+        octal(0, 116, 8);
+        octal(size, 124, 12);
+        octal(mtime, 136, 12);
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        header[156] = (byte) type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        octal(checksum, 148, 7);
+        header[155] = ' ';
+
+        tar.write(header);
+        pending += BLOCK;
+    }
+
+    /**
+     * Zero padded octal, NUL terminated, filling the field.
+     */
+    private void octal(long value, int offset, int length) {
+        String digits = Long.toOctalString(value);
+        int width = length - 1;
+        for (int i = 0; i < width; i++) {
+            int d = i - (width - digits.length());
+            header[offset + i] = (byte) (d < 0 ? '0' : digits.charAt(d));
+        }
+        header[offset + width] = 0;
+    }
+
+    private void pad(long length) throws IOException {
+        int padding = (int) ((BLOCK - length % BLOCK) % BLOCK);
+        if (padding > 0) {
+            tar.write(new byte[padding]);
+            pending += padding;
+        }
+    }
+
+    /**
+     * The best ASCII name for readers that ignore pax headers.
+     */
+    private static String asciiName(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < name.length() && sb.length() < 100; i++) {
+            char c = name.charAt(i);
+            sb.append(c < 128 ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A pax record is "<length> <key>=<value>\n" where the length counts itself.
+     */
+    static String paxRecord(String key, String value) {
+        int body = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int length = body + Integer.toString(body).length();
+        if (Integer.toString(length).length() != Integer.toString(body).length()) {
+            length = body + Integer.toString(length).length();
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+}
@@ -0,0 +1,169 @@
+package com.elastic.support.archive;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the entries of a tar stream in order, as TarFormatWriter writes them: ustar
+ * headers with pax extended headers for long names and large sizes.  Each header's
+ * checksum is checked, so damage in the middle of a volume shows up as an error rather
+ * than as entries with made up names.
+ */
+class TarReader {
+
+    private static final int BLOCK = TarFormatWriter.BLOCK;
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK];
+
+    private String name;
+    private long size;
+    private long remaining;
+    private long padding;
+
+    TarReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Move to the next entry, skipping what is left of the current one.
+     *
+     * @return false at the end of the archive
+     */
+    boolean next() throws IOException {
+
+        skip(remaining + padding);
+        remaining = 0;
+        padding = 0;
+        String paxName = null;
+        long paxSize = -1;
+        while (true) {
+            readFully(header, 0, BLOCK);
+            if (isZero(header)) {
+                return false;
+            }
+            checkHeader();
+            String headerName = string(0, 100);
+            long headerSize = octal(124, 12);
+            char type = (char) header[156];
+            if (type == 'x') {
+                byte[] records = new byte[(int) headerSize];
+                readFully(records, 0, records.length);
+                skip(pad(headerSize));
+                for (String record : new String(records, StandardCharsets.UTF_8).split("\n")) {
+                    int eq = record.indexOf('=');
+                    int space = record.indexOf(' ');
+                    if (eq < 0 || space < 0 || space > eq) {
+                        continue;
+                    }
+                    String key = record.substring(space + 1, eq);
+                    if (key.equals("path")) {
+                        paxName = record.substring(eq + 1);
+                    } else if (key.equals("size")) {
+                        paxSize = Long.parseLong(record.substring(eq + 1));
+                    }
+                }
+                continue;
+            }
+            if (type == 'g') {
+                skip(headerSize + pad(headerSize));
+                continue;
+            }
+            name = paxName != null ? paxName : headerName;
+            size = paxSize >= 0 ? paxSize : headerSize;
+            remaining = size;
+            padding = pad(size);
+            return true;
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Read the current entry's data.
+     *
+     * @return bytes read, or -1 at the end of the entry
+     */
+    int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n < 0) {
+            throw new EOFException("The archive ends inside " + name);
+        }
+        remaining -= n;
+        return n;
+    }
+
+    private void checkHeader() throws IOException {
+        long stored = octal(148, 8);
+        long sum = 0;
+        for (int i = 0; i < BLOCK; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+        }
+        if (sum != stored) {
+            throw new IOException("Damaged tar header after " + (name == null ? "the start of the archive" : name));
+        }
+    }
+
+    private String string(int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private long octal(int offset, int length) throws IOException {
+        String field = string(offset, length).trim();
+        try {
+            return field.isEmpty() ? 0 : Long.parseLong(field, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Damaged tar header after " + (name == null ? "the start of the archive" : name));
+        }
+    }
+
+    private static long pad(long length) {
+        return (BLOCK - length % BLOCK) % BLOCK;
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                throw new EOFException("The archive ends " + (name == null ? "before its first entry" : "after " + name));
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void skip(long n) throws IOException {
+        byte[] buf = new byte[8192];
+        while (n > 0) {
+            int read = in.read(buf, 0, (int) Math.min(buf.length, n));
+            if (read < 0) {
+                throw new EOFException("The archive ends inside " + name);
+            }
+            n -= read;
+        }
+    }
+}
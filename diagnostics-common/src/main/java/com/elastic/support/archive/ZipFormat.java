@@ -0,0 +1,178 @@
+package com.elastic.support.archive;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parts of the zip format the reader and merger need: finding the central
+ * directory from the end records, zip64 included, and decoding its entries.
+ */
+final class ZipFormat {
+
+    static final int LOCAL_HEADER = 0x04034b50;
+    static final int CENTRAL_HEADER = 0x02014b50;
+    static final int END = 0x06054b50;
+    static final int ZIP64_END = 0x06064b50;
+    static final int ZIP64_LOCATOR = 0x07064b50;
+    static final int ZIP64_EXTRA = 0x0001;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    static final int MAX_ENTRIES = 0xFFFF;
+
+    // Flag bit 3: sizes and crc follow the data instead of being in the local header
+    static final int DATA_DESCRIPTOR = 0x08;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ZipFormat() {
+    }
+
+    /**
+     * Map the central directory and decode every entry in it.
+     */
+    static List<ArchiveEntry> readEntries(FileChannel source, String archive) throws IOException {
+
+        long[] dir = findCentralDirectory(source);
+        long count = dir[0];
+        MappedByteBuffer cd = source.map(FileChannel.MapMode.READ_ONLY, dir[2], dir[1]);
+        cd.order(ByteOrder.LITTLE_ENDIAN);
+
+        List<ArchiveEntry> entries = new ArrayList<>((int) Math.min(count, 1 << 20));
+        int p = 0;
+        for (long i = 0; i < count; i++) {
+
+            if (cd.getInt(p) != CENTRAL_HEADER) {
+                throw new IOException("Bad central directory entry " + i + " in " + archive);
+            }
+            int method = cd.getShort(p + 10) & 0xFFFF;
+            int crc = cd.getInt(p + 16);
+            long compressedSize = cd.getInt(p + 20) & ZIP64_MAGIC;
+            long size = cd.getInt(p + 24) & ZIP64_MAGIC;
+            int nameLen = cd.getShort(p + 28) & 0xFFFF;
+            int extraLen = cd.getShort(p + 30) & 0xFFFF;
+            int commentLen = cd.getShort(p + 32) & 0xFFFF;
+            long localOffset = cd.getInt(p + 42) & ZIP64_MAGIC;
+
+            byte[] name = new byte[nameLen];
+            cd.position(p + 46);
+            cd.get(name);
+            byte[] comment = new byte[commentLen];
+            cd.position(p + 46 + nameLen + extraLen);
+            cd.get(comment);
+
+            // Sizes and offset that don't fit are in the zip64 extra field, in this order
+            int extra = findExtra(cd, p + 46 + nameLen, extraLen, ZIP64_EXTRA);
+            if (extra >= 0) {
+                int v = extra + 4;
+                if (size == ZIP64_MAGIC) {
+                    size = cd.getLong(v);
+                    v += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC) {
+                    compressedSize = cd.getLong(v);
+                    v += 8;
+                }
+                if (localOffset == ZIP64_MAGIC) {
+                    localOffset = cd.getLong(v);
+                }
+            }
+
+            ArchiveEntry entry = new ArchiveEntry(new String(name, UTF8), name, method, compressedSize, size, crc, localOffset);
+            entry.versionMade = cd.getShort(p + 4);
+            entry.versionNeeded = cd.getShort(p + 6);
+            entry.flags = cd.getShort(p + 8) & 0xFFFF;
+            entry.time = cd.getShort(p + 12);
+            entry.date = cd.getShort(p + 14);
+            entry.internalAttrs = cd.getShort(p + 36);
+            entry.externalAttrs = cd.getInt(p + 38);
+            entry.comment = comment;
+            entries.add(entry);
+
+            p += 46 + nameLen + extraLen + commentLen;
+        }
+        return entries;
+    }
+
+    /**
+     * Where the entry's data starts, which needs the name and extra lengths from its
+     * local header since they can differ from the central directory's.
+     */
+    static long dataOffset(FileChannel source, ArchiveEntry entry) throws IOException {
+
+        long offset = entry.dataOffset;
+        if (offset < 0) {
+            ByteBuffer local = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(source, local, entry.localHeaderOffset);
+            if (local.getInt(0) != LOCAL_HEADER) {
+                throw new IOException("Bad local header for " + entry.name);
+            }
+            offset = entry.localHeaderOffset + 30 + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+            entry.dataOffset = offset;
+        }
+        return offset;
+    }
+
+    /**
+     * @return entry count, size and offset of the central directory
+     */
+    static long[] findCentralDirectory(FileChannel source) throws IOException {
+
+        long size = source.size();
+        int tail = (int) Math.min(size, 22 + 0xFFFF);
+        ByteBuffer buf = ByteBuffer.allocate(tail).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(source, buf, size - tail);
+
+        // The end record is followed only by a comment of up to 64KB, so search back for it
+        for (int i = tail - 22; i >= 0; i--) {
+            if (buf.getInt(i) != END) {
+                continue;
+            }
+            long entries = buf.getShort(i + 10) & 0xFFFF;
+            long cdSize = buf.getInt(i + 12) & ZIP64_MAGIC;
+            long cdOffset = buf.getInt(i + 16) & ZIP64_MAGIC;
+
+            if ((entries == MAX_ENTRIES || cdSize == ZIP64_MAGIC || cdOffset == ZIP64_MAGIC) && i >= 20
+                    && buf.getInt(i - 20) == ZIP64_LOCATOR) {
+                ByteBuffer end64 = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(source, end64, buf.getLong(i - 12));
+                if (end64.getInt(0) != ZIP64_END) {
+                    throw new IOException("Zip64 end record not found where the locator points");
+                }
+                entries = end64.getLong(32);
+                cdSize = end64.getLong(40);
+                cdOffset = end64.getLong(48);
+            }
+            return new long[]{entries, cdSize, cdOffset};
+        }
+        throw new IOException("No zip end record found - is this a zip archive?");
+    }
+
+    static int findExtra(ByteBuffer buf, int start, int len, int id) {
+        int p = start;
+        while (p + 4 <= start + len) {
+            int fieldId = buf.getShort(p) & 0xFFFF;
+            int fieldLen = buf.getShort(p + 2) & 0xFFFF;
+            if (fieldId == id) {
+                return p;
+            }
+            p += 4 + fieldLen;
+        }
+        return -1;
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read < 0) {
+                throw new EOFException("Archive ended before the expected record");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.elastic.support.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A zip volume.  Each entry is deflated on its own, starting at a known offset, so the
+ * room left is judged entry by entry from deflate's worst case.
+ */
+class ZipFormatWriter extends FormatWriter {
+
+    // Zip structures around an entry's data, allowing for zip64 extras
+    private static final int LOCAL_HEADER = 30 + 20;
+    private static final int DATA_DESCRIPTOR = 24;
+    private static final int CENTRAL_HEADER = 46 + 28;
+    private static final int END_RECORDS = 22 + 56 + 20;
+
+    private final ZipOutputStream out;
+    private long trailer = END_RECORDS;
+    private long entryStart;
+
+    ZipFormatWriter(OutputStream file, int level) {
+        super(new BufferedOutputStream(file, 64 * 1024));
+        out = new ZipOutputStream(counter);
+        if (level >= 0) {
+            out.setLevel(level);
+        }
+    }
+
+    @Override
+    boolean needsSize() {
+        return false;
+    }
+
+    @Override
+    void startEntry(String name, long size) throws IOException {
+        trailer += CENTRAL_HEADER + nameBytes(name);
+        out.putNextEntry(new ZipEntry(name));
+        entryStart = counter.count;
+    }
+
+    @Override
+    void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    @Override
+    void closeEntry() throws IOException {
+        out.closeEntry();
+    }
+
+    @Override
+    long room(long limit, long entryBytes) {
+        return ArchiveWriter.maxRawBytes(limit - entryStart - DATA_DESCRIPTOR - trailer) - entryBytes;
+    }
+
+    @Override
+    long roomForNewEntry(long limit, String name) {
+        return ArchiveWriter.maxRawBytes(limit - counter.count - overhead(name) - trailer);
+    }
+
+    @Override
+    long roomInEmptyVolume(long limit, String name) {
+        return ArchiveWriter.maxRawBytes(limit - overhead(name) - END_RECORDS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private static long overhead(String name) {
+        return LOCAL_HEADER + DATA_DESCRIPTOR + CENTRAL_HEADER + 2L * nameBytes(name);
+    }
+
+    private static int nameBytes(String name) {
+        return name.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
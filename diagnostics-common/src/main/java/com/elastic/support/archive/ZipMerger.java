@@ -0,0 +1,202 @@
+package com.elastic.support.archive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.elastic.support.archive.ZipFormat.*;
+
+/**
+ * Combines zip archives into one without decompressing anything.  Each source's central
+ * directory is read to locate its entries, and the compressed bytes are transferred
+ * channel to channel behind a rewritten local header carrying the new name.  The
+ * central directory for the result is rebuilt as entries are added and written on
+ * close.  Zip64 sources and results are handled, so archives over 4GB or 65535
+ * entries merge the same way.
+ */
+public class ZipMerger implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZipMerger.class);
+
+    private final RandomAccessFile file;
+    private final FileChannel out;
+    private final ByteArrayOutputStream central = new ByteArrayOutputStream();
+    private final Set<String> names = new HashSet<>();
+    private long entries;
+
+    public ZipMerger(String target) throws IOException {
+        file = new RandomAccessFile(target, "rw");
+        file.setLength(0);
+        out = file.getChannel();
+    }
+
+    /**
+     * Append every entry of the archive, with the prefix added to its name.
+     *
+     * @return the number of entries copied
+     */
+    public int add(String archive, String prefix) throws IOException {
+
+        byte[] prefixBytes = prefix.getBytes(UTF8);
+        int copied = 0;
+
+        try (ArchiveReader reader = new ArchiveReader(archive, 0)) {
+            for (ArchiveEntry source : reader.getEntries()) {
+
+                String name = prefix + source.getName();
+                if (!names.add(name)) {
+                    logger.warn("Skipping duplicate entry " + name + " from " + archive);
+                    continue;
+                }
+
+                Entry entry = new Entry();
+                entry.source = source;
+                entry.flags = source.flags & ~DATA_DESCRIPTOR;
+                entry.name = new byte[prefixBytes.length + source.rawName.length];
+                System.arraycopy(prefixBytes, 0, entry.name, 0, prefixBytes.length);
+                System.arraycopy(source.rawName, 0, entry.name, prefixBytes.length, source.rawName.length);
+
+                entry.offset = out.position();
+                writeLocalHeader(entry);
+                transfer(reader.getChannel(), reader.getDataOffset(source), source.compressedSize);
+                writeCentralHeader(entry);
+                entries++;
+                copied++;
+            }
+        }
+
+        logger.debug("Copied " + copied + " entries from " + archive);
+        return copied;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        try {
+            long cdOffset = out.position();
+            long cdSize = central.size();
+            ByteBuffer cd = ByteBuffer.wrap(central.toByteArray());
+            while (cd.hasRemaining()) {
+                out.write(cd);
+            }
+
+            boolean zip64 = entries >= MAX_ENTRIES || cdOffset >= ZIP64_MAGIC || cdSize >= ZIP64_MAGIC;
+            if (zip64) {
+                long zip64End = out.position();
+                ByteBuffer end64 = ByteBuffer.allocate(56 + 20).order(ByteOrder.LITTLE_ENDIAN);
+                end64.putInt(ZIP64_END).putLong(44).putShort((short) 45).putShort((short) 45)
+                        .putInt(0).putInt(0).putLong(entries).putLong(entries).putLong(cdSize).putLong(cdOffset);
+                end64.putInt(ZIP64_LOCATOR).putInt(0).putLong(zip64End).putInt(1);
+                end64.flip();
+                write(end64);
+            }
+
+            ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+            short count = (short) (zip64 ? MAX_ENTRIES : entries);
+            end.putInt(END).putShort((short) 0).putShort((short) 0).putShort(count).putShort(count)
+                    .putInt((int) (zip64 ? ZIP64_MAGIC : cdSize)).putInt((int) (zip64 ? ZIP64_MAGIC : cdOffset)).putShort((short) 0);
+            end.flip();
+            write(end);
+        } finally {
+            file.close();
+        }
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+
+        boolean zip64 = entry.source.size >= ZIP64_MAGIC || entry.source.compressedSize >= ZIP64_MAGIC;
+        ByteBuffer header = ByteBuffer.allocate(30 + entry.name.length + (zip64 ? 20 : 0)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER)
+                .putShort(zip64 ? 45 : entry.source.versionNeeded)
+                .putShort((short) entry.flags)
+                .putShort((short) entry.source.method)
+                .putShort(entry.source.time)
+                .putShort(entry.source.date)
+                .putInt(entry.source.crc)
+                .putInt((int) (zip64 ? ZIP64_MAGIC : entry.source.compressedSize))
+                .putInt((int) (zip64 ? ZIP64_MAGIC : entry.source.size))
+                .putShort((short) entry.name.length)
+                .putShort((short) (zip64 ? 20 : 0))
+                .put(entry.name);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA).putShort((short) 16).putLong(entry.source.size).putLong(entry.source.compressedSize);
+        }
+        header.flip();
+        write(header);
+    }
+
+    private void writeCentralHeader(Entry entry) {
+
+        boolean sizes64 = entry.source.size >= ZIP64_MAGIC || entry.source.compressedSize >= ZIP64_MAGIC;
+        boolean offset64 = entry.offset >= ZIP64_MAGIC;
+        int extraLen = (sizes64 || offset64) ? 4 + (sizes64 ? 16 : 0) + (offset64 ? 8 : 0) : 0;
+
+        ByteBuffer header = ByteBuffer.allocate(46 + entry.name.length + extraLen + entry.source.comment.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(CENTRAL_HEADER)
+                .putShort(entry.source.versionMade)
+                .putShort(extraLen > 0 ? 45 : entry.source.versionNeeded)
+                .putShort((short) entry.flags)
+                .putShort((short) entry.source.method)
+                .putShort(entry.source.time)
+                .putShort(entry.source.date)
+                .putInt(entry.source.crc)
+                .putInt((int) (sizes64 ? ZIP64_MAGIC : entry.source.compressedSize))
+                .putInt((int) (sizes64 ? ZIP64_MAGIC : entry.source.size))
+                .putShort((short) entry.name.length)
+                .putShort((short) extraLen)
+                .putShort((short) entry.source.comment.length)
+                .putShort((short) 0)
+                .putShort(entry.source.internalAttrs)
+                .putInt(entry.source.externalAttrs)
+                .putInt((int) (offset64 ? ZIP64_MAGIC : entry.offset))
+                .put(entry.name);
+        if (extraLen > 0) {
+            header.putShort((short) ZIP64_EXTRA).putShort((short) (extraLen - 4));
+            if (sizes64) {
+                header.putLong(entry.source.size).putLong(entry.source.compressedSize);
+            }
+            if (offset64) {
+                header.putLong(entry.offset);
+            }
+        }
+        header.put(entry.source.comment);
+        central.write(header.array(), 0, header.position());
+    }
+
+    private void transfer(FileChannel source, long position, long count) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long moved = source.transferTo(position + done, count - done, out);
+            if (moved <= 0) {
+                throw new EOFException("Archive ended inside an entry's data");
+            }
+            done += moved;
+        }
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    static class Entry {
+        ArchiveEntry source;
+        int flags;
+        byte[] name;
+        long offset;
+    }
+}
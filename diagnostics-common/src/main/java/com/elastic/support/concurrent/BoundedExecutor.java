@@ -0,0 +1,152 @@
+package com.elastic.support.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs blocking I/O tasks - REST calls, file copies, external commands - with a limit
+ * on how many run at once.  On a JVM with virtual threads each task gets its own
+ * virtual thread and the limit is a semaphore, so waiting tasks cost next to nothing;
+ * otherwise, or when platform threads are asked for, it is a fixed pool of that many
+ * threads.  Virtual threads are found by reflection so the code still builds and runs
+ * on the Java 7 the modules target.
+ */
+public class BoundedExecutor extends AbstractExecutorService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BoundedExecutor.class);
+
+    public enum Mode {AUTO, VIRTUAL, PLATFORM}
+
+    private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutor();
+
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private final boolean virtual;
+
+    BoundedExecutor(ExecutorService delegate, Semaphore permits, boolean virtual) {
+        this.delegate = delegate;
+        this.permits = permits;
+        this.virtual = virtual;
+    }
+
+    /**
+     * @param name        prefix for the names of platform threads
+     * @param concurrency the most tasks that run at the same time
+     * @param mode        AUTO uses virtual threads when the JVM has them; VIRTUAL
+     *                    without them logs a warning and falls back to platform threads
+     */
+    public static BoundedExecutor create(final String name, int concurrency, Mode mode) {
+
+        int limit = Math.max(1, concurrency);
+        if (mode != Mode.PLATFORM) {
+            if (NEW_VIRTUAL_EXECUTOR != null) {
+                try {
+                    ExecutorService virtual = (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+                    return new BoundedExecutor(virtual, new Semaphore(limit), true);
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    logger.debug("Virtual threads could not be started - using platform threads", e);
+                }
+            }
+            if (mode == Mode.VIRTUAL) {
+                logger.warn("Virtual threads need Java 21 or later - using a pool of " + limit + " platform threads for " + name);
+            }
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(limit, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        return new BoundedExecutor(pool, null, false);
+    }
+
+    public static boolean virtualThreadsAvailable() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * Parse a mode option, case-insensitively.
+     */
+    public static Mode parseMode(String mode) {
+        try {
+            return Mode.valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            logger.error("Unknown executor " + mode);
+            throw new RuntimeException("The executor must be one of auto, virtual or platform.");
+        }
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        if (permits == null) {
+            delegate.execute(task);
+            return;
+        }
+        delegate.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    // The task never ran, so complete its future rather than leave get() waiting forever
+                    if (task instanceof Future) {
+                        ((Future<?>) task).cancel(false);
+                    }
+                    return;
+                }
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    private static Method findVirtualExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.elastic.support.redact;
+
+/**
+ * Finds the matches of one redaction rule.  It holds the last match, so each stream
+ * being redacted gets its own.  The text around the searched range is visible, as with
+ * the transparent bounds of a regex region, so a match is judged by what is next to it
+ * however the text was split into words.
+ */
+abstract class Finder {
+
+    int start;
+    int end;
+
+    /**
+     * Find the first match that starts at or after from and ends by to.
+     */
+    abstract boolean find(String text, int from, int to);
+
+    /**
+     * The part of the last match a secret rule keeps, or null.
+     */
+    String prefix() {
+        return null;
+    }
+}
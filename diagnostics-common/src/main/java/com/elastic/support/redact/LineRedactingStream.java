@@ -0,0 +1,118 @@
+package com.elastic.support.redact;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Redacts text written through it.  Everything up to the last newline of each write is
+ * redacted as one block, and only the unfinished line after it is held back for the
+ * next write.  Bytes are read as ISO-8859-1, which maps each byte to one char and
+ * back, so the patterns see ASCII as it is and the rest of the text, whatever its
+ * encoding, comes out exactly as it went in.  A line longer than MAX_LINE is redacted
+ * in pieces.
+ */
+class LineRedactingStream extends FilterOutputStream {
+
+    static final int MAX_LINE = 1024 * 1024;
+
+    private final Redactor redactor;
+    private final Finder[] finders;
+    private byte[] pending = new byte[8192];
+    private int pendingLength;
+    private boolean finished;
+
+    LineRedactingStream(Redactor redactor, OutputStream out) {
+        super(out);
+        this.redactor = redactor;
+        this.finders = redactor.newFinders();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        int end = off + len;
+        int lastNewline = end - 1;
+        while (lastNewline >= off && b[lastNewline] != '\n') {
+            lastNewline--;
+        }
+        if (lastNewline < off) {
+            hold(b, off, len);
+            return;
+        }
+
+        int start = off;
+        if (pendingLength > 0) {
+            // Finish the held line on its own, then the rest goes straight through
+            int firstNewline = off;
+            while (b[firstNewline] != '\n') {
+                firstNewline++;
+            }
+            hold(b, off, firstNewline + 1 - off);
+            emit(pending, 0, pendingLength);
+            pendingLength = 0;
+            start = firstNewline + 1;
+        }
+        if (start <= lastNewline) {
+            emit(b, start, lastNewline + 1 - start);
+        }
+        hold(b, lastNewline + 1, end - lastNewline - 1);
+    }
+
+    /**
+     * Write any unfinished last line without closing the target.
+     */
+    void finish() throws IOException {
+        if (!finished) {
+            finished = true;
+            if (pendingLength > 0) {
+                emit(pending, 0, pendingLength);
+                pendingLength = 0;
+            }
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void hold(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (pendingLength == MAX_LINE) {
+                emit(pending, 0, pendingLength);
+                pendingLength = 0;
+            }
+            int n = Math.min(len, MAX_LINE - pendingLength);
+            if (pendingLength + n > pending.length) {
+                pending = Arrays.copyOf(pending, Math.min(MAX_LINE, Math.max(pendingLength + n, pending.length * 2)));
+            }
+            System.arraycopy(b, off, pending, pendingLength, n);
+            pendingLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void emit(byte[] b, int off, int len) throws IOException {
+        String text = new String(b, off, len, StandardCharsets.ISO_8859_1);
+        String redacted = redactor.redact(finders, text);
+        if (redacted == null) {
+            out.write(b, off, len);
+        } else {
+            out.write(redacted.getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.elastic.support.redact;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the matches of a rule's regular expression.
+ */
+class PatternFinder extends Finder {
+
+    private final Matcher matcher;
+    private String text;
+
+    PatternFinder(Pattern pattern) {
+        matcher = pattern.matcher("").useTransparentBounds(true).useAnchoringBounds(false);
+    }
+
+    @Override
+    boolean find(String text, int from, int to) {
+        if (text != this.text) {
+            matcher.reset(text);
+            this.text = text;
+        }
+        if (!matcher.region(from, to).find()) {
+            return false;
+        }
+        start = matcher.start();
+        end = matcher.end();
+        return true;
+    }
+
+    @Override
+    String prefix() {
+        return matcher.groupCount() > 0 ? matcher.group(1) : null;
+    }
+}
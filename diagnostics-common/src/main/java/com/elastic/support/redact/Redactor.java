@@ -0,0 +1,511 @@
+package com.elastic.support.redact;
+
+import com.fasterxml.jackson.core.*;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Scrubs IP addresses, host names and credentials from diagnostic output as it is
+ * written, so an archive can leave the customer's network without being unpacked and
+ * edited.  JSON is rewritten token by token and text a block of whole lines at a time,
+ * so nothing is held in memory beyond the current line.
+ *
+ * The rules come from the redaction section of the config.  Each is a regular
+ * expression, compiled once, or one of the hand written address matchers, which are
+ * several times faster.  Text is split into words at whitespace and punctuation that
+ * can't be part of an address, and a rule only runs on a word holding one of its hints -
+ * a digit and a dot for an IPv4 address, a keyword for a credential - with the text
+ * around the word visible to it.  Most words hold no hint, so the scan costs little more
+ * than a copy.  A secret rule may match past the word, up to the end of its line.  Where
+ * matches overlap, the one starting first wins, then the rule listed first.
+ *
+ * A token rule replaces each distinct value with <rule>-<n>, and the same value gets
+ * the same token in every file of the run - and in later runs, when the mapping table
+ * is loaded from where the last run saved it.  The table holds the original values, so
+ * it is kept outside the archive.  A secret rule replaces the value with <redacted> and
+ * never records it.
+ */
+public class Redactor {
+
+    private static final Logger logger = LoggerFactory.getLogger(Redactor.class);
+
+    public static final String REDACTED = "<redacted>";
+    public static final String HOST = "host";
+
+    private final Pattern[] patterns;
+    private final String[] names;
+    private final boolean[] secret;
+    private final String[] builtIn;
+    private final boolean[] unhinted;
+    private boolean anyUnhinted;
+    private final Hint[][] hintsByFirst = new Hint[128][];
+    private final Pattern secretFields;
+    private final Set<String> hostFields;
+    private final Set<String> keep;
+    private final Map<String, Map<String, String>> mapping = new TreeMap<>();
+    private boolean pretty = true;
+    private final JsonFactory factory = new JsonFactory()
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    /**
+     * @param config the redaction section of the config file
+     */
+    public Redactor(Map config) {
+
+        if (config == null || !(config.get("rules") instanceof List)) {
+            logger.error("The config has no redaction rules.");
+            throw new RuntimeException("Redaction needs a redaction section with rules in the config file.");
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> ruleList = (List<Map<String, Object>>) config.get("rules");
+        names = new String[ruleList.size()];
+        secret = new boolean[ruleList.size()];
+        patterns = new Pattern[ruleList.size()];
+        builtIn = new String[ruleList.size()];
+        unhinted = new boolean[ruleList.size()];
+        List<List<Hint>> byFirst = new ArrayList<>();
+        for (int c = 0; c < 128; c++) {
+            byFirst.add(new ArrayList<Hint>());
+        }
+        for (int i = 0; i < ruleList.size(); i++) {
+            Map<String, Object> rule = ruleList.get(i);
+            names[i] = String.valueOf(rule.get("name"));
+            secret[i] = Boolean.TRUE.equals(rule.get("secret"));
+            if (rule.get("match") != null) {
+                builtIn[i] = String.valueOf(rule.get("match"));
+                if (!builtIn[i].equals(AddressFinder.IPV4) && !builtIn[i].equals(AddressFinder.IPV6)) {
+                    logger.error("Unknown redaction matcher for " + names[i] + ": " + builtIn[i]);
+                    throw new RuntimeException("The redaction rule " + names[i] + " must match ipv4, ipv6 or a pattern.");
+                }
+            } else {
+                patterns[i] = compile(names[i], String.valueOf(rule.get("pattern")));
+            }
+            unhinted[i] = rule.get("hints") == null;
+            for (String hint : stringList(rule.get("hints"))) {
+                char[] chars = hint.toLowerCase(Locale.ROOT).toCharArray();
+                if (chars.length == 0 || chars[0] >= 128) {
+                    unhinted[i] = true;
+                } else {
+                    byFirst.get(chars[0]).add(new Hint(i, chars));
+                }
+            }
+            anyUnhinted |= unhinted[i];
+        }
+
+        for (int c = 0; c < 128; c++) {
+            if (!byFirst.get(c).isEmpty()) {
+                hintsByFirst[c] = byFirst.get(c).toArray(new Hint[byFirst.get(c).size()]);
+                if (c >= 'a' && c <= 'z') {
+                    hintsByFirst[c - 'a' + 'A'] = hintsByFirst[c];
+                }
+            }
+        }
+
+        // Without a pattern no field is secret, rather than one named "null"
+        secretFields = config.get("secretFields") == null ? null : compile("secretFields", String.valueOf(config.get("secretFields")));
+        hostFields = new HashSet<>(stringList(config.get("hostFields")));
+        keep = new HashSet<>(stringList(config.get("keep")));
+    }
+
+    /**
+     * Whether copyJson pretty prints, as it does unless the JSON is being kept compact.
+     */
+    public void setPretty(boolean pretty) {
+        this.pretty = pretty;
+    }
+
+    /**
+     * Wrap a stream so the text written to it is redacted line by line.  Closing the
+     * returned stream writes any unfinished last line and closes the target.
+     */
+    public OutputStream lines(OutputStream out) {
+        return new LineRedactingStream(this, out);
+    }
+
+    /**
+     * Copy text from the stream, redacting it on the way.
+     */
+    public void copyText(InputStream in, OutputStream out) throws IOException {
+        LineRedactingStream lines = new LineRedactingStream(this, out);
+        byte[] buf = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            lines.write(buf, 0, n);
+        }
+        lines.finish();
+    }
+
+    /**
+     * Copy a JSON document from the stream, redacting field names and string values and
+     * dropping the value of any field named like a credential.  The output is pretty
+     * printed unless that has been turned off, and numbers keep their original text.
+     * Whatever was copied before a parse error, such as the end of a truncated
+     * response, is flushed to the output.
+     */
+    public void copyJson(InputStream in, OutputStream out) throws IOException {
+
+        JsonParser parser = factory.createParser(in);
+        JsonGenerator generator = factory.createGenerator(out);
+        if (pretty) {
+            generator.useDefaultPrettyPrinter();
+        }
+        Finder[] finders = newFinders();
+        Map<String, Boolean> secretNames = new HashMap<>();
+        try {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                switch (token) {
+                    case FIELD_NAME:
+                        String name = parser.getCurrentName();
+                        String redacted = redact(finders, name);
+                        generator.writeFieldName(redacted == null ? name : redacted);
+                        break;
+                    case VALUE_STRING:
+                        String field = fieldName(parser);
+                        generator.writeString(isSecretField(field, secretNames) ? REDACTED : redactValue(finders, field, parser.getText()));
+                        break;
+                    case VALUE_NUMBER_INT:
+                    case VALUE_NUMBER_FLOAT:
+                        if (isSecretField(fieldName(parser), secretNames)) {
+                            generator.writeString(REDACTED);
+                        } else {
+                            generator.writeNumber(parser.getText());
+                        }
+                        break;
+                    default:
+                        generator.copyCurrentEvent(parser);
+                }
+            }
+        } finally {
+            generator.flush();
+        }
+    }
+
+    /**
+     * Redact free text.
+     */
+    public String redact(String text) {
+        String redacted = redact(newFinders(), text);
+        return redacted == null ? text : redacted;
+    }
+
+    /**
+     * The token for a host name or address, as used for the host fields in JSON.
+     */
+    public String redactHost(String host) {
+        String redacted = redact(newFinders(), host);
+        if (redacted != null) {
+            return redacted;
+        }
+        return host.isEmpty() || keep.contains(host) ? host : token(HOST, host);
+    }
+
+    /**
+     * Whether a file is compressed, and so can't be redacted as text and is copied as it is.
+     */
+    public static boolean isCompressed(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".gz") || lower.endsWith(".zip") || lower.endsWith(".bz2") || lower.endsWith(".zst");
+    }
+
+    public boolean isSecretField(String field) {
+        return field != null && secretFields != null && secretFields.matcher(field).matches();
+    }
+
+    /**
+     * Number of distinct values replaced with tokens so far.
+     */
+    public synchronized int getMappedCount() {
+        int count = 0;
+        for (Map<String, String> values : mapping.values()) {
+            count += values.size();
+        }
+        return count;
+    }
+
+    /**
+     * Load the table a previous run saved, so values keep their tokens.  A missing file
+     * is an empty table.
+     */
+    public synchronized void loadMapping(String file) {
+
+        if (!new File(file).exists()) {
+            return;
+        }
+        try {
+            Map<String, Map<String, String>> saved = new ObjectMapper().readValue(new File(file),
+                    new TypeReference<Map<String, Map<String, String>>>() {});
+            mapping.clear();
+            for (Map.Entry<String, Map<String, String>> kind : saved.entrySet()) {
+                mapping.put(kind.getKey(), new LinkedHashMap<>(kind.getValue()));
+            }
+        } catch (IOException e) {
+            logger.error("Couldn't read the redaction table " + file, e);
+            throw new RuntimeException("Could not read the redaction table " + file + " - see logs for details.");
+        }
+    }
+
+    public synchronized void saveMapping(String file) {
+
+        try {
+            File temp = new File(file + ".tmp");
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(temp, mapping);
+            Files.move(temp.toPath(), Paths.get(file), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.error("Couldn't write the redaction table " + file, e);
+            throw new RuntimeException("Could not write the redaction table " + file + " - see logs for details.");
+        }
+    }
+
+    /**
+     * A finder for each rule, for one thread to use.
+     */
+    Finder[] newFinders() {
+        Finder[] finders = new Finder[names.length];
+        for (int i = 0; i < names.length; i++) {
+            finders[i] = patterns[i] != null ? new PatternFinder(patterns[i]) : new AddressFinder(builtIn[i].equals(AddressFinder.IPV6));
+        }
+        return finders;
+    }
+
+    /**
+     * Replace every rule match in the text.
+     *
+     * @return the redacted text, or null if nothing matched
+     */
+    String redact(Finder[] finders, String text) {
+
+        StringBuilder sb = null;
+        char[] chars = null;
+        boolean[] hinted = new boolean[finders.length];
+        int[] next = new int[finders.length];
+        int last = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && isDelimiter(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            boolean any = anyUnhinted;
+            System.arraycopy(unhinted, 0, hinted, 0, hinted.length);
+            while (i < length) {
+                char c = text.charAt(i);
+                if (c < 128) {
+                    if (DELIMITERS[c]) {
+                        break;
+                    }
+                    Hint[] candidates = hintsByFirst[c];
+                    if (candidates != null) {
+                        for (Hint hint : candidates) {
+                            if (!hinted[hint.rule] && hint.at(text, i)) {
+                                hinted[hint.rule] = true;
+                                any = true;
+                            }
+                        }
+                    }
+                }
+                i++;
+            }
+            if (start == i) {
+                break;
+            }
+            if (!any) {
+                continue;
+            }
+            int lineEnd = -1;
+            for (int rule = 0; rule < finders.length && lineEnd < 0; rule++) {
+                if (hinted[rule] && secret[rule]) {
+                    lineEnd = i;
+                    while (lineEnd < length && text.charAt(lineEnd) != '\n') {
+                        lineEnd++;
+                    }
+                }
+            }
+
+            // Where each rule next matches - a search that found nothing, or a match after
+            // the one taken, still holds after it, so a rule is only searched again when
+            // its match overlapped the one taken
+            for (int rule = 0; rule < finders.length; rule++) {
+                next[rule] = hinted[rule] ? UNSEARCHED : NO_MATCH;
+            }
+            int from = start;
+            while (true) {
+                int found = -1;
+                for (int rule = 0; rule < finders.length; rule++) {
+                    if (next[rule] < from) {
+                        int end = secret[rule] ? lineEnd : i;
+                        next[rule] = NO_MATCH;
+                        if (from < end && finders[rule].find(text, from, end)) {
+                            next[rule] = finders[rule].start;
+                        }
+                    }
+                    if (next[rule] != NO_MATCH && (found < 0 || next[rule] < next[found])) {
+                        found = rule;
+                    }
+                }
+                if (found < 0) {
+                    break;
+                }
+                Finder finder = finders[found];
+                if (sb == null) {
+                    sb = new StringBuilder(length + 32);
+                    // Appending from an array copies in bulk, from a String char by char
+                    chars = text.toCharArray();
+                }
+                sb.append(chars, last, finder.start - last);
+                String value = text.substring(finder.start, finder.end);
+                if (secret[found]) {
+                    String prefix = finder.prefix();
+                    if (prefix != null) {
+                        sb.append(prefix);
+                    }
+                    sb.append(REDACTED);
+                } else if (keep.contains(value)) {
+                    sb.append(value);
+                } else {
+                    sb.append(token(names[found], value));
+                }
+                last = finder.end;
+                from = Math.max(last, finder.start + 1);
+            }
+            i = Math.max(i, last);
+        }
+        if (sb == null) {
+            return null;
+        }
+        sb.append(chars, last, length - last);
+        return sb.toString();
+    }
+
+    private static final int MAX_SECRET_NAMES = 10000;
+    private static final int UNSEARCHED = -1;
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+
+    // Characters that never appear inside an address, host name or credential keyword
+    private static final boolean[] DELIMITERS = new boolean[128];
+
+    static {
+        for (char c : " \t\n\r\f\u000B[]{}()<>\"'`,;=|".toCharArray()) {
+            DELIMITERS[c] = true;
+        }
+    }
+
+    private static boolean isDelimiter(char c) {
+        return c < 128 && DELIMITERS[c];
+    }
+
+    /**
+     * A hint, in lower case, and the rule it is for.
+     */
+    private static class Hint {
+
+        final int rule;
+        final char[] text;
+
+        Hint(int rule, char[] text) {
+            this.rule = rule;
+            this.text = text;
+        }
+
+        /**
+         * Whether the hint is at the position, ignoring the case of ASCII letters.
+         */
+        boolean at(String s, int pos) {
+            if (pos + text.length > s.length()) {
+                return false;
+            }
+            for (int j = 1; j < text.length; j++) {
+                char c = s.charAt(pos + j);
+                if (c != text[j] && !(c >= 'A' && c <= 'Z' && c + ('a' - 'A') == text[j])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * As isSecretField, remembering the answer for the field names of one document.
+     */
+    private boolean isSecretField(String field, Map<String, Boolean> seen) {
+        if (field == null) {
+            return false;
+        }
+        Boolean secretField = seen.get(field);
+        if (secretField == null) {
+            secretField = isSecretField(field);
+            if (seen.size() < MAX_SECRET_NAMES) {
+                seen.put(field, secretField);
+            }
+        }
+        return secretField;
+    }
+
+    private String redactValue(Finder[] finders, String field, String value) {
+
+        String redacted = redact(finders, value);
+        if (redacted != null) {
+            return redacted;
+        }
+        if (field != null && hostFields.contains(field) && !value.isEmpty() && !keep.contains(value)) {
+            return token(HOST, value);
+        }
+        return value;
+    }
+
+    synchronized String token(String kind, String value) {
+        Map<String, String> values = mapping.get(kind);
+        if (values == null) {
+            values = new LinkedHashMap<>();
+            mapping.put(kind, values);
+        }
+        String token = values.get(value);
+        if (token == null) {
+            token = kind + "-" + (values.size() + 1);
+            values.put(value, token);
+        }
+        return token;
+    }
+
+    /**
+     * The field a scalar belongs to, looking through arrays to the field holding them.
+     */
+    private static String fieldName(JsonParser parser) {
+        JsonStreamContext context = parser.getParsingContext();
+        if (context.inArray() && context.getParent() != null) {
+            context = context.getParent();
+        }
+        return context.getCurrentName();
+    }
+
+    private static Pattern compile(String name, String regex) {
+        try {
+            return Pattern.compile(regex);
+        } catch (RuntimeException e) {
+            logger.error("Bad redaction pattern for " + name + ": " + regex, e);
+            throw new RuntimeException("The redaction pattern for " + name + " is not a valid regular expression.");
+        }
+    }
+
+    private static List<String> stringList(Object value) {
+        List<String> list = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object item : (List) value) {
+                list.add(String.valueOf(item));
+            }
+        }
+        return list;
+    }
+}
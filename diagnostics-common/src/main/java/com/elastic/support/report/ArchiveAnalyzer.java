@@ -0,0 +1,26 @@
+package com.elastic.support.report;
+
+import com.elastic.support.archive.ArchiveReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An offline analysis of the entries in a diagnostic archive that produces one JSON
+ * report.  Analyzers should stream the entries they read - the archives of large
+ * clusters hold entries that are too big to parse into trees.
+ */
+public interface ArchiveAnalyzer {
+
+    /**
+     * File name of the report, e.g. mapping-report.json.
+     */
+    String getReportName();
+
+    /**
+     * True if the archive has the entries this analyzer needs.
+     */
+    boolean accepts(ArchiveReader reader);
+
+    void analyze(ArchiveReader reader, OutputStream out) throws IOException;
+}
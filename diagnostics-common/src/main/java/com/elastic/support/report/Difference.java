@@ -0,0 +1,65 @@
+package com.elastic.support.report;
+
+/**
+ * One difference between two documents.  Values are the scalar text, truncated if
+ * long, or a short description such as "object with 12 entries" for a container.
+ */
+public class Difference {
+
+    public enum Type {ADDED, REMOVED, CHANGED}
+
+    private final Type type;
+    private final String path;
+    private final String before;
+    private final String after;
+
+    public Difference(Type type, String path, String before, String after) {
+        this.type = type;
+        this.path = path;
+        this.before = before;
+        this.after = after;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getBefore() {
+        return before;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+
+    /**
+     * The part of the cluster a path in one of the compared entries belongs to.
+     */
+    public String getCategory() {
+        if (path.startsWith("/metadata/indices/") && path.indexOf('/', "/metadata/indices/".length()) < 0) {
+            return "indices";
+        }
+        if (path.startsWith("/routing_table")) {
+            return "routing";
+        }
+        if (path.startsWith("/routing_nodes") || path.contains("allocation")) {
+            return "allocation";
+        }
+        if (path.contains("/mappings")) {
+            return "mappings";
+        }
+        if (path.contains("/settings") || path.startsWith("/persistent") || path.startsWith("/transient")) {
+            return "settings";
+        }
+        return "other";
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + path + (before == null ? "" : " " + before) + (after == null ? "" : " -> " + after);
+    }
+}
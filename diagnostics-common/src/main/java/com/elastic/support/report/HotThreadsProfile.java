@@ -0,0 +1,333 @@
+package com.elastic.support.report;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Merges _nodes/hot_threads output into one stack profile.  Each "n/m snapshots sharing
+ * following k elements" block becomes a path of k frames weighted by n, rooted at the
+ * thread pool (and optionally the node) it was sampled on.  Paths go into a trie whose
+ * nodes live in parallel int and long arrays and whose frames are interned to ints,
+ * so samples from many nodes and many runs merge into a structure the size of the
+ * distinct stacks.
+ *
+ * The result can be written as folded stacks, the input format of the flame graph
+ * scripts, along with the busiest frames for each node.
+ */
+public class HotThreadsProfile {
+
+    static final String NODE_HEADER = "::: ";
+    static final String THREAD_MARKER = " usage by thread '";
+    static final String SHARING = " snapshots sharing following ";
+    static final String UNIQUE = "unique snapshot";
+
+    private final boolean rootAtNode;
+
+    // Interned frames
+    private final Map<String, Integer> frameIds = new HashMap<>();
+    private final List<String> frames = new ArrayList<>();
+
+    // The trie: node 0 is the root; children are a first-child/next-sibling list
+    private int[] frameOf = new int[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private long[] self = new long[1024];
+    private int size = 1;
+
+    // Top of stack samples for each cluster node, by frame id
+    private final Map<String, Map<Integer, long[]>> nodeFrames = new TreeMap<>();
+    private final Map<String, long[]> pools = new TreeMap<>();
+    private long samples;
+    private long threads;
+    private int sections;
+
+    public HotThreadsProfile() {
+        this(false);
+    }
+
+    /**
+     * @param rootAtNode start each stack with the node it was sampled on so the flame
+     *                   graph splits by node before thread pool
+     */
+    public HotThreadsProfile(boolean rootAtNode) {
+        this.rootAtNode = rootAtNode;
+        frameOf[0] = -1;
+        firstChild[0] = -1;
+        nextSibling[0] = -1;
+    }
+
+    /**
+     * Read one hot_threads response, which may cover any number of nodes.
+     */
+    public void add(BufferedReader in) throws IOException {
+
+        String node = "unknown";
+        String pool = null;
+        long weight = 0;
+        List<String> stack = new ArrayList<>();
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            String trimmed = line.trim();
+            boolean header = line.startsWith(NODE_HEADER) || trimmed.contains(THREAD_MARKER)
+                    || trimmed.contains(SHARING) || trimmed.equals(UNIQUE);
+            if (header || trimmed.isEmpty()) {
+                if (weight > 0 && pool != null) {
+                    addStack(node, pool, stack, weight);
+                }
+                weight = 0;
+                stack.clear();
+            }
+
+            if (line.startsWith(NODE_HEADER)) {
+                node = nodeName(line.substring(NODE_HEADER.length()));
+                pool = null;
+                sections++;
+            } else if (trimmed.contains(THREAD_MARKER)) {
+                int start = trimmed.indexOf(THREAD_MARKER) + THREAD_MARKER.length();
+                int end = trimmed.lastIndexOf('\'');
+                pool = poolName(end > start ? trimmed.substring(start, end) : trimmed.substring(start));
+                threads++;
+            } else if (trimmed.contains(SHARING)) {
+                int slash = trimmed.indexOf('/');
+                weight = slash > 0 ? parseLong(trimmed.substring(0, slash)) : 1;
+            } else if (trimmed.equals(UNIQUE)) {
+                weight = 1;
+            } else if (weight > 0 && !trimmed.isEmpty()) {
+                stack.add(frameName(trimmed));
+            }
+        }
+        if (weight > 0 && pool != null) {
+            addStack(node, pool, stack, weight);
+        }
+    }
+
+    /**
+     * Add a stack listed innermost frame first, as hot_threads and jstack print them.
+     */
+    void addStack(String node, String pool, List<String> stack, long weight) {
+
+        if (stack.isEmpty()) {
+            return;
+        }
+        int current = 0;
+        if (rootAtNode) {
+            current = child(current, intern(clean(node)));
+        }
+        current = child(current, intern(pool));
+        for (int i = stack.size() - 1; i >= 0; i--) {
+            current = child(current, intern(stack.get(i)));
+        }
+        self[current] += weight;
+        samples += weight;
+
+        Map<Integer, long[]> top = nodeFrames.get(node);
+        if (top == null) {
+            top = new HashMap<>();
+            nodeFrames.put(node, top);
+        }
+        int frame = intern(stack.get(0));
+        long[] count = top.get(frame);
+        if (count == null) {
+            top.put(frame, new long[]{weight});
+        } else {
+            count[0] += weight;
+        }
+
+        long[] poolCount = pools.get(pool);
+        if (poolCount == null) {
+            pools.put(pool, new long[]{weight});
+        } else {
+            poolCount[0] += weight;
+        }
+    }
+
+    private int intern(String frame) {
+        Integer id = frameIds.get(frame);
+        if (id == null) {
+            id = frames.size();
+            frameIds.put(frame, id);
+            frames.add(frame);
+        }
+        return id;
+    }
+
+    private int child(int parent, int frame) {
+
+        for (int c = firstChild[parent]; c >= 0; c = nextSibling[c]) {
+            if (frameOf[c] == frame) {
+                return c;
+            }
+        }
+        if (size == frameOf.length) {
+            int capacity = size * 2;
+            frameOf = Arrays.copyOf(frameOf, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            self = Arrays.copyOf(self, capacity);
+        }
+        int c = size++;
+        frameOf[c] = frame;
+        firstChild[c] = -1;
+        nextSibling[c] = firstChild[parent];
+        firstChild[parent] = c;
+        return c;
+    }
+
+    /**
+     * Write one "root;...;leaf count" line for every distinct stack.
+     */
+    public void writeFolded(Writer out) throws IOException {
+
+        // Depth first with an explicit stack, since the trie can be deeper than the call stack allows
+        int[] path = new int[64];
+        int[] cursor = new int[64];
+        int depth = 0;
+        cursor[0] = firstChild[0];
+        StringBuilder line = new StringBuilder();
+
+        while (depth >= 0) {
+            int c = cursor[depth];
+            if (c < 0) {
+                depth--;
+                continue;
+            }
+            cursor[depth] = nextSibling[c];
+            if (depth + 1 == path.length) {
+                path = Arrays.copyOf(path, path.length * 2);
+                cursor = Arrays.copyOf(cursor, cursor.length * 2);
+            }
+            path[depth] = c;
+            if (self[c] > 0) {
+                line.setLength(0);
+                for (int i = 0; i <= depth; i++) {
+                    if (i > 0) {
+                        line.append(';');
+                    }
+                    line.append(frames.get(frameOf[path[i]]));
+                }
+                line.append(' ').append(self[c]).append('\n');
+                out.write(line.toString());
+            }
+            cursor[++depth] = firstChild[c];
+        }
+    }
+
+    public Map<String, Object> getReport(int top) {
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("nodeSections", sections);
+        report.put("threads", threads);
+        report.put("samples", samples);
+        report.put("distinctFrames", frames.size());
+        report.put("trieNodes", size);
+
+        Map<String, Long> poolSamples = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> pool : pools.entrySet()) {
+            poolSamples.put(pool.getKey(), pool.getValue()[0]);
+        }
+        report.put("threadPools", poolSamples);
+
+        Map<Integer, long[]> all = new HashMap<>();
+        Map<String, Object> byNode = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<Integer, long[]>> node : nodeFrames.entrySet()) {
+            byNode.put(node.getKey(), topFrames(node.getValue(), top));
+            for (Map.Entry<Integer, long[]> frame : node.getValue().entrySet()) {
+                long[] count = all.get(frame.getKey());
+                if (count == null) {
+                    all.put(frame.getKey(), new long[]{frame.getValue()[0]});
+                } else {
+                    count[0] += frame.getValue()[0];
+                }
+            }
+        }
+        report.put("topFrames", topFrames(all, top));
+        report.put("topFramesByNode", byNode);
+        return report;
+    }
+
+    private List<Map<String, Object>> topFrames(Map<Integer, long[]> counts, int top) {
+
+        List<Map.Entry<Integer, long[]>> entries = new ArrayList<>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<Integer, long[]>>() {
+            @Override
+            public int compare(Map.Entry<Integer, long[]> a, Map.Entry<Integer, long[]> b) {
+                return Long.compare(b.getValue()[0], a.getValue()[0]);
+            }
+        });
+
+        long total = 0;
+        for (Map.Entry<Integer, long[]> entry : entries) {
+            total += entry.getValue()[0];
+        }
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Map.Entry<Integer, long[]> entry : entries.subList(0, Math.min(top, entries.size()))) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("frame", frames.get(entry.getKey()));
+            row.put("samples", entry.getValue()[0]);
+            row.put("percent", Math.round(entry.getValue()[0] * 1000.0 / total) / 10.0);
+            list.add(row);
+        }
+        return list;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * ES 1.x prints [name][id][host]..., 2.x and later {name}{id}{ip}...
+     */
+    static String nodeName(String header) {
+        if (header.isEmpty()) {
+            return "unknown";
+        }
+        char open = header.charAt(0);
+        int close = header.indexOf(open == '{' ? '}' : ']');
+        if ((open == '[' || open == '{') && close > 0) {
+            return header.substring(1, close);
+        }
+        return header.trim();
+    }
+
+    /**
+     * elasticsearch[node][search][T#3] is the search pool and elasticsearch[node][[timer]]
+     * is [timer]; anything else is named by the thread with its numbers masked.
+     */
+    static String poolName(String thread) {
+        if (thread.startsWith("elasticsearch[")) {
+            int start = thread.indexOf("][");
+            if (start > 0) {
+                start += 2;
+                int end = thread.startsWith("[", start) ? thread.indexOf("]]", start) + 1 : thread.indexOf(']', start);
+                if (end > start) {
+                    return clean(thread.substring(start, end));
+                }
+            }
+        }
+        return clean(thread.replaceAll("[0-9]+", "#"));
+    }
+
+    /**
+     * Drop the source location so frames from different builds and lines merge.
+     */
+    static String frameName(String frame) {
+        int paren = frame.indexOf('(');
+        return clean(paren > 0 ? frame.substring(0, paren) : frame);
+    }
+
+    private static String clean(String s) {
+        // Folded stacks use ; between frames and a space before the count
+        return s.replace(';', ':').replace(' ', '_');
+    }
+
+    private static long parseLong(String s) {
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.elastic.support.report;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Compares two large JSON documents without building either as a tree.  Both are
+ * streamed with Jackson and every subtree is reduced to a 64 bit hash, with object
+ * members combined order-independently so reordered keys don't count as changes.
+ * The hashes of nodes up to a few levels below the root are kept and compared;
+ * matching subtrees are done with, and only the containers that differ at the deepest
+ * kept level are looked into on the next pass, which skips everything else.  Memory
+ * follows the breadth of those few levels plus the differences rather than the size
+ * of the documents.
+ *
+ * Paths are JSON pointers, e.g. /metadata/indices/logs-1/settings/index/number_of_replicas.
+ */
+public class JsonDiff {
+
+    public static final int DEFAULT_LEVELS = 3;
+    public static final int DEFAULT_MAX_DIFFERENCES = 1000;
+    static final int MAX_VALUE_LENGTH = 256;
+
+    private static final long OBJECT_SEED = 0x9E3779B97F4A7C15L;
+    private static final long ARRAY_SEED = 0xC2B2AE3D27D4EB4FL;
+
+    /**
+     * Opens a fresh parser over a document each time it is called, since it is read
+     * once per pass.
+     */
+    public interface Source {
+        JsonParser open() throws IOException;
+    }
+
+    private final int levels;
+    private final int maxDifferences;
+
+    public JsonDiff() {
+        this(DEFAULT_LEVELS, DEFAULT_MAX_DIFFERENCES);
+    }
+
+    public JsonDiff(int levels, int maxDifferences) {
+        this.levels = Math.max(1, levels);
+        this.maxDifferences = maxDifferences;
+    }
+
+    public Result diff(Source before, Source after) throws IOException {
+
+        Result result = new Result();
+        Set<String> targets = new TreeSet<>();
+        targets.add("");
+
+        while (!targets.isEmpty() && !result.truncated) {
+            result.passes++;
+            Map<String, NodeInfo> a = hashPass(before, targets);
+            Map<String, NodeInfo> b = hashPass(after, targets);
+
+            Set<String> next = new TreeSet<>();
+            SortedSet<String> paths = new TreeSet<>(a.keySet());
+            paths.addAll(b.keySet());
+
+            for (String path : paths) {
+                NodeInfo x = a.get(path);
+                NodeInfo y = b.get(path);
+                if (x != null && y != null && x.hash == y.hash) {
+                    continue;
+                }
+                if (x == null || y == null) {
+                    // Only report the top of an added or removed subtree
+                    String parent = parent(path);
+                    NodeInfo own = (x == null ? b : a).get(parent);
+                    NodeInfo other = (x == null ? a : b).get(parent);
+                    if (own != null && (other == null || !other.container || other.kind != own.kind)) {
+                        continue;
+                    }
+                    add(result, new Difference(x == null ? Difference.Type.ADDED : Difference.Type.REMOVED, path,
+                            x == null ? null : x.describe(), y == null ? null : y.describe()));
+                } else if (x.container && y.container && x.kind == y.kind) {
+                    // Explained by the children unless they weren't kept on this pass
+                    if (x.last) {
+                        next.add(path);
+                    }
+                } else {
+                    add(result, new Difference(Difference.Type.CHANGED, path, x.describe(), y.describe()));
+                }
+            }
+            targets = next;
+        }
+        return result;
+    }
+
+    private void add(Result result, Difference difference) {
+        if (result.differences.size() >= maxDifferences) {
+            result.truncated = true;
+            return;
+        }
+        result.differences.add(difference);
+    }
+
+    /**
+     * Stream the document, descending only towards the target paths, and record the
+     * hashes of the nodes up to the configured number of levels below each target.
+     */
+    Map<String, NodeInfo> hashPass(Source source, Set<String> targets) throws IOException {
+
+        Set<String> ancestors = new HashSet<>();
+        for (String target : targets) {
+            String p = target;
+            while (!p.isEmpty()) {
+                p = parent(p);
+                ancestors.add(p);
+            }
+        }
+
+        Map<String, NodeInfo> nodes = new HashMap<>();
+        try (JsonParser parser = source.open()) {
+            JsonToken token = parser.nextToken();
+            if (token != null) {
+                walk(parser, token, "", targets, ancestors, nodes);
+            }
+        }
+        return nodes;
+    }
+
+    private void walk(JsonParser parser, JsonToken token, String path, Set<String> targets, Set<String> ancestors,
+                      Map<String, NodeInfo> nodes) throws IOException {
+
+        if (targets.contains(path)) {
+            hash(parser, token, path, levels, nodes);
+            return;
+        }
+        if (!ancestors.contains(path) || !token.isStructStart()) {
+            parser.skipChildren();
+            return;
+        }
+
+        int index = 0;
+        JsonToken end = token == JsonToken.START_OBJECT ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+        while ((token = parser.nextToken()) != end) {
+            String child;
+            if (end == JsonToken.END_OBJECT) {
+                child = path + "/" + escape(parser.getCurrentName());
+                token = parser.nextToken();
+            } else {
+                child = path + "/" + index++;
+            }
+            walk(parser, token, child, targets, ancestors, nodes);
+        }
+    }
+
+    /**
+     * Hash the subtree at the parser, recording the children that are still within the
+     * remaining levels.  Paths are only built for nodes that are recorded.
+     */
+    private long hash(JsonParser parser, JsonToken token, String path, int remaining, Map<String, NodeInfo> nodes) throws IOException {
+
+        long hash;
+        int children = 0;
+        if (token == JsonToken.START_OBJECT) {
+            hash = OBJECT_SEED;
+            while (parser.nextToken() != JsonToken.END_OBJECT) {
+                String key = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                String child = remaining > 0 ? path + "/" + escape(key) : null;
+                long childHash = hash(parser, value, child, remaining - 1, nodes);
+                // Summing keeps object hashes independent of member order
+                hash += mix(stringHash(key) * 31 + childHash);
+                children++;
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            hash = ARRAY_SEED;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                String child = remaining > 0 ? path + "/" + children : null;
+                hash = mix(hash * 31 + hash(parser, token, child, remaining - 1, nodes));
+                children++;
+            }
+        } else {
+            String text = token == JsonToken.VALUE_NULL ? "null" : parser.getText();
+            hash = mix(token.ordinal() * 0x100000001B3L + stringHash(text));
+            if (path != null && !path.isEmpty()) {
+                nodes.put(path, NodeInfo.scalar(hash, token, text));
+            }
+            return hash;
+        }
+
+        if (path != null && !path.isEmpty()) {
+            nodes.put(path, NodeInfo.container(hash, token, children, remaining == 0));
+        }
+        return hash;
+    }
+
+    static String parent(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? "" : path.substring(0, slash);
+    }
+
+    static String escape(String key) {
+        if (key.indexOf('~') < 0 && key.indexOf('/') < 0) {
+            return key;
+        }
+        return key.replace("~", "~0").replace("/", "~1");
+    }
+
+    static long stringHash(String s) {
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static long mix(long h) {
+        // Murmur3 finalizer
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    static class NodeInfo {
+
+        final long hash;
+        final boolean container;
+        final JsonToken kind;
+        final String value;
+        final int children;
+        final boolean last;
+
+        private NodeInfo(long hash, boolean container, JsonToken kind, String value, int children, boolean last) {
+            this.hash = hash;
+            this.container = container;
+            this.kind = kind;
+            this.value = value;
+            this.children = children;
+            this.last = last;
+        }
+
+        static NodeInfo scalar(long hash, JsonToken kind, String text) {
+            String value = text.length() > MAX_VALUE_LENGTH ? text.substring(0, MAX_VALUE_LENGTH) + "..." : text;
+            return new NodeInfo(hash, false, kind, value, 0, false);
+        }
+
+        static NodeInfo container(long hash, JsonToken kind, int children, boolean last) {
+            return new NodeInfo(hash, true, kind, null, children, last);
+        }
+
+        String describe() {
+            if (!container) {
+                return value;
+            }
+            return (kind == JsonToken.START_OBJECT ? "object with " : "array with ") + children + (children == 1 ? " entry" : " entries");
+        }
+    }
+
+    public static class Result {
+
+        final List<Difference> differences = new ArrayList<>();
+        boolean truncated;
+        int passes;
+
+        public List<Difference> getDifferences() {
+            return differences;
+        }
+
+        /**
+         * True if there were more differences than the configured maximum.
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        public int getPasses() {
+            return passes;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.elastic.support.report;
+
+import java.util.*;
+
+/**
+ * Columns of long counters for a set of keys such as index or node names.  Each key
+ * is given a dense id the first time it is seen and the counters are plain arrays
+ * indexed by it, so tens of thousands of keys with several metrics each cost a few
+ * arrays rather than a map of boxed values per key.
+ */
+class KeyedCounters {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> keys = new ArrayList<>();
+    private long[][] columns;
+
+    KeyedCounters(int metrics) {
+        columns = new long[metrics][64];
+    }
+
+    int id(String key) {
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = keys.size();
+            ids.put(key, id);
+            keys.add(key);
+            if (id == columns[0].length) {
+                for (int m = 0; m < columns.length; m++) {
+                    columns[m] = Arrays.copyOf(columns[m], id * 2);
+                }
+            }
+        }
+        return id;
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    String key(int id) {
+        return keys.get(id);
+    }
+
+    void add(int id, int metric, long value) {
+        columns[metric][id] += value;
+    }
+
+    void max(int id, int metric, long value) {
+        if (value > columns[metric][id]) {
+            columns[metric][id] = value;
+        }
+    }
+
+    long get(int id, int metric) {
+        return columns[metric][id];
+    }
+
+    long sum(int metric) {
+        long sum = 0;
+        for (int id = 0; id < keys.size(); id++) {
+            sum += columns[metric][id];
+        }
+        return sum;
+    }
+
+    /**
+     * Ids of the n keys with the largest values of a metric, largest first.
+     */
+    int[] top(final int metric, int n) {
+        return top(new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(columns[metric][a], columns[metric][b]);
+            }
+        }, n);
+    }
+
+    int[] top(Comparator<Integer> order, int n) {
+        PriorityQueue<Integer> heap = new PriorityQueue<>(n + 1, order);
+        for (int id = 0; id < keys.size(); id++) {
+            heap.add(id);
+            if (heap.size() > n) {
+                heap.poll();
+            }
+        }
+        int[] top = new int[heap.size()];
+        for (int i = top.length - 1; i >= 0; i--) {
+            top[i] = heap.poll();
+        }
+        return top;
+    }
+}
@@ -0,0 +1,349 @@
+package com.elastic.support.report;
+
+import com.elastic.support.archive.ArchiveReader;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * Looks for mapping explosions in mapping.json.  The entry is streamed once and each
+ * index's fields, object depth, nested fields and dynamic templates are counted as it
+ * goes by; only the worst indices are kept, in bounded heaps, so memory doesn't grow
+ * with the number of indices or fields.
+ *
+ * The parser doesn't canonicalize field names, since in an exploded mapping almost
+ * every one of them is unique and the symbol table would grow with the file.
+ */
+public class MappingAnalyzer implements ArchiveAnalyzer {
+
+    static final String ENTRY = "mapping.json";
+    public static final int DEFAULT_TOP = 25;
+    // Matches the default index.mapping.total_fields.limit of later versions
+    static final int FIELD_LIMIT = 1000;
+    static final int DEPTH_LIMIT = 20;
+
+    // The keys a typeless mapping can start with, other than the _ prefixed metadata fields
+    private static final Set<String> MAPPING_PARAMETERS = new HashSet<>(Arrays.asList("properties", "dynamic_templates",
+            "dynamic", "date_detection", "numeric_detection", "dynamic_date_formats", "runtime", "enabled", "subobjects"));
+
+    private static final JsonFactory factory = new JsonFactory()
+            .disable(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES)
+            .disable(JsonFactory.Feature.INTERN_FIELD_NAMES);
+
+    private final int top;
+
+    // Totals across the whole entry
+    private long indices;
+    private long fields;
+    private long overFieldLimit;
+    private long overDepthLimit;
+    private PriorityQueue<IndexMapping> byFields;
+    private PriorityQueue<IndexMapping> byDepth;
+
+    // The index being read
+    private IndexMapping current;
+    private final ArrayDeque<String> path = new ArrayDeque<>();
+
+    public MappingAnalyzer() {
+        this(DEFAULT_TOP);
+    }
+
+    public MappingAnalyzer(int top) {
+        this.top = top;
+    }
+
+    @Override
+    public String getReportName() {
+        return "mapping-report.json";
+    }
+
+    @Override
+    public boolean accepts(ArchiveReader reader) {
+        return reader.contains(ENTRY);
+    }
+
+    @Override
+    public void analyze(ArchiveReader reader, OutputStream out) throws IOException {
+        try (JsonParser parser = factory.createParser(reader.openStream(ENTRY))) {
+            analyze(parser);
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(out, getReport());
+    }
+
+    /**
+     * Read a whole _mapping response: {"index": {"mappings": {"type": {...}}}}.
+     */
+    public void analyze(JsonParser parser) throws IOException {
+
+        indices = 0;
+        fields = 0;
+        overFieldLimit = 0;
+        overDepthLimit = 0;
+        byFields = new PriorityQueue<>(top + 1, IndexMapping.FIELDS);
+        byDepth = new PriorityQueue<>(top + 1, IndexMapping.DEPTH);
+
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a mapping response to start with an object");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            current = new IndexMapping(parser.getCurrentName());
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                readIndex(parser);
+            } else {
+                parser.skipChildren();
+            }
+            endIndex();
+        }
+    }
+
+    private void readIndex(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.START_OBJECT && "mappings".equals(name)) {
+                readMappings(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Before 7.0 the mappings are keyed by type name.  From 7.0 they are typeless and hold
+     * the mapping itself, which shows from the first key being a mapping parameter.
+     */
+    private void readMappings(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (current.typeless || (current.types == 0 && isMappingParameter(name))) {
+                current.typeless = true;
+                readMappingParameter(parser, name, token);
+            } else {
+                current.types++;
+                if (token == JsonToken.START_OBJECT) {
+                    readType(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static boolean isMappingParameter(String name) {
+        if (name.startsWith("_")) {
+            // The only types that start with an underscore
+            return !"_doc".equals(name) && !"_default_".equals(name);
+        }
+        return MAPPING_PARAMETERS.contains(name);
+    }
+
+    private void readType(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            readMappingParameter(parser, name, parser.nextToken());
+        }
+    }
+
+    private void readMappingParameter(JsonParser parser, String name, JsonToken token) throws IOException {
+        if (token == JsonToken.START_OBJECT && "properties".equals(name)) {
+            readProperties(parser, 1);
+        } else if (token == JsonToken.START_ARRAY && "dynamic_templates".equals(name)) {
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                current.dynamicTemplates++;
+                parser.skipChildren();
+            }
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private void readProperties(JsonParser parser, int depth) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            path.addLast(parser.getCurrentName());
+            current.fields++;
+            if (depth > current.depth) {
+                current.depth = depth;
+                current.deepestField = joinPath();
+            }
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                readField(parser, depth);
+            } else {
+                parser.skipChildren();
+            }
+            path.removeLast();
+        }
+    }
+
+    private void readField(JsonParser parser, int depth) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT && "properties".equals(name)) {
+                current.objects++;
+                readProperties(parser, depth + 1);
+            } else if (token == JsonToken.START_OBJECT && "fields".equals(name)) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    current.multiFields++;
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+            } else if (token == JsonToken.VALUE_STRING && "type".equals(name) && "nested".equals(parser.getText())) {
+                current.nested++;
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private String joinPath() {
+        StringBuilder sb = new StringBuilder();
+        for (String part : path) {
+            if (sb.length() > 0) {
+                sb.append('.');
+            }
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+
+    private void endIndex() {
+
+        indices++;
+        fields += current.getTotalFields();
+        if (current.getTotalFields() > FIELD_LIMIT) {
+            overFieldLimit++;
+        }
+        if (current.depth > DEPTH_LIMIT) {
+            overDepthLimit++;
+        }
+        offer(byFields, current, IndexMapping.FIELDS);
+        offer(byDepth, current, IndexMapping.DEPTH);
+        current = null;
+    }
+
+    private void offer(PriorityQueue<IndexMapping> heap, IndexMapping mapping, Comparator<IndexMapping> order) {
+        // The heap's head is the least bad index kept so far
+        if (heap.size() < top) {
+            heap.add(mapping);
+        } else if (order.compare(mapping, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(mapping);
+        }
+    }
+
+    public Map<String, Object> getReport() {
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("indices", indices);
+        report.put("fields", fields);
+        report.put("averageFields", indices == 0 ? 0 : fields / indices);
+        report.put("indicesOverFieldLimit", overFieldLimit);
+        report.put("indicesOverDepthLimit", overDepthLimit);
+        report.put("mostFields", ranked(byFields, IndexMapping.FIELDS));
+        report.put("deepest", ranked(byDepth, IndexMapping.DEPTH));
+        return report;
+    }
+
+    /**
+     * The worst indices first.
+     */
+    public List<IndexMapping> getMostFields() {
+        return ranked(byFields, IndexMapping.FIELDS);
+    }
+
+    public List<IndexMapping> getDeepest() {
+        return ranked(byDepth, IndexMapping.DEPTH);
+    }
+
+    private static List<IndexMapping> ranked(PriorityQueue<IndexMapping> heap, Comparator<IndexMapping> order) {
+        List<IndexMapping> list = new ArrayList<>(heap);
+        Collections.sort(list, Collections.reverseOrder(order));
+        return list;
+    }
+
+    public static class IndexMapping {
+
+        static final Comparator<IndexMapping> FIELDS = new Comparator<IndexMapping>() {
+            @Override
+            public int compare(IndexMapping a, IndexMapping b) {
+                int c = Long.compare(a.getTotalFields(), b.getTotalFields());
+                return c != 0 ? c : Integer.compare(a.depth, b.depth);
+            }
+        };
+
+        static final Comparator<IndexMapping> DEPTH = new Comparator<IndexMapping>() {
+            @Override
+            public int compare(IndexMapping a, IndexMapping b) {
+                int c = Integer.compare(a.depth, b.depth);
+                return c != 0 ? c : Long.compare(a.getTotalFields(), b.getTotalFields());
+            }
+        };
+
+        final String index;
+        int types;
+        boolean typeless;
+        long fields;
+        long multiFields;
+        long objects;
+        long nested;
+        int dynamicTemplates;
+        int depth;
+        String deepestField;
+
+        IndexMapping(String index) {
+            this.index = index;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public long getTotalFields() {
+            return fields + multiFields;
+        }
+
+        public long getFields() {
+            return fields;
+        }
+
+        public long getMultiFields() {
+            return multiFields;
+        }
+
+        public long getObjects() {
+            return objects;
+        }
+
+        public long getNested() {
+            return nested;
+        }
+
+        public int getDynamicTemplates() {
+            return dynamicTemplates;
+        }
+
+        /**
+         * @return the number of mapping types, which is 0 for a typeless mapping
+         */
+        public int getTypes() {
+            return types;
+        }
+
+        public boolean isTypeless() {
+            return typeless;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public String getDeepestField() {
+            return deepestField;
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package com.elastic.support.report;
+
+import com.elastic.support.archive.ArchiveReader;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * Summarizes where the shards, data and segment memory of a cluster sit.  cat_shards,
+ * indices_stats and segments are streamed into per-node and per-index counters, and
+ * the report ranks the heaviest indices and flags the nodes holding a disproportionate
+ * share of shards, store or segment memory.  Nothing is kept per shard or per segment,
+ * so archives from clusters with tens of thousands of shards are handled in one pass
+ * over each entry.
+ */
+public class ShardAnalyzer implements ArchiveAnalyzer {
+
+    static final String CAT_SHARDS = "cat_shards.txt";
+    static final String INDICES_STATS = "indices_stats.json";
+    static final String SEGMENTS = "segments.json";
+    static final String NODES = "nodes.json";
+
+    public static final int DEFAULT_TOP = 25;
+    public static final double DEFAULT_HOTSPOT_RATIO = 1.5;
+
+    // Counters kept for each node and index
+    static final int SHARDS = 0;
+    static final int PRIMARIES = 1;
+    static final int DOCS = 2;
+    static final int STORE = 3;
+    static final int SEGMENT_COUNT = 4;
+    static final int SEGMENT_MEMORY = 5;
+    static final int UNASSIGNED = 6;
+    static final int SHARD_STORE = 7;
+    static final int LARGEST_SHARD = 8;
+    static final int METRICS = 9;
+
+    static final String[] METRIC_NAMES = {"shards", "primaries", "docs", "storeBytes", "segments", "segmentMemoryBytes",
+            "unassigned", "shardStoreBytes", "largestShardBytes"};
+
+    // Node metrics checked for hotspots
+    static final int[] NODE_BALANCE = {SHARDS, STORE, SEGMENT_COUNT, SEGMENT_MEMORY};
+
+    private final int top;
+    private final double hotspotRatio;
+
+    private KeyedCounters nodes;
+    private KeyedCounters indices;
+    private boolean haveIndexStats;
+
+    public ShardAnalyzer() {
+        this(DEFAULT_TOP, DEFAULT_HOTSPOT_RATIO);
+    }
+
+    public ShardAnalyzer(int top, double hotspotRatio) {
+        this.top = top;
+        this.hotspotRatio = hotspotRatio;
+    }
+
+    @Override
+    public String getReportName() {
+        return "shard-report.json";
+    }
+
+    @Override
+    public boolean accepts(ArchiveReader reader) {
+        return reader.contains(CAT_SHARDS) || reader.contains(INDICES_STATS) || reader.contains(SEGMENTS);
+    }
+
+    @Override
+    public void analyze(ArchiveReader reader, OutputStream out) throws IOException {
+
+        reset();
+        if (reader.contains(CAT_SHARDS)) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(reader.openStream(CAT_SHARDS), "UTF-8"))) {
+                readCatShards(in);
+            }
+        }
+        if (reader.contains(INDICES_STATS)) {
+            try (JsonParser parser = reader.openParser(INDICES_STATS)) {
+                readIndicesStats(parser);
+            }
+        }
+        if (reader.contains(SEGMENTS)) {
+            Map<String, String> nodeNames = Collections.emptyMap();
+            if (reader.contains(NODES)) {
+                try (JsonParser parser = reader.openParser(NODES)) {
+                    nodeNames = readNodeNames(parser);
+                }
+            }
+            try (JsonParser parser = reader.openParser(SEGMENTS)) {
+                readSegments(parser, nodeNames);
+            }
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(out, getReport());
+    }
+
+    public void reset() {
+        nodes = new KeyedCounters(METRICS);
+        indices = new KeyedCounters(METRICS);
+        haveIndexStats = false;
+    }
+
+    /**
+     * _cat/shards without headers: index shard prirep state docs store ip node, where
+     * docs and store are blank while a shard initializes and a relocating shard ends
+     * with "-> ip id node".
+     */
+    public void readCatShards(BufferedReader in) throws IOException {
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] columns = line.trim().split("\\s+");
+            if (columns.length < 4 || !isNumber(columns[1])) {
+                continue;
+            }
+            int index = indices.id(columns[0]);
+            boolean primary = "p".equals(columns[2]);
+            if ("UNASSIGNED".equals(columns[3])) {
+                indices.add(index, UNASSIGNED, 1);
+                continue;
+            }
+
+            long docs = 0;
+            long store = 0;
+            int nodeStart = 5;
+            if (columns.length > 5 && isNumber(columns[4])) {
+                docs = Long.parseLong(columns[4]);
+                store = parseSize(columns[5]);
+                nodeStart = 7;
+            }
+            StringBuilder node = new StringBuilder();
+            for (int i = nodeStart; i < columns.length && !"->".equals(columns[i]); i++) {
+                node.append(node.length() == 0 ? "" : " ").append(columns[i]);
+            }
+
+            indices.add(index, SHARDS, 1);
+            indices.add(index, SHARD_STORE, store);
+            indices.max(index, LARGEST_SHARD, store);
+            if (primary) {
+                indices.add(index, PRIMARIES, 1);
+            }
+            if (node.length() > 0) {
+                int id = nodes.id(node.toString());
+                nodes.add(id, SHARDS, 1);
+                nodes.add(id, DOCS, docs);
+                nodes.add(id, STORE, store);
+                if (primary) {
+                    nodes.add(id, PRIMARIES, 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * The per-index section of _stats: indices.<index>.primaries.docs.count and the
+     * store and segment totals.
+     */
+    public void readIndicesStats(JsonParser parser) throws IOException {
+
+        haveIndexStats = true;
+        if (!enter(parser, "indices")) {
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            int index = indices.id(parser.getCurrentName());
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String section = parser.getCurrentName();
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                } else if ("primaries".equals(section)) {
+                    readStats(parser, index, true);
+                } else if ("total".equals(section)) {
+                    readStats(parser, index, false);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private void readStats(JsonParser parser, int index, boolean primaries) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String group = parser.getCurrentName();
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (token != JsonToken.VALUE_NUMBER_INT) {
+                    parser.skipChildren();
+                } else if (primaries) {
+                    if ("docs".equals(group) && "count".equals(name)) {
+                        indices.add(index, DOCS, parser.getLongValue());
+                    }
+                } else if ("store".equals(group) && "size_in_bytes".equals(name)) {
+                    indices.add(index, STORE, parser.getLongValue());
+                } else if ("segments".equals(group) && "count".equals(name)) {
+                    indices.add(index, SEGMENT_COUNT, parser.getLongValue());
+                } else if ("segments".equals(group) && "memory_in_bytes".equals(name)) {
+                    indices.add(index, SEGMENT_MEMORY, parser.getLongValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * _segments: indices.<index>.shards.<shard>[copy], where each copy has its routing
+     * and a segments object keyed by segment name.
+     */
+    public void readSegments(JsonParser parser, Map<String, String> nodeNames) throws IOException {
+
+        if (!enter(parser, "indices")) {
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            int index = indices.id(parser.getCurrentName());
+            parser.nextToken();
+            if (!enter(parser, "shards")) {
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    readShardCopy(parser, index, nodeNames);
+                }
+            }
+            // Close the index object enter() left us inside
+            skipRest(parser);
+        }
+    }
+
+    private void readShardCopy(JsonParser parser, int index, Map<String, String> nodeNames) throws IOException {
+
+        String node = null;
+        long count = 0;
+        long memory = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT && "routing".equals(name)) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("node".equals(field)) {
+                        node = parser.getText();
+                    }
+                    parser.skipChildren();
+                }
+            } else if (token == JsonToken.START_OBJECT && "segments".equals(name)) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    count++;
+                    parser.nextToken();
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("memory_in_bytes".equals(field)) {
+                            memory += parser.getLongValue();
+                        }
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (node != null) {
+            String nodeName = nodeNames.get(node);
+            int id = nodes.id(nodeName == null ? node : nodeName);
+            nodes.add(id, SEGMENT_COUNT, count);
+            nodes.add(id, SEGMENT_MEMORY, memory);
+        }
+        if (!haveIndexStats) {
+            indices.add(index, SEGMENT_COUNT, count);
+            indices.add(index, SEGMENT_MEMORY, memory);
+        }
+    }
+
+    /**
+     * Node ids to names from _nodes, so segment routing lines up with cat_shards.
+     */
+    public Map<String, String> readNodeNames(JsonParser parser) throws IOException {
+
+        Map<String, String> names = new HashMap<>();
+        if (!enter(parser, "nodes")) {
+            return names;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String id = parser.getCurrentName();
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("name".equals(field)) {
+                    names.put(id, parser.getText());
+                }
+                parser.skipChildren();
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Move into the object held by a field of the current object, skipping the fields
+     * before it.  Starts from before the document if no token has been read yet.
+     *
+     * @return false if the field isn't there, with the current object consumed
+     */
+    private static boolean enter(JsonParser parser, String field) throws IOException {
+        if (parser.getCurrentToken() == null) {
+            parser.nextToken();
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.START_OBJECT && field.equals(name)) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    private static void skipRest(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+
+    public Map<String, Object> getReport() {
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("nodes", nodes.size());
+        report.put("indices", indices.size());
+        report.put("shards", indices.sum(SHARDS));
+        report.put("unassignedShards", indices.sum(UNASSIGNED));
+
+        Map<String, Object> balance = new LinkedHashMap<>();
+        List<Map<String, Object>> hotspots = new ArrayList<>();
+        for (int metric : NODE_BALANCE) {
+            if (nodes.size() == 0 || nodes.sum(metric) == 0) {
+                continue;
+            }
+            double mean = (double) nodes.sum(metric) / nodes.size();
+            double squares = 0;
+            int max = 0;
+            for (int id = 0; id < nodes.size(); id++) {
+                double delta = nodes.get(id, metric) - mean;
+                squares += delta * delta;
+                if (nodes.get(id, metric) > nodes.get(max, metric)) {
+                    max = id;
+                }
+                double ratio = nodes.get(id, metric) / mean;
+                if (nodes.size() > 1 && ratio >= hotspotRatio) {
+                    Map<String, Object> hotspot = new LinkedHashMap<>();
+                    hotspot.put("node", nodes.key(id));
+                    hotspot.put("metric", METRIC_NAMES[metric]);
+                    hotspot.put("value", nodes.get(id, metric));
+                    hotspot.put("mean", Math.round(mean));
+                    hotspot.put("ratioToMean", round(ratio));
+                    hotspots.add(hotspot);
+                }
+            }
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("mean", Math.round(mean));
+            stats.put("max", nodes.get(max, metric));
+            stats.put("maxNode", nodes.key(max));
+            stats.put("maxToMean", round(nodes.get(max, metric) / mean));
+            stats.put("coefficientOfVariation", round(Math.sqrt(squares / nodes.size()) / mean));
+            balance.put(METRIC_NAMES[metric], stats);
+        }
+        Collections.sort(hotspots, new Comparator<Map<String, Object>>() {
+            @Override
+            public int compare(Map<String, Object> a, Map<String, Object> b) {
+                return Double.compare((Double) b.get("ratioToMean"), (Double) a.get("ratioToMean"));
+            }
+        });
+        report.put("nodeBalance", balance);
+        report.put("hotspots", hotspots);
+        report.put("nodeTotals", rows(nodes, nodes.top(SEGMENT_MEMORY, nodes.size()), "node", SHARDS, PRIMARIES, DOCS, STORE, SEGMENT_COUNT, SEGMENT_MEMORY));
+
+        report.put("indicesBySegmentMemory", rows(indices, indices.top(SEGMENT_MEMORY, top), "index", SEGMENT_MEMORY, SEGMENT_COUNT, STORE, DOCS, SHARDS));
+        report.put("indicesBySegments", rows(indices, indices.top(SEGMENT_COUNT, top), "index", SEGMENT_COUNT, SEGMENT_MEMORY, STORE, DOCS, SHARDS));
+        report.put("indicesByStore", rows(indices, indices.top(STORE, top), "index", STORE, DOCS, SHARDS, SEGMENT_MEMORY));
+
+        // Shards of one index that are much bigger than the rest point at routing skew
+        List<Map<String, Object>> shardSkew = new ArrayList<>();
+        for (int id : indices.top(new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(shardSkew(a), shardSkew(b));
+            }
+        }, top)) {
+            if (shardSkew(id) <= 1) {
+                continue;
+            }
+            Map<String, Object> row = rows(indices, new int[]{id}, "index", SHARDS, SHARD_STORE, LARGEST_SHARD).get(0);
+            row.put("largestToMean", round(shardSkew(id)));
+            shardSkew.add(row);
+        }
+        report.put("shardSizeSkew", shardSkew);
+        return report;
+    }
+
+    private double shardSkew(int index) {
+        long shards = indices.get(index, SHARDS);
+        long store = indices.get(index, SHARD_STORE);
+        if (shards < 2 || store == 0) {
+            return 0;
+        }
+        return indices.get(index, LARGEST_SHARD) / ((double) store / shards);
+    }
+
+    private static List<Map<String, Object>> rows(KeyedCounters counters, int[] ids, String keyName, int... metrics) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int id : ids) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put(keyName, counters.key(id));
+            for (int metric : metrics) {
+                row.put(METRIC_NAMES[metric], counters.get(id, metric));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static boolean isNumber(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse a human readable size from the cat APIs, e.g. 31.1mb or 512b.
+     */
+    static long parseSize(String size) {
+        String s = size.toLowerCase();
+        int unit = s.length();
+        while (unit > 0 && Character.isLetter(s.charAt(unit - 1))) {
+            unit--;
+        }
+        double value;
+        try {
+            value = Double.parseDouble(s.substring(0, unit));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        String suffix = s.substring(unit);
+        long multiplier = 1;
+        switch (suffix) {
+            case "kb": multiplier = 1L << 10; break;
+            case "mb": multiplier = 1L << 20; break;
+            case "gb": multiplier = 1L << 30; break;
+            case "tb": multiplier = 1L << 40; break;
+            case "pb": multiplier = 1L << 50; break;
+            default: break;
+        }
+        return (long) (value * multiplier);
+    }
+}
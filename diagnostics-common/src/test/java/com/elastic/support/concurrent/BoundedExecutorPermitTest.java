@@ -0,0 +1,54 @@
+package com.elastic.support.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * In the executor's package so the semaphore path can be tested without a JVM that has
+ * virtual threads.
+ */
+public class BoundedExecutorPermitTest {
+
+    @Test
+    public void tasksInterruptedWaitingForAPermitAreCancelled() throws Exception {
+
+        ExecutorService delegate = Executors.newCachedThreadPool();
+        BoundedExecutor executor = new BoundedExecutor(delegate, new Semaphore(1), true);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Future<?> first = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                running.countDown();
+                release.await();
+                return null;
+            }
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        Future<String> waiting = executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return "ran";
+            }
+        });
+
+        // Interrupts both the running task and the one waiting for the permit
+        delegate.shutdownNow();
+        try {
+            waiting.get(10, TimeUnit.SECONDS);
+            fail("The waiting task should not have run");
+        } catch (CancellationException e) {
+            assertTrue(waiting.isCancelled());
+        }
+        try {
+            first.get(10, TimeUnit.SECONDS);
+            fail("The running task was interrupted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.elastic.support.test;
+
+import com.elastic.support.archive.ArchiveEntry;
+import com.elastic.support.archive.ArchiveReader;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ArchiveReaderTest {
+
+    private File archive;
+    private byte[] log;
+
+    @Before
+    public void setup() throws Exception {
+        archive = Files.createTempFile("reader", ".zip").toFile();
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.append("[2015-06-22 13:57:37,123][INFO ][node] line ").append(i).append('\n');
+        }
+        log = sb.toString().getBytes("UTF-8");
+
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gz)) {
+            out.write("{\"indices\":{\"logs\":{\"docs\":42}}}".getBytes("UTF-8"));
+        }
+
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive))) {
+            out.putNextEntry(new ZipEntry("nodes.json"));
+            out.write("{\"nodes\":{\"a\":{\"name\":\"node1\"}}}".getBytes("UTF-8"));
+            out.closeEntry();
+
+            out.putNextEntry(new ZipEntry("node1/"));
+            out.closeEntry();
+
+            out.putNextEntry(new ZipEntry("node1/test.log"));
+            out.write(log);
+            out.closeEntry();
+
+            ZipEntry stored = new ZipEntry("indices_stats.json.gz");
+            CRC32 crc = new CRC32();
+            crc.update(gz.toByteArray());
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(gz.size());
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(gz.toByteArray());
+            out.closeEntry();
+        }
+    }
+
+    @After
+    public void cleanup() {
+        archive.delete();
+    }
+
+    @Test
+    public void readsEntriesLazily() throws Exception {
+        try (ArchiveReader reader = new ArchiveReader(archive.getPath())) {
+            assertEquals(4, reader.getEntries().size());
+            assertTrue(reader.getEntry("node1/").isDirectory());
+
+            ArchiveEntry entry = reader.getEntry("node1/test.log");
+            assertEquals(ArchiveEntry.DEFLATED, entry.getMethod());
+            assertEquals(log.length, entry.getSize());
+            assertArrayEquals(log, read(reader.openStream("node1/test.log")));
+
+            // Stored .gz entries are found without the suffix and decompressed
+            assertEquals(42, reader.readTree("indices_stats.json").path("indices").path("logs").path("docs").asInt());
+            assertNull(reader.getEntry("missing.json"));
+
+            try (JsonParser parser = reader.openParser("nodes.json")) {
+                assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+                assertEquals("nodes", parser.nextFieldName());
+            }
+        }
+    }
+
+    @Test
+    public void cachesTreesWithinBudget() throws Exception {
+        try (ArchiveReader reader = new ArchiveReader(archive.getPath(), 64)) {
+            JsonNode nodes = reader.readTree("nodes.json");
+            assertSame(nodes, reader.readTree("nodes.json"));
+            assertTrue(reader.getCachedBytes() <= 64);
+
+            // Reading another document pushes the first out of the 64 byte budget
+            reader.readTree("indices_stats.json");
+            assertNotSame(nodes, reader.readTree("nodes.json"));
+            assertTrue(reader.getCachedBytes() <= 64);
+        }
+    }
+
+    private static byte[] read(InputStream in) throws Exception {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.elastic.support.test;
+
+import com.elastic.support.archive.ArchiveFormat;
+import com.elastic.support.archive.ArchiveVerifier;
+import com.elastic.support.archive.ArchiveWriter;
+import com.elastic.support.archive.Crc32c;
+import com.elastic.support.archive.IntegrityManifest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.luben.zstd.ZstdInputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.Checksum;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class ArchiveWriterTest {
+
+    private static final int MB = 1024 * 1024;
+
+    private Path dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("archive-writer");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        for (File file : dir.toFile().listFiles()) {
+            file.delete();
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void smallOutputIsOneArchive() throws IOException {
+
+        String base = dir.resolve("small").toString();
+        try (ArchiveWriter writer = new ArchiveWriter(base, MB)) {
+            writer.putNextEntry("a.json");
+            writer.write("{}".getBytes("UTF-8"), 0, 2);
+        }
+
+        assertEquals(Collections.singletonList("small.zip"), Arrays.asList(dir.toFile().list()));
+        try (ZipFile zip = new ZipFile(base + ".zip")) {
+            assertEquals(2, zip.getEntry("a.json").getSize());
+        }
+    }
+
+    @Test
+    public void largeOutputRollsOverIntoVolumes() throws IOException {
+
+        Random random = new Random(42);
+        byte[] big = new byte[5 * MB / 2];
+        random.nextBytes(big);
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < 6; i++) {
+            byte[] file = new byte[300 * 1024];
+            random.nextBytes(file);
+            files.put("node-" + i + "/log.txt", file);
+        }
+
+        String base = dir.resolve("large").toString();
+        ArchiveWriter writer = new ArchiveWriter(base, MB);
+        writer.putDirectory("node-0/");
+        writer.putNextEntry("big.bin");
+        for (int off = 0; off < big.length; off += 10000) {
+            writer.write(big, off, Math.min(10000, big.length - off));
+        }
+        writer.closeEntry();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            writer.putNextEntry(file.getKey(), file.getValue().length);
+            writer.write(file.getValue(), 0, file.getValue().length);
+        }
+        writer.close();
+
+        List<String> volumes = writer.getVolumes();
+        assertTrue(volumes.size() >= 5);
+        assertEquals(base + ".001.zip", volumes.get(0));
+
+        JsonNode index = new ObjectMapper().readTree(new File(writer.getIndexPath()));
+        assertEquals(volumes.size(), index.path("volumes").size());
+
+        Map<String, ByteArrayOutputStream> contents = new HashMap<>();
+        for (JsonNode entry : index.path("entries")) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            for (JsonNode part : entry.path("parts")) {
+                try (ZipFile zip = new ZipFile(volumes.get(part.path("volume").asInt() - 1))) {
+                    ZipEntry zipEntry = zip.getEntry(part.path("entry").asText());
+                    try (InputStream in = zip.getInputStream(zipEntry)) {
+                        copy(in, content);
+                    }
+                }
+            }
+            contents.put(entry.path("name").asText(), content);
+            if (entry.path("name").asText().startsWith("node-")) {
+                assertEquals("known sizes are moved to a new volume rather than split", 1, entry.path("parts").size());
+            }
+        }
+
+        for (String volume : volumes) {
+            assertTrue(volume + " is over the limit", new File(volume).length() <= MB);
+        }
+        assertTrue(index.path("entries").get(1).path("parts").size() >= 3);
+        assertEquals("big.bin.part2", index.path("entries").get(1).path("parts").get(1).path("entry").asText());
+        assertArrayEquals(big, contents.get("big.bin").toByteArray());
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            assertArrayEquals(file.getValue(), contents.get(file.getKey()).toByteArray());
+        }
+    }
+
+    @Test
+    public void tarVolumesRoundTrip() throws IOException {
+        tarVolumesRoundTrip(ArchiveFormat.TAR_GZ);
+    }
+
+    @Test
+    public void zstdVolumesRoundTrip() throws IOException {
+        tarVolumesRoundTrip(ArchiveFormat.TAR_ZSTD);
+    }
+
+    @Test
+    public void lz4VolumesRoundTrip() throws IOException {
+        tarVolumesRoundTrip(ArchiveFormat.TAR_LZ4);
+    }
+
+    @Test
+    public void zstdTakesTheLevel() throws IOException {
+
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            json.append("{\"index\":\"logs-").append(i % 97).append("\",\"docs\":").append(i * 31 % 1000).append("}\n");
+        }
+        byte[] stats = json.toString().getBytes("UTF-8");
+        long[] sizes = new long[2];
+        int[] levels = {1, 19};
+        for (int i = 0; i < levels.length; i++) {
+            String base = dir.resolve("level" + levels[i]).toString();
+            try (ArchiveWriter writer = new ArchiveWriter(base, 0, ArchiveFormat.TAR_ZSTD)) {
+                writer.setLevel(levels[i]);
+                writer.putNextEntry("stats.json", stats.length);
+                writer.write(stats, 0, stats.length);
+            }
+            assertArrayEquals(stats, readTar(base + ".tar.zst", ArchiveFormat.TAR_ZSTD).get("stats.json"));
+            sizes[i] = new File(base + ".tar.zst").length();
+        }
+        assertTrue(sizes[1] + " should be smaller than " + sizes[0], sizes[1] < sizes[0]);
+    }
+
+    private void tarVolumesRoundTrip(ArchiveFormat format) throws IOException {
+
+        Random random = new Random(7);
+        byte[] big = new byte[3 * MB];
+        random.nextBytes(big);
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            json.append("{\"index\":\"logs-").append(i % 17).append("\",\"shard\":").append(i).append("}\n");
+        }
+        byte[] stats = json.toString().getBytes("UTF-8");
+        String longName = "nodes/" + new String(new char[120]).replace('\0', 'n') + "/stats-\u00e9.json";
+
+        String base = dir.resolve("tarred").toString();
+        ArchiveWriter writer = new ArchiveWriter(base, MB, format);
+        writer.putDirectory("nodes/");
+        writer.putNextEntry(longName);
+        writer.write(stats, 0, stats.length);
+        writer.closeEntry();
+        writer.putNextEntry("big.bin");
+        for (int off = 0; off < big.length; off += 10000) {
+            writer.write(big, off, Math.min(10000, big.length - off));
+        }
+        writer.close();
+
+        List<String> volumes = writer.getVolumes();
+        assertTrue(volumes.size() >= 4);
+        assertEquals(base + ".001." + format.getExtension(), volumes.get(0));
+
+        Map<String, ByteArrayOutputStream> contents = new HashMap<>();
+        for (String volume : volumes) {
+            assertTrue(volume + " is over the limit", new File(volume).length() <= MB);
+            for (Map.Entry<String, byte[]> entry : readTar(volume, format).entrySet()) {
+                String name = entry.getKey().replaceAll("\\.part\\d+$", "");
+                if (!contents.containsKey(name)) {
+                    contents.put(name, new ByteArrayOutputStream());
+                }
+                contents.get(name).write(entry.getValue());
+            }
+        }
+        assertEquals(0, contents.get("nodes/").size());
+        assertArrayEquals(stats, contents.get(longName).toByteArray());
+        assertArrayEquals(big, contents.get("big.bin").toByteArray());
+
+        ArchiveVerifier verifier = new ArchiveVerifier(2);
+        verifier.verify(writer.getIndexPath());
+        assertEquals(Collections.<String>emptyList(), verifier.getProblems());
+        int parts = 0;
+        for (JsonNode entry : index(writer).path("entries")) {
+            parts += entry.path("parts").size();
+        }
+        assertEquals(parts, verifier.getChecked());
+    }
+
+    @Test
+    public void integrityManifestFindsDamagedEntries() throws IOException {
+
+        Checksum crc = Crc32c.create();
+        crc.update("123456789".getBytes("US-ASCII"), 0, 9);
+        assertEquals(0xE3069283L, crc.getValue());
+        Crc32c table = new Crc32c();
+        byte[] sample = new byte[1000];
+        new Random(3).nextBytes(sample);
+        table.update(sample, 0, 13);
+        table.update(sample, 13, sample.length - 13);
+        crc.reset();
+        crc.update(sample, 0, sample.length);
+        assertEquals(crc.getValue(), table.getValue());
+
+        byte[] random = new byte[200 * 1024];
+        new Random(11).nextBytes(random);
+        String base = dir.resolve("checked").toString();
+        try (ArchiveWriter writer = new ArchiveWriter(base, 0)) {
+            writer.putDirectory("nodes/");
+            writer.putNextEntry("nodes/a.json");
+            writer.write("{\"a\":1}".getBytes("UTF-8"), 0, 7);
+            writer.putNextEntry("random.bin");
+            writer.write(random, 0, random.length);
+            writer.putNextEntry("nodes/b.json");
+            writer.write("{\"b\":2}".getBytes("UTF-8"), 0, 7);
+        }
+        String zip = base + ".zip";
+        try (ZipFile file = new ZipFile(zip)) {
+            assertNotNull(file.getEntry(IntegrityManifest.NAME));
+        }
+
+        ArchiveVerifier verifier = new ArchiveVerifier(2);
+        verifier.verify(zip);
+        assertEquals(Collections.<String>emptyList(), verifier.getProblems());
+        assertEquals(4, verifier.getChecked());
+
+        // Random bytes deflate to stored blocks, so a flipped byte changes the content without breaking the zip
+        byte[] bytes = Files.readAllBytes(Paths.get(zip));
+        bytes[bytes.length / 2] ^= 0x55;
+        Files.write(Paths.get(zip), bytes);
+        verifier = new ArchiveVerifier(2);
+        verifier.verify(zip);
+        assertEquals(1, verifier.getProblems().size());
+        assertTrue(verifier.getProblems().get(0), verifier.getProblems().get(0).startsWith("random.bin in " + zip + " does not match its checksum"));
+
+        // Cut off, the central directory and manifest are gone, so it is read from the front
+        Files.write(Paths.get(zip), Arrays.copyOf(bytes, bytes.length * 3 / 4));
+        verifier = new ArchiveVerifier(2);
+        verifier.verify(zip);
+        assertEquals(1, verifier.getProblems().size());
+        assertTrue(verifier.getProblems().get(0), verifier.getProblems().get(0).contains("cut off in random.bin"));
+        assertTrue(verifier.getProblems().get(0), verifier.getProblems().get(0).endsWith("the 2 entries before it read cleanly"));
+    }
+
+    private static JsonNode index(ArchiveWriter writer) throws IOException {
+        return new ObjectMapper().readTree(new File(writer.getIndexPath()));
+    }
+
+    /**
+     * Entries of a compressed tar in order, taking names from pax headers when present.
+     */
+    private static Map<String, byte[]> readTar(String file, ArchiveFormat format) throws IOException {
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(decompress(new FileInputStream(file), format))) {
+            byte[] header = new byte[512];
+            String paxName = null;
+            while (true) {
+                in.readFully(header);
+                if (header[0] == 0) {
+                    break;
+                }
+                String name = new String(header, 0, 100, "US-ASCII").replaceAll("\u0000.*", "");
+                long size = Long.parseLong(new String(header, 124, 11, "US-ASCII"), 8);
+                byte[] data = new byte[(int) size];
+                in.readFully(data);
+                in.readFully(new byte[(int) ((512 - size % 512) % 512)]);
+                if (header[156] == 'x') {
+                    String record = new String(data, "UTF-8");
+                    paxName = record.substring(record.indexOf("path=") + 5, record.length() - 1);
+                    continue;
+                }
+                entries.put(paxName != null ? paxName : name, data);
+                paxName = null;
+            }
+        }
+        return entries;
+    }
+
+    private static InputStream decompress(InputStream in, ArchiveFormat format) throws IOException {
+        switch (format) {
+            case TAR_ZSTD:
+                return new ZstdInputStream(in);
+            case TAR_LZ4:
+                return new LZ4FrameInputStream(in);
+            default:
+                return new GZIPInputStream(in);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+    }
+}
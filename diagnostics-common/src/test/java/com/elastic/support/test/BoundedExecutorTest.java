@@ -0,0 +1,64 @@
+package com.elastic.support.test;
+
+import com.elastic.support.concurrent.BoundedExecutor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BoundedExecutorTest {
+
+    @Test
+    public void neverRunsMoreThanTheLimit() throws Exception {
+        for (BoundedExecutor.Mode mode : BoundedExecutor.Mode.values()) {
+            BoundedExecutor executor = BoundedExecutor.create("test", 3, mode);
+            try {
+                assertEquals(mode != BoundedExecutor.Mode.PLATFORM && BoundedExecutor.virtualThreadsAvailable(), executor.isVirtual());
+                assertEquals(3, maxConcurrent(executor, 50));
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void parsesModes() {
+        assertEquals(BoundedExecutor.Mode.VIRTUAL, BoundedExecutor.parseMode("Virtual"));
+        try {
+            BoundedExecutor.parseMode("green");
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("auto, virtual or platform"));
+        }
+    }
+
+    private static int maxConcurrent(BoundedExecutor executor, int tasks) throws Exception {
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger max = new AtomicInteger();
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    int now = running.incrementAndGet();
+                    synchronized (max) {
+                        max.set(Math.max(max.get(), now));
+                    }
+                    Thread.sleep(2);
+                    running.decrementAndGet();
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        return max.get();
+    }
+}
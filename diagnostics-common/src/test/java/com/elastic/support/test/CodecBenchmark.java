@@ -0,0 +1,130 @@
+package com.elastic.support.test;
+
+import com.elastic.support.archive.ArchiveFormat;
+import com.elastic.support.archive.ArchiveWriter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the archive formats on synthetic statistics - a cluster_state of many
+ * similar indices, node stats per node and server logs - printing throughput and
+ * compression ratio for each format and level.  Not a unit test - run it by hand:
+ *
+ * java -cp <test classpath> com.elastic.support.test.CodecBenchmark [indices] [nodes]
+ */
+public class CodecBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int indices = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        Map<String, byte[]> files = generate(indices, nodes);
+        long raw = 0;
+        for (byte[] content : files.values()) {
+            raw += content.length;
+        }
+        System.out.println(String.format("%d files, %.1f MB uncompressed%n", files.size(), raw / 1048576.0));
+        System.out.println(String.format("%-8s %5s %10s %10s %8s", "format", "level", "MB", "MB/s", "ratio"));
+
+        Path dir = Files.createTempDirectory("codec-benchmark");
+        try {
+            for (ArchiveFormat format : ArchiveFormat.values()) {
+                for (int level : levels(format)) {
+                    // One warm up pass, then the timed one
+                    run(dir, format, level, files);
+                    long start = System.nanoTime();
+                    File out = run(dir, format, level, files);
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.println(String.format("%-8s %5s %10.2f %10.1f %8.1f", format.getExtension(), level < 0 ? "-" : level,
+                            out.length() / 1048576.0, raw / 1048576.0 / seconds, (double) raw / out.length()));
+                    out.delete();
+                }
+            }
+        } finally {
+            for (File file : dir.toFile().listFiles()) {
+                file.delete();
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static int[] levels(ArchiveFormat format) {
+        switch (format) {
+            case ZIP:
+            case TAR_GZ:
+                return new int[]{1, 6, 9};
+            case TAR_ZSTD:
+                return new int[]{1, 3, 9, 19};
+            default:
+                return new int[]{-1};
+        }
+    }
+
+    private static File run(Path dir, ArchiveFormat format, int level, Map<String, byte[]> files) throws Exception {
+        String base = dir.resolve("bench").toString();
+        ArchiveWriter writer = new ArchiveWriter(base, 0, format);
+        writer.setLevel(level);
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            writer.putNextEntry(file.getKey(), file.getValue().length);
+            writer.write(file.getValue(), 0, file.getValue().length);
+        }
+        writer.close();
+        return new File(writer.getVolumes().get(0));
+    }
+
+    static Map<String, byte[]> generate(int indices, int nodes) throws Exception {
+
+        Random random = new Random(1);
+        Map<String, byte[]> files = new LinkedHashMap<>();
+
+        StringBuilder state = new StringBuilder("{\"cluster_name\":\"bench\",\"metadata\":{\"indices\":{");
+        for (int i = 0; i < indices; i++) {
+            if (i > 0) {
+                state.append(',');
+            }
+            state.append("\"logs-app-").append(i % 50).append("-2016.").append(i / 50 % 12 + 1).append('.').append(i % 28 + 1)
+                    .append("\":{\"state\":\"open\",\"settings\":{\"index\":{\"number_of_shards\":\"").append(1 + i % 5)
+                    .append("\",\"number_of_replicas\":\"1\",\"uuid\":\"").append(Long.toHexString(random.nextLong()))
+                    .append("\",\"version\":{\"created\":\"1070299\"}}},\"mappings\":{\"event\":{\"properties\":{")
+                    .append("\"@timestamp\":{\"type\":\"date\",\"format\":\"dateOptionalTime\"},")
+                    .append("\"message\":{\"type\":\"string\"},\"host\":{\"type\":\"string\",\"index\":\"not_analyzed\"},")
+                    .append("\"bytes\":{\"type\":\"long\"}}}},\"aliases\":[]}");
+        }
+        state.append("}}}");
+        files.put("cluster_state.json", state.toString().getBytes("UTF-8"));
+
+        for (int n = 0; n < nodes; n++) {
+            StringBuilder stats = new StringBuilder("{\"nodes\":{\"node-").append(n).append("\":{\"indices\":{");
+            for (int i = 0; i < indices / 10; i++) {
+                if (i > 0) {
+                    stats.append(',');
+                }
+                stats.append("\"logs-app-").append(i % 50).append("\":{\"docs\":{\"count\":").append(random.nextInt(10000000))
+                        .append(",\"deleted\":").append(random.nextInt(1000)).append("},\"store\":{\"size_in_bytes\":")
+                        .append(random.nextInt(Integer.MAX_VALUE)).append("},\"search\":{\"query_total\":")
+                        .append(random.nextInt(100000)).append(",\"query_time_in_millis\":").append(random.nextInt(100000)).append("}}");
+            }
+            stats.append("}}}}");
+            files.put("nodes/node-" + n + "/node_stats.json", stats.toString().getBytes("UTF-8"));
+
+            StringBuilder log = new StringBuilder();
+            String[] levels = {"INFO ", "WARN ", "DEBUG"};
+            String[] loggers = {"cluster.service", "indices.recovery", "monitor.jvm", "action.bulk"};
+            for (int line = 0; line < 20000; line++) {
+                log.append("[2016-05-").append(10 + line / 5000).append(' ').append(String.format("%02d:%02d:%02d,%03d",
+                        line / 3600 % 24, line / 60 % 60, line % 60, random.nextInt(1000))).append("][")
+                        .append(levels[random.nextInt(3)]).append("][").append(loggers[random.nextInt(4)]).append("] [node-").append(n)
+                        .append("] [logs-app-").append(random.nextInt(50)).append("] took [").append(random.nextInt(5000))
+                        .append("ms], collections [1]/[").append(random.nextInt(20)).append("s]\n");
+            }
+            files.put("nodes/node-" + n + "/elasticsearch.log", log.toString().getBytes("UTF-8"));
+        }
+        return files;
+    }
+}
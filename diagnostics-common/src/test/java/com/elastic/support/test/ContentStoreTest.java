@@ -0,0 +1,155 @@
+package com.elastic.support.test;
+
+import com.elastic.support.archive.ArchiveWriter;
+import com.elastic.support.archive.ContentStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class ContentStoreTest {
+
+    private Path dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("content-store");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void repeatedContentIsStoredOnce() throws IOException {
+
+        Random random = new Random(7);
+        String mapping = mapping(random, 40000);
+        String settings = mapping(random, 500);
+        String log = mapping(random, 20000);
+
+        ContentStore store = new ContentStore(dir.resolve("repo").toString());
+        ContentStore.RunWriter first = store.newRun("cluster-1");
+        first.addDirectory("logs/");
+        write(first, "mapping.json", mapping);
+        write(first, "settings.json", settings);
+        write(first, "logs/cluster.log", log);
+        first.close();
+
+        // A field added in the middle of one index's mapping, the log grown
+        String changedMapping = mapping.substring(0, mapping.length() / 2) + "\"added\":{\"type\":\"keyword\"}," + mapping.substring(mapping.length() / 2);
+        String grownLog = log + mapping(random, 500);
+        ContentStore.RunWriter second = store.newRun("cluster-2");
+        second.addDirectory("logs/");
+        write(second, "mapping.json", changedMapping);
+        write(second, "settings.json", settings);
+        write(second, "logs/cluster.log", grownLog);
+        second.close();
+
+        assertEquals(Arrays.asList("cluster-1", "cluster-2"), store.listRuns());
+        assertTrue(second.getChunks() > 12);
+        assertTrue("only the chunks around the change and at the end of the log are new", second.getNewChunks() <= 4);
+        assertTrue(second.getStoredBytes() * 3 < first.getStoredBytes());
+
+        String base = dir.resolve("export").toString();
+        try (ArchiveWriter out = new ArchiveWriter(base, 0)) {
+            store.export("cluster-2", out);
+        }
+        try (ZipFile zip = new ZipFile(base + ".zip")) {
+            assertNotNull(zip.getEntry("logs/"));
+            assertEquals(changedMapping, read(zip, "mapping.json"));
+            assertEquals(settings, read(zip, "settings.json"));
+            assertEquals(grownLog, read(zip, "logs/cluster.log"));
+        }
+
+        try {
+            store.newRun("cluster-2");
+            fail();
+        } catch (FileAlreadyExistsException e) {
+            // runs are never overwritten
+        }
+    }
+
+    @Test
+    public void damagedContentIsDetectedOnExport() throws IOException {
+
+        ContentStore store = new ContentStore(dir.resolve("repo").toString());
+        ContentStore.RunWriter run = store.newRun("damaged");
+        write(run, "settings.json", mapping(new Random(3), 200));
+        run.close();
+
+        String hash = store.readRun("damaged").path("entries").get(0).path("chunks").get(0).asText();
+        Path chunk = dir.resolve("repo").resolve("chunks").resolve(hash.substring(0, 2)).resolve(hash);
+        ByteArrayOutputStream replacement = new ByteArrayOutputStream();
+        try (OutputStream out = new java.util.zip.DeflaterOutputStream(replacement)) {
+            out.write("{}".getBytes("UTF-8"));
+        }
+        Files.write(chunk, replacement.toByteArray());
+
+        try (ArchiveWriter out = new ArchiveWriter(dir.resolve("export").toString(), 0)) {
+            store.export("damaged", out);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("damaged"));
+        }
+
+        Files.delete(chunk);
+        try (ArchiveWriter out = new ArchiveWriter(dir.resolve("export2").toString(), 0)) {
+            store.export("damaged", out);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("missing"));
+        }
+    }
+
+    private static String mapping(Random random, int fields) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < fields; i++) {
+            sb.append(i == 0 ? "" : ",").append("\"field_").append(Long.toString(random.nextLong(), 36))
+                    .append("\":{\"type\":\"").append(random.nextBoolean() ? "text" : "long").append("\"}");
+        }
+        return sb.append("}").toString();
+    }
+
+    private static void write(ContentStore.RunWriter run, String name, String content) throws IOException {
+        try (OutputStream out = run.newEntry(name)) {
+            byte[] bytes = content.getBytes("UTF-8");
+            // Odd sized writes, so boundaries don't line up with them
+            for (int off = 0; off < bytes.length; off += 7777) {
+                out.write(bytes, off, Math.min(7777, bytes.length - off));
+            }
+        }
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,93 @@
+package com.elastic.support.test;
+
+import com.elastic.support.report.HotThreadsProfile;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class HotThreadsProfileTest {
+
+    static final String NODE_ONE =
+            "::: [Node One][aBcD][host1][inet[/10.0.0.1:9300]]\n" +
+            "   Hot threads at 2015-06-22T13:57:37.123Z, interval=500ms, busiestThreads=10000, ignoreIdleThreads=true:\n" +
+            "   \n" +
+            "   23.4% (117ms out of 500ms) cpu usage by thread 'elasticsearch[Node One][search][T#3]'\n" +
+            "     8/10 snapshots sharing following 4 elements\n" +
+            "       org.apache.lucene.search.TermScorer.score(TermScorer.java:65)\n" +
+            "       org.elasticsearch.search.query.QueryPhase.execute(QueryPhase.java:157)\n" +
+            "       java.util.concurrent.ThreadPoolExecutor.runWorker(ThreadPoolExecutor.java:1142)\n" +
+            "       java.lang.Thread.run(Thread.java:745)\n" +
+            "     2/10 snapshots sharing following 3 elements\n" +
+            "       org.elasticsearch.search.query.QueryPhase.execute(QueryPhase.java:160)\n" +
+            "       java.util.concurrent.ThreadPoolExecutor.runWorker(ThreadPoolExecutor.java:1142)\n" +
+            "       java.lang.Thread.run(Thread.java:745)\n" +
+            "   \n" +
+            "    0.0% (0s out of 500ms) cpu usage by thread 'elasticsearch[Node One][[timer]]'\n" +
+            "     unique snapshot\n" +
+            "       java.lang.Thread.sleep(Native Method)\n" +
+            "       java.lang.Thread.run(Thread.java:745)\n" +
+            "\n";
+
+    static final String NODE_TWO =
+            "::: {node-2}{xYz}{10.0.0.2}{10.0.0.2:9300}\n" +
+            "   Hot threads at 2016-01-01T00:00:00.000Z, interval=500ms, busiestThreads=10000, ignoreIdleThreads=true:\n" +
+            "   \n" +
+            "   50.0% (250ms out of 500ms) cpu usage by thread 'elasticsearch[node-2][search][T#1]'\n" +
+            "     10/10 snapshots sharing following 4 elements\n" +
+            "       org.apache.lucene.search.TermScorer.score(TermScorer.java:65)\n" +
+            "       org.elasticsearch.search.query.QueryPhase.execute(QueryPhase.java:157)\n" +
+            "       java.util.concurrent.ThreadPoolExecutor.runWorker(ThreadPoolExecutor.java:1142)\n" +
+            "       java.lang.Thread.run(Thread.java:745)\n";
+
+    @Test
+    public void mergesStacksAcrossNodesIntoFoldedOutput() throws Exception {
+
+        HotThreadsProfile profile = new HotThreadsProfile();
+        profile.add(new BufferedReader(new StringReader(NODE_ONE + NODE_TWO)));
+        // A second sampling run adds to the same stacks
+        profile.add(new BufferedReader(new StringReader(NODE_TWO)));
+
+        StringWriter folded = new StringWriter();
+        profile.writeFolded(folded);
+        Set<String> lines = new HashSet<>(Arrays.asList(folded.toString().split("\n")));
+
+        String scoring = "search;java.lang.Thread.run;java.util.concurrent.ThreadPoolExecutor.runWorker;"
+                + "org.elasticsearch.search.query.QueryPhase.execute;org.apache.lucene.search.TermScorer.score";
+        assertTrue(lines.toString(), lines.contains(scoring + " 28"));
+        assertTrue(lines.contains("search;java.lang.Thread.run;java.util.concurrent.ThreadPoolExecutor.runWorker;"
+                + "org.elasticsearch.search.query.QueryPhase.execute 2"));
+        assertTrue(lines.contains("[timer];java.lang.Thread.run;java.lang.Thread.sleep 1"));
+        assertEquals(3, lines.size());
+        assertEquals(31, profile.getSamples());
+
+        Map<String, Object> report = profile.getReport(5);
+        Map<String, Object> byNode = (Map<String, Object>) report.get("topFramesByNode");
+        assertEquals(2, byNode.size());
+        List<Map<String, Object>> nodeTwo = (List<Map<String, Object>>) byNode.get("node-2");
+        assertEquals("org.apache.lucene.search.TermScorer.score", nodeTwo.get(0).get("frame"));
+        assertEquals(20L, nodeTwo.get(0).get("samples"));
+        List<Map<String, Object>> nodeOne = (List<Map<String, Object>>) byNode.get("Node One");
+        assertEquals(3, nodeOne.size());
+    }
+
+    @Test
+    public void canRootStacksAtTheNode() throws Exception {
+
+        HotThreadsProfile profile = new HotThreadsProfile(true);
+        profile.add(new BufferedReader(new StringReader(NODE_TWO)));
+
+        StringWriter folded = new StringWriter();
+        profile.writeFolded(folded);
+        assertTrue(folded.toString(), folded.toString().startsWith("node-2;search;java.lang.Thread.run;"));
+        assertTrue(folded.toString().endsWith(" 10\n"));
+    }
+}
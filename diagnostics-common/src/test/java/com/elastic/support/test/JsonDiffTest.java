@@ -0,0 +1,110 @@
+package com.elastic.support.test;
+
+import com.elastic.support.report.Difference;
+import com.elastic.support.report.JsonDiff;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JsonDiffTest {
+
+    private static final JsonFactory factory = new JsonFactory();
+
+    @Test
+    public void findsDeepChangesAndIgnoresKeyOrder() throws Exception {
+
+        String before = clusterState(200, "1", "{\"node\":\"n1\",\"state\":\"STARTED\"}", "\"a\":1,\"b\":2");
+        String after = clusterState(200, "2", "{\"node\":\"n2\",\"state\":\"STARTED\"}", "\"b\":2,\"a\":1");
+
+        JsonDiff.Result result = new JsonDiff().diff(source(before), source(after));
+        Map<String, Difference> byPath = byPath(result.getDifferences());
+
+        assertEquals(byPath.keySet().toString(), 2, byPath.size());
+        Difference replicas = byPath.get("/metadata/indices/index-7/settings/index/number_of_replicas");
+        assertEquals(Difference.Type.CHANGED, replicas.getType());
+        assertEquals("1", replicas.getBefore());
+        assertEquals("2", replicas.getAfter());
+        assertEquals("settings", replicas.getCategory());
+
+        Difference node = byPath.get("/routing_table/indices/index-7/shards/0/0/node");
+        assertEquals("n1", node.getBefore());
+        assertEquals("n2", node.getAfter());
+        assertEquals("routing", node.getCategory());
+        assertFalse(result.isTruncated());
+    }
+
+    @Test
+    public void reportsAddedAndRemovedSubtreesOnce() throws Exception {
+
+        String before = "{\"metadata\":{\"indices\":{\"a\":{\"settings\":{\"x\":1}},\"b\":{\"settings\":{\"x\":1}}}}}";
+        String after = "{\"metadata\":{\"indices\":{\"a\":{\"settings\":{\"x\":1}},\"c\":{\"settings\":{\"x\":1}}}},\"a/b\":[1]}";
+
+        Map<String, Difference> byPath = byPath(new JsonDiff().diff(source(before), source(after)).getDifferences());
+
+        assertEquals(byPath.keySet().toString(), 3, byPath.size());
+        assertEquals(Difference.Type.REMOVED, byPath.get("/metadata/indices/b").getType());
+        assertEquals("indices", byPath.get("/metadata/indices/b").getCategory());
+        assertEquals(Difference.Type.ADDED, byPath.get("/metadata/indices/c").getType());
+        assertEquals("object with 1 entry", byPath.get("/metadata/indices/c").getAfter());
+        assertEquals(Difference.Type.ADDED, byPath.get("/a~1b").getType());
+    }
+
+    @Test
+    public void identicalDocumentsTakeOnePass() throws Exception {
+        String doc = clusterState(50, "1", "{}", "\"a\":1");
+        JsonDiff.Result result = new JsonDiff().diff(source(doc), source(doc));
+        assertTrue(result.getDifferences().isEmpty());
+        assertEquals(1, result.getPasses());
+    }
+
+    @Test
+    public void stopsAtMaxDifferences() throws Exception {
+        String before = clusterState(100, "1", "{}", "\"a\":1");
+        String after = clusterState(100, "1", "{}", "\"a\":2");
+        JsonDiff.Result result = new JsonDiff(JsonDiff.DEFAULT_LEVELS, 10).diff(source(before), source(after));
+        assertEquals(10, result.getDifferences().size());
+        assertTrue(result.isTruncated());
+    }
+
+    private static String clusterState(int indices, String replicasOf7, String shardOf7, String custom) {
+
+        StringBuilder metadata = new StringBuilder();
+        StringBuilder routing = new StringBuilder();
+        for (int i = 0; i < indices; i++) {
+            String name = "index-" + i;
+            if (i > 0) {
+                metadata.append(',');
+                routing.append(',');
+            }
+            metadata.append('"').append(name).append("\":{\"settings\":{\"index\":{\"number_of_shards\":\"1\",\"number_of_replicas\":\"")
+                    .append(i == 7 ? replicasOf7 : "1").append("\"}},\"custom\":{").append(custom).append("}}");
+            routing.append('"').append(name).append("\":{\"shards\":{\"0\":[")
+                    .append(i == 7 ? shardOf7 : "{\"node\":\"n1\"}").append("]}}");
+        }
+        return "{\"cluster_name\":\"test\",\"metadata\":{\"indices\":{" + metadata + "}},\"routing_table\":{\"indices\":{" + routing + "}}}";
+    }
+
+    private static Map<String, Difference> byPath(List<Difference> differences) {
+        Map<String, Difference> map = new HashMap<>();
+        for (Difference difference : differences) {
+            map.put(difference.getPath(), difference);
+        }
+        return map;
+    }
+
+    private static JsonDiff.Source source(final String json) {
+        return new JsonDiff.Source() {
+            @Override
+            public JsonParser open() throws IOException {
+                return factory.createParser(json);
+            }
+        };
+    }
+}
@@ -0,0 +1,97 @@
+package com.elastic.support.test;
+
+import com.elastic.support.report.MappingAnalyzer;
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MappingAnalyzerTest {
+
+    @Test
+    public void ranksIndicesByFieldsAndDepth() throws Exception {
+
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < 50; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("\"index-").append(i).append("\":{\"mappings\":{");
+            json.append("\"doc\":{\"dynamic_templates\":[{\"strings\":{\"match_mapping_type\":\"string\"}},{\"longs\":{}}],");
+            json.append("\"properties\":{");
+            // index-i has i + 1 plain fields, one of them with a raw multi-field
+            for (int f = 0; f <= i; f++) {
+                if (f > 0) {
+                    json.append(',');
+                }
+                json.append("\"field-").append(f).append("\":{\"type\":\"string\"")
+                        .append(f == 0 ? ",\"fields\":{\"raw\":{\"type\":\"string\",\"index\":\"not_analyzed\"}}" : "")
+                        .append('}');
+            }
+            if (i == 3) {
+                json.append(",\"a\":{\"type\":\"nested\",\"properties\":{\"b\":{\"properties\":{\"c\":{\"type\":\"long\"}}}}}");
+            }
+            json.append("}},\"_default_\":{}}}");
+        }
+        json.append('}');
+
+        MappingAnalyzer analyzer = new MappingAnalyzer(5);
+        analyzer.analyze(new JsonFactory().createParser(json.toString()));
+
+        List<MappingAnalyzer.IndexMapping> mostFields = analyzer.getMostFields();
+        assertEquals(5, mostFields.size());
+        assertEquals("index-49", mostFields.get(0).getIndex());
+        assertEquals(51, mostFields.get(0).getTotalFields());
+        assertEquals(1, mostFields.get(0).getMultiFields());
+        assertEquals(2, mostFields.get(0).getDynamicTemplates());
+        assertEquals(2, mostFields.get(0).getTypes());
+        assertEquals("index-45", mostFields.get(4).getIndex());
+
+        MappingAnalyzer.IndexMapping deepest = analyzer.getDeepest().get(0);
+        assertEquals("index-3", deepest.getIndex());
+        assertEquals(3, deepest.getDepth());
+        assertEquals("a.b.c", deepest.getDeepestField());
+        assertEquals(1, deepest.getNested());
+        assertEquals(2, deepest.getObjects());
+
+        Map<String, Object> report = analyzer.getReport();
+        assertEquals(50L, report.get("indices"));
+        // 1 + 2 + ... + 50 fields, a multi-field for each index and a.b.c
+        assertEquals(1275L + 50 + 3, report.get("fields"));
+        assertEquals(0L, report.get("indicesOverFieldLimit"));
+    }
+
+    @Test
+    public void typelessMappingsHaveNoTypes() throws Exception {
+
+        String json = "{\"logs-7\":{\"mappings\":{\"_source\":{\"enabled\":true},"
+                + "\"dynamic_templates\":[{\"strings\":{\"match_mapping_type\":\"string\"}}],"
+                + "\"properties\":{\"message\":{\"type\":\"text\"},\"host\":{\"properties\":{\"name\":{\"type\":\"keyword\"}}}}}},"
+                + "\"logs-6\":{\"mappings\":{\"_doc\":{\"properties\":{\"message\":{\"type\":\"text\"}}}}},"
+                + "\"empty\":{\"mappings\":{}}}";
+
+        MappingAnalyzer analyzer = new MappingAnalyzer(5);
+        analyzer.analyze(new JsonFactory().createParser(json));
+
+        Map<String, MappingAnalyzer.IndexMapping> byIndex = new HashMap<>();
+        for (MappingAnalyzer.IndexMapping mapping : analyzer.getMostFields()) {
+            byIndex.put(mapping.getIndex(), mapping);
+        }
+
+        MappingAnalyzer.IndexMapping typeless = byIndex.get("logs-7");
+        assertTrue(typeless.isTypeless());
+        assertEquals(0, typeless.getTypes());
+        assertEquals(3, typeless.getFields());
+        assertEquals(1, typeless.getDynamicTemplates());
+        assertEquals("host.name", typeless.getDeepestField());
+
+        assertFalse(byIndex.get("logs-6").isTypeless());
+        assertEquals(1, byIndex.get("logs-6").getTypes());
+        assertEquals(1, byIndex.get("logs-6").getFields());
+        assertEquals(0, byIndex.get("empty").getTypes());
+    }
+}
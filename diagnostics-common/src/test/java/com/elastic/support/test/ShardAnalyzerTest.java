@@ -0,0 +1,86 @@
+package com.elastic.support.test;
+
+import com.elastic.support.report.ShardAnalyzer;
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ShardAnalyzerTest {
+
+    private static final JsonFactory factory = new JsonFactory();
+
+    @Test
+    public void flagsNodesHoldingMostSegmentMemory() throws Exception {
+
+        String catShards =
+                "logs 0 p STARTED 1000 10mb 10.0.0.1 Node One\n" +
+                "logs 0 r STARTED 1000 10mb 10.0.0.2 Node Two\n" +
+                "logs 1 p STARTED 9000 90mb 10.0.0.3 Node Three\n" +
+                "logs 1 r UNASSIGNED\n" +
+                "metrics 0 p RELOCATING 10 1kb 10.0.0.1 Node One -> 10.0.0.2 n2 Node Two\n" +
+                "metrics 0 r INITIALIZING   10.0.0.3 Node Three\n";
+
+        String indicesStats = "{\"_shards\":{\"total\":6},\"_all\":{\"total\":{\"docs\":{\"count\":1}}},\"indices\":{" +
+                "\"logs\":{\"primaries\":{\"docs\":{\"count\":10000,\"deleted\":5}},\"total\":{\"docs\":{\"count\":11000}," +
+                "\"store\":{\"size\":\"110mb\",\"size_in_bytes\":115343360},\"segments\":{\"count\":40,\"memory\":\"1mb\",\"memory_in_bytes\":1048576}}}," +
+                "\"metrics\":{\"primaries\":{\"docs\":{\"count\":10}},\"total\":{\"store\":{\"size_in_bytes\":1024},\"segments\":{\"count\":2,\"memory_in_bytes\":100}}}}}";
+
+        StringBuilder segments = new StringBuilder("{\"_shards\":{\"total\":6},\"indices\":{\"logs\":{\"shards\":{");
+        segments.append("\"0\":[").append(copy("n1", 10, 1000)).append(',').append(copy("n2", 10, 1000)).append("],");
+        segments.append("\"1\":[").append(copy("n3", 20, 50000)).append("]}}}}");
+
+        String nodes = "{\"cluster_name\":\"test\",\"nodes\":{\"n1\":{\"name\":\"Node One\",\"settings\":{\"a\":{}}},"
+                + "\"n2\":{\"name\":\"Node Two\"},\"n3\":{\"host\":\"h3\",\"name\":\"Node Three\"}}}";
+
+        ShardAnalyzer analyzer = new ShardAnalyzer(10, 1.5);
+        analyzer.reset();
+        analyzer.readCatShards(new BufferedReader(new StringReader(catShards)));
+        analyzer.readIndicesStats(factory.createParser(indicesStats));
+        analyzer.readSegments(factory.createParser(segments.toString()), analyzer.readNodeNames(factory.createParser(nodes)));
+
+        Map<String, Object> report = analyzer.getReport();
+        assertEquals(3, report.get("nodes"));
+        assertEquals(2, report.get("indices"));
+        assertEquals(5L, report.get("shards"));
+        assertEquals(1L, report.get("unassignedShards"));
+
+        List<Map<String, Object>> totals = (List<Map<String, Object>>) report.get("nodeTotals");
+        assertEquals("Node Three", totals.get(0).get("node"));
+        assertEquals(50000L, totals.get(0).get("segmentMemoryBytes"));
+        assertEquals(20L, totals.get(0).get("segments"));
+        assertEquals(2L, totals.get(0).get("shards"));
+        assertEquals(9000L, totals.get(0).get("docs"));
+
+        List<Map<String, Object>> hotspots = (List<Map<String, Object>>) report.get("hotspots");
+        assertFalse(hotspots.isEmpty());
+        assertEquals("Node Three", hotspots.get(0).get("node"));
+        assertEquals("segmentMemoryBytes", hotspots.get(0).get("metric"));
+
+        // Index totals come from indices_stats rather than being added up from segments
+        List<Map<String, Object>> bySegmentMemory = (List<Map<String, Object>>) report.get("indicesBySegmentMemory");
+        assertEquals("logs", bySegmentMemory.get(0).get("index"));
+        assertEquals(1048576L, bySegmentMemory.get(0).get("segmentMemoryBytes"));
+        assertEquals(10000L, bySegmentMemory.get(0).get("docs"));
+
+        List<Map<String, Object>> skew = (List<Map<String, Object>>) report.get("shardSizeSkew");
+        assertEquals("logs", skew.get(0).get("index"));
+        assertEquals(2.45, (Double) skew.get(0).get("largestToMean"), 0.01);
+    }
+
+    private static String copy(String node, int segments, long memory) {
+        StringBuilder sb = new StringBuilder("{\"routing\":{\"state\":\"STARTED\",\"primary\":true,\"node\":\"").append(node).append("\"},");
+        sb.append("\"num_committed_segments\":").append(segments).append(",\"segments\":{");
+        for (int i = 0; i < segments; i++) {
+            sb.append(i == 0 ? "" : ",").append("\"_").append(i).append("\":{\"generation\":").append(i)
+                    .append(",\"num_docs\":10,\"size_in_bytes\":100,\"memory_in_bytes\":").append(memory / segments)
+                    .append(",\"committed\":true}");
+        }
+        return sb.append("}}").toString();
+    }
+}
@@ -0,0 +1,61 @@
+package com.elastic.support;
+
+import com.beust.jcommander.*;
+
+@Parameters(commandDescription = "Analyze the contents of a diagnostic archive offline and write a report for each analysis that applies.")
+public class AnalyzeParams {
+
+    @Parameter(names = { "--archive"}, description = "Fully qualified path to the diagnostic archive.  Required.")
+    private String archive;
+
+    @Parameter(names = { "--top"}, description = "Number of the worst offenders listed in each ranking.")
+    private int top = 25;
+
+    @Parameter(names = { "--hotspotRatio"}, description = "Flag nodes holding at least this multiple of the average shards, store or segment memory.")
+    private double hotspotRatio = 1.5;
+
+    @Parameter(names = { "-o", "--out", "--output", "--outputDir" }, description = "Fully qualified path to the directory the reports are written to, or cwd for the current working directory.")
+    private String outputDir = "cwd";
+
+    public String getArchive() {
+        return archive;
+    }
+
+    public void setArchive(String archive) {
+        this.archive = archive;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public void setTop(int top) {
+        this.top = top;
+    }
+
+    public double getHotspotRatio() {
+        return hotspotRatio;
+    }
+
+    public void setHotspotRatio(double hotspotRatio) {
+        this.hotspotRatio = hotspotRatio;
+    }
+
+    public String getOutputDir() {
+        return outputDir;
+    }
+
+    public void setOutputDir(String outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    @Override
+    public String toString() {
+        return "AnalyzeParams{" +
+                "archive='" + archive + '\'' +
+                ", top=" + top +
+                ", hotspotRatio=" + hotspotRatio +
+                ", outputDir='" + outputDir + '\'' +
+                '}';
+    }
+}
@@ -4,6 +4,13 @@ import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.joran.JoranConfigurator;
 import ch.qos.logback.core.joran.spi.JoranException;
 import com.beust.jcommander.JCommander;
+import com.elastic.support.archive.AnalyzeService;
+import com.elastic.support.archive.DiffService;
+import com.elastic.support.archive.ExportService;
+import com.elastic.support.archive.HotThreadsService;
+import com.elastic.support.archive.MergeService;
+import com.elastic.support.archive.VerifyService;
+import com.elastic.support.archive.ViewService;
 import com.elastic.support.diagnostics.DiagnosticService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,16 +25,64 @@ class DiagnosticApp {
 	public static void main(String[] args) throws Exception{
 
         InputParams inputs = new InputParams();
+        MergeParams mergeParams = new MergeParams();
+        DiffParams diffParams = new DiffParams();
+        AnalyzeParams analyzeParams = new AnalyzeParams();
+        HotThreadsParams hotThreadsParams = new HotThreadsParams();
+        ExportParams exportParams = new ExportParams();
+        VerifyParams verifyParams = new VerifyParams();
+        ViewParams viewParams = new ViewParams();
         JCommander jc = new JCommander(inputs);
+        jc.addCommand("merge", mergeParams);
+        jc.addCommand("diff", diffParams);
+        jc.addCommand("analyze", analyzeParams);
+        jc.addCommand("hot-threads", hotThreadsParams);
+        jc.addCommand("export", exportParams);
+        jc.addCommand("verify", verifyParams);
+        jc.addCommand("view", viewParams);
         jc.setCaseSensitiveOptions(true);
 
         try{
             // Parse the incoming arguments from the command line
             // Assuming we didn't get an exception, do a final check to validate
             // whether if a username is entered so is a passoword, or vice versa.
-            jc.parse(args);
-            if(! validateAuth(inputs.getUsername(), inputs.getPassword())){
-                throw new RuntimeException("If authenticating both username and password are required.");
+            // Required options depend on the command, so they are checked here.
+            jc.parseWithoutValidation(args);
+            if ("merge".equals(jc.getParsedCommand())) {
+                if (mergeParams.getCluster() == null) {
+                    throw new RuntimeException("The merge command requires --cluster.");
+                }
+            } else if ("diff".equals(jc.getParsedCommand())) {
+                if (diffParams.getBefore() == null || diffParams.getAfter() == null) {
+                    throw new RuntimeException("The diff command requires --before and --after.");
+                }
+            } else if ("analyze".equals(jc.getParsedCommand())) {
+                if (analyzeParams.getArchive() == null) {
+                    throw new RuntimeException("The analyze command requires --archive.");
+                }
+            } else if ("hot-threads".equals(jc.getParsedCommand())) {
+                if (hotThreadsParams.getInputs().isEmpty()) {
+                    throw new RuntimeException("The hot-threads command requires --input.");
+                }
+            } else if ("export".equals(jc.getParsedCommand())) {
+                if (exportParams.getRepository() == null) {
+                    throw new RuntimeException("The export command requires --repository.");
+                }
+            } else if ("verify".equals(jc.getParsedCommand())) {
+                if (verifyParams.getArchive() == null) {
+                    throw new RuntimeException("The verify command requires --archive.");
+                }
+            } else if ("view".equals(jc.getParsedCommand())) {
+                if (viewParams.getArchive() == null) {
+                    throw new RuntimeException("The view command requires --archive.");
+                }
+            } else if (! inputs.isHelp()) {
+                if (inputs.getHost() == null) {
+                    throw new RuntimeException("The following option is required: -n, --host, --name, --hostname, -ip");
+                }
+                if(! validateAuth(inputs.getUsername(), inputs.getPassword())){
+                    throw new RuntimeException("If authenticating both username and password are required.");
+                }
             }
 
         }
@@ -58,7 +113,23 @@ class DiagnosticApp {
         }
 
         try {
-            new DiagnosticService().run(inputs);
+            if ("merge".equals(jc.getParsedCommand())) {
+                new MergeService().run(mergeParams);
+            } else if ("diff".equals(jc.getParsedCommand())) {
+                new DiffService().run(diffParams);
+            } else if ("analyze".equals(jc.getParsedCommand())) {
+                new AnalyzeService().run(analyzeParams);
+            } else if ("hot-threads".equals(jc.getParsedCommand())) {
+                new HotThreadsService().run(hotThreadsParams);
+            } else if ("export".equals(jc.getParsedCommand())) {
+                new ExportService().run(exportParams);
+            } else if ("verify".equals(jc.getParsedCommand())) {
+                new VerifyService().run(verifyParams);
+            } else if ("view".equals(jc.getParsedCommand())) {
+                new ViewService().run(viewParams);
+            } else {
+                new DiagnosticService().run(inputs);
+            }
         }
         catch (RuntimeException re){
             System.out.println("An error occurred while retrieving statistics. " + re.getMessage());
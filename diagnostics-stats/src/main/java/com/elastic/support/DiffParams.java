@@ -0,0 +1,77 @@
+package com.elastic.support;
+
+import com.beust.jcommander.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@Parameters(commandDescription = "Compare the cluster state, settings and mappings in two diagnostic archives and report what changed.")
+public class DiffParams {
+
+    @Parameter(names = { "--before"}, description = "Fully qualified path to the earlier archive.  Required.")
+    private String before;
+
+    @Parameter(names = { "--after"}, description = "Fully qualified path to the later archive.  Required.")
+    private String after;
+
+    @Parameter(names = { "--entries"}, description = "Comma separated list of the JSON entries to compare.")
+    private List<String> entries = new ArrayList<>(Arrays.asList("cluster_state.json", "cluster_settings.json", "settings.json", "mapping.json"));
+
+    @Parameter(names = { "--maxDifferences"}, description = "Stop reporting differences for an entry after this many.")
+    private int maxDifferences = 1000;
+
+    @Parameter(names = { "-o", "--out", "--output", "--outputDir" }, description = "Fully qualified path to the directory the report is written to, or cwd for the current working directory.")
+    private String outputDir = "cwd";
+
+    public String getBefore() {
+        return before;
+    }
+
+    public void setBefore(String before) {
+        this.before = before;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+
+    public void setAfter(String after) {
+        this.after = after;
+    }
+
+    public List<String> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<String> entries) {
+        this.entries = entries;
+    }
+
+    public int getMaxDifferences() {
+        return maxDifferences;
+    }
+
+    public void setMaxDifferences(int maxDifferences) {
+        this.maxDifferences = maxDifferences;
+    }
+
+    public String getOutputDir() {
+        return outputDir;
+    }
+
+    public void setOutputDir(String outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    @Override
+    public String toString() {
+        return "DiffParams{" +
+                "before='" + before + '\'' +
+                ", after='" + after + '\'' +
+                ", entries=" + entries +
+                ", maxDifferences=" + maxDifferences +
+                ", outputDir='" + outputDir + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,61 @@
+package com.elastic.support;
+
+import com.beust.jcommander.*;
+
+@Parameters(commandDescription = "Write a run stored in a local repository out as an ordinary diagnostic archive, or list the runs it holds.")
+public class ExportParams {
+
+    @Parameter(names = { "--repository"}, description = "Fully qualified path to the repository given to --repository when the runs were stored.  Required.")
+    private String repository;
+
+    @Parameter(names = { "--run"}, description = "Name of the run to export.  Without it the runs in the repository are listed.")
+    private String run;
+
+    @Parameter(names = { "--volumeSize"}, description = "Split the archive into volumes of at most this many megabytes. Default of 0 writes a single archive.")
+    private int volumeSize = 0;
+
+    @Parameter(names = { "-o", "--out", "--output", "--outputDir" }, description = "Fully qualified path to the directory the archive is written to, or cwd for the current working directory.")
+    private String outputDir = "cwd";
+
+    public String getRepository() {
+        return repository;
+    }
+
+    public void setRepository(String repository) {
+        this.repository = repository;
+    }
+
+    public String getRun() {
+        return run;
+    }
+
+    public void setRun(String run) {
+        this.run = run;
+    }
+
+    public int getVolumeSize() {
+        return volumeSize;
+    }
+
+    public void setVolumeSize(int volumeSize) {
+        this.volumeSize = volumeSize;
+    }
+
+    public String getOutputDir() {
+        return outputDir;
+    }
+
+    public void setOutputDir(String outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportParams{" +
+                "repository='" + repository + '\'' +
+                ", run='" + run + '\'' +
+                ", volumeSize=" + volumeSize +
+                ", outputDir='" + outputDir + '\'' +
+                '}';
+    }
+}
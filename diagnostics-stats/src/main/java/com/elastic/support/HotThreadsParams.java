@@ -0,0 +1,64 @@
+package com.elastic.support;
+
+import com.beust.jcommander.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Parameters(commandDescription = "Merge the hot threads samples in one or more archives or hot_threads text files into folded stacks for flame graphs.")
+public class HotThreadsParams {
+
+    @Parameter(names = { "--input"}, description = "Fully qualified paths of diagnostic archives or saved _nodes/hot_threads output, comma separated or repeated.  Required.")
+    private List<String> inputs = new ArrayList<>();
+
+    @Parameter(names = { "--byNode"}, description = "Start each stack with the node name so the flame graph splits by node.  No value required, only the option.")
+    private boolean byNode = false;
+
+    @Parameter(names = { "--top"}, description = "Number of the busiest frames listed for each node.")
+    private int top = 20;
+
+    @Parameter(names = { "-o", "--out", "--output", "--outputDir" }, description = "Fully qualified path to the directory the output is written to, or cwd for the current working directory.")
+    private String outputDir = "cwd";
+
+    public List<String> getInputs() {
+        return inputs;
+    }
+
+    public void setInputs(List<String> inputs) {
+        this.inputs = inputs;
+    }
+
+    public boolean isByNode() {
+        return byNode;
+    }
+
+    public void setByNode(boolean byNode) {
+        this.byNode = byNode;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public void setTop(int top) {
+        this.top = top;
+    }
+
+    public String getOutputDir() {
+        return outputDir;
+    }
+
+    public void setOutputDir(String outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    @Override
+    public String toString() {
+        return "HotThreadsParams{" +
+                "inputs=" + inputs +
+                ", byNode=" + byNode +
+                ", top=" + top +
+                ", outputDir='" + outputDir + '\'' +
+                '}';
+    }
+}
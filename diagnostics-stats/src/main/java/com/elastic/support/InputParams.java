@@ -38,6 +38,42 @@ public class InputParams {
     private
     boolean genManifest = false;
 
+    @Parameter(names = {"--taskSamples"}, description = "Number of times to poll the running tasks, a second apart, overriding taskSamples in stats.yml.  Each poll adds a second to the run, so none are taken by default.")
+    private int taskSamples = -1;
+
+    @Parameter(names = {"--concurrency"}, description = "Maximum number of statistics requests sent to the cluster at the same time.")
+    private int concurrency = 4;
+
+    @Parameter(names = {"--executor"}, description = "Threads for the statistics requests: auto uses virtual threads on Java 21 and later, virtual or platform forces one.")
+    private String executor = "auto";
+
+    @Parameter(names = {"--indices"}, description = "Comma separated index names or wildcard patterns.  Index level statistics such as mappings, settings, segments and shards are only retrieved for matching indices.")
+    private String indices;
+
+    @Parameter(names = {"--plan"}, description = "Print the estimated size and time of each statistic and exit without collecting. No value required, only the option.")
+    private boolean plan = false;
+
+    @Parameter(names = {"--volumeSize"}, description = "Split the archive into volumes of at most this many megabytes, with an index file listing the volume each entry is in. Default of 0 writes a single archive.")
+    private int volumeSize = 0;
+
+    @Parameter(names = {"--format"}, description = "Archive format: zip, tar.gz, tar.zst or tar.lz4.  The tar formats compress across files and are much smaller for many similar statistics; tar.zst is several times faster than tar.gz for a similar size and tar.lz4 faster still but larger.  The analyze, diff, merge and view commands read zip.")
+    private String format = "zip";
+
+    @Parameter(names = {"--level"}, description = "Compression level for the archive format, 0 to 9 for zip and tar.gz or 1 to 19 for tar.zst.  Default of -1 uses the default for the format.")
+    private int level = -1;
+
+    @Parameter(names = {"--compact"}, description = "Leave pretty and human off the statistics queries and keep the JSON as the cluster sends it, without whitespace.  Use the view command to read it pretty printed. No value required, only the option.")
+    private boolean compact = false;
+
+    @Parameter(names = {"--redact"}, description = "Replace IP addresses, host names and credentials in the statistics with tokens, the same token for the same value throughout. No value required, only the option.")
+    private boolean redact = false;
+
+    @Parameter(names = {"--redactionTable"}, description = "File the table of original values and their tokens is kept in, outside the archive.  Reused by later runs so values keep their tokens.  Defaults to redaction-table.json in the output directory.")
+    private String redactionTable;
+
+    @Parameter(names = {"--repository"}, description = "Store the run in this local repository instead of writing an archive.  Content already in the repository from earlier runs is not stored again.  Use the export command to get an archive for a run.")
+    private String repository;
+
     private boolean secured = false;
 
     public String getHost() {
@@ -142,6 +178,102 @@ public class InputParams {
         this.genManifest = genManifest;
     }
 
+    public int getTaskSamples() {
+        return taskSamples;
+    }
+
+    public void setTaskSamples(int taskSamples) {
+        this.taskSamples = taskSamples;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public String getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(String executor) {
+        this.executor = executor;
+    }
+
+    public String getIndices() {
+        return indices;
+    }
+
+    public void setIndices(String indices) {
+        this.indices = indices;
+    }
+
+    public boolean isPlan() {
+        return plan;
+    }
+
+    public void setPlan(boolean plan) {
+        this.plan = plan;
+    }
+
+    public int getVolumeSize() {
+        return volumeSize;
+    }
+
+    public void setVolumeSize(int volumeSize) {
+        this.volumeSize = volumeSize;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    public boolean isRedact() {
+        return redact;
+    }
+
+    public void setRedact(boolean redact) {
+        this.redact = redact;
+    }
+
+    public String getRedactionTable() {
+        return redactionTable;
+    }
+
+    public void setRedactionTable(String redactionTable) {
+        this.redactionTable = redactionTable;
+    }
+
+    public String getRepository() {
+        return repository;
+    }
+
+    public void setRepository(String repository) {
+        this.repository = repository;
+    }
+
     @Override
     public String toString() {
         return "InputParams{" +
@@ -155,6 +287,18 @@ public class InputParams {
                 ", logConfig='" + logConfig + '\'' +
                 ", configFile='" + configFile + '\'' +
                 ", genManifest=" + genManifest +
+                ", taskSamples=" + taskSamples +
+                ", concurrency=" + concurrency +
+                ", executor='" + executor + '\'' +
+                ", indices='" + indices + '\'' +
+                ", plan=" + plan +
+                ", volumeSize=" + volumeSize +
+                ", format='" + format + '\'' +
+                ", level=" + level +
+                ", compact=" + compact +
+                ", redact=" + redact +
+                ", redactionTable='" + redactionTable + '\'' +
+                ", repository='" + repository + '\'' +
                 ", secured=" + secured +
                 '}';
     }
@@ -0,0 +1,37 @@
+package com.elastic.support;
+
+import com.beust.jcommander.*;
+
+@Parameters(commandDescription = "Combine the stats archive and the collector archives for a cluster into one zip without recompressing them.")
+public class MergeParams {
+
+    @Parameter(names = { "--cluster"}, description = "Name of the cluster whose archives should be merged.  Required.")
+    private String cluster;
+
+    @Parameter(names = { "-d", "--dir"}, description = "Fully qualified path to the directory holding the archives, or cwd for the current working directory.  The merged archive is written there too.")
+    private String dir = "cwd";
+
+    public String getCluster() {
+        return cluster;
+    }
+
+    public void setCluster(String cluster) {
+        this.cluster = cluster;
+    }
+
+    public String getDir() {
+        return dir;
+    }
+
+    public void setDir(String dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public String toString() {
+        return "MergeParams{" +
+                "cluster='" + cluster + '\'' +
+                ", dir='" + dir + '\'' +
+                '}';
+    }
+}
@@ -1,5 +1,6 @@
 package com.elastic.support;
 
+import com.elastic.support.archive.ArchiveWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.DumperOptions;
@@ -11,8 +12,6 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 
 public class SystemUtils {
@@ -20,16 +19,16 @@ public class SystemUtils {
     private static final String UTC_DATE_FORMAT = "MM/dd/yyyy KK:mm:ss a Z";
     private static final Logger logger = LoggerFactory.getLogger(SystemUtils.class);
 
-    public static void zipDir(String relPath, File file, ZipOutputStream out) {
+    public static void zipDir(String relPath, File file, ArchiveWriter out) {
         try {
             File[] files = file.listFiles();
             assert files != null;
-            byte[] buf = new byte[1024];
+            byte[] buf = new byte[64 * 1024];
 
 
             for (File fl : files) {
                 if (fl.isDirectory()) {
-                    out.putNextEntry(new ZipEntry(fl.getName() + SystemProperties.fileSeparator));
+                    out.putDirectory(fl.getName() + SystemProperties.fileSeparator);
                     zipDir(fl.getName() + SystemProperties.fileSeparator, fl, out);
                     fl.delete();
                     continue;
@@ -37,7 +36,7 @@ public class SystemUtils {
                 }
                 FileInputStream in = new FileInputStream(fl);
                 // Add ZIP entry to output stream.
-                out.putNextEntry(new ZipEntry(relPath + fl.getName()));
+                out.putNextEntry(relPath + fl.getName(), fl.length());
                 // Transfer bytes from the file to the ZIP file
                 int len;
                 while ((len = in.read(buf)) > 0) {
@@ -82,7 +81,7 @@ public class SystemUtils {
 
     public static void copyFile(String src, String dest) {
 
-        logger.error("source:" + src + " dest:" + dest);
+        logger.debug("source:" + src + " dest:" + dest);
         try {
             File sourceFile = new File(src);
 
@@ -96,7 +95,16 @@ public class SystemUtils {
             try {
                 source = new FileInputStream(sourceFile).getChannel();
                 destination = new FileOutputStream(destFile).getChannel();
-                destination.transferFrom(source, 0, source.size());
+                // A single transfer may move fewer bytes than asked for, so keep going until done
+                long size = source.size();
+                long done = 0;
+                while (done < size) {
+                    long moved = destination.transferFrom(source, done, size - done);
+                    if (moved <= 0) {
+                        throw new IOException("Copy of " + src + " stopped after " + done + " of " + size + " bytes.");
+                    }
+                    done += moved;
+                }
             } finally {
                 if (source != null) {
                     source.close();
@@ -0,0 +1,37 @@
+package com.elastic.support;
+
+import com.beust.jcommander.*;
+
+@Parameters(commandDescription = "Check every entry of an archive against the sizes and checksums recorded when it was written.")
+public class VerifyParams {
+
+    @Parameter(names = { "--archive"}, description = "Fully qualified path to the archive, or to the index.json of a set of volumes.  Required.")
+    private String archive;
+
+    @Parameter(names = { "--threads"}, description = "Number of entries checked at the same time.  Defaults to the number of processors.")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public String getArchive() {
+        return archive;
+    }
+
+    public void setArchive(String archive) {
+        this.archive = archive;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    @Override
+    public String toString() {
+        return "VerifyParams{" +
+                "archive='" + archive + '\'' +
+                ", threads=" + threads +
+                '}';
+    }
+}
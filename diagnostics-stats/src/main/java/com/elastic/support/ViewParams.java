@@ -0,0 +1,52 @@
+package com.elastic.support;
+
+import com.beust.jcommander.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Parameters(commandDescription = "Print entries of a diagnostic archive, or extract them, with the JSON pretty printed.  Reads archives collected with --compact as easily as any other.")
+public class ViewParams {
+
+    @Parameter(names = { "--archive"}, description = "Fully qualified path to the diagnostic archive.  Required.")
+    private String archive;
+
+    @Parameter(names = { "--entries"}, description = "Comma separated list of the entries to print.  Without it or --out the entries in the archive are listed.")
+    private List<String> entries = new ArrayList<>();
+
+    @Parameter(names = { "-o", "--out", "--output", "--outputDir" }, description = "Fully qualified path to a directory to extract the entries to, all of them unless --entries is given, or cwd for the current working directory.  Without it the entries are printed.")
+    private String outputDir;
+
+    public String getArchive() {
+        return archive;
+    }
+
+    public void setArchive(String archive) {
+        this.archive = archive;
+    }
+
+    public List<String> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<String> entries) {
+        this.entries = entries;
+    }
+
+    public String getOutputDir() {
+        return outputDir;
+    }
+
+    public void setOutputDir(String outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    @Override
+    public String toString() {
+        return "ViewParams{" +
+                "archive='" + archive + '\'' +
+                ", entries=" + entries +
+                ", outputDir='" + outputDir + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,70 @@
+package com.elastic.support.archive;
+
+import com.elastic.support.AnalyzeParams;
+import com.elastic.support.SystemProperties;
+import com.elastic.support.report.ArchiveAnalyzer;
+import com.elastic.support.report.MappingAnalyzer;
+import com.elastic.support.report.ShardAnalyzer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the offline analyzers over a diagnostic archive, writing
+ * <archive name>-<report name> to the output directory for each one whose entries
+ * are present.  A failing analyzer is logged and the rest still run.
+ */
+public class AnalyzeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalyzeService.class);
+
+    public List<String> run(AnalyzeParams params) {
+
+        logger.debug(params.toString());
+
+        String archive = params.getArchive();
+        if (!new File(archive).isFile()) {
+            logger.error("Archive " + archive + " does not exist");
+            throw new RuntimeException("Could not find the archive " + archive + ".");
+        }
+        String outputDir = "cwd".equalsIgnoreCase(params.getOutputDir()) ? SystemProperties.userDir : params.getOutputDir();
+        String name = new File(archive).getName();
+        String prefix = outputDir + SystemProperties.fileSeparator + (name.endsWith(".zip") ? name.substring(0, name.length() - 4) : name) + "-";
+
+        List<ArchiveAnalyzer> analyzers = new ArrayList<>();
+        analyzers.add(new MappingAnalyzer(params.getTop()));
+        analyzers.add(new ShardAnalyzer(params.getTop(), params.getHotspotRatio()));
+
+        List<String> reports = new ArrayList<>();
+        try (ArchiveReader reader = new ArchiveReader(archive)) {
+            for (ArchiveAnalyzer analyzer : analyzers) {
+                if (!analyzer.accepts(reader)) {
+                    logger.info("Skipping " + analyzer.getReportName() + " - the archive doesn't have the entries it needs");
+                    continue;
+                }
+                String target = prefix + analyzer.getReportName();
+                long start = System.currentTimeMillis();
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+                    analyzer.analyze(reader, out);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Error writing " + target, e);
+                    System.out.println("Could not produce " + analyzer.getReportName() + " - see logs for details.");
+                    continue;
+                }
+                System.out.println("Wrote " + target + " in " + (System.currentTimeMillis() - start) + " ms");
+                reports.add(target);
+            }
+        } catch (IOException e) {
+            logger.error("Error reading " + archive, e);
+            throw new RuntimeException("Error reading the archive - see logs for details.");
+        }
+        return reports;
+    }
+}
@@ -0,0 +1,122 @@
+package com.elastic.support.archive;
+
+import com.elastic.support.DiffParams;
+import com.elastic.support.SystemProperties;
+import com.elastic.support.report.Difference;
+import com.elastic.support.report.JsonDiff;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Compares the JSON entries of two diagnostic archives, e.g. from before and after an
+ * incident, and writes the differences grouped into indices, settings, mappings,
+ * routing and allocation.  The entries are streamed rather than parsed into trees so
+ * the cluster state of a large cluster can be compared with modest memory.
+ */
+public class DiffService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiffService.class);
+
+    public String run(DiffParams params) {
+
+        logger.debug(params.toString());
+
+        String outputDir = "cwd".equalsIgnoreCase(params.getOutputDir()) ? SystemProperties.userDir : params.getOutputDir();
+        String target = outputDir + SystemProperties.fileSeparator + "diff-" + baseName(params.getBefore()) + "-" + baseName(params.getAfter()) + ".json";
+
+        Map<String, Object> report;
+        try (ArchiveReader before = open(params.getBefore());
+             ArchiveReader after = open(params.getAfter())) {
+            report = diff(before, after, params.getEntries(), params.getMaxDifferences());
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(target), report);
+        } catch (IOException e) {
+            logger.error("Error comparing " + params.getBefore() + " and " + params.getAfter(), e);
+            throw new RuntimeException("Error comparing the archives - see logs for details.");
+        }
+
+        // diff puts each entry's result map under entries
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Object>> results = (Map<String, Map<String, Object>>) report.get("entries");
+        for (Map.Entry<String, Map<String, Object>> entry : results.entrySet()) {
+            Map<String, Object> result = entry.getValue();
+            System.out.println(entry.getKey() + ": " + (result.containsKey("categories") ? result.get("categories") : result.get("status")));
+        }
+        System.out.println("Differences written to " + target);
+        return target;
+    }
+
+    public Map<String, Object> diff(ArchiveReader before, ArchiveReader after, List<String> entries, int maxDifferences) throws IOException {
+
+        JsonDiff jsonDiff = new JsonDiff(JsonDiff.DEFAULT_LEVELS, maxDifferences);
+        Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+
+        for (String name : entries) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            results.put(name, result);
+
+            if (!before.contains(name) || !after.contains(name)) {
+                result.put("status", before.contains(name) ? "missing after" : after.contains(name) ? "missing before" : "missing");
+                continue;
+            }
+
+            long start = System.currentTimeMillis();
+            JsonDiff.Result diff = jsonDiff.diff(source(before, name), source(after, name));
+            logger.debug("Compared " + name + " in " + diff.getPasses() + " passes, " + (System.currentTimeMillis() - start) + " ms");
+
+            Map<String, Integer> categories = new TreeMap<>();
+            List<Map<String, Object>> differences = new ArrayList<>();
+            for (Difference difference : diff.getDifferences()) {
+                Integer count = categories.get(difference.getCategory());
+                categories.put(difference.getCategory(), count == null ? 1 : count + 1);
+
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("type", difference.getType().name().toLowerCase());
+                entry.put("category", difference.getCategory());
+                entry.put("path", difference.getPath());
+                entry.put("before", difference.getBefore());
+                entry.put("after", difference.getAfter());
+                differences.add(entry);
+            }
+
+            result.put("status", differences.isEmpty() ? "identical" : "changed");
+            result.put("truncated", diff.isTruncated());
+            result.put("categories", categories);
+            result.put("differences", differences);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("before", before.getPath());
+        report.put("after", after.getPath());
+        report.put("entries", results);
+        return report;
+    }
+
+    private ArchiveReader open(String path) throws IOException {
+        if (path == null || !new File(path).isFile()) {
+            logger.error("Archive " + path + " does not exist");
+            throw new RuntimeException("Could not find the archive " + path + ".");
+        }
+        // Entries are streamed once per pass, so there is nothing worth caching
+        return new ArchiveReader(path, 0);
+    }
+
+    private static JsonDiff.Source source(final ArchiveReader reader, final String name) {
+        return new JsonDiff.Source() {
+            @Override
+            public JsonParser open() throws IOException {
+                return reader.openParser(name);
+            }
+        };
+    }
+
+    private static String baseName(String path) {
+        String name = new File(path).getName();
+        return name.endsWith(".zip") ? name.substring(0, name.length() - 4) : name;
+    }
+}
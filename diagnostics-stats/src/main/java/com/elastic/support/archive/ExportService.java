@@ -0,0 +1,64 @@
+package com.elastic.support.archive;
+
+import com.elastic.support.ExportParams;
+import com.elastic.support.SystemProperties;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Turns a run kept in a local repository back into the archive it would have been
+ * written as, or lists the runs in the repository with how much each one added.
+ */
+public class ExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportService.class);
+
+    public String run(ExportParams params) {
+
+        logger.debug(params.toString());
+
+        if (!new File(params.getRepository(), "runs").isDirectory()) {
+            logger.error("No repository at " + params.getRepository());
+            throw new RuntimeException(params.getRepository() + " is not a diagnostics repository.");
+        }
+
+        try {
+            ContentStore store = new ContentStore(params.getRepository());
+            if (params.getRun() == null) {
+                list(store);
+                return null;
+            }
+
+            String outputDir = "cwd".equalsIgnoreCase(params.getOutputDir()) ? SystemProperties.userDir : params.getOutputDir();
+            String base = outputDir + SystemProperties.fileSeparator + params.getRun();
+            ArchiveWriter out = new ArchiveWriter(base, Math.max(0, params.getVolumeSize()) * 1024L * 1024);
+            try {
+                store.export(params.getRun(), out);
+            } finally {
+                out.close();
+            }
+
+            List<String> volumes = out.getVolumes();
+            System.out.println("Run " + params.getRun() + " exported to " + (volumes.size() == 1 ? volumes.get(0) : volumes.size() + " volumes listed in " + out.getIndexPath()));
+            return volumes.get(0);
+        } catch (IOException e) {
+            logger.error("Error exporting " + params.getRun() + " from " + params.getRepository(), e);
+            throw new RuntimeException("Error exporting the run - see logs for details.");
+        }
+    }
+
+    private void list(ContentStore store) throws IOException {
+
+        List<String> runs = store.listRuns();
+        System.out.println(runs.size() + " runs in " + store.getRoot());
+        for (String name : runs) {
+            JsonNode stats = store.readRun(name).path("stats");
+            System.out.println(String.format("  %-50s %12d bytes, %10d new", name, stats.path("bytes").asLong(), stats.path("storedBytes").asLong()));
+        }
+    }
+}
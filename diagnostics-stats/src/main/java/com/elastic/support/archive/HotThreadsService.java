@@ -0,0 +1,81 @@
+package com.elastic.support.archive;
+
+import com.elastic.support.HotThreadsParams;
+import com.elastic.support.SystemProperties;
+import com.elastic.support.report.HotThreadsProfile;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+
+/**
+ * Builds one profile from the hot threads output in any number of archives and text
+ * files and writes hot-threads.folded, for flamegraph.pl or speedscope, and
+ * hot-threads-report.json with the busiest frames per node.  Run hot_threads on a
+ * schedule and feed all the results in to get a rough cluster-wide profile.
+ */
+public class HotThreadsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotThreadsService.class);
+
+    static final String HOT_THREADS = "hot_threads";
+
+    public HotThreadsProfile run(HotThreadsParams params) {
+
+        logger.debug(params.toString());
+
+        HotThreadsProfile profile = new HotThreadsProfile(params.isByNode());
+        for (String input : params.getInputs()) {
+            if (!new File(input).isFile()) {
+                logger.error("Input " + input + " does not exist");
+                throw new RuntimeException("Could not find " + input + ".");
+            }
+            try {
+                if (input.endsWith(".zip")) {
+                    addArchive(profile, input);
+                } else {
+                    try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(input), "UTF-8"))) {
+                        profile.add(in);
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Error reading " + input, e);
+                throw new RuntimeException("Error reading " + input + " - see logs for details.");
+            }
+        }
+
+        if (profile.getSamples() == 0) {
+            System.out.println("No hot threads samples were found in the input.");
+            return profile;
+        }
+
+        String outputDir = "cwd".equalsIgnoreCase(params.getOutputDir()) ? SystemProperties.userDir : params.getOutputDir();
+        File folded = new File(outputDir, "hot-threads.folded");
+        File report = new File(outputDir, "hot-threads-report.json");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(folded), "UTF-8"))) {
+            profile.writeFolded(out);
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(report, profile.getReport(params.getTop()));
+        } catch (IOException e) {
+            logger.error("Error writing the hot threads profile to " + outputDir, e);
+            throw new RuntimeException("Error writing the hot threads profile - see logs for details.");
+        }
+
+        System.out.println("Wrote " + profile.getSamples() + " samples to " + folded + " and " + report);
+        return profile;
+    }
+
+    private void addArchive(HotThreadsProfile profile, String path) throws IOException {
+        try (ArchiveReader reader = new ArchiveReader(path, 0)) {
+            for (ArchiveEntry entry : reader.getEntries()) {
+                if (entry.isDirectory() || !entry.getName().contains(HOT_THREADS)) {
+                    continue;
+                }
+                logger.debug("Reading " + entry.getName() + " from " + path);
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(reader.openStream(entry), "UTF-8"))) {
+                    profile.add(in);
+                }
+            }
+        }
+    }
+}
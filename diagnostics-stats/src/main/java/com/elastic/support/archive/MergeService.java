@@ -0,0 +1,151 @@
+package com.elastic.support.archive;
+
+import com.elastic.support.MergeParams;
+import com.elastic.support.SystemProperties;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Merges <cluster>-diagnostics.zip from a stats run with every
+ * diagnostics-artifacts-<cluster>-<host>.zip from the collectors.  The stats entries
+ * stay at the root and each host's entries go under <host>/.  Collector archives are
+ * picked by the exact host names in the cluster's manifest, since another cluster's
+ * name can start with this one's, and the volumes of a split archive all go under
+ * the same host.
+ */
+public class MergeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MergeService.class);
+
+    // <base>.001.zip, <base>.002.zip... when the collector split its archive into volumes
+    private static final Pattern VOLUME = Pattern.compile("(.+)\\.\\d{3}");
+
+    public String run(MergeParams params) {
+
+        logger.debug(params.toString());
+
+        String dir = "cwd".equalsIgnoreCase(params.getDir()) ? SystemProperties.userDir : params.getDir();
+        String cluster = params.getCluster();
+        final String collectorPrefix = "diagnostics-artifacts-" + cluster + "-";
+
+        File stats = new File(dir, cluster + "-diagnostics.zip");
+        File[] collectors = new File(dir).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith(collectorPrefix) && name.endsWith(".zip");
+            }
+        });
+        if (collectors == null) {
+            collectors = new File[0];
+        }
+        Arrays.sort(collectors);
+
+        Set<String> hosts = readHosts(stats, new File(dir, cluster + "-manifest.json"), cluster);
+        if (hosts == null) {
+            System.out.println("No node list was found in the " + cluster + " manifest - collector archives are picked by the cluster name alone.");
+        }
+        Map<File, String> collectorHosts = new LinkedHashMap<>();
+        for (File collector : collectors) {
+            String name = collector.getName();
+            String host = hostOf(name.substring(collectorPrefix.length(), name.length() - ".zip".length()), hosts);
+            if (host == null) {
+                System.out.println("Skipping " + name + " - it isn't from a host in the " + cluster + " manifest.");
+            } else {
+                collectorHosts.put(collector, host);
+            }
+        }
+
+        if (!stats.exists() && collectorHosts.isEmpty()) {
+            logger.error("No archives for cluster " + cluster + " in " + dir);
+            throw new RuntimeException("No archives were found for cluster " + cluster + " in " + dir + ".");
+        }
+
+        String target = dir + SystemProperties.fileSeparator + cluster + "-diagnostics-merged.zip";
+        long start = System.currentTimeMillis();
+        long bytes = 0;
+
+        try (ZipMerger merger = new ZipMerger(target)) {
+            if (stats.exists()) {
+                merger.add(stats.getPath(), "");
+                bytes += stats.length();
+            } else {
+                System.out.println("No " + stats.getName() + " found - merging the collector archives only.");
+            }
+            for (Map.Entry<File, String> collector : collectorHosts.entrySet()) {
+                merger.add(collector.getKey().getPath(), collector.getValue() + "/");
+                bytes += collector.getKey().length();
+            }
+
+            long millis = Math.max(1, System.currentTimeMillis() - start);
+            System.out.println(String.format("Merged %d archive(s), %d entries, into %s in %d ms (%.1f MB/s)",
+                    collectorHosts.size() + (stats.exists() ? 1 : 0), merger.getEntries(), target, millis,
+                    bytes / (1024.0 * 1024.0) / (millis / 1000.0)));
+        } catch (IOException e) {
+            logger.error("Error merging archives into " + target, e);
+            throw new RuntimeException("Error merging archives - see logs for details.");
+        }
+
+        return target;
+    }
+
+    /**
+     * The host a collector archive came from, given what follows the cluster name in its
+     * file name, or null if that isn't one of the cluster's hosts.
+     */
+    static String hostOf(String rest, Set<String> hosts) {
+
+        if (hosts != null && hosts.contains(rest)) {
+            return rest;
+        }
+        Matcher m = VOLUME.matcher(rest);
+        String host = m.matches() ? m.group(1) : rest;
+        return hosts == null || hosts.contains(host) ? host : null;
+    }
+
+    /**
+     * The host names of the cluster's nodes, from the manifest in the stats archive or
+     * failing that the one the stats run left next to it.
+     *
+     * @return the hosts, or null if neither manifest could be read
+     */
+    private Set<String> readHosts(File stats, File manifest, String cluster) {
+
+        JsonNode root = null;
+        try {
+            if (stats.exists()) {
+                try (ArchiveReader reader = new ArchiveReader(stats.getPath(), 0)) {
+                    String name = cluster + "-manifest.json";
+                    if (reader.contains(name)) {
+                        try (InputStream in = reader.openStream(name)) {
+                            root = new ObjectMapper().readTree(in);
+                        }
+                    }
+                }
+            }
+            if (root == null && manifest.exists()) {
+                root = new ObjectMapper().readTree(manifest);
+            }
+        } catch (IOException e) {
+            logger.error("Could not read the manifest for " + cluster, e);
+        }
+
+        if (root == null || !root.path("nodes").isArray()) {
+            return null;
+        }
+        Set<String> hosts = new HashSet<>();
+        for (JsonNode node : root.path("nodes")) {
+            hosts.add(node.path("host").asText());
+        }
+        return hosts;
+    }
+}
@@ -0,0 +1,52 @@
+package com.elastic.support.archive;
+
+import com.elastic.support.VerifyParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Checks an archive, or a set of volumes, against the integrity manifest written with
+ * it and lists every entry that is missing, the wrong size or doesn't match its
+ * checksum.
+ */
+public class VerifyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VerifyService.class);
+
+    public List<String> run(VerifyParams params) {
+
+        logger.debug(params.toString());
+
+        if (!new File(params.getArchive()).isFile()) {
+            logger.error("Archive " + params.getArchive() + " does not exist");
+            throw new RuntimeException("Could not find the archive " + params.getArchive() + ".");
+        }
+
+        long start = System.currentTimeMillis();
+        ArchiveVerifier verifier = new ArchiveVerifier(params.getThreads());
+        try {
+            verifier.verify(params.getArchive());
+        } catch (IOException e) {
+            logger.error("Error verifying " + params.getArchive(), e);
+            throw new RuntimeException("Error verifying the archive - see logs for details.");
+        }
+        long millis = System.currentTimeMillis() - start;
+
+        List<String> problems = verifier.getProblems();
+        System.out.println(String.format("Checked %d entries, %.1f MB, in %d ms%s", verifier.getChecked(), verifier.getBytes() / 1048576.0,
+                millis, verifier.getUnchecked() > 0 ? " - " + verifier.getUnchecked() + " entries have no recorded checksum" : ""));
+        for (String problem : problems) {
+            System.out.println("  " + problem);
+        }
+        if (!problems.isEmpty()) {
+            logger.error(problems.size() + " problems found in " + params.getArchive());
+            throw new RuntimeException(problems.size() + " problems found in " + params.getArchive() + ".");
+        }
+        System.out.println(params.getArchive() + " is intact.");
+        return problems;
+    }
+}
@@ -0,0 +1,158 @@
+package com.elastic.support.archive;
+
+import com.elastic.support.SystemProperties;
+import com.elastic.support.ViewParams;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prints or extracts entries of a diagnostic archive, pretty printing the JSON ones on
+ * the way out.  Entries are transformed token by token as they are read, so an archive
+ * collected with --compact is as readable as any other without holding a document in
+ * memory or keeping a second, larger copy of it.
+ */
+public class ViewService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ViewService.class);
+
+    private static final String GZIP_SUFFIX = ".gz";
+
+    private static final JsonFactory factory = new JsonFactory()
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    public List<String> run(ViewParams params) {
+
+        logger.debug(params.toString());
+
+        String archive = params.getArchive();
+        if (!new File(archive).isFile()) {
+            logger.error("Archive " + archive + " does not exist");
+            throw new RuntimeException("Could not find the archive " + archive + ".");
+        }
+
+        List<String> viewed = new ArrayList<>();
+        try (ArchiveReader reader = new ArchiveReader(archive, 0)) {
+            List<ArchiveEntry> entries = new ArrayList<>();
+            for (String name : params.getEntries()) {
+                ArchiveEntry entry = reader.getEntry(name);
+                if (entry == null) {
+                    logger.error("No entry " + name + " in " + archive);
+                    throw new RuntimeException("There is no entry " + name + " in " + archive + ".");
+                }
+                entries.add(entry);
+            }
+
+            if (params.getOutputDir() == null) {
+                if (entries.isEmpty()) {
+                    list(reader);
+                    return viewed;
+                }
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024);
+                for (ArchiveEntry entry : entries) {
+                    view(reader, entry, out);
+                    out.write('\n');
+                    viewed.add(entry.getName());
+                }
+                out.flush();
+                return viewed;
+            }
+
+            String outputDir = "cwd".equalsIgnoreCase(params.getOutputDir()) ? SystemProperties.userDir : params.getOutputDir();
+            if (entries.isEmpty()) {
+                entries.addAll(reader.getEntries());
+            }
+            String root = new File(outputDir).getCanonicalPath() + File.separator;
+            for (ArchiveEntry entry : entries) {
+                File target = new File(outputDir, plainName(entry.getName()));
+                if (!target.getCanonicalPath().startsWith(root)) {
+                    logger.warn("Skipping " + entry.getName() + " - it would be extracted outside " + outputDir);
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    target.mkdirs();
+                    continue;
+                }
+                target.getParentFile().mkdirs();
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target), 64 * 1024)) {
+                    view(reader, entry, out);
+                }
+                viewed.add(target.getPath());
+            }
+            System.out.println(viewed.size() + " entries of " + archive + " extracted to " + outputDir);
+            return viewed;
+
+        } catch (IOException e) {
+            logger.error("Error reading " + archive, e);
+            throw new RuntimeException("Error reading the archive - see logs for details.");
+        }
+    }
+
+    /**
+     * Pretty print one JSON stream into another.  Numbers keep their original text.  If
+     * the input stops being JSON, as a statistic cut off at its size limit does, what
+     * came before is written and the parse error is thrown.
+     */
+    public static void prettyPrint(InputStream in, OutputStream out) throws IOException {
+
+        JsonParser parser = factory.createParser(in);
+        JsonGenerator generator = factory.createGenerator(out);
+        generator.useDefaultPrettyPrinter();
+        try {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+                    generator.writeNumber(parser.getText());
+                } else {
+                    generator.copyCurrentEvent(parser);
+                }
+            }
+        } finally {
+            generator.flush();
+        }
+    }
+
+    private void view(ArchiveReader reader, ArchiveEntry entry, OutputStream out) throws IOException {
+
+        try (InputStream in = reader.openStream(entry)) {
+            if (!plainName(entry.getName()).endsWith(".json")) {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                }
+                return;
+            }
+            try {
+                prettyPrint(in, out);
+            } catch (JsonProcessingException e) {
+                logger.warn(entry.getName() + " is not complete JSON - it was written up to " + e.getLocation(), e);
+                System.err.println(entry.getName() + " is not complete JSON - it was written as far as it goes.");
+            }
+        }
+    }
+
+    private void list(ArchiveReader reader) {
+        System.out.println(reader.getEntries().size() + " entries in " + reader.getPath());
+        for (ArchiveEntry entry : reader.getEntries()) {
+            System.out.println(String.format("  %-60s %12d bytes", entry.getName(), entry.getSize()));
+        }
+    }
+
+    /**
+     * The entry's name without the .gz of an entry gzipped before it was archived, as
+     * it is read decompressed.
+     */
+    private static String plainName(String name) {
+        return name.endsWith(GZIP_SUFFIX) ? name.substring(0, name.length() - GZIP_SUFFIX.length()) : name;
+    }
+}
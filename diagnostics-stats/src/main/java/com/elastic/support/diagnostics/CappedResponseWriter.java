@@ -0,0 +1,201 @@
+package com.elastic.support.diagnostics;
+
+import com.elastic.support.redact.Redactor;
+import org.apache.http.conn.EofSensorInputStream;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.ResponseExtractor;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies a response body straight to the output rather than holding it in memory, and
+ * stops at the byte limit.  A truncated response has its connection aborted so the rest
+ * of the body isn't read just to be thrown away.  Failures writing the output are kept
+ * apart from failures reading the response, since a full disk should end the run while
+ * a failed request only loses that statistic.  With a redactor the body is redacted on
+ * its way through, as JSON or as lines of text; the cap still counts response bytes.
+ */
+class CappedResponseWriter implements ResponseExtractor<Boolean> {
+
+    private final OutputStream out;
+    private final long cap;
+    private final Redactor redactor;
+    private final boolean json;
+    private long written;
+    private IOException writeFailure;
+
+    /**
+     * @param cap most bytes to write - 0 or less writes the whole body
+     */
+    CappedResponseWriter(OutputStream out, long cap) {
+        this(out, cap, null, false);
+    }
+
+    /**
+     * @param redactor redacts the body, or null to copy it as it is
+     * @param json     whether the body is JSON rather than text
+     */
+    CappedResponseWriter(OutputStream out, long cap, Redactor redactor, boolean json) {
+        this.out = out;
+        this.cap = cap;
+        this.redactor = redactor;
+        this.json = json;
+    }
+
+    /**
+     * @return true if the body was cut off at the limit
+     */
+    @Override
+    public Boolean extractData(ClientHttpResponse response) throws IOException {
+
+        InputStream in = response.getBody();
+        if (in == null) {
+            return false;
+        }
+        if (redactor != null) {
+            return redact(in);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            int keep = cap > 0 ? (int) Math.min(n, cap - written) : n;
+            try {
+                out.write(buffer, 0, keep);
+            } catch (IOException e) {
+                writeFailure = e;
+                abort(in);
+                return false;
+            }
+            written += keep;
+            if (keep < n || (cap > 0 && written == cap && in.read() != -1)) {
+                abort(in);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean redact(InputStream in) throws IOException {
+
+        CappedInput capped = new CappedInput(in);
+        FailureRecordingStream target = new FailureRecordingStream(out);
+        try {
+            if (json) {
+                redactor.copyJson(capped, target);
+            } else {
+                redactor.copyText(capped, target);
+            }
+        } catch (IOException e) {
+            if (target.failure != null) {
+                writeFailure = target.failure;
+                abort(in);
+                return false;
+            }
+            // A JSON body cut off at the cap ends mid document
+            if (!capped.truncated()) {
+                throw e;
+            }
+        }
+        if (capped.truncated()) {
+            abort(in);
+            return true;
+        }
+        return false;
+    }
+
+    private static void abort(InputStream in) throws IOException {
+        if (in instanceof EofSensorInputStream) {
+            ((EofSensorInputStream) in).abortConnection();
+        }
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public IOException getWriteFailure() {
+        return writeFailure;
+    }
+
+    /**
+     * Reads the response up to the cap, counting what it has read.
+     */
+    private class CappedInput extends InputStream {
+
+        private final InputStream in;
+        private Boolean more;
+
+        CappedInput(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (cap > 0 && written >= cap) {
+                return -1;
+            }
+            int n = in.read(b, off, cap > 0 ? (int) Math.min(len, cap - written) : len);
+            if (n > 0) {
+                written += n;
+            }
+            return n;
+        }
+
+        /**
+         * Whether the body goes on past the cap.
+         */
+        boolean truncated() throws IOException {
+            if (more == null) {
+                more = cap > 0 && written >= cap && in.read() != -1;
+            }
+            return more;
+        }
+    }
+
+    /**
+     * Keeps hold of a failure writing the output, so it can be told apart from a
+     * failure reading the response once the redactor has wrapped both.
+     */
+    private static class FailureRecordingStream extends FilterOutputStream {
+
+        IOException failure;
+
+        FailureRecordingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+    }
+}
@@ -23,9 +23,20 @@ public class DiagnosticRequestFactory {
 
     private Integer requestTimeout;
 
+    private int maxConnections;
+
     public DiagnosticRequestFactory(int connectTimeout, int requestTimeout){
+        this(connectTimeout, requestTimeout, 2);
+    }
+
+    /**
+     * @param maxConnections connections kept to the node, which should be at least the
+     *                       number of requests sent concurrently or they queue for one
+     */
+    public DiagnosticRequestFactory(int connectTimeout, int requestTimeout, int maxConnections){
         this.requestTimeout = requestTimeout;
         this.connectTimeout = requestTimeout;
+        this.maxConnections = Math.max(2, maxConnections);
     }
 
     /** provide SSLContext that allows self-signed or internal CA
@@ -35,6 +46,8 @@ public class DiagnosticRequestFactory {
         logger.debug("Retrieving SSL HTTP client");
         try {
             httpClient = HttpClients.custom()
+                    .setMaxConnPerRoute(maxConnections)
+                    .setMaxConnTotal(maxConnections)
                     .setSSLSocketFactory(new SSLConnectionSocketFactory(SSLContexts.custom()
                                     .loadTrustMaterial(null, new ShieldDiagnosticStrategy())
                                     .build()
@@ -48,7 +61,10 @@ public class DiagnosticRequestFactory {
     }
 
     private HttpClient getClient(){
-        return HttpClients.createDefault();
+        return HttpClients.custom()
+                .setMaxConnPerRoute(maxConnections)
+                .setMaxConnTotal(maxConnections)
+                .build();
     }
 
     public  HttpComponentsClientHttpRequestFactory getReqFactory(){
@@ -3,6 +3,11 @@ package com.elastic.support.diagnostics;
 import com.elastic.support.InputParams;
 import com.elastic.support.SystemProperties;
 import com.elastic.support.SystemUtils;
+import com.elastic.support.archive.ArchiveFormat;
+import com.elastic.support.archive.ArchiveWriter;
+import com.elastic.support.archive.ContentStore;
+import com.elastic.support.concurrent.BoundedExecutor;
+import com.elastic.support.redact.Redactor;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.codec.binary.Base64;
@@ -12,14 +17,21 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.*;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.zip.ZipOutputStream;
 
 @Service
@@ -30,20 +42,28 @@ public class DiagnosticService {
 
 
     private RestTemplate restTemplate;
+    private Redactor redactor;
 
     public void run(InputParams inputs) {
 
         logger.debug(inputs.toString());
 
+        // Check the archive format can be written before spending time collecting
+        ArchiveFormat format = ArchiveFormat.parse(inputs.getFormat());
+
         // Get the yaml config file, either default or passed in
         Map configMap = retrieveConfiguration(inputs.getConfigFile());
+        if (inputs.isRedact()) {
+            redactor = new Redactor((Map) configMap.get("redaction"));
+            redactor.setPretty(!inputs.isCompact());
+        }
 
         // Create an SSL enabled version - it will work for regular HTTP as well.
         // Note that it will function like a browser where you tell it to go ahead and trust an unknown CA
         int connectTimeout = (Integer)configMap.get("connectTimeout");
         int requestTimeout =  (Integer)configMap.get("requestTimeout");
 
-        DiagnosticRequestFactory diagnosticRequestFactory = new DiagnosticRequestFactory(connectTimeout, requestTimeout);
+        DiagnosticRequestFactory diagnosticRequestFactory = new DiagnosticRequestFactory(connectTimeout, requestTimeout, inputs.getConcurrency());
         restTemplate = new RestTemplate(diagnosticRequestFactory.getSslReqFactory());
         HttpEntity<String> request = configureAuth(inputs);
 
@@ -57,6 +77,21 @@ public class DiagnosticService {
         // use the appropriate combination of statements - overlay the current with the prior ones
         // if using an older version
         Map<String, String> statements = getConfiguredStatements(version, configMap);
+        if (inputs.getIndices() != null) {
+            @SuppressWarnings("unchecked")
+            List<String> indexQueries = (List<String>) configMap.get("indexQueries");
+            statements = scopeStatements(statements, indexQueries, inputs.getIndices());
+            System.out.println("Index level statistics limited to: " + inputs.getIndices());
+        }
+        if (inputs.isCompact()) {
+            statements = compactStatements(statements);
+        }
+
+        Preflight preflight = runPreflight(configMap, inputs, statements, request);
+        preflight.printPlan(System.out);
+        if (inputs.isPlan()) {
+            return;
+        }
 
         // Set up where we want to put the results - it may come in from the command line
         String outputDir = setOutputDir(inputs);
@@ -75,6 +110,13 @@ public class DiagnosticService {
         logger.debug("Created temp directory: " + tempDir);
         System.out.println("Creating " + tempDir + " as temporary directory.\n");
 
+        // The table of original values goes next to the archive, never in it
+        String redactionTable = null;
+        if (redactor != null) {
+            redactionTable = inputs.getRedactionTable() != null ? inputs.getRedactionTable() : outputDir + SystemProperties.fileSeparator + "redaction-table.json";
+            redactor.loadMapping(redactionTable);
+        }
+
         // They can either run a full diagnostic or just create
         // a manifest file to collect logs and configs.  Note that the
         // manifest gets created either way.
@@ -84,24 +126,103 @@ public class DiagnosticService {
             runManifestQuery(query, inputs.getUrl(), tempDir, request);
         }
 
-        Set<Map.Entry<String, String>> entries = statements.entrySet();
+        writePreflight(preflight, tempDir);
 
-        for(Map.Entry<String, String> entry: entries){
-            logger.debug("Generating full diagnostic.");
-            String queryName = entry.getKey();
-            String query = entry.getValue();
-            logger.debug(": now processing " + queryName + ", " + query);
-            runDiagnosticQuery(configMap, inputs.getUrl(), queryName, query, tempDir, request);
-        }
+        runDiagnosticQueries(configMap, inputs, statements, preflight, tempDir, request);
 
         logger.debug("Finished retrieving queries.");
 
-        zipResults(tempDir);
+        sampleTasks(configMap, inputs, version, tempDir, request);
+
+        if (redactor != null) {
+            redactor.saveMapping(redactionTable);
+            System.out.println(redactor.getMappedCount() + " addresses and host names were redacted - " + redactionTable + " maps them back and is not part of the archive.");
+        }
+
+        if (inputs.getRepository() != null) {
+            storeResults(tempDir, inputs.getRepository(), clusterName);
+        } else {
+            zipResults(tempDir, inputs.getVolumeSize() * 1024L * 1024, format, inputs.getLevel());
+        }
 
         System.out.println("Finished archiving results and deleting temp directories");
 
     }
 
+    /**
+     * Run the queries --concurrency at a time.  Most of the time goes to waiting on the
+     * cluster, so the requests run on virtual threads where the JVM has them.
+     */
+    public void runDiagnosticQueries(final Map configMap, final InputParams inputs, Map<String, String> statements,
+                                     final Preflight preflight, final String tempDir, final HttpEntity<String> request) {
+
+        logger.debug("Generating full diagnostic.");
+        BoundedExecutor pool = BoundedExecutor.create("stats-request", inputs.getConcurrency(), BoundedExecutor.parseMode(inputs.getExecutor()));
+        logger.debug("Running " + statements.size() + " queries on " + (pool.isVirtual() ? "virtual" : "platform") + " threads");
+
+        List<Future<?>> results = new ArrayList<>();
+        try {
+            for (Map.Entry<String, String> entry : statements.entrySet()) {
+                final String queryName = entry.getKey();
+                final String query = entry.getValue();
+                results.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        logger.debug(": now processing " + queryName + ", " + query);
+                        runDiagnosticQuery(configMap, inputs.getUrl(), queryName, query, tempDir, request, preflight.getCap(queryName));
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            // Failures that should stop the run, like a full disk, come through as RuntimeExceptions
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            logger.error("Error running the diagnostic queries", e.getCause());
+            throw new RuntimeException("Error running the diagnostic queries - see logs for details.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while running the diagnostic queries.");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Size up the cluster with _cluster/stats, plus _cat/indices for the selected indices
+     * when --indices is used, and estimate every statistic from that.  If the cluster
+     * can't be sized the run goes ahead with empty estimates - the caps still apply.
+     */
+    public Preflight runPreflight(Map configMap, InputParams inputs, Map<String, String> statements, HttpEntity<String> request) {
+
+        Preflight preflight = new Preflight(configMap);
+        try {
+            preflight.readClusterStats(new ObjectMapper().readTree(submitRequest(inputs.getUrl(), "_cluster/stats", request)));
+            if (inputs.getIndices() != null) {
+                String scope = inputs.getIndices().replaceAll("\\s", "");
+                preflight.readScopedIndices(submitRequest(inputs.getUrl(), "_cat/indices/" + scope + "?h=pri,rep", request));
+            }
+        } catch (Exception e) {
+            logger.error("Could not size the cluster - statistics will be collected without estimates.", e);
+        }
+        @SuppressWarnings("unchecked")
+        List<String> indexQueries = (List<String>) configMap.get("indexQueries");
+        preflight.plan(statements, indexQueries);
+        return preflight;
+    }
+
+    public void writePreflight(Preflight preflight, String target) {
+        try {
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(target + SystemProperties.fileSeparator + "preflight.json"), preflight.getReport());
+        } catch (IOException e) {
+            logger.error("Preflight plan couldn't be written", e);
+            throw new RuntimeException("Error writing the preflight plan. There may be issues with the file system.");
+        }
+    }
+
     public Map<String, String> getConfiguredStatements(String version, Map configMap) {
 
         // use the appropriate combination of statements - overlay the current with the prior ones
@@ -117,6 +238,88 @@ public class DiagnosticService {
 
     }
 
+    /**
+     * Narrow the index level queries to the given indices, leaving cluster level queries
+     * as they are.  On a cluster with thousands of indices the full mappings and segments
+     * are by far the largest responses, and often only a few indices are of interest.
+     */
+    public Map<String, String> scopeStatements(Map<String, String> statements, List<String> indexQueries, String indices) {
+
+        String scope = indices.replaceAll("\\s", "");
+        if (scope.isEmpty() || !scope.matches("[^/?#&\\\\]+")) {
+            logger.error("Invalid index list: " + indices);
+            throw new RuntimeException("--indices must be a comma separated list of index names or patterns.");
+        }
+        if (indexQueries == null) {
+            logger.warn("No indexQueries in the configuration - --indices has no effect.");
+            return statements;
+        }
+
+        Map<String, String> scoped = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : statements.entrySet()) {
+            String query = entry.getValue();
+            if (indexQueries.contains(entry.getKey())) {
+                query = scopeQuery(query, scope);
+                logger.debug("Scoped " + entry.getKey() + " to " + query);
+            }
+            scoped.put(entry.getKey(), query);
+        }
+        return scoped;
+    }
+
+    /**
+     * With indices logs,metrics _cat/shards?v becomes _cat/shards/logs,metrics?v and
+     * _mapping?pretty becomes logs,metrics/_mapping?pretty.
+     */
+    public static String scopeQuery(String query, String indices) {
+
+        int q = query.indexOf('?');
+        String path = q < 0 ? query : query.substring(0, q);
+        String params = q < 0 ? "" : query.substring(q);
+        if (path.startsWith("_cat/")) {
+            return path + "/" + indices + params;
+        }
+        return indices + "/" + path + params;
+    }
+
+    /**
+     * Leave pretty and human off every query.  Pretty printing makes the cluster format
+     * each response and makes the JSON 30 to 60% larger on the wire and on disk, and
+     * human adds a readable copy of every size and time beside the raw number.  The view
+     * command pretty prints entries when they are read.
+     */
+    public Map<String, String> compactStatements(Map<String, String> statements) {
+
+        Map<String, String> compact = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : statements.entrySet()) {
+            compact.put(entry.getKey(), compactQuery(entry.getValue()));
+        }
+        return compact;
+    }
+
+    /**
+     * _nodes/?all&amp;pretty&amp;human becomes _nodes/?all and _cluster/health?pretty
+     * becomes _cluster/health.
+     */
+    public static String compactQuery(String query) {
+
+        int q = query.indexOf('?');
+        if (q < 0) {
+            return query;
+        }
+        String separator = query.contains("&amp;") ? "&amp;" : "&";
+        StringBuilder params = new StringBuilder();
+        for (String param : query.substring(q + 1).split("&(?:amp;)?")) {
+            int eq = param.indexOf('=');
+            String name = eq < 0 ? param : param.substring(0, eq);
+            if (name.isEmpty() || name.equals("pretty") || name.equals("human")) {
+                continue;
+            }
+            params.append(params.length() == 0 ? "?" : separator).append(param);
+        }
+        return query.substring(0, q) + params;
+    }
+
     public Map getVersionData(String url, HttpEntity<String> request) {
 
         Map versionMap;
@@ -134,12 +337,18 @@ public class DiagnosticService {
     }
 
     public void runDiagnosticQuery(Map configMap, String url, String key, String query, String target, HttpEntity<String> request) {
+        runDiagnosticQuery(configMap, url, key, query, target, request, 0);
+    }
+
+    /**
+     * Stream one statistic to disk, keeping at most cap bytes of it.  A response cut off
+     * at the cap gets a <key>.truncated.json marker alongside saying how much was kept.
+     */
+    public void runDiagnosticQuery(Map configMap, String url, String key, String query, String target, HttpEntity<String> request, long cap) {
 
         List textFileExtensions = (List) configMap.get("textFileExtensions");
-        String result;
 
         try {
-            result = submitRequest(url, query, request);
             String ext;
             if (textFileExtensions.contains(key)) {
                 ext = ".txt";
@@ -147,16 +356,46 @@ public class DiagnosticService {
                 ext = ".json";
             }
             String filename = target + SystemProperties.fileSeparator + key + ext;
-
-            Files.write(Paths.get(filename), result.getBytes());
+            Path path = Paths.get(filename);
+
+            // The manifest needs the real hosts and paths, so nodes is redacted once it's written
+            boolean nodes = key.equalsIgnoreCase("nodes");
+            CappedResponseWriter writer;
+            boolean truncated;
+            // Written beside the stat and moved into place so a failed request leaves nothing to archive
+            Path temp = Paths.get(filename + ".tmp");
+            try {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                    writer = new CappedResponseWriter(out, cap, nodes ? null : redactor, ".json".equals(ext));
+                    truncated = streamRequest(url, query, request, writer);
+                }
+                if (writer.getWriteFailure() != null) {
+                    throw writer.getWriteFailure();
+                }
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
 
             logger.debug("Done writing:" + filename);
 
-            System.out.println("Statistic " + key + " was retrieved and saved to disk.");
+            if (truncated) {
+                writeTruncationMarker(target, key, query, cap);
+                System.out.println("Statistic " + key + " was larger than " + Preflight.formatBytes(cap) + " - only the first " + Preflight.formatBytes(cap) + " were saved.");
+            } else {
+                System.out.println("Statistic " + key + " was retrieved and saved to disk.");
+            }
 
             //If it's nodes then we add to the the collection file output
-            if (key.equalsIgnoreCase("nodes")) {
-                writeClusterManifest(result, target);
+            if (nodes) {
+                if (truncated) {
+                    logger.error("The nodes statistic was truncated - raise its limit in responseCaps to generate the manifest.");
+                } else {
+                    writeClusterManifest(new String(Files.readAllBytes(path), "UTF-8"), target);
+                }
+                if (redactor != null) {
+                    redactFile(path, true);
+                }
             }
 
         } catch (IOException ioe) {
@@ -172,6 +411,93 @@ public class DiagnosticService {
         }
     }
 
+    private boolean streamRequest(String url, String query, final HttpEntity<String> request, CappedResponseWriter writer) {
+
+        try {
+            String submission = url + "/" + query;
+            logger.debug("Submitting: " + submission);
+            return restTemplate.execute(submission, HttpMethod.GET, new RequestCallback() {
+                @Override
+                public void doWithRequest(ClientHttpRequest clientRequest) {
+                    clientRequest.getHeaders().putAll(request.getHeaders());
+                }
+            }, writer);
+        } catch (RestClientException e) {
+            String msg = "Please check log file for additional details.";
+            logger.error("Error submitting request\n:", e);
+            if (e.getMessage() != null && e.getMessage().contains("401 Unauthorized")) {
+                msg = "Authentication failure: invalid login credentials.\n" + msg;
+            }
+            throw new RuntimeException(msg);
+        }
+    }
+
+    /**
+     * Redact a file that had to be written as it was, replacing it.
+     */
+    private void redactFile(Path path, boolean json) throws IOException {
+
+        Path raw = Paths.get(path + ".raw");
+        Files.move(path, raw, StandardCopyOption.REPLACE_EXISTING);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(raw));
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            if (json) {
+                redactor.copyJson(in, out);
+            } else {
+                redactor.copyText(in, out);
+            }
+        } finally {
+            Files.delete(raw);
+        }
+    }
+
+    private void writeTruncationMarker(String target, String key, String query, long cap) throws IOException {
+
+        Map<String, Object> marker = new LinkedHashMap<>();
+        marker.put("statistic", key);
+        marker.put("query", query);
+        marker.put("truncated", true);
+        marker.put("limitBytes", cap);
+        marker.put("reason", "The response was larger than the limit for this statistic and was cut off - the saved content is incomplete.");
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(target + SystemProperties.fileSeparator + key + ".truncated.json"), marker);
+    }
+
+    /**
+     * Poll the running tasks a few times and write a summary of the long running ones.
+     * Sampling is skipped for versions without the task management API.
+     */
+    public void sampleTasks(Map configMap, InputParams inputs, String version, String target, HttpEntity<String> request) {
+
+        Integer configured = (Integer) configMap.get("taskSamples");
+        int samples = inputs.getTaskSamples() >= 0 ? inputs.getTaskSamples() : configured == null ? 0 : configured;
+        if (samples == 0) {
+            return;
+        }
+        if (!TaskSampler.supportsTasks(version)) {
+            logger.info("Version " + version + " has no task management API - running tasks will not be sampled.");
+            return;
+        }
+
+        String query = configMap.containsKey("taskQuery") ? (String) configMap.get("taskQuery") : "_tasks?detailed";
+        Integer interval = (Integer) configMap.get("taskSampleInterval");
+        Integer longRunning = (Integer) configMap.get("longRunningTask");
+
+        System.out.println("Sampling running tasks " + samples + " times.");
+        TaskSampler sampler = new TaskSampler(restTemplate, inputs.getUrl(), query, request, longRunning == null ? 5000 : longRunning);
+        sampler.sample(samples, interval == null ? 1000 : interval);
+        sampler.writeSummary(target + SystemProperties.fileSeparator + "tasks_summary.json");
+        if (redactor != null) {
+            try {
+                redactFile(Paths.get(target, "tasks_summary.json"), true);
+            } catch (IOException e) {
+                logger.error("Couldn't redact the task summary", e);
+                throw new RuntimeException("Error redacting the task summary - see logs for details.");
+            }
+        }
+
+        System.out.println(sampler.getLongRunning().size() + " long running tasks were found and saved to disk.");
+    }
+
     public void runManifestQuery(String query, String url, String target, HttpEntity<String> request) {
 
         try {
@@ -243,6 +569,8 @@ public class DiagnosticService {
                 String logs = nodePaths.path("logs").asText();
                 String conf = nodePaths.path("conf").asText();
                 String home = nodePaths.path("home").asText();
+                String pid = n.path("process").path("id").asText();
+                String gcLog = getGcLog(n.path("jvm").path("input_arguments"));
 
                 Map<String, String> tmp = new HashMap<>();
                 tmp.put("host", host);
@@ -252,6 +580,8 @@ public class DiagnosticService {
                 tmp.put("conf", conf);
                 tmp.put("logs", logs);
                 tmp.put("home", home);
+                tmp.put("pid", pid);
+                tmp.put("gcLog", gcLog);
                 nodeList.add(tmp);
 
                 logger.debug("processed node:\n" + tmp);
@@ -259,6 +589,9 @@ public class DiagnosticService {
 
             File manifest = new File(target + SystemProperties.fileSeparator + clusterName + "-manifest.json");
             mapper.writeValue(manifest, cluster);
+            if (redactor != null) {
+                redactFile(manifest.toPath(), true);
+            }
 
             manifest = new File(dir + clusterName + "-manifest.json");
             if (manifest.exists()) {
@@ -271,6 +604,29 @@ public class DiagnosticService {
         }
     }
 
+    /**
+     * Pull the GC log location out of the JVM arguments, if the node was started with one.
+     */
+    public String getGcLog(JsonNode jvmArgs) {
+
+        for (JsonNode arg : jvmArgs) {
+            String value = arg.asText();
+            if (value.startsWith("-Xloggc:")) {
+                return value.substring("-Xloggc:".length());
+            }
+            // Java 9+ unified logging, e.g. -Xlog:gc*,gc+age=trace,safepoint:file=logs/gc.log:utctime,pid,tags:filecount=32,filesize=64m
+            if (value.startsWith("-Xlog:gc")) {
+                int idx = value.indexOf("file=");
+                if (idx > 0) {
+                    String file = value.substring(idx + "file=".length());
+                    int end = file.indexOf(':');
+                    return end < 0 ? file : file.substring(0, end);
+                }
+            }
+        }
+        return "";
+    }
+
     public String setOutputDir(InputParams inputs) {
 
         if ("cwd".equalsIgnoreCase(inputs.getOutputDir())) {
@@ -316,18 +672,60 @@ public class DiagnosticService {
         return new HttpEntity<>(headers);
 
     }
+    /**
+     * Add the run to a local repository, named for the cluster and the time in UTC.
+     */
+    public String storeResults(String dir, String repository, String clusterName) {
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String runName = clusterName + "-" + format.format(new Date());
+
+        try {
+            ContentStore store = new ContentStore(repository);
+            ContentStore.RunWriter run = store.newRun(runName);
+            run.addTree("", new File(dir));
+            run.close();
+            SystemUtils.deleteDir(dir);
+            logger.debug("Temp directory " + dir + " was deleted.");
+
+            System.out.println(String.format("Stored run %s in %s - %d of %d chunks were new, adding %d bytes for %d bytes of statistics.",
+                    runName, repository, run.getNewChunks(), run.getChunks(), run.getStoredBytes(), run.getBytes()));
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Couldn't store the run in " + repository, e);
+            throw new RuntimeException("Error storing the statistics in the repository - see logs for details.");
+        }
+        return runName;
+    }
+
     public void zipResults(String dir) {
+        zipResults(dir, 0);
+    }
+
+    public void zipResults(String dir, long volumeBytes) {
+        zipResults(dir, volumeBytes, ArchiveFormat.ZIP, -1);
+    }
+
+    /**
+     * @param volumeBytes largest size of each archive volume, or 0 for one archive
+     * @param level       compression level, or -1 for the format's default
+     */
+    public void zipResults(String dir, long volumeBytes, ArchiveFormat format, int level) {
 
         try {
             File file = new File(dir);
-            ZipOutputStream out = new ZipOutputStream(new FileOutputStream(dir + ".zip"));
-            out.setLevel(ZipOutputStream.DEFLATED);
+            ArchiveWriter out = new ArchiveWriter(dir, Math.max(0, volumeBytes), format);
+            out.setLevel(level >= 0 ? level : format == ArchiveFormat.ZIP ? ZipOutputStream.DEFLATED : -1);
             SystemUtils.zipDir("", file, out);
-            logger.debug("Archive " + dir + ".zip was created");
+            logger.debug("Archive " + dir + " was created");
             file.delete();
             logger.debug("Temp directory " + dir + " was deleted.");
             out.close();
 
+            if (out.getVolumes().size() > 1) {
+                System.out.println("Archive split into " + out.getVolumes().size() + " volumes - " + out.getIndexPath() + " lists the entries in each.");
+            }
+
         } catch (Exception ioe) {
             logger.error("Couldn't create archive.\n", ioe);
             throw new RuntimeException(("Error creating compressed archive from statistics files." ));
@@ -0,0 +1,224 @@
+package com.elastic.support.diagnostics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Estimates how large each statistic will be before any of them is requested, from the
+ * node, index, shard and segment counts in _cluster/stats and the per-query cost model
+ * in stats.yml, and decides the byte cap for each response.  The estimates are coarse -
+ * within a small factor is enough to see that a cluster state will be gigabytes rather
+ * than megabytes before the run starts.
+ */
+public class Preflight {
+
+    private static final Logger logger = LoggerFactory.getLogger(Preflight.class);
+
+    static final long DEFAULT_CAP = 1024L * 1024 * 1024;
+    static final long DEFAULT_BYTES_PER_SECOND = 10L * 1024 * 1024;
+
+    private final Map<String, Map<String, Number>> estimates;
+    private final Map<String, Number> caps;
+    private final long defaultCap;
+    private final long bytesPerSecond;
+
+    private long nodes;
+    private long indices;
+    private long shards;
+    private long segments;
+    private long scopedIndices = -1;
+    private long scopedShards = -1;
+
+    private final List<Entry> plan = new ArrayList<>();
+
+    public Preflight(Map configMap) {
+        // The yml loader gives untyped maps
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Number>> configured = (Map<String, Map<String, Number>>) configMap.get("estimates");
+        estimates = configured == null ? new HashMap<String, Map<String, Number>>() : configured;
+        @SuppressWarnings("unchecked")
+        Map<String, Number> configuredCaps = (Map<String, Number>) configMap.get("responseCaps");
+        caps = configuredCaps == null ? new HashMap<String, Number>() : configuredCaps;
+        defaultCap = longValue(configMap.get("maxResponseBytes"), DEFAULT_CAP);
+        bytesPerSecond = Math.max(1, longValue(configMap.get("estimateBytesPerSecond"), DEFAULT_BYTES_PER_SECOND));
+    }
+
+    /**
+     * Take the cluster wide counts from a _cluster/stats response.
+     */
+    public void readClusterStats(JsonNode stats) {
+        JsonNode idx = stats.path("indices");
+        nodes = stats.path("nodes").path("count").path("total").asLong(0);
+        indices = idx.path("count").asLong(0);
+        shards = idx.path("shards").path("total").asLong(0);
+        segments = idx.path("segments").path("count").asLong(0);
+    }
+
+    /**
+     * Take the indices and shards that --indices selects from a _cat/indices response
+     * with the columns pri and rep.
+     */
+    public void readScopedIndices(String catIndices) {
+        scopedIndices = 0;
+        scopedShards = 0;
+        for (String line : catIndices.split("\n")) {
+            String[] cols = line.trim().split("\\s+");
+            if (cols.length < 2) {
+                continue;
+            }
+            try {
+                long primaries = Long.parseLong(cols[0]);
+                scopedShards += primaries * (1 + Long.parseLong(cols[1]));
+                scopedIndices++;
+            } catch (NumberFormatException e) {
+                logger.debug("Skipping _cat/indices line " + line);
+            }
+        }
+    }
+
+    public void setCounts(long nodes, long indices, long shards, long segments) {
+        this.nodes = nodes;
+        this.indices = indices;
+        this.shards = shards;
+        this.segments = segments;
+    }
+
+    /**
+     * Work out the estimate and cap for every statement.  Index level queries are sized
+     * from the scoped counts when --indices narrowed them.
+     */
+    public List<Entry> plan(Map<String, String> statements, Collection<String> indexQueries) {
+
+        plan.clear();
+        for (Map.Entry<String, String> statement : statements.entrySet()) {
+            String key = statement.getKey();
+            boolean scoped = scopedIndices >= 0 && indexQueries != null && indexQueries.contains(key);
+            long idx = scoped ? scopedIndices : indices;
+            long sh = scoped ? scopedShards : shards;
+            long seg = scoped && shards > 0 ? segments * sh / shards : segments;
+
+            Map<String, Number> model = estimates.get(key);
+            if (model == null) {
+                model = estimates.get("default");
+            }
+            long bytes = 0;
+            if (model != null) {
+                bytes = longValue(model.get("base"), 0)
+                        + longValue(model.get("perNode"), 0) * nodes
+                        + longValue(model.get("perIndex"), 0) * idx
+                        + longValue(model.get("perShard"), 0) * sh
+                        + longValue(model.get("perSegment"), 0) * seg;
+            }
+            plan.add(new Entry(key, statement.getValue(), bytes, bytes * 1000 / bytesPerSecond, getCap(key)));
+        }
+        return plan;
+    }
+
+    /**
+     * The most bytes kept for a statistic.  0 or less means no limit.
+     */
+    public long getCap(String key) {
+        return longValue(caps.get(key), defaultCap);
+    }
+
+    public void printPlan(PrintStream out) {
+
+        long totalBytes = 0;
+        long totalMillis = 0;
+        out.println(String.format("Cluster: %d nodes, %d indices, %d shards, %d segments%s", nodes, indices, shards, segments,
+                scopedIndices >= 0 ? String.format(" - %d indices and %d shards selected", scopedIndices, scopedShards) : ""));
+        out.println(String.format("%-24s %12s %10s %12s", "Statistic", "Estimate", "Time", "Limit"));
+        for (Entry entry : plan) {
+            out.println(String.format("%-24s %12s %9.1fs %12s%s", entry.key, formatBytes(entry.estimatedBytes), entry.estimatedMillis / 1000.0,
+                    entry.cap > 0 ? formatBytes(entry.cap) : "none", entry.isOverCap() ? "  likely truncated" : ""));
+            totalBytes += entry.estimatedBytes;
+            totalMillis += entry.estimatedMillis;
+        }
+        out.println(String.format("%-24s %12s %9.1fs", "Total", formatBytes(totalBytes), totalMillis / 1000.0));
+        out.println();
+    }
+
+    public Map<String, Object> getReport() {
+
+        Map<String, Object> cluster = new LinkedHashMap<>();
+        cluster.put("nodes", nodes);
+        cluster.put("indices", indices);
+        cluster.put("shards", shards);
+        cluster.put("segments", segments);
+        if (scopedIndices >= 0) {
+            cluster.put("selectedIndices", scopedIndices);
+            cluster.put("selectedShards", scopedShards);
+        }
+
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (Entry entry : plan) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("statistic", entry.key);
+            row.put("query", entry.query);
+            row.put("estimatedBytes", entry.estimatedBytes);
+            row.put("estimatedMillis", entry.estimatedMillis);
+            row.put("limitBytes", entry.cap);
+            entries.add(row);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("cluster", cluster);
+        report.put("plan", entries);
+        return report;
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + "b";
+        }
+        String[] units = {"kb", "mb", "gb", "tb"};
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format("%.1f%s", value, units[unit]);
+    }
+
+    private static long longValue(Object value, long defaultValue) {
+        return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+    }
+
+    public static class Entry {
+
+        final String key;
+        final String query;
+        final long estimatedBytes;
+        final long estimatedMillis;
+        final long cap;
+
+        Entry(String key, String query, long estimatedBytes, long estimatedMillis, long cap) {
+            this.key = key;
+            this.query = query;
+            this.estimatedBytes = estimatedBytes;
+            this.estimatedMillis = estimatedMillis;
+            this.cap = cap;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        public long getCap() {
+            return cap;
+        }
+
+        public boolean isOverCap() {
+            return cap > 0 && estimatedBytes > cap;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.elastic.support.diagnostics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Polls the task management API a number of times and follows each task across the
+ * polls, to catch the expensive searches, reindexes and stuck tasks that a single
+ * snapshot of pending tasks misses.  Tasks are only kept while they are running or
+ * once they have run past the long running threshold, so short tasks that come and go
+ * between polls don't accumulate.
+ */
+public class TaskSampler {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskSampler.class);
+
+    static final int MAX_DESCRIPTION = 1024;
+
+    private final RestTemplate restTemplate;
+    private final String url;
+    private final String query;
+    private final HttpEntity<String> request;
+    private final long longRunningMillis;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<String, Task> tasks = new HashMap<>();
+    private final Map<String, String> actions = new HashMap<>();
+    private final Map<String, int[]> maxConcurrent = new TreeMap<>();
+    private int samples;
+    private int failures;
+
+    public TaskSampler(RestTemplate restTemplate, String url, String query, HttpEntity<String> request, long longRunningMillis) {
+        this.restTemplate = restTemplate;
+        this.url = url;
+        this.query = query;
+        this.request = request;
+        this.longRunningMillis = longRunningMillis;
+    }
+
+    /**
+     * The task management API arrived in 2.3.
+     */
+    public static boolean supportsTasks(String version) {
+        String[] parts = version.split("[.-]");
+        try {
+            int major = Integer.parseInt(parts[0]);
+            int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return major > 2 || (major == 2 && minor >= 3);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Take the samples, sleeping the interval between them.  A failed poll is logged
+     * and skipped rather than ending the sampling.
+     */
+    public void sample(int count, long intervalMillis) {
+
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            try {
+                String result = restTemplate.exchange(url + "/" + query, HttpMethod.GET, request, String.class).getBody();
+                record(mapper.readTree(result), System.currentTimeMillis());
+            } catch (RestClientException | IOException e) {
+                failures++;
+                logger.error("Error sampling running tasks - this sample will be skipped.", e);
+            }
+        }
+    }
+
+    /**
+     * Fold one _tasks response into the tracked tasks.
+     */
+    public void record(JsonNode response, long sampleTime) {
+
+        samples++;
+        Set<String> seen = new HashSet<>();
+        Map<String, int[]> running = new HashMap<>();
+
+        for (JsonNode node : response.path("nodes")) {
+            String nodeName = node.path("name").asText();
+            Iterator<Map.Entry<String, JsonNode>> it = node.path("tasks").fields();
+            while (it.hasNext()) {
+                Map.Entry<String, JsonNode> entry = it.next();
+                JsonNode t = entry.getValue();
+                String id = entry.getKey();
+                seen.add(id);
+
+                Task task = tasks.get(id);
+                if (task == null) {
+                    task = new Task(id, nodeName, intern(t.path("action").asText()));
+                    task.startTime = t.path("start_time_in_millis").asLong(sampleTime);
+                    task.parent = t.path("parent_task_id").asText(null);
+                    task.cancellable = t.path("cancellable").asBoolean();
+                    tasks.put(id, task);
+                }
+                String description = t.path("description").asText("");
+                if (!description.isEmpty()) {
+                    task.description = description.length() > MAX_DESCRIPTION ? description.substring(0, MAX_DESCRIPTION) + "..." : description;
+                }
+                task.runningMillis = Math.max(task.runningMillis, t.path("running_time_in_nanos").asLong(0) / 1000000);
+                task.samples++;
+
+                int[] count = running.get(task.action);
+                if (count == null) {
+                    running.put(task.action, new int[]{1});
+                } else {
+                    count[0]++;
+                }
+            }
+        }
+
+        for (Map.Entry<String, int[]> entry : running.entrySet()) {
+            int[] max = maxConcurrent.get(entry.getKey());
+            if (max == null) {
+                maxConcurrent.put(entry.getKey(), new int[]{entry.getValue()[0]});
+            } else {
+                max[0] = Math.max(max[0], entry.getValue()[0]);
+            }
+        }
+
+        // Forget tasks that finished before they ran long enough to be interesting
+        Iterator<Task> it = tasks.values().iterator();
+        while (it.hasNext()) {
+            Task task = it.next();
+            if (!seen.contains(task.id)) {
+                task.finished = true;
+                if (task.runningMillis < longRunningMillis) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private String intern(String action) {
+        String existing = actions.get(action);
+        if (existing == null) {
+            actions.put(action, action);
+            existing = action;
+        }
+        return existing;
+    }
+
+    public List<Task> getLongRunning() {
+        List<Task> list = new ArrayList<>();
+        for (Task task : tasks.values()) {
+            if (task.runningMillis >= longRunningMillis) {
+                list.add(task);
+            }
+        }
+        Collections.sort(list, new Comparator<Task>() {
+            @Override
+            public int compare(Task a, Task b) {
+                return Long.compare(b.runningMillis, a.runningMillis);
+            }
+        });
+        return list;
+    }
+
+    public Map<String, Object> getSummary() {
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        List<Map<String, Object>> longRunning = new ArrayList<>();
+        for (Task task : getLongRunning()) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", task.id);
+            row.put("node", task.node);
+            row.put("action", task.action);
+            row.put("description", task.description);
+            row.put("startTime", format.format(new Date(task.startTime)));
+            row.put("runningTimeMillis", task.runningMillis);
+            row.put("seenInSamples", task.samples);
+            row.put("stillRunning", !task.finished);
+            row.put("cancellable", task.cancellable);
+            row.put("parentTaskId", task.parent);
+            longRunning.add(row);
+        }
+
+        Map<String, Integer> concurrent = new LinkedHashMap<>();
+        for (Map.Entry<String, int[]> entry : maxConcurrent.entrySet()) {
+            concurrent.put(entry.getKey(), entry.getValue()[0]);
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("samples", samples);
+        summary.put("failedSamples", failures);
+        summary.put("longRunningThresholdMillis", longRunningMillis);
+        summary.put("maxConcurrentByAction", concurrent);
+        summary.put("longRunning", longRunning);
+        return summary;
+    }
+
+    public void writeSummary(String fileName) {
+        try {
+            mapper.writerWithDefaultPrettyPrinter().writeValue(new File(fileName), getSummary());
+        } catch (IOException e) {
+            logger.error("Task summary couldn't be written", e);
+            throw new RuntimeException("Error writing the running task summary. There may be issues with the file system.");
+        }
+    }
+
+    public static class Task {
+
+        final String id;
+        final String node;
+        final String action;
+        long startTime;
+        long runningMillis;
+        int samples;
+        boolean finished;
+        boolean cancellable;
+        String description;
+        String parent;
+
+        Task(String id, String node, String action) {
+            this.id = id;
+            this.node = node;
+            this.action = action;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getNode() {
+            return node;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public long getRunningMillis() {
+            return runningMillis;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.elastic.support.test;
+
+import com.elastic.support.archive.ViewService;
+import com.elastic.support.diagnostics.DiagnosticService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CompactCaptureTest {
+
+    @Test
+    public void prettyAndHumanAreLeftOffTheQueries() {
+
+        DiagnosticService service = new DiagnosticService();
+        Map configMap = service.retrieveConfiguration(null);
+        Map<String, String> statements = service.getConfiguredStatements("1.0.0", configMap);
+
+        Map<String, String> compact = service.compactStatements(statements);
+
+        assertEquals(statements.size(), compact.size());
+        for (String query : compact.values()) {
+            assertFalse(query, query.contains("pretty"));
+            assertFalse(query, query.contains("human"));
+        }
+        assertEquals("_nodes/?all", compact.get("nodes"));
+        assertEquals("_cluster/health", compact.get("cluster_health"));
+        assertEquals("_recovery?detailed", compact.get("recovery"));
+        assertEquals("_cat/allocation?v", compact.get("allocation"));
+        assertEquals("_cat/shards", compact.get("cat_shards"));
+        assertEquals("_stats?level=shards&ts=1", DiagnosticService.compactQuery("_stats?pretty=true&level=shards&human&ts=1"));
+    }
+
+    @Test
+    public void viewPrettyPrintsMinifiedJson() throws IOException {
+
+        String minified = "{\"cluster_name\":\"test\",\"nodes\":{\"abc\":{\"load\":1.50,\"docs\":12345678901234567890,\"roles\":[\"data\",\"master\"]}}}";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ViewService.prettyPrint(new ByteArrayInputStream(minified.getBytes(StandardCharsets.UTF_8)), out);
+        String pretty = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+        ObjectMapper mapper = new ObjectMapper();
+        assertEquals(mapper.readTree(minified), mapper.readTree(pretty));
+        assertTrue(pretty.contains("\"load\" : 1.50"));
+        assertTrue(pretty.contains("\"docs\" : 12345678901234567890"));
+        assertTrue(pretty.split("\n").length > 5);
+
+        // A statistic cut off at its limit is printed as far as it goes
+        ByteArrayOutputStream partial = new ByteArrayOutputStream();
+        try {
+            ViewService.prettyPrint(new ByteArrayInputStream(minified.substring(0, 60).getBytes(StandardCharsets.UTF_8)), partial);
+            fail();
+        } catch (IOException expected) {
+            assertTrue(new String(partial.toByteArray(), StandardCharsets.UTF_8).contains("\"load\" : 1.50"));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.elastic.support.test;
+
+import com.elastic.support.concurrent.BoundedExecutor;
+import com.elastic.support.diagnostics.DiagnosticRequestFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the platform thread pool with virtual threads for many small requests
+ * against a local server that answers after a fixed delay, like a node under load.
+ * Not a unit test - run it by hand on Java 21 or later to see both modes:
+ *
+ * java -cp <test classpath> com.elastic.support.test.ExecutorBenchmark [requests] [delay ms]
+ */
+public class ExecutorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final int delay = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = "{\"acknowledged\":true}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/_cat/health";
+
+        System.out.println("Java " + System.getProperty("java.version") + ", " + requests + " requests, " + delay + " ms server delay");
+        System.out.println("virtual threads available: " + BoundedExecutor.virtualThreadsAvailable());
+
+        for (int concurrency : new int[]{16, 64, 256}) {
+            for (BoundedExecutor.Mode mode : new BoundedExecutor.Mode[]{BoundedExecutor.Mode.PLATFORM, BoundedExecutor.Mode.VIRTUAL}) {
+                if (mode == BoundedExecutor.Mode.VIRTUAL && !BoundedExecutor.virtualThreadsAvailable()) {
+                    continue;
+                }
+                // Warm up, then measure
+                run(url, 500, concurrency, mode);
+                ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+                long nanos = run(url, requests, concurrency, mode);
+                System.out.println(String.format("%-8s concurrency %3d: %6.0f requests/s, peak threads %d",
+                        mode.name().toLowerCase(), concurrency, requests / (nanos / 1e9), ManagementFactory.getThreadMXBean().getPeakThreadCount()));
+            }
+        }
+        server.stop(0);
+        System.exit(0);
+    }
+
+    private static long run(final String url, int requests, int concurrency, BoundedExecutor.Mode mode) throws Exception {
+
+        final RestTemplate restTemplate = new RestTemplate(new DiagnosticRequestFactory(5000, 5000, concurrency).getReqFactory());
+        BoundedExecutor executor = BoundedExecutor.create("benchmark", concurrency, mode);
+        long start = System.nanoTime();
+        try {
+            List<Future<String>> results = new ArrayList<>(requests);
+            for (int i = 0; i < requests; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return restTemplate.getForObject(url, String.class);
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                result.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.elastic.support.test;
+
+import com.elastic.support.diagnostics.DiagnosticService;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class IndexScopeTest {
+
+    @Test
+    public void onlyIndexLevelQueriesAreScoped() {
+
+        DiagnosticService service = new DiagnosticService();
+        Map configMap = service.retrieveConfiguration(null);
+        Map<String, String> statements = service.getConfiguredStatements("2.3.0", configMap);
+
+        Map<String, String> scoped = service.scopeStatements(statements, (List<String>) configMap.get("indexQueries"), "logs-*, metrics");
+
+        assertEquals(statements.size(), scoped.size());
+        assertEquals("_cat/shards/logs-*,metrics", scoped.get("cat_shards"));
+        assertEquals("_cat/recovery/logs-*,metrics" + query(statements.get("recovery")), scoped.get("recovery"));
+        assertEquals("logs-*,metrics/_mapping" + query(statements.get("mapping")), scoped.get("mapping"));
+        assertEquals("logs-*,metrics/_segments" + query(statements.get("segments")), scoped.get("segments"));
+        assertEquals("logs-*,metrics/_stats" + query(statements.get("indices_stats")), scoped.get("indices_stats"));
+        assertEquals(statements.get("cluster_state"), scoped.get("cluster_state"));
+        assertEquals(statements.get("nodes"), scoped.get("nodes"));
+        assertEquals(statements.get("node_stats"), scoped.get("node_stats"));
+    }
+
+    @Test
+    public void rejectsIndicesThatWouldChangeThePath() {
+        try {
+            new DiagnosticService().scopeStatements(null, null, "logs/_all");
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("--indices"));
+        }
+    }
+
+    private static String query(String statement) {
+        return statement.substring(statement.indexOf('?'));
+    }
+}
@@ -0,0 +1,156 @@
+package com.elastic.support.test;
+
+import com.elastic.support.InputParams;
+import com.elastic.support.diagnostics.DiagnosticService;
+import com.elastic.support.diagnostics.Preflight;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class PreflightTest {
+
+    private static final String CLUSTER_STATS = "{\"nodes\":{\"count\":{\"total\":3}},\"indices\":{\"count\":1000,"
+            + "\"shards\":{\"total\":10000},\"segments\":{\"count\":50000}}}";
+
+    private HttpServer server;
+    private Path outputDir;
+
+    @Before
+    public void setup() throws Exception {
+        outputDir = Files.createTempDirectory("preflight");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                String body;
+                if (path.equals("/")) {
+                    body = "{\"cluster_name\":\"test\",\"version\":{\"number\":\"2.3.0\"}}";
+                } else if (path.equals("/_cluster/stats")) {
+                    body = CLUSTER_STATS;
+                } else if (path.equals("/_cat/indices/logs-*")) {
+                    body = "5 1\n5 1\n";
+                } else if (path.equals("/_cat/shards")) {
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                    return;
+                } else if (path.equals("/_cluster/state")) {
+                    StringBuilder sb = new StringBuilder("{\"metadata\":{\"indices\":{");
+                    for (int i = 0; i < 20000; i++) {
+                        sb.append(i == 0 ? "" : ",").append("\"index-").append(i).append("\":{}");
+                    }
+                    body = sb.append("}}}").toString();
+                } else {
+                    body = "{}";
+                }
+                byte[] bytes = body.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                } catch (IOException e) {
+                    // the client hung up on a truncated response
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        server.stop(0);
+    }
+
+    @Test
+    public void estimatesFollowTheClusterAndTheSelectedIndices() {
+
+        DiagnosticService service = new DiagnosticService();
+        Map configMap = service.retrieveConfiguration(null);
+        Map<String, String> statements = service.getConfiguredStatements("2.3.0", configMap);
+        List<String> indexQueries = (List<String>) configMap.get("indexQueries");
+
+        Preflight preflight = new Preflight(configMap);
+        preflight.setCounts(3, 1000, 10000, 50000);
+        Map<String, Preflight.Entry> all = byKey(preflight.plan(statements, indexQueries));
+
+        preflight.readScopedIndices("5 1\n5 1\n");
+        Map<String, Preflight.Entry> scoped = byKey(preflight.plan(statements, indexQueries));
+
+        assertEquals(statements.size(), all.size());
+        assertEquals(all.get("cluster_state").getEstimatedBytes(), scoped.get("cluster_state").getEstimatedBytes());
+        assertEquals(all.get("mapping").getEstimatedBytes() / 500, scoped.get("mapping").getEstimatedBytes(), 10);
+        assertTrue(scoped.get("cat_shards").getEstimatedBytes() < all.get("cat_shards").getEstimatedBytes() / 100);
+        assertTrue(all.get("segments").getEstimatedBytes() > all.get("mapping").getEstimatedBytes());
+    }
+
+    @Test
+    public void oversizedResponsesAreCutOffWithAMarker() throws Exception {
+
+        String config = readResource("stats.yml").replace("maxResponseBytes: 1073741824", "maxResponseBytes: 4096");
+        Path configFile = outputDir.resolve("stats.yml");
+        Files.write(configFile, config.getBytes("UTF-8"));
+
+        InputParams inputs = new InputParams();
+        inputs.setHost("127.0.0.1");
+        inputs.setPort(server.getAddress().getPort());
+        inputs.setOutputDir(outputDir.toString());
+        inputs.setConfigFile(configFile.toString());
+        inputs.setTaskSamples(0);
+        new DiagnosticService().run(inputs);
+
+        try (ZipFile zip = new ZipFile(outputDir.resolve("test-diagnostics.zip").toFile())) {
+            assertEquals(4096, zip.getEntry("cluster_state.json").getSize());
+            String marker = read(zip, zip.getEntry("cluster_state.truncated.json"));
+            assertTrue(marker.contains("\"limitBytes\" : 4096"));
+            assertEquals("{}", read(zip, zip.getEntry("mapping.json")));
+            assertNull(zip.getEntry("mapping.truncated.json"));
+            assertTrue(read(zip, zip.getEntry("preflight.json")).contains("\"shards\" : 10000"));
+            // A failed statistic leaves nothing behind
+            assertNull(zip.getEntry("cat_shards.txt"));
+            assertNull(zip.getEntry("cat_shards.txt.tmp"));
+        }
+    }
+
+    private static Map<String, Preflight.Entry> byKey(List<Preflight.Entry> entries) {
+        Map<String, Preflight.Entry> map = new HashMap<>();
+        for (Preflight.Entry entry : entries) {
+            map.put(entry.getKey(), entry);
+        }
+        return map;
+    }
+
+    private String readResource(String name) throws IOException {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(name)) {
+            return toString(in);
+        }
+    }
+
+    private static String read(ZipFile zip, ZipEntry entry) throws IOException {
+        try (InputStream in = zip.getInputStream(entry)) {
+            return toString(in);
+        }
+    }
+
+    private static String toString(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,113 @@
+package com.elastic.support.test;
+
+import com.elastic.support.diagnostics.TaskSampler;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TaskSamplerTest {
+
+    private static final String[] RESPONSES = {
+            tasks(task("n1:1", "indices:data/write/reindex", 6000), task("n1:2", "indices:data/read/search", 10)),
+            tasks(task("n1:1", "indices:data/write/reindex", 7000), task("n1:3", "indices:data/read/search", 20)),
+            null,
+            tasks(task("n1:4", "indices:data/read/search", 6500), task("n1:5", "indices:data/read/search", 5)),
+    };
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/_tasks", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = RESPONSES[requests.getAndIncrement()];
+                if (body == null) {
+                    exchange.sendResponseHeaders(500, -1);
+                } else {
+                    byte[] bytes = body.getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(bytes);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void cleanup() {
+        server.stop(0);
+    }
+
+    @Test
+    public void tracksLongRunningTasksAcrossSamples() throws Exception {
+
+        String url = "http://127.0.0.1:" + server.getAddress().getPort();
+        TaskSampler sampler = new TaskSampler(new RestTemplate(), url, "_tasks?detailed", new HttpEntity<String>(""), 5000);
+        sampler.sample(RESPONSES.length, 1);
+
+        assertEquals(RESPONSES.length, requests.get());
+
+        List<TaskSampler.Task> longRunning = sampler.getLongRunning();
+        assertEquals(2, longRunning.size());
+
+        TaskSampler.Task reindex = longRunning.get(0);
+        assertEquals("n1:1", reindex.getId());
+        assertEquals("node-1", reindex.getNode());
+        assertEquals(7000, reindex.getRunningMillis());
+        assertEquals(2, reindex.getSamples());
+        assertTrue(reindex.isFinished());
+
+        TaskSampler.Task search = longRunning.get(1);
+        assertEquals("n1:4", search.getId());
+        assertFalse(search.isFinished());
+
+        Map<String, Object> summary = sampler.getSummary();
+        assertEquals(3, summary.get("samples"));
+        assertEquals(1, summary.get("failedSamples"));
+        Map<String, Integer> concurrent = (Map<String, Integer>) summary.get("maxConcurrentByAction");
+        assertEquals(Integer.valueOf(2), concurrent.get("indices:data/read/search"));
+        assertEquals(Integer.valueOf(1), concurrent.get("indices:data/write/reindex"));
+    }
+
+    @Test
+    public void tasksArrivedIn23() {
+        assertFalse(TaskSampler.supportsTasks("1.7.5"));
+        assertFalse(TaskSampler.supportsTasks("2.2.0"));
+        assertTrue(TaskSampler.supportsTasks("2.3.0"));
+        assertTrue(TaskSampler.supportsTasks("5.0.0-alpha1"));
+    }
+
+    private static String tasks(String... tasks) {
+        StringBuilder sb = new StringBuilder("{\"nodes\":{\"n1\":{\"name\":\"node-1\",\"host\":\"127.0.0.1\",\"tasks\":{");
+        for (int i = 0; i < tasks.length; i++) {
+            sb.append(i == 0 ? "" : ",").append(tasks[i]);
+        }
+        return sb.append("}}}}").toString();
+    }
+
+    private static String task(String id, String action, long runningMillis) {
+        return "\"" + id + "\":{\"node\":\"n1\",\"id\":" + id.substring(3) + ",\"type\":\"transport\",\"action\":\"" + action
+                + "\",\"description\":\"" + action + " request\",\"start_time_in_millis\":1467000000000,"
+                + "\"running_time_in_nanos\":" + runningMillis * 1000000 + ",\"cancellable\":true}";
+    }
+}
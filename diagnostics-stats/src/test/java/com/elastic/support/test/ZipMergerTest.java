@@ -0,0 +1,178 @@
+package com.elastic.support.test;
+
+import com.elastic.support.MergeParams;
+import com.elastic.support.SystemUtils;
+import com.elastic.support.archive.MergeService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ZipMergerTest {
+
+    private File dir;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("merge").toFile();
+    }
+
+    @After
+    public void cleanup() {
+        SystemUtils.deleteDir(dir.getPath());
+    }
+
+    @Test
+    public void mergesWithHostPrefixes() throws Exception {
+
+        byte[] log = new byte[2 * 1024 * 1024];
+        Random random = new Random(7);
+        for (int i = 0; i < log.length; i++) {
+            log[i] = (byte) ('a' + random.nextInt(4));
+        }
+
+        Map<String, byte[]> stats = new LinkedHashMap<>();
+        stats.put("nodes.json", "{\"nodes\":{}}".getBytes("UTF-8"));
+        stats.put("manifest.json", "{\"clusterName\":\"test\"}".getBytes("UTF-8"));
+        writeZip(new File(dir, "test-diagnostics.zip"), stats, false);
+
+        Map<String, byte[]> host1 = new LinkedHashMap<>();
+        host1.put("node1/", new byte[0]);
+        host1.put("node1/test.log", log);
+        writeZip(new File(dir, "diagnostics-artifacts-test-host-1.zip"), host1, false);
+
+        Map<String, byte[]> host2 = new LinkedHashMap<>();
+        host2.put("node2/elasticsearch.yml", "cluster.name: test\n".getBytes("UTF-8"));
+        writeZip(new File(dir, "diagnostics-artifacts-test-host2.zip"), host2, true);
+
+        MergeParams params = new MergeParams();
+        params.setCluster("test");
+        params.setDir(dir.getPath());
+        String merged = new MergeService().run(params);
+
+        Map<String, byte[]> expected = new LinkedHashMap<>(stats);
+        expected.put("host-1/node1/", new byte[0]);
+        expected.put("host-1/node1/test.log", log);
+        expected.put("host2/node2/elasticsearch.yml", host2.get("node2/elasticsearch.yml"));
+
+        // The central directory and the local headers both have to be right
+        try (ZipFile zip = new ZipFile(merged)) {
+            assertEquals(expected.size(), zip.size());
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                ZipEntry ze = zip.getEntry(entry.getKey());
+                assertNotNull(entry.getKey(), ze);
+                assertArrayEquals(entry.getKey(), entry.getValue(), read(zip.getInputStream(ze)));
+            }
+        }
+        assertEquals(expected.keySet(), readSequentially(new File(merged)).keySet());
+
+        // The log was copied compressed rather than inflated and deflated again
+        assertTrue(new File(merged).length() < log.length);
+    }
+
+    @Test
+    public void mergesZip64Archives() throws Exception {
+
+        Map<String, byte[]> many = new LinkedHashMap<>();
+        for (int i = 0; i < 70000; i++) {
+            many.put("node1/shard-" + i + ".json", ("{\"shard\":" + i + "}").getBytes("UTF-8"));
+        }
+        writeZip(new File(dir, "diagnostics-artifacts-test-host1.zip"), many, false);
+
+        MergeParams params = new MergeParams();
+        params.setCluster("test");
+        params.setDir(dir.getPath());
+        String merged = new MergeService().run(params);
+
+        try (ZipFile zip = new ZipFile(merged)) {
+            assertEquals(70000, zip.size());
+            assertEquals("{\"shard\":69999}", new String(read(zip.getInputStream(zip.getEntry("host1/node1/shard-69999.json"))), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void picksCollectorsByTheManifestHosts() throws Exception {
+
+        Map<String, byte[]> stats = new LinkedHashMap<>();
+        stats.put("prod-manifest.json", ("{\"clusterName\":\"prod\",\"nodes\":[{\"name\":\"node1\",\"host\":\"host1\"},"
+                + "{\"name\":\"node2\",\"host\":\"host2\"}]}").getBytes("UTF-8"));
+        writeZip(new File(dir, "prod-diagnostics.zip"), stats, false);
+
+        // host1's archive was split into volumes, and prod-eu is another cluster altogether
+        writeZip(new File(dir, "diagnostics-artifacts-prod-host1.001.zip"),
+                Collections.singletonMap("node1/prod.log", "first".getBytes("UTF-8")), false);
+        writeZip(new File(dir, "diagnostics-artifacts-prod-host1.002.zip"),
+                Collections.singletonMap("node1/prod.log.part2", "second".getBytes("UTF-8")), false);
+        writeZip(new File(dir, "diagnostics-artifacts-prod-host2.zip"),
+                Collections.singletonMap("node2/prod.log", "other".getBytes("UTF-8")), false);
+        writeZip(new File(dir, "diagnostics-artifacts-prod-eu-host1.zip"),
+                Collections.singletonMap("node9/prod-eu.log", "elsewhere".getBytes("UTF-8")), false);
+
+        MergeParams params = new MergeParams();
+        params.setCluster("prod");
+        params.setDir(dir.getPath());
+        Map<String, byte[]> merged = readSequentially(new File(new MergeService().run(params)));
+
+        assertEquals(new HashSet<>(Arrays.asList("prod-manifest.json", "host1/node1/prod.log",
+                "host1/node1/prod.log.part2", "host2/node2/prod.log")), merged.keySet());
+        assertEquals("second", new String(merged.get("host1/node1/prod.log.part2"), "UTF-8"));
+    }
+
+    private static void writeZip(File file, Map<String, byte[]> entries, boolean stored) throws Exception {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ZipEntry ze = new ZipEntry(entry.getKey());
+                if (stored) {
+                    CRC32 crc = new CRC32();
+                    crc.update(entry.getValue());
+                    ze.setMethod(ZipEntry.STORED);
+                    ze.setSize(entry.getValue().length);
+                    ze.setCrc(crc.getValue());
+                }
+                out.putNextEntry(ze);
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static Map<String, byte[]> readSequentially(File file) throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(file))) {
+            ZipEntry ze;
+            while ((ze = in.getNextEntry()) != null) {
+                entries.put(ze.getName(), read(in));
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = in.read(buf)) > 0) {
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+}